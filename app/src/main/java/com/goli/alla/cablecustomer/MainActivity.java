@@ -1,43 +1,55 @@
 package com.goli.alla.cablecustomer;
 
 
-import android.database.Cursor;
-import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.DividerItemDecoration;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
 import com.goli.alla.cablecustomer.adapter.CustomerAdapter;
+import com.goli.alla.cablecustomer.adapter.CustomerPageSource;
 import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
-import com.goli.alla.cablecustomer.utilities.FakeDataUtils;
+import com.goli.alla.cablecustomer.metrics.LatencyHistogram;
+import com.goli.alla.cablecustomer.metrics.Metrics;
+import com.goli.alla.cablecustomer.utilities.StartupUtils;
+
+import java.util.concurrent.TimeUnit;
 
 import static android.widget.LinearLayout.HORIZONTAL;
 
 public class MainActivity extends AppCompatActivity
-        implements LoaderManager.LoaderCallbacks<Cursor>,
-        CustomerAdapter.CustomerAdapterListItemClickHandler {
+        implements CustomerAdapter.CustomerAdapterListItemClickHandler {
 
     private final String LOG_TAG = MainActivity.class.getSimpleName();
 
     private CustomerAdapter mCustomerAdapter;
 
+    private CustomerPageSource mCustomerPageSource;
+
     private RecyclerView mRecyclerViewCustomer;
 
     private ProgressBar mLoadingIndicator;
 
-    private int mPosition = RecyclerView.NO_POSITION;
-
     private Toast mToast;
 
+    /* When the app started, used to measure the cold start time. */
+    private long mStartUptimeMillis;
+
+    /* The cold start time is only meaningful for the first Activity of the process. */
+    private static boolean sFirstRowReported;
+
+    /* The cold start time, next to the provider and adapter timings; see Metrics. */
+    private static final LatencyHistogram COLD_START_LATENCY = Metrics.histogram("app.cold_start");
+
 
     //  Create a String array containing the names of the desired data columns from our ContentProvider
     /*
@@ -71,18 +83,16 @@ public class MainActivity extends AppCompatActivity
     public static final int INDEX_COLUMN_CITY = 7;
     public static final int INDEX_COLUMN_STATE = 8;
 
-    /*
-    * This ID will be used to identify the Loader responsible for loading our weather forecast. In
-    * some cases, one Activity can deal with many Loaders. However, in our case, there is only one.
-    * We will still use this ID to initialize the loader and create the loader for best practice.
-    * Please note that 44 was chosen arbitrarily. You can use whatever number you like, so long as
-    * it is unique and consistent.
-    */
-    private static final int ID_CUSTOMER_LOADER = 16;
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            mStartUptimeMillis = Process.getStartUptimeMillis();
+        } else {
+            mStartUptimeMillis = SystemClock.uptimeMillis();
+        }
+
         setContentView(R.layout.activity_main);
 
         Log.d(LOG_TAG , "onCreate : called " );
@@ -141,98 +151,64 @@ public class MainActivity extends AppCompatActivity
 
         showLoading();
 
-         /*
-         * Ensures a loader is initialized and active. If the loader doesn't already exist, one is
-         * created and (if the activity/fragment is currently started) starts the loader. Otherwise
-         * the last created loader is re-used.
-         */
-        getSupportLoaderManager().initLoader(ID_CUSTOMER_LOADER, null, this);
-
-        Uri uri = CustomerEntry.CONTENT_URI;
-        getContentResolver().delete(uri, null, null);
-
-        FakeDataUtils.insertFakeData(this);
-    }
+        /* Show the list as soon as the first page of customers arrives. */
+        mCustomerAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                showCustomerDataView();
+                reportFirstRowDrawn();
+            }
+        });
 
-    /**
-     * Called by the {@link android.support.v4.app.LoaderManagerImpl} when a new Loader needs to be
-     * created. This Activity only uses one loader, so we don't necessarily NEED to check the
-     * loaderId, but this is certainly best practice.
-     *
-     * @param loaderId The loader ID for which we need to create a loader
-     * @param bundle   Any arguments supplied by the caller
-     * @return A new Loader instance that is ready to start loading.
-     */
+        /*
+         * The list is loaded page by page as the user scrolls, rather than with one Cursor over
+         * the whole customer table, so memory use doesn't depend on the size of the table.
+         */
+        mCustomerPageSource = new CustomerPageSource(this);
+        mCustomerAdapter.setPageSource(mCustomerPageSource);
 
-    @Override
-    public Loader<Cursor> onCreateLoader(int loaderId, Bundle bundle) {
-
-        switch (loaderId) {
-            // If the loader requested is our customer loader, return the appropriate CursorLoader
-            case ID_CUSTOMER_LOADER:
-                /* URI for all rows of Customer data in our weather table */
-                Uri customerQueryUri = CustomerEntry.CONTENT_URI;
-                /* Sort order: Ascending by date */
-                String sortOrder = CustomerEntry.COLUMN_TIMESTAMP + " DESC";
-                /*
-                 * A SELECTION in SQL declares which rows you'd like to return. In our case, we
-                 * want all weather data from today onwards that is stored in our weather table.
-                 * We created a handy method to do that in our WeatherEntry class.
-                 */
-                //String selection = CustomerEntry.getSqlSelectForTodayOnwards();
-                CursorLoader cursor =  new CursorLoader(this,
-                        customerQueryUri,
-                        MAIN_CUSTOMER_PROJECTION,
-                        null,
-                        null,
-                        sortOrder);
-
-                Log.d(LOG_TAG , "onCreateLoader : No of rows fetched " + cursor.getUri());
-                return cursor;
-            default:
-                throw new RuntimeException("Loader Not Implemented: " + loaderId);
-        }
+        /*
+         * Database warm-up and (in debug builds) seeding happen on a background thread. The list
+         * above renders whatever customers are already stored in the meantime.
+         */
+        StartupUtils.initialize(this);
     }
 
     /**
-     * Called when a Loader has finished loading its data.
-     *
-     * NOTE: There is one small bug in this code. If no data is present in the cursor do to an
-     * initial load being performed with no access to internet, the loading indicator will show
-     * indefinitely, until data is present from the ContentProvider. This will be fixed in a
-     * future version of the course.
-     *
-     * @param loader The Loader that has finished.
-     * @param cursorData   The data generated by the Loader.
+     * Reports the cold start time: the time from process start (or from the creation of this
+     * Activity on devices that can't tell us when the process started) until the first frame that
+     * shows customer rows. It is recorded in the app.cold_start histogram of the metrics dump,
+     * logged, and also reported to the system with reportFullyDrawn, which shows up as
+     * "Fully drawn" in logcat.
      */
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursorData) {
-        mCustomerAdapter.swapCursor(cursorData);
-        //If mPosition equals RecyclerView.NO_POSITION, set it to 0
-        Log.d(LOG_TAG , "onLoadFinished : No of rows fetched " + cursorData.getCount());
-        if (mPosition == RecyclerView.NO_POSITION)
-            mPosition = 0;
-        // Smooth scroll the RecyclerView to mPosition
-        mRecyclerViewCustomer.smoothScrollToPosition(mPosition);
-
-        // If the Cursor's size is not equal to 0, call showWeatherDataView
-        if (cursorData.getCount() != 0)
-            showCustomerDataView();
+    private void reportFirstRowDrawn() {
+        if (sFirstRowReported) return;
+        sFirstRowReported = true;
+
+        mRecyclerViewCustomer.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        if (mRecyclerViewCustomer.getChildCount() == 0) {
+                            return true;
+                        }
+                        mRecyclerViewCustomer.getViewTreeObserver().removeOnPreDrawListener(this);
+                        long coldStartMs = SystemClock.uptimeMillis() - mStartUptimeMillis;
+                        if (Metrics.ENABLED) {
+                            COLD_START_LATENCY.record(TimeUnit.MILLISECONDS.toNanos(coldStartMs));
+                        }
+                        Log.i(LOG_TAG, "Cold start: first customer row drawn after " +
+                                coldStartMs + " ms");
+                        reportFullyDrawn();
+                        return true;
+                    }
+                });
     }
 
-    /**
-     * Called when a previously created loader is being reset, and thus making its data unavailable.
-     * The application should at this point remove any references it has to the Loader's data.
-     *
-     * @param loader The Loader that is being reset.
-     */
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        /*
-         * Since this Loader's data is now invalid, we need to clear the Adapter that is
-         * displaying the data.
-         */
-        mCustomerAdapter.swapCursor(null);
+    protected void onDestroy() {
+        super.onDestroy();
+        mCustomerPageSource.close();
     }
 
     /**
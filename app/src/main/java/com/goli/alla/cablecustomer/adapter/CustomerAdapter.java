@@ -4,7 +4,6 @@ import android.content.Context;
 import android.database.Cursor;
 import android.support.annotation.NonNull;
 import android.support.v7.widget.RecyclerView;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -13,12 +12,16 @@ import android.widget.TextView;
 import com.goli.alla.cablecustomer.MainActivity;
 import com.goli.alla.cablecustomer.R;
 import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.metrics.Counter;
+import com.goli.alla.cablecustomer.metrics.LatencyHistogram;
+import com.goli.alla.cablecustomer.metrics.Metrics;
 
 /**
  * Created by Amani on 28-12-2017.
  */
 
-public class CustomerAdapter extends RecyclerView.Adapter<CustomerAdapter.CustomerAdapterViewHolder>{
+public class CustomerAdapter extends RecyclerView.Adapter<CustomerAdapter.CustomerAdapterViewHolder>
+        implements CustomerPageSource.Listener {
 
     /** Tag for the log messages */
     public static final String LOG_TAG = CustomerAdapter.class.getSimpleName();
@@ -28,6 +31,16 @@ public class CustomerAdapter extends RecyclerView.Adapter<CustomerAdapter.Custom
 
     private Cursor mCursor;
 
+    /* Timings of creating and binding rows; only recorded when Metrics.ENABLED. */
+    private static final LatencyHistogram INFLATE_LATENCY = Metrics.histogram("adapter.inflate");
+    private static final LatencyHistogram BIND_LATENCY = Metrics.histogram("adapter.bind");
+
+    /* Rows bound empty because their page was still loading. */
+    private static final Counter ROWS_NOT_LOADED = Metrics.counter("adapter.rows_not_loaded");
+
+    /* When set, rows come page by page from this source instead of from mCursor. */
+    private CustomerPageSource mPageSource;
+
     /*
     * Below, we've defined an interface to handle clicks on items within this Adapter. In the
     * constructor of our ForecastAdapter, we receive an instance of a class that has implemented
@@ -68,13 +81,14 @@ public class CustomerAdapter extends RecyclerView.Adapter<CustomerAdapter.Custom
      */
     @Override
     public CustomerAdapterViewHolder onCreateViewHolder(ViewGroup viewGroup, int viewType) {
-        Log.d(LOG_TAG , "onCreateViewHolder : called " );
+        long startNanos = Metrics.ENABLED ? System.nanoTime() : 0;
         int customerListItemLayout = R.layout.customer_list_item;
         LayoutInflater layoutInflater = LayoutInflater.from(mContext);
         boolean shouldAttachToParentImmediately = false;
         View view = layoutInflater.inflate(customerListItemLayout, viewGroup, shouldAttachToParentImmediately);
         CustomerAdapterViewHolder customerAdapterViewHolder = new CustomerAdapterViewHolder(view);
 
+        if (Metrics.ENABLED) INFLATE_LATENCY.recordSince(startNanos);
         return customerAdapterViewHolder;
     }
 
@@ -90,17 +104,69 @@ public class CustomerAdapter extends RecyclerView.Adapter<CustomerAdapter.Custom
      */
     @Override
     public void onBindViewHolder(CustomerAdapterViewHolder customerAdapterViewHolder, int position) {
-        Log.d(LOG_TAG , "onBindViewHolder : called " );
-        mCursor.moveToPosition(position);
+        long startNanos = Metrics.ENABLED ? System.nanoTime() : 0;
+        bindRow(customerAdapterViewHolder, position);
+        if (Metrics.ENABLED) BIND_LATENCY.recordSince(startNanos);
+    }
+
+    private void bindRow(CustomerAdapterViewHolder customerAdapterViewHolder, int position) {
+        if (mPageSource != null) {
+            /*
+             * Page rows come from a CustomerListSnapshot, which binds straight from its arrays
+             * without creating any Strings.
+             */
+            CustomerListSnapshot snapshot = mPageSource.getRow(position);
+            if (snapshot == null) {
+                /* The row's page is still being loaded; show an empty row until it arrives. */
+                if (Metrics.ENABLED) ROWS_NOT_LOADED.increment();
+                clearRow(customerAdapterViewHolder);
+                return;
+            }
+            snapshot.setFirstName(customerAdapterViewHolder.mFirstName);
+            snapshot.setLastName(customerAdapterViewHolder.mLastName);
+            snapshot.setAddress1(customerAdapterViewHolder.mAddress1);
+            snapshot.setAptNum(customerAdapterViewHolder.mAptNum);
+            snapshot.setCity(customerAdapterViewHolder.mCity);
+            snapshot.setState(customerAdapterViewHolder.mState);
+            return;
+        }
+
+        Cursor cursor = moveToPosition(position);
+        if (cursor == null) {
+            clearRow(customerAdapterViewHolder);
+            return;
+        }
+
+        customerAdapterViewHolder.mFirstName.setText(cursor.getString(MainActivity.INDEX_COLUMN_NAME_FIRST));
+        customerAdapterViewHolder.mLastName.setText(cursor.getString(MainActivity.INDEX_COLUMN_NAME_LAST));
+        //customerAdapterViewHolder.mMiddleName.setText(cursor.getString(MainActivity.INDEX_COLUMN_NAME_MIDDLE));
+        customerAdapterViewHolder.mAddress1.setText(cursor.getString(MainActivity.INDEX_COLUMN_ADDRESS1));
+        customerAdapterViewHolder.mAptNum.setText(cursor.getString(MainActivity.INDEX_COLUMN_APTNUM));
+        customerAdapterViewHolder.mCity.setText(cursor.getString(MainActivity.INDEX_COLUMN_CITY));
+        customerAdapterViewHolder.mState.setText(cursor.getString(MainActivity.INDEX_COLUMN_STATE));
+
+    }
 
-        customerAdapterViewHolder.mFirstName.setText(mCursor.getString(MainActivity.INDEX_COLUMN_NAME_FIRST));
-        customerAdapterViewHolder.mLastName.setText(mCursor.getString(MainActivity.INDEX_COLUMN_NAME_LAST));
-        //customerAdapterViewHolder.mMiddleName.setText(mCursor.getString(MainActivity.INDEX_COLUMN_NAME_MIDDLE));
-        customerAdapterViewHolder.mAddress1.setText(mCursor.getString(MainActivity.INDEX_COLUMN_ADDRESS1));
-        customerAdapterViewHolder.mAptNum.setText(mCursor.getString(MainActivity.INDEX_COLUMN_APTNUM));
-        customerAdapterViewHolder.mCity.setText(mCursor.getString(MainActivity.INDEX_COLUMN_CITY));
-        customerAdapterViewHolder.mState.setText(mCursor.getString(MainActivity.INDEX_COLUMN_STATE));
+    private static void clearRow(CustomerAdapterViewHolder customerAdapterViewHolder) {
+        customerAdapterViewHolder.mFirstName.setText(null);
+        customerAdapterViewHolder.mLastName.setText(null);
+        customerAdapterViewHolder.mAddress1.setText(null);
+        customerAdapterViewHolder.mAptNum.setText(null);
+        customerAdapterViewHolder.mCity.setText(null);
+        customerAdapterViewHolder.mState.setText(null);
+    }
 
+    /**
+     * Moves the cursor to the given position.
+     *
+     * @param position The position of the item within the adapter's data set.
+     * @return A Cursor pointing at the row, or null if the row isn't available
+     */
+    private Cursor moveToPosition(int position) {
+        if (mCursor == null || !mCursor.moveToPosition(position)) {
+            return null;
+        }
+        return mCursor;
     }
 
     /**
@@ -111,7 +177,7 @@ public class CustomerAdapter extends RecyclerView.Adapter<CustomerAdapter.Custom
      */
     @Override
     public int getItemCount() {
-        Log.d(LOG_TAG , "getItemCount : called " );
+        if (null != mPageSource) return mPageSource.getCount();
         if (null == mCursor) return 0;
         return mCursor.getCount();
     }
@@ -133,7 +199,6 @@ public class CustomerAdapter extends RecyclerView.Adapter<CustomerAdapter.Custom
 
         public CustomerAdapterViewHolder(View itemView) {
             super(itemView);
-            Log.d(LOG_TAG , "CustomerAdapterViewHolder : called " );
             mFirstName = itemView.findViewById(R.id.tv_firstName);
             mLastName = itemView.findViewById(R.id.tv_lastName);
            // mMiddleName = itemView.findViewById(R.id.tv_middleName);
@@ -148,8 +213,18 @@ public class CustomerAdapter extends RecyclerView.Adapter<CustomerAdapter.Custom
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int customerId = mCursor.getInt(MainActivity.INDEX_COLUMN_ID);
+            /* The row is being removed or laid out again; it isn't in the data set any more. */
+            if (adapterPosition == RecyclerView.NO_POSITION) return;
+            int customerId;
+            if (mPageSource != null) {
+                CustomerListSnapshot snapshot = mPageSource.getRow(adapterPosition);
+                if (snapshot == null) return;
+                customerId = (int) snapshot.getId();
+            } else {
+                Cursor cursor = moveToPosition(adapterPosition);
+                if (cursor == null) return;
+                customerId = cursor.getInt(MainActivity.INDEX_COLUMN_ID);
+            }
             mClickHandler.onListItemClick(customerId);
         }
     }
@@ -166,4 +241,44 @@ public class CustomerAdapter extends RecyclerView.Adapter<CustomerAdapter.Custom
         mCursor = newCursor;
         notifyDataSetChanged();
     }
+
+    /**
+     * Makes the adapter show the rows of a page source instead of a Cursor. The adapter starts the
+     * source and then receives its changes through the CustomerPageSource.Listener methods.
+     * Passing null goes back to the Cursor set with swapCursor.
+     *
+     * @param pageSource The page source to display, or null
+     */
+    public void setPageSource(CustomerPageSource pageSource) {
+        mPageSource = pageSource;
+        notifyDataSetChanged();
+        if (pageSource != null) {
+            pageSource.start(this);
+        }
+    }
+
+    @Override
+    public void onItemRangeInserted(int positionStart, int itemCount) {
+        notifyItemRangeInserted(positionStart, itemCount);
+    }
+
+    @Override
+    public void onItemRangeRemoved(int positionStart, int itemCount) {
+        notifyItemRangeRemoved(positionStart, itemCount);
+    }
+
+    @Override
+    public void onItemRangeChanged(int positionStart, int itemCount) {
+        notifyItemRangeChanged(positionStart, itemCount);
+    }
+
+    @Override
+    public void onItemMoved(int fromPosition, int toPosition) {
+        notifyItemMoved(fromPosition, toPosition);
+    }
+
+    @Override
+    public void onDataSetChanged() {
+        notifyDataSetChanged();
+    }
 }
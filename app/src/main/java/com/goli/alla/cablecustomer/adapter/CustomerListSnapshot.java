@@ -0,0 +1,327 @@
+package com.goli.alla.cablecustomer.adapter;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.support.annotation.WorkerThread;
+import android.widget.TextView;
+
+import com.goli.alla.cablecustomer.MainActivity;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A read-only copy of rows of the customer list, stored column by column in primitive arrays, so
+ * binding a row to the list doesn't allocate anything.
+ * <p>
+ * Reading a row from a Cursor creates a new String for every getString call, which during a fling
+ * means seven Strings per bound row and a steady stream of garbage collections. A snapshot is
+ * read from the Cursor once, on a background thread, and afterwards:
+ * <ul>
+ * <li>_ID and the timestamp are kept in long arrays;</li>
+ * <li>city, state and last name repeat a lot, so each distinct value is stored once in a
+ * dictionary and rows only hold its index;</li>
+ * <li>first name, address and apartment number are packed one after the other into a single
+ * char array per column, and bound with TextView#setText(char[], int, int), which reuses the
+ * TextView's own wrapper around the array.</li>
+ * </ul>
+ * Like a Cursor, a snapshot has a current row, set with {@link #moveToPosition(int)}; the getters
+ * and setters read the current row. The current row must only be used from the main thread.
+ * <p>
+ * The source Cursor must contain the MainActivity.MAIN_CUSTOMER_PROJECTION columns.
+ */
+public class CustomerListSnapshot {
+
+    /**
+     * The value of {@link #getTimestamp()} for a row without a timestamp. It is the smallest
+     * value, so in the newest-first order it comes last, like NULL does in SQLite.
+     */
+    public static final long NULL_TIMESTAMP = Long.MIN_VALUE;
+
+    private final int mCount;
+
+    private final long[] mIds;
+
+    /* See parseTimestamp: the digits of the timestamp as a number, which sorts the same way. */
+    private final long[] mTimestamps;
+
+    private final DictionaryColumn mLastNames;
+    private final DictionaryColumn mCities;
+    private final DictionaryColumn mStates;
+
+    private final PackedColumn mFirstNames;
+    private final PackedColumn mAddresses;
+    private final PackedColumn mAptNums;
+
+    private int mPosition = -1;
+
+    /* Each distinct value once, and for every row the index of its value. */
+    private static class DictionaryColumn {
+        final String[] mValues;
+        final int[] mCodes;
+
+        DictionaryColumn(String[] values, int[] codes) {
+            mValues = values;
+            mCodes = codes;
+        }
+
+        String get(int row) {
+            return mValues[mCodes[row]];
+        }
+    }
+
+    /* The values of all rows one after the other; row i is chars[offsets[i]..offsets[i + 1]). */
+    private static class PackedColumn {
+        final char[] mChars;
+        final int[] mOffsets;
+
+        PackedColumn(char[] chars, int[] offsets) {
+            mChars = chars;
+            mOffsets = offsets;
+        }
+
+        void setText(TextView view, int row) {
+            view.setText(mChars, mOffsets[row], mOffsets[row + 1] - mOffsets[row]);
+        }
+
+        String get(int row) {
+            return new String(mChars, mOffsets[row], mOffsets[row + 1] - mOffsets[row]);
+        }
+    }
+
+    /* Builds a DictionaryColumn while reading the rows. */
+    private static class DictionaryBuilder {
+        final Map<String, Integer> mCodesByValue = new HashMap<>();
+        final int[] mCodes;
+
+        DictionaryBuilder(int count) {
+            mCodes = new int[count];
+            /* Code 0 is NULL. */
+            mCodesByValue.put(null, 0);
+        }
+
+        void add(int row, String value) {
+            Integer code = mCodesByValue.get(value);
+            if (code == null) {
+                code = mCodesByValue.size();
+                mCodesByValue.put(value, code);
+            }
+            mCodes[row] = code;
+        }
+
+        DictionaryColumn build() {
+            String[] values = new String[mCodesByValue.size()];
+            for (Map.Entry<String, Integer> entry : mCodesByValue.entrySet()) {
+                values[entry.getValue()] = entry.getKey();
+            }
+            return new DictionaryColumn(values, mCodes);
+        }
+    }
+
+    /* Builds a PackedColumn while reading the rows, growing its char array as needed. */
+    private static class PackedBuilder {
+        char[] mChars;
+        int mLength;
+        final int[] mOffsets;
+
+        PackedBuilder(int count) {
+            mChars = new char[Math.max(16, count * 12)];
+            mOffsets = new int[count + 1];
+        }
+
+        void add(int row, CharArrayBuffer buffer) {
+            if (mLength + buffer.sizeCopied > mChars.length) {
+                char[] chars = new char[Math.max(mChars.length * 2, mLength + buffer.sizeCopied)];
+                System.arraycopy(mChars, 0, chars, 0, mLength);
+                mChars = chars;
+            }
+            System.arraycopy(buffer.data, 0, mChars, mLength, buffer.sizeCopied);
+            mLength += buffer.sizeCopied;
+            mOffsets[row + 1] = mLength;
+        }
+
+        PackedColumn build() {
+            if (mChars.length != mLength) {
+                char[] chars = new char[mLength];
+                System.arraycopy(mChars, 0, chars, 0, mLength);
+                mChars = chars;
+            }
+            return new PackedColumn(mChars, mOffsets);
+        }
+    }
+
+    private CustomerListSnapshot(int count, long[] ids, long[] timestamps,
+                                 DictionaryColumn lastNames, DictionaryColumn cities,
+                                 DictionaryColumn states, PackedColumn firstNames,
+                                 PackedColumn addresses, PackedColumn aptNums) {
+        mCount = count;
+        mIds = ids;
+        mTimestamps = timestamps;
+        mLastNames = lastNames;
+        mCities = cities;
+        mStates = states;
+        mFirstNames = firstNames;
+        mAddresses = addresses;
+        mAptNums = aptNums;
+    }
+
+    /**
+     * Reads every row of a Cursor into a new snapshot. The Cursor is left open.
+     *
+     * @param cursor A Cursor with the MainActivity.MAIN_CUSTOMER_PROJECTION columns
+     * @return The snapshot
+     */
+    @WorkerThread
+    public static CustomerListSnapshot fromCursor(Cursor cursor) {
+        int count = cursor.getCount();
+        long[] ids = new long[count];
+        long[] timestamps = new long[count];
+        DictionaryBuilder lastNames = new DictionaryBuilder(count);
+        DictionaryBuilder cities = new DictionaryBuilder(count);
+        DictionaryBuilder states = new DictionaryBuilder(count);
+        PackedBuilder firstNames = new PackedBuilder(count);
+        PackedBuilder addresses = new PackedBuilder(count);
+        PackedBuilder aptNums = new PackedBuilder(count);
+
+        /* The packed columns are copied straight out of the CursorWindow, without a String. */
+        CharArrayBuffer buffer = new CharArrayBuffer(64);
+        for (int row = 0; row < count && cursor.moveToPosition(row); row++) {
+            ids[row] = cursor.getLong(MainActivity.INDEX_COLUMN_ID);
+
+            cursor.copyStringToBuffer(MainActivity.INDEX_COLUMN_TIMESTAMP, buffer);
+            timestamps[row] = cursor.isNull(MainActivity.INDEX_COLUMN_TIMESTAMP)
+                    ? NULL_TIMESTAMP
+                    : parseTimestamp(buffer.data, buffer.sizeCopied);
+
+            lastNames.add(row, cursor.getString(MainActivity.INDEX_COLUMN_NAME_LAST));
+            cities.add(row, cursor.getString(MainActivity.INDEX_COLUMN_CITY));
+            states.add(row, cursor.getString(MainActivity.INDEX_COLUMN_STATE));
+
+            cursor.copyStringToBuffer(MainActivity.INDEX_COLUMN_NAME_FIRST, buffer);
+            firstNames.add(row, buffer);
+            cursor.copyStringToBuffer(MainActivity.INDEX_COLUMN_ADDRESS1, buffer);
+            addresses.add(row, buffer);
+            cursor.copyStringToBuffer(MainActivity.INDEX_COLUMN_APTNUM, buffer);
+            aptNums.add(row, buffer);
+        }
+
+        return new CustomerListSnapshot(count, ids, timestamps,
+                lastNames.build(), cities.build(), states.build(),
+                firstNames.build(), addresses.build(), aptNums.build());
+    }
+
+    /**
+     * Turns a timestamp into a number that sorts the same way. The timestamps are all written by
+     * SQLite's CURRENT_TIMESTAMP ("2017-12-28 14:05:09"), a fixed width format, so the number
+     * formed by their digits (20171228140509) orders them exactly like the Strings do.
+     */
+    static long parseTimestamp(char[] chars, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char ch = chars[i];
+            if (ch >= '0' && ch <= '9' && value < Long.MAX_VALUE / 10) {
+                value = value * 10 + (ch - '0');
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return The number of rows in the snapshot
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Makes a row the current row.
+     *
+     * @param position The row
+     * @return false if the position is out of range
+     */
+    public boolean moveToPosition(int position) {
+        if (position < 0 || position >= mCount) {
+            mPosition = -1;
+            return false;
+        }
+        mPosition = position;
+        return true;
+    }
+
+    /**
+     * @return The _ID of a row; doesn't move the current row
+     */
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    /**
+     * @return The timestamp of a row as a sortable number (see parseTimestamp); doesn't move the
+     * current row
+     */
+    public long getTimestamp(int position) {
+        return mTimestamps[position];
+    }
+
+    public long getId() {
+        return mIds[mPosition];
+    }
+
+    public long getTimestamp() {
+        return mTimestamps[mPosition];
+    }
+
+    public String getLastName() {
+        return mLastNames.get(mPosition);
+    }
+
+    public String getCity() {
+        return mCities.get(mPosition);
+    }
+
+    public String getState() {
+        return mStates.get(mPosition);
+    }
+
+    /* The packed columns allocate a String when read this way; bind them with the setters. */
+    public String getFirstName() {
+        return mFirstNames.get(mPosition);
+    }
+
+    public String getAddress1() {
+        return mAddresses.get(mPosition);
+    }
+
+    public String getAptNum() {
+        return mAptNums.get(mPosition);
+    }
+
+    /*
+     * The setters below show a column of the current row in a TextView without allocating:
+     * dictionary values are existing Strings, packed values are passed as a range of the array.
+     */
+
+    public void setFirstName(TextView view) {
+        mFirstNames.setText(view, mPosition);
+    }
+
+    public void setLastName(TextView view) {
+        view.setText(mLastNames.get(mPosition));
+    }
+
+    public void setAddress1(TextView view) {
+        mAddresses.setText(view, mPosition);
+    }
+
+    public void setAptNum(TextView view) {
+        mAptNums.setText(view, mPosition);
+    }
+
+    public void setCity(TextView view) {
+        view.setText(mCities.get(mPosition));
+    }
+
+    public void setState(TextView view) {
+        view.setText(mStates.get(mPosition));
+    }
+}
@@ -0,0 +1,692 @@
+package com.goli.alla.cablecustomer.adapter;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+
+import com.goli.alla.cablecustomer.MainActivity;
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.metrics.Counter;
+import com.goli.alla.cablecustomer.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the customer list one page at a time using keyset (seek) pagination, so the list never
+ * needs a Cursor over the whole table.
+ * <p>
+ * Every page is a query of about {@link #PAGE_SIZE} rows that easily fits in a single
+ * CursorWindow. The Cursor is read into a {@link CustomerListSnapshot} on the background thread
+ * and closed right away, so binding rows never touches a Cursor. Only {@link #MAX_RESIDENT_PAGES}
+ * pages are kept in memory at any time; pages far away from the rows being displayed are dropped
+ * and only their keyset keys are remembered, so memory stays bounded no matter how big the table
+ * gets. A dropped page is simply loaded again from its keys when the user scrolls back to it.
+ * <p>
+ * Once loaded, a page covers a fixed range of keys: everything after the last row of the previous
+ * page, up to and including its own last row. When CustomerProvider reports a change to a single
+ * customer, only the pages whose ranges held the customer before and after the change are
+ * queried again. The old and new rows of such a page are compared with DiffUtil on the background
+ * thread, matching rows on their _ID and using their timestamp as a version, and the differences
+ * are reported as item inserts, removals, moves and changes rather than as a whole new data set.
+ * A row moving to another page still shows up as a removal from one and an insertion in the
+ * other.
+ * <p>
+ * All page bookkeeping happens on the main thread. Queries run on a single background thread
+ * and their results are handed back to the main thread through a Handler.
+ */
+public class CustomerPageSource {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = CustomerPageSource.class.getSimpleName();
+
+    /* Number of rows fetched by the first query of a page. */
+    static final int PAGE_SIZE = 100;
+
+    /* Maximum number of pages whose rows are kept in memory. */
+    static final int MAX_RESIDENT_PAGES = 8;
+
+    /* Start loading the next page once the user gets this close to the end of the loaded rows. */
+    static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /* Changes to single rows are collected for about a frame before being applied. */
+    private static final long CHANGE_DELAY_MS = 16;
+
+    /* Pages dropped to keep memory bounded; each one costs a query if the user scrolls back. */
+    private static final Counter PAGES_DROPPED = Metrics.counter("adapter.pages_dropped");
+
+    /*
+     * Selects the rows up to and including a key in CustomerEntry.PAGE_SORT_ORDER; the upper
+     * bound of a page range. The lower bound is passed as the "after" query parameter.
+     */
+    private static final String SELECTION_UP_TO_KEY =
+            "(" + CustomerEntry.COLUMN_TIMESTAMP + " > ? OR (" +
+            CustomerEntry.COLUMN_TIMESTAMP + " = ? AND " + CustomerEntry._ID + " >= ?))";
+
+    /* The same for a key without a timestamp: every row with one comes before it. */
+    private static final String SELECTION_UP_TO_NULL_KEY =
+            "(" + CustomerEntry.COLUMN_TIMESTAMP + " IS NOT NULL OR " +
+            CustomerEntry._ID + " >= ?)";
+
+    private static final String[] KEY_PROJECTION = {
+            CustomerEntry._ID,
+            CustomerEntry.COLUMN_TIMESTAMP
+    };
+
+    /**
+     * Receives the changes to the list, so that they can be forwarded to the RecyclerView.
+     */
+    public interface Listener {
+        void onItemRangeInserted(int positionStart, int itemCount);
+
+        void onItemRangeRemoved(int positionStart, int itemCount);
+
+        void onItemRangeChanged(int positionStart, int itemCount);
+
+        void onItemMoved(int fromPosition, int toPosition);
+
+        void onDataSetChanged();
+    }
+
+    /*
+     * One page of the list. The page holds the rows after the key (afterTimestamp, afterId), which
+     * is the last key of the previous page (none for the first page), up to and including
+     * (lastTimestamp, lastId), which is the last key of its first load. A null timestamp is a
+     * customer without one.
+     */
+    private static class Page {
+        final boolean first;
+        final String afterTimestamp;
+        final long afterId;
+        String lastTimestamp;
+        long lastId;
+        boolean loadedOnce;
+        int count;
+        CustomerListSnapshot snapshot;
+        boolean loading;
+        /* Set when the page has to be queried again because rows in its range changed. */
+        boolean dirty;
+        /* _IDs of the rows known to have changed since the page was last loaded. */
+        final Set<Long> changedIds = new HashSet<>();
+
+        Page(boolean first, String afterTimestamp, long afterId) {
+            this.first = first;
+            this.afterTimestamp = afterTimestamp;
+            this.afterId = afterId;
+        }
+    }
+
+    private final ContentResolver mContentResolver;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private final List<Page> mPages = new ArrayList<>();
+
+    /* Number of rows in all the pages loaded so far. */
+    private int mCount;
+
+    /* True once the first load of a page came back with fewer rows than PAGE_SIZE. */
+    private boolean mEndReached;
+
+    /*
+     * Incremented whenever the whole list is thrown away. Results of queries started for an older
+     * generation are discarded.
+     */
+    private int mGeneration;
+
+    /* The position most recently asked for, used to decide which pages to close. */
+    private int mLastAccessedPosition;
+
+    /* _IDs of the customers reported as changed and not processed yet. */
+    private final Set<Long> mPendingChanges = new HashSet<>();
+
+    private Listener mListener;
+
+    private boolean mClosed;
+
+    private final Runnable mProcessChangesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            processChanges();
+        }
+    };
+
+    private final ContentObserver mObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if (uri == null || CustomerEntry.CONTENT_URI.equals(uri)) {
+                /* The whole collection changed, nothing we can do but start over. */
+                invalidate();
+                return;
+            }
+            boolean wasEmpty = mPendingChanges.isEmpty();
+            mPendingChanges.add(ContentUris.parseId(uri));
+            if (wasEmpty) {
+                mMainHandler.postDelayed(mProcessChangesRunnable, CHANGE_DELAY_MS);
+            }
+        }
+    };
+
+    /**
+     * Creates a page source over the customer list, sorted newest first. The pages hold the
+     * MainActivity.MAIN_CUSTOMER_PROJECTION columns.
+     *
+     * @param context Used to get the ContentResolver
+     */
+    public CustomerPageSource(@NonNull Context context) {
+        mContentResolver = context.getContentResolver();
+    }
+
+    /**
+     * Sets the listener receiving list changes and starts loading the first page.
+     */
+    public void start(Listener listener) {
+        mListener = listener;
+        mContentResolver.registerContentObserver(CustomerEntry.CONTENT_URI, true, mObserver);
+        loadNextPage();
+    }
+
+    /**
+     * Drops every page and stops the background thread. The source can't be used again.
+     */
+    public void close() {
+        mClosed = true;
+        mContentResolver.unregisterContentObserver(mObserver);
+        mMainHandler.removeCallbacks(mProcessChangesRunnable);
+        mExecutor.shutdownNow();
+        for (Page page : mPages) {
+            closePage(page);
+        }
+        mPages.clear();
+        mCount = 0;
+    }
+
+    /**
+     * @return The number of rows loaded so far. It grows as the user scrolls down.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the snapshot of the row's page, moved to the row at the given position. Asking for a
+     * row also triggers loading the next page when the position is close to the end, and reloading
+     * the row's page when it was dropped.
+     *
+     * @param position Position of the row in the list
+     * @return The snapshot moved to the row, or null while the row's page is being loaded or
+     *         when there is no row at the position
+     */
+    public CustomerListSnapshot getRow(int position) {
+        if (position < 0 || position >= mCount) return null;
+        mLastAccessedPosition = position;
+
+        if (!mEndReached && position >= mCount - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+
+        int pageStart = 0;
+        for (int i = 0; i < mPages.size(); i++) {
+            Page page = mPages.get(i);
+            if (position < pageStart + page.count) {
+                if (page.snapshot == null) {
+                    loadPage(page);
+                    return null;
+                }
+                if (!page.snapshot.moveToPosition(position - pageStart)) return null;
+                return page.snapshot;
+            }
+            pageStart += page.count;
+        }
+        return null;
+    }
+
+    /**
+     * Throws away all the pages and starts again from the first one. Used when the table changed
+     * in a way we can't map onto individual rows.
+     */
+    public void invalidate() {
+        if (mClosed) return;
+        mGeneration++;
+        for (Page page : mPages) {
+            closePage(page);
+        }
+        mPages.clear();
+        mPendingChanges.clear();
+        mCount = 0;
+        mEndReached = false;
+        if (mListener != null) mListener.onDataSetChanged();
+        loadNextPage();
+    }
+
+    /*
+     * Appends a page after the last loaded one, unless that one is still loading (its last key is
+     * not known yet) or the end of the list was reached.
+     */
+    private void loadNextPage() {
+        if (mClosed || mEndReached) return;
+
+        Page page;
+        if (mPages.isEmpty()) {
+            page = new Page(true, null, 0);
+        } else {
+            Page last = mPages.get(mPages.size() - 1);
+            if (!last.loadedOnce) return;
+            page = new Page(false, last.lastTimestamp, last.lastId);
+        }
+        mPages.add(page);
+        loadPage(page);
+    }
+
+    private void loadPage(final Page page) {
+        if (page.loading) return;
+        page.loading = true;
+        page.dirty = false;
+
+        final int generation = mGeneration;
+        /* Diffed against the new rows in the background; they are not changed once loaded. */
+        final CustomerListSnapshot oldSnapshot = page.snapshot;
+        /* Rows changed from now on are picked up by the next load. */
+        final Set<Long> changedIds = new HashSet<>(page.changedIds);
+        page.changedIds.clear();
+        final Uri uri;
+        final String selection;
+        final String[] selectionArgs;
+        if (!page.loadedOnce) {
+            /* First load: take the next PAGE_SIZE rows. */
+            uri = page.first
+                    ? CustomerEntry.buildPageUri(PAGE_SIZE)
+                    : CustomerEntry.buildPageUri(PAGE_SIZE, page.afterTimestamp, page.afterId);
+            selection = null;
+            selectionArgs = null;
+        } else {
+            /* Reload: take exactly the rows within the page's key range, however many. */
+            Uri.Builder builder = CustomerEntry.CONTENT_URI.buildUpon();
+            if (!page.first) {
+                builder.appendQueryParameter(CustomerContract.QUERY_PARAMETER_AFTER,
+                        CustomerEntry.buildPageKey(page.afterTimestamp, page.afterId));
+            }
+            uri = builder.build();
+            if (isOpenEnded(page)) {
+                selection = null;
+                selectionArgs = null;
+            } else if (page.lastTimestamp == null) {
+                selection = SELECTION_UP_TO_NULL_KEY;
+                selectionArgs = new String[]{String.valueOf(page.lastId)};
+            } else {
+                selection = SELECTION_UP_TO_KEY;
+                selectionArgs = new String[]{page.lastTimestamp, page.lastTimestamp,
+                        String.valueOf(page.lastId)};
+            }
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = mContentResolver.query(uri, MainActivity.MAIN_CUSTOMER_PROJECTION,
+                        selection, selectionArgs, CustomerEntry.PAGE_SORT_ORDER);
+                CustomerListSnapshot snapshot = null;
+                String lastTimestamp = null;
+                if (cursor != null) {
+                    try {
+                        snapshot = CustomerListSnapshot.fromCursor(cursor);
+                        /* The page key keeps the timestamp exactly as SQLite has it. */
+                        if (cursor.moveToLast()) {
+                            lastTimestamp = cursor.getString(MainActivity.INDEX_COLUMN_TIMESTAMP);
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+
+                final DiffUtil.DiffResult diff = oldSnapshot != null && snapshot != null
+                        ? DiffUtil.calculateDiff(
+                                new SnapshotDiffCallback(oldSnapshot, snapshot, changedIds), true)
+                        : null;
+
+                final CustomerListSnapshot loadedSnapshot = snapshot;
+                final String loadedLastTimestamp = lastTimestamp;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(page, generation, loadedSnapshot, loadedLastTimestamp,
+                                changedIds, oldSnapshot, diff);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPageLoaded(Page page, int generation, CustomerListSnapshot snapshot,
+                              String lastTimestamp, Set<Long> changedIds,
+                              CustomerListSnapshot diffedSnapshot, DiffUtil.DiffResult diff) {
+        page.loading = false;
+        if (mClosed || generation != mGeneration) {
+            return;
+        }
+        if (snapshot == null) {
+            /* The query failed; the changed rows still have to be picked up by the next load. */
+            page.changedIds.addAll(changedIds);
+            return;
+        }
+
+        int pageStart = getPageStart(page);
+        int count = snapshot.getCount();
+        CustomerListSnapshot oldSnapshot = page.snapshot;
+        int oldCount = page.count;
+        page.snapshot = snapshot;
+        page.count = count;
+        mCount += count - oldCount;
+
+        if (!page.loadedOnce) {
+            /* First time this page is loaded: it adds rows to the end of the list. */
+            page.loadedOnce = true;
+            if (count > 0) {
+                page.lastTimestamp = lastTimestamp;
+                page.lastId = snapshot.getId(count - 1);
+            } else {
+                /* An empty page has no key; it can only ever be the open-ended last page. */
+                page.lastTimestamp = page.afterTimestamp;
+                page.lastId = page.afterId;
+            }
+            if (count < PAGE_SIZE) {
+                mEndReached = true;
+            }
+            if (count > 0 && mListener != null) {
+                mListener.onItemRangeInserted(pageStart, count);
+            }
+        } else if (oldSnapshot != null && oldSnapshot == diffedSnapshot) {
+            /* A page that was on display was reloaded because some of its rows changed. */
+            if (mListener != null) diff.dispatchUpdatesTo(new PageUpdateCallback(pageStart));
+        } else if (mListener != null) {
+            /*
+             * A page that had been dropped came back. Its rows weren't on display, so reporting
+             * the rows as changed (plus any change in their number) is enough.
+             */
+            int common = Math.min(oldCount, count);
+            if (count > oldCount) {
+                mListener.onItemRangeInserted(pageStart + oldCount, count - oldCount);
+            } else if (count < oldCount) {
+                mListener.onItemRangeRemoved(pageStart + count, oldCount - count);
+            }
+            if (common > 0) mListener.onItemRangeChanged(pageStart, common);
+        }
+
+        if (page.dirty) {
+            /* Rows changed again while the page was loading. */
+            loadPage(page);
+        }
+
+        trimPages();
+
+        if (!mEndReached && mLastAccessedPosition >= mCount - PREFETCH_DISTANCE) {
+            loadNextPage();
+        }
+    }
+
+    /*
+     * Compares the old and the new rows of a page. A row is the same customer when its _ID is,
+     * and is unchanged when its timestamp is the same and it wasn't reported as changed.
+     */
+    private static class SnapshotDiffCallback extends DiffUtil.Callback {
+        private final CustomerListSnapshot mOldSnapshot;
+        private final CustomerListSnapshot mNewSnapshot;
+        private final Set<Long> mChangedIds;
+
+        SnapshotDiffCallback(CustomerListSnapshot oldSnapshot, CustomerListSnapshot newSnapshot,
+                             Set<Long> changedIds) {
+            mOldSnapshot = oldSnapshot;
+            mNewSnapshot = newSnapshot;
+            mChangedIds = changedIds;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldSnapshot.getCount();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewSnapshot.getCount();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldSnapshot.getId(oldItemPosition) == mNewSnapshot.getId(newItemPosition);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldSnapshot.getTimestamp(oldItemPosition)
+                    == mNewSnapshot.getTimestamp(newItemPosition)
+                    && !mChangedIds.contains(mNewSnapshot.getId(newItemPosition));
+        }
+    }
+
+    /* Forwards the updates of one page to the listener, at the page's place in the list. */
+    private class PageUpdateCallback implements ListUpdateCallback {
+        private final int mPageStart;
+
+        PageUpdateCallback(int pageStart) {
+            mPageStart = pageStart;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            mListener.onItemRangeInserted(mPageStart + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mListener.onItemRangeRemoved(mPageStart + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mListener.onItemMoved(mPageStart + fromPosition, mPageStart + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            mListener.onItemRangeChanged(mPageStart + position, count);
+        }
+    }
+
+    /*
+     * Applies the changes to single customers collected during the last frame. A row on display
+     * dirties the page it is in. Its key may have changed too, moving it to another page, so the
+     * current key of every changed customer is looked up as well and dirties the page whose range
+     * it falls in now (which is also how a newly inserted customer is found). The pages are
+     * reloaded once the keys are known, so a page dirtied both ways is queried only once.
+     */
+    private void processChanges() {
+        if (mClosed || mPendingChanges.isEmpty()) return;
+
+        final Set<Long> lookups = new HashSet<>(mPendingChanges);
+        for (long customerId : mPendingChanges) {
+            Page page = findResidentPage(customerId);
+            if (page != null) {
+                markDirty(page, customerId);
+            }
+        }
+        mPendingChanges.clear();
+
+        final int generation = mGeneration;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Cursor keys = queryKeys(lookups);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onKeysLoaded(generation, keys);
+                    }
+                });
+            }
+        });
+    }
+
+    private Cursor queryKeys(Set<Long> customerIds) {
+        StringBuilder selection = new StringBuilder(CustomerEntry._ID + " IN (");
+        String[] selectionArgs = new String[customerIds.size()];
+        int i = 0;
+        for (long customerId : customerIds) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i++] = String.valueOf(customerId);
+        }
+        selection.append(')');
+        Cursor cursor = mContentResolver.query(CustomerEntry.CONTENT_URI, KEY_PROJECTION,
+                selection.toString(), selectionArgs, null);
+        if (cursor != null) cursor.getCount();
+        return cursor;
+    }
+
+    private void onKeysLoaded(int generation, Cursor keys) {
+        if (keys == null) {
+            /* The pages the rows were in still have to pick up the changes. */
+            if (!mClosed && generation == mGeneration) reloadDirtyPages();
+            return;
+        }
+        try {
+            if (mClosed || generation != mGeneration) return;
+            /*
+             * Customers that no longer exist only dirty the page they were on display in, if
+             * any: a closed page picks up the removal when it is loaded again.
+             */
+            while (keys.moveToNext()) {
+                long customerId = keys.getLong(0);
+                Page page = findPageForKey(keys.getString(1), customerId);
+                if (page != null) {
+                    markDirty(page, customerId);
+                }
+            }
+        } finally {
+            keys.close();
+        }
+        reloadDirtyPages();
+    }
+
+    private void markDirty(Page page, long customerId) {
+        page.dirty = true;
+        page.changedIds.add(customerId);
+    }
+
+    /*
+     * Reloads the dirty pages that are on display. Dirty pages that are closed are left alone;
+     * they are reloaded (and pick up the changes) when the user scrolls back to them.
+     */
+    private void reloadDirtyPages() {
+        for (Page page : mPages) {
+            if (page.dirty && page.snapshot != null) {
+                loadPage(page);
+            }
+        }
+    }
+
+    private Page findResidentPage(long customerId) {
+        for (Page page : mPages) {
+            CustomerListSnapshot snapshot = page.snapshot;
+            if (snapshot == null) continue;
+            for (int row = 0; row < snapshot.getCount(); row++) {
+                if (snapshot.getId(row) == customerId) {
+                    return page;
+                }
+            }
+        }
+        return null;
+    }
+
+    /* Returns the loaded page whose key range holds the given key, if any. */
+    private Page findPageForKey(String timestamp, long customerId) {
+        for (Page page : mPages) {
+            if (!page.loadedOnce) return null;
+            if (isOpenEnded(page)
+                    || compareKeys(timestamp, customerId, page.lastTimestamp, page.lastId) <= 0) {
+                return page;
+            }
+        }
+        return null;
+    }
+
+    /* The last page stretches to the end of the table once we know there is nothing after it. */
+    private boolean isOpenEnded(Page page) {
+        return mEndReached && page == mPages.get(mPages.size() - 1);
+    }
+
+    /*
+     * Compares two keys in CustomerEntry.PAGE_SORT_ORDER: negative if the first key comes first in
+     * the list. Customers without a timestamp sort last, like they do in SQLite.
+     */
+    private static int compareKeys(String timestampA, long idA, String timestampB, long idB) {
+        if (timestampA == null ? timestampB != null : !timestampA.equals(timestampB)) {
+            if (timestampA == null) return 1;
+            if (timestampB == null) return -1;
+            return -timestampA.compareTo(timestampB);
+        }
+        return idA > idB ? -1 : (idA < idB ? 1 : 0);
+    }
+
+    private int getPageStart(Page page) {
+        int pageStart = 0;
+        for (Page other : mPages) {
+            if (other == page) break;
+            pageStart += other.count;
+        }
+        return pageStart;
+    }
+
+    /*
+     * Drops the resident pages farthest from the last accessed position until at most
+     * MAX_RESIDENT_PAGES remain.
+     */
+    private void trimPages() {
+        int resident = 0;
+        for (Page page : mPages) {
+            if (page.snapshot != null) resident++;
+        }
+
+        while (resident > MAX_RESIDENT_PAGES) {
+            Page farthest = null;
+            int farthestDistance = Integer.MIN_VALUE;
+            int pageStart = 0;
+            for (Page page : mPages) {
+                if (page.snapshot != null) {
+                    int distance = Math.max(pageStart - mLastAccessedPosition,
+                            mLastAccessedPosition - (pageStart + page.count - 1));
+                    if (distance > farthestDistance) {
+                        farthestDistance = distance;
+                        farthest = page;
+                    }
+                }
+                pageStart += page.count;
+            }
+            closePage(farthest);
+            if (Metrics.ENABLED) PAGES_DROPPED.increment();
+            resident--;
+        }
+    }
+
+    private static void closePage(Page page) {
+        page.snapshot = null;
+    }
+}
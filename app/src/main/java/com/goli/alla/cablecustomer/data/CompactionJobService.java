@@ -0,0 +1,146 @@
+package com.goli.alla.cablecustomer.data;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maintains the customer database file once a day, while the device is idle and charging.
+ * <p>
+ * First it purges the tombstones of customers deleted more than
+ * {@link #TOMBSTONE_RETENTION_SECONDS} ago, in batches so a sync never waits long for the
+ * database. Then, when enough of the file is free pages, it gives them back to the file system a
+ * step at a time. Both stop as soon as the device is in use again; whatever is left is done on
+ * the next run.
+ */
+public class CompactionJobService extends JobService {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = CompactionJobService.class.getSimpleName();
+
+    private static final int JOB_ID = 2;
+
+    private static final long INTERVAL_MS = TimeUnit.DAYS.toMillis(1);
+
+    /*
+     * How long a customer deleted on the device stays deleted whatever the head-end sends for
+     * it; see CustomerUpserter.
+     */
+    private static final long TOMBSTONE_RETENTION_SECONDS = TimeUnit.DAYS.toSeconds(7);
+
+    /* Tombstones purged per transaction. */
+    private static final int PURGE_BATCH_ROWS = 500;
+
+    /* The file is only vacuumed when this many pages are free, and this share of all pages. */
+    private static final long MIN_FREE_PAGES = 256;
+    private static final double MIN_FREE_RATIO = 0.2;
+
+    /* Pages freed per incremental vacuum step. */
+    private static final int VACUUM_STEP_PAGES = 1024;
+
+    /* onStartJob runs on the main thread, so the maintenance itself runs here. */
+    private static final ExecutorService sCompactionExecutor = Executors.newSingleThreadExecutor();
+
+    private volatile boolean mStopped;
+
+    /**
+     * Makes sure the daily maintenance is scheduled. Scheduling it again would push back its next
+     * run, so this does nothing while it already is.
+     *
+     * @param context Context used to reach the JobScheduler
+     */
+    public static void schedule(@NonNull Context context) {
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo pendingJob : jobScheduler.getAllPendingJobs()) {
+            if (pendingJob.getId() == JOB_ID) return;
+        }
+
+        JobInfo job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, CompactionJobService.class))
+                .setPeriodic(INTERVAL_MS)
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .build();
+        jobScheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        mStopped = false;
+        final ContentResolver contentResolver = getContentResolver();
+        sCompactionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    purgeTombstones(contentResolver);
+                    vacuum(contentResolver);
+                } catch (RuntimeException e) {
+                    /* Such as SQLiteFullException; whatever was committed stays done. */
+                    Log.e(LOG_TAG, "Maintaining the database failed", e);
+                } finally {
+                    /* A periodic job runs again on its own schedule. */
+                    jobFinished(params, false);
+                }
+            }
+        });
+        /* The work goes on in the background; jobFinished tells JobScheduler when it's done. */
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        /* The device is in use again: stop after the current step and go on next time. */
+        mStopped = true;
+        return false;
+    }
+
+    private void purgeTombstones(ContentResolver contentResolver) {
+        Bundle extras = new Bundle();
+        extras.putLong(CustomerContract.EXTRA_MIN_AGE_SECONDS, TOMBSTONE_RETENTION_SECONDS);
+        extras.putInt(CustomerContract.EXTRA_ROW_COUNT, PURGE_BATCH_ROWS);
+        int purged;
+        long totalPurged = 0;
+        do {
+            Bundle result = contentResolver.call(CustomerContract.BASE_CONTENT_URI,
+                    CustomerContract.METHOD_PURGE_TOMBSTONES, null, extras);
+            purged = result == null ? 0 : result.getInt(CustomerContract.EXTRA_ROW_COUNT);
+            totalPurged += purged;
+        } while (purged == PURGE_BATCH_ROWS && !mStopped);
+        if (totalPurged > 0) Log.d(LOG_TAG, "Purged " + totalPurged + " tombstones");
+    }
+
+    private void vacuum(ContentResolver contentResolver) {
+        Bundle pageCounts = contentResolver.call(CustomerContract.BASE_CONTENT_URI,
+                CustomerContract.METHOD_GET_PAGE_COUNTS, null, null);
+        if (pageCounts == null) return;
+        long pages = pageCounts.getLong(CustomerContract.EXTRA_PAGE_COUNT);
+        long freePages = pageCounts.getLong(CustomerContract.EXTRA_FREE_PAGE_COUNT);
+        if (freePages < MIN_FREE_PAGES || freePages < pages * MIN_FREE_RATIO) return;
+
+        Log.d(LOG_TAG, "Vacuuming " + freePages + " free pages of " + pages);
+        Bundle extras = new Bundle();
+        extras.putInt(CustomerContract.EXTRA_PAGE_COUNT, VACUUM_STEP_PAGES);
+        while (freePages > 0 && !mStopped) {
+            pageCounts = contentResolver.call(CustomerContract.BASE_CONTENT_URI,
+                    CustomerContract.METHOD_VACUUM, null, extras);
+            if (pageCounts == null) break;
+            long left = pageCounts.getLong(CustomerContract.EXTRA_FREE_PAGE_COUNT);
+            /* No progress means the vacuum failed; the next run tries again. */
+            if (left >= freePages) break;
+            freePages = left;
+        }
+    }
+}
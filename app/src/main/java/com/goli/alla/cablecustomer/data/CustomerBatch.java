@@ -0,0 +1,224 @@
+package com.goli.alla.cablecustomer.data;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+
+/**
+ * A batch of customer rows stored column by column, for loading large numbers of rows into
+ * CustomerProvider without building a ContentValues (and its HashMap) for every row.
+ * <p>
+ * A batch has a fixed set of columns and a fixed capacity. It can be filled, loaded and then
+ * cleared and filled again, so an import that streams millions of rows keeps reusing the same
+ * arrays.
+ */
+public class CustomerBatch {
+
+    private final String[] mColumns;
+
+    /* mValues[column][row] */
+    private final String[][] mValues;
+
+    private int mSize;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param columns  The names of the columns of CustomerEntry held by the batch
+     * @param capacity The maximum number of rows in the batch
+     */
+    public CustomerBatch(@NonNull String[] columns, int capacity) {
+        mColumns = columns.clone();
+        mValues = new String[columns.length][capacity];
+    }
+
+    /* Wraps arrays that came from another batch through a Bundle. */
+    private CustomerBatch(String[] columns, String[][] values, int size) {
+        mColumns = columns;
+        mValues = values;
+        mSize = size;
+    }
+
+    /**
+     * @return The names of the columns held by the batch. Don't modify the array.
+     */
+    public String[] getColumns() {
+        return mColumns;
+    }
+
+    /**
+     * @param column The name of a column
+     * @return The index of the column in the batch, or -1 if the batch doesn't hold it
+     */
+    public int getColumnIndex(String column) {
+        for (int i = 0; i < mColumns.length; i++) {
+            if (mColumns[i].equals(column)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The number of rows in the batch
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return The maximum number of rows in the batch
+     */
+    public int capacity() {
+        return mValues.length == 0 ? 0 : mValues[0].length;
+    }
+
+    /**
+     * @return true if no more rows can be added
+     */
+    public boolean isFull() {
+        return mSize == capacity();
+    }
+
+    /**
+     * Adds an empty row (all columns null) at the end of the batch.
+     *
+     * @return The index of the new row
+     * @throws IllegalStateException if the batch is full
+     */
+    public int addRow() {
+        if (isFull()) {
+            throw new IllegalStateException("Batch is full: " + mSize + " rows");
+        }
+        int row = mSize++;
+        for (String[] column : mValues) {
+            column[row] = null;
+        }
+        return row;
+    }
+
+    /**
+     * Removes the row added last.
+     */
+    public void removeLastRow() {
+        if (mSize > 0) mSize--;
+    }
+
+    /**
+     * Sets the value of a column in a row.
+     *
+     * @param row    The index of the row
+     * @param column The index of the column, as returned by {@link #getColumnIndex(String)}
+     * @param value  The value; null to store NULL
+     */
+    public void set(int row, int column, String value) {
+        mValues[column][row] = value;
+    }
+
+    /**
+     * @param row    The index of the row
+     * @param column The index of the column
+     * @return The value of the column in the row
+     */
+    public String get(int row, int column) {
+        return mValues[column][row];
+    }
+
+    /**
+     * Removes every row, keeping the arrays for the next rows.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Loads the rows of the batch into the customer table through CustomerProvider.
+     *
+     * @param contentResolver Used to reach the provider
+     * @return The number of rows inserted
+     */
+    public int bulkLoad(@NonNull ContentResolver contentResolver) {
+        return bulkLoad(contentResolver, toBundle());
+    }
+
+    /**
+     * Loads the rows of the batch like {@link #bulkLoad(ContentResolver)}, and in the same
+     * transaction records that the first importRows records of an import have been committed.
+     *
+     * @param contentResolver Used to reach the provider
+     * @param importId        Identifies the import
+     * @param importRows      Number of records of the import committed once this batch is in
+     * @return The number of rows inserted
+     */
+    public int bulkLoad(@NonNull ContentResolver contentResolver, @NonNull String importId,
+                        long importRows) {
+        Bundle extras = toBundle();
+        extras.putString(CustomerContract.EXTRA_IMPORT_ID, importId);
+        extras.putLong(CustomerContract.EXTRA_IMPORT_ROWS, importRows);
+        return bulkLoad(contentResolver, extras);
+    }
+
+    /**
+     * Merges the rows of the batch into the customer table by account number: rows whose content
+     * hasn't changed are skipped, changed ones updated and unknown ones inserted.
+     *
+     * @param contentResolver Used to reach the provider
+     * @return The number of rows inserted or updated
+     */
+    public int bulkUpsert(@NonNull ContentResolver contentResolver) {
+        Bundle extras = toBundle();
+        extras.putBoolean(CustomerContract.EXTRA_UPSERT, true);
+        return bulkLoad(contentResolver, extras);
+    }
+
+    /**
+     * Merges the rows of the batch like {@link #bulkUpsert(ContentResolver)}, recording the
+     * progress of an import like {@link #bulkLoad(ContentResolver, String, long)}.
+     *
+     * @return The number of rows inserted or updated
+     */
+    public int bulkUpsert(@NonNull ContentResolver contentResolver, @NonNull String importId,
+                          long importRows) {
+        Bundle extras = toBundle();
+        extras.putBoolean(CustomerContract.EXTRA_UPSERT, true);
+        extras.putString(CustomerContract.EXTRA_IMPORT_ID, importId);
+        extras.putLong(CustomerContract.EXTRA_IMPORT_ROWS, importRows);
+        return bulkLoad(contentResolver, extras);
+    }
+
+    private static int bulkLoad(ContentResolver contentResolver, Bundle extras) {
+        Bundle result = contentResolver.call(CustomerEntry.CONTENT_URI,
+                CustomerContract.METHOD_BULK_LOAD, null, extras);
+        return result == null ? 0 : result.getInt(CustomerContract.EXTRA_ROW_COUNT);
+    }
+
+    /*
+     * The provider lives in our own process, so the Bundle is handed over as is rather than being
+     * parceled: the column arrays are not copied.
+     */
+    Bundle toBundle() {
+        Bundle extras = new Bundle();
+        extras.putStringArray(CustomerContract.EXTRA_COLUMNS, mColumns);
+        extras.putInt(CustomerContract.EXTRA_ROW_COUNT, mSize);
+        for (int i = 0; i < mColumns.length; i++) {
+            extras.putStringArray(mColumns[i], mValues[i]);
+        }
+        return extras;
+    }
+
+    static CustomerBatch fromBundle(Bundle extras) {
+        String[] columns = extras.getStringArray(CustomerContract.EXTRA_COLUMNS);
+        int size = extras.getInt(CustomerContract.EXTRA_ROW_COUNT);
+        if (columns == null) {
+            throw new IllegalArgumentException("Missing " + CustomerContract.EXTRA_COLUMNS);
+        }
+        String[][] values = new String[columns.length][];
+        for (int i = 0; i < columns.length; i++) {
+            values[i] = extras.getStringArray(columns[i]);
+            if (values[i] == null || values[i].length < size) {
+                throw new IllegalArgumentException("Missing values for column " + columns[i]);
+            }
+        }
+        return new CustomerBatch(columns, values, size);
+    }
+}
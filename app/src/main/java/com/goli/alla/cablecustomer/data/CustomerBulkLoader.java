@@ -0,0 +1,196 @@
+package com.goli.alla.cablecustomer.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inserts many customer rows with precompiled statements.
+ * <p>
+ * SQLiteDatabase.insert builds the INSERT statement from scratch for every row: it walks the
+ * ContentValues, concatenates the SQL string and compiles it. Here one INSERT statement is
+ * compiled per distinct set of columns ("column shape") and then only rebound and executed for
+ * each row.
+ * <p>
+ * The caller is responsible for the transaction; a loader must not outlive it.
+ */
+class CustomerBulkLoader {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CustomerBulkLoader.class.getSimpleName();
+
+    private final SQLiteDatabase mDb;
+
+    private final CustomerLookupCache mLookupCache;
+
+    /* Compiled statements, keyed by their sorted, comma separated column names. */
+    private final Map<String, SQLiteStatement> mStatements = new HashMap<>();
+
+    /* The shape of the last ContentValues, which is almost always the shape of the next one. */
+    private String[] mLastColumns;
+    private SQLiteStatement mLastStatement;
+    /* For each of mLastColumns, its lookup table, or null if the value is stored as is. */
+    private String[] mLastLookupTables;
+
+    CustomerBulkLoader(SQLiteDatabase db, CustomerLookupCache lookupCache) {
+        mDb = db;
+        mLookupCache = lookupCache;
+    }
+
+    /**
+     * Inserts rows given as ContentValues.
+     *
+     * @return The number of rows inserted
+     */
+    int insert(ContentValues[] values) {
+        int rowsInserted = 0;
+        for (ContentValues value : values) {
+            if (value == null || value.size() == 0) continue;
+
+            if (mLastColumns == null || !hasColumns(value, mLastColumns)) {
+                Set<String> keys = value.keySet();
+                mLastColumns = keys.toArray(new String[keys.size()]);
+                Arrays.sort(mLastColumns);
+                mLastStatement = getStatement(mLastColumns);
+                mLastLookupTables = getLookupTables(mLastColumns);
+            }
+
+            SQLiteStatement statement = mLastStatement;
+            for (int i = 0; i < mLastColumns.length; i++) {
+                if (mLastLookupTables[i] == null) {
+                    DatabaseUtils.bindObjectToProgram(statement, i + 1,
+                            value.get(mLastColumns[i]));
+                } else {
+                    bindLookupId(statement, i + 1, mLastLookupTables[i],
+                            value.getAsString(mLastColumns[i]));
+                }
+            }
+            if (execute(statement)) {
+                rowsInserted++;
+            }
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Inserts the rows of a column-oriented batch. All rows share one statement.
+     *
+     * @return The number of rows inserted
+     */
+    int insert(CustomerBatch batch) {
+        String[] columns = batch.getColumns();
+        SQLiteStatement statement = getStatement(columns);
+        String[] lookupTables = getLookupTables(columns);
+        int rowsInserted = 0;
+        for (int row = 0; row < batch.size(); row++) {
+            for (int column = 0; column < columns.length; column++) {
+                String value = batch.get(row, column);
+                if (lookupTables[column] != null) {
+                    bindLookupId(statement, column + 1, lookupTables[column], value);
+                } else if (value == null) {
+                    statement.bindNull(column + 1);
+                } else {
+                    statement.bindString(column + 1, value);
+                }
+            }
+            if (execute(statement)) {
+                rowsInserted++;
+            }
+        }
+        return rowsInserted;
+    }
+
+    /* City, state and zipcode are stored as the _ID of their value in a lookup table. */
+    private void bindLookupId(SQLiteStatement statement, int index, String lookupTable,
+                              String value) {
+        Long id = mLookupCache.getId(mDb, lookupTable, value);
+        if (id == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, id);
+        }
+    }
+
+    private static String[] getLookupTables(String[] columns) {
+        String[] lookupTables = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            lookupTables[i] = CustomerLookupCache.getLookupTable(columns[i]);
+        }
+        return lookupTables;
+    }
+
+    /*
+     * Like SQLiteDatabase.insert, a row that can't be inserted (for instance because it violates
+     * a constraint) is logged and skipped rather than failing the whole load.
+     */
+    private static boolean execute(SQLiteStatement statement) {
+        try {
+            return statement.executeInsert() != -1;
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Failed to insert row", e);
+            return false;
+        }
+    }
+
+    /**
+     * Releases the compiled statements.
+     */
+    void close() {
+        for (SQLiteStatement statement : mStatements.values()) {
+            statement.close();
+        }
+        mStatements.clear();
+        mLastColumns = null;
+        mLastStatement = null;
+        mLastLookupTables = null;
+    }
+
+    private static boolean hasColumns(ContentValues value, String[] columns) {
+        if (value.size() != columns.length) return false;
+        for (String column : columns) {
+            if (!value.containsKey(column)) return false;
+        }
+        return true;
+    }
+
+    private SQLiteStatement getStatement(String[] columns) {
+        String shape = join(columns);
+        SQLiteStatement statement = mStatements.get(shape);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder("INSERT INTO ")
+                    .append(CustomerEntry.TABLE_NAME)
+                    .append(" (");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) sql.append(',');
+                sql.append(CustomerLookupCache.getStorageColumn(columns[i]));
+            }
+            sql.append(") VALUES (");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            sql.append(')');
+            statement = mDb.compileStatement(sql.toString());
+            mStatements.put(shape, statement);
+        }
+        return statement;
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder joined = new StringBuilder();
+        for (String column : columns) {
+            if (joined.length() > 0) joined.append(',');
+            joined.append(column);
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,140 @@
+package com.goli.alla.cablecustomer.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects the change notifications of CustomerProvider and delivers them at most once per frame.
+ * <p>
+ * A sync can update hundreds of rows in a second. Sending a notifyChange for every single one
+ * wakes up every observer hundreds of times, so instead the URIs are collected in a set and sent
+ * together {@link #COALESCE_DELAY_MS} after the first one came in. Duplicates are dropped, and
+ * when the whole customer collection changed the individual row URIs are not sent at all, since
+ * observers have to reload everything anyway.
+ * <p>
+ * Changes made inside a batch (see {@link #beginBatch()}) are held back on the calling thread
+ * until the batch's transaction commits, and are dropped if it rolls back, so observers never
+ * see changes that aren't visible in the database yet.
+ */
+class CustomerChangeNotifier {
+
+    /* How long changes are collected before being delivered; about one frame. */
+    private static final long COALESCE_DELAY_MS = 16;
+
+    private final ContentResolver mContentResolver;
+
+    private final Handler mHandler;
+
+    /* The URIs waiting to be delivered. Guarded by "this". */
+    private final Set<Uri> mPendingUris = new LinkedHashSet<>();
+
+    /* The URIs changed by the batch running on the current thread, or null outside a batch. */
+    private final ThreadLocal<Set<Uri>> mBatchUris = new ThreadLocal<>();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    CustomerChangeNotifier(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+        HandlerThread handlerThread = new HandlerThread("CustomerChangeNotifier");
+        handlerThread.start();
+        mHandler = new Handler(handlerThread.getLooper());
+    }
+
+    /**
+     * Schedules a change notification for a single customer row.
+     *
+     * @param customerId The _ID of the row that was inserted, updated or deleted
+     */
+    void notifyRowChanged(long customerId) {
+        notifyChange(CustomerEntry.buildCustomerUri(customerId));
+    }
+
+    /**
+     * Schedules a change notification for the whole customer collection. Use this when rows were
+     * changed that we can't (or don't want to) list individually.
+     */
+    void notifyCollectionChanged() {
+        notifyChange(CustomerEntry.CONTENT_URI);
+    }
+
+    /**
+     * Starts holding back the notifications made on the current thread, until
+     * {@link #commitBatch()} or {@link #endBatch(boolean)} is called.
+     */
+    void beginBatch() {
+        mBatchUris.set(new LinkedHashSet<Uri>());
+    }
+
+    /**
+     * Releases the notifications held back so far by the batch on the current thread, because the
+     * changes they describe have been committed. The batch itself goes on.
+     */
+    void commitBatch() {
+        Set<Uri> batchUris = mBatchUris.get();
+        if (batchUris == null || batchUris.isEmpty()) return;
+        schedule(batchUris);
+        batchUris.clear();
+    }
+
+    /**
+     * Ends the batch on the current thread.
+     *
+     * @param successful true if the batch's transaction committed, in which case the held back
+     *                   notifications are sent; false if it rolled back, in which case they are
+     *                   dropped
+     */
+    void endBatch(boolean successful) {
+        if (successful) commitBatch();
+        mBatchUris.remove();
+    }
+
+    private void notifyChange(Uri uri) {
+        Set<Uri> batchUris = mBatchUris.get();
+        if (batchUris != null) {
+            batchUris.add(uri);
+        } else {
+            schedule(Collections.singleton(uri));
+        }
+    }
+
+    private synchronized void schedule(Collection<Uri> uris) {
+        boolean wasEmpty = mPendingUris.isEmpty();
+        mPendingUris.addAll(uris);
+        if (wasEmpty) {
+            mHandler.postDelayed(mFlushRunnable, COALESCE_DELAY_MS);
+        }
+    }
+
+    private void flush() {
+        List<Uri> uris;
+        synchronized (this) {
+            if (mPendingUris.contains(CustomerEntry.CONTENT_URI)) {
+                uris = new ArrayList<>(1);
+                uris.add(CustomerEntry.CONTENT_URI);
+            } else {
+                uris = new ArrayList<>(mPendingUris);
+            }
+            mPendingUris.clear();
+        }
+
+        for (Uri uri : uris) {
+            mContentResolver.notifyChange(uri, null);
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package com.goli.alla.cablecustomer.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.support.annotation.Nullable;
 
 /**
  * Created by valla on 12/28/2017.
@@ -40,6 +42,145 @@ public class CustomerContract {
      */
     public static final String PATH_CUSTOMER = "customer";
 
+    /*
+     * Path appended to the customer URI for full-text search. The search terms themselves are the
+     * last path segment, for instance
+     *
+     *     content://com.goli.alla.cablecustomer/customer/search/venk%20all
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /*
+     * Path appended to the customer URI for the customers around a point, nearest first. The
+     * point and the radius are query parameters, for instance
+     *
+     *     content://com.goli.alla.cablecustomer/customer/near?lat=40.86&lon=-74.70&radius_km=5
+     */
+    public static final String PATH_NEAR = "near";
+
+    /*
+     * Path appended to the customer URI for a day's stops in the order to visit them. The stops
+     * are a query parameter, and the truck's position can be given as the start, for instance
+     *
+     *     content://com.goli.alla.cablecustomer/customer/route?ids=12,7,31&lat=40.86&lon=-74.70
+     */
+    public static final String PATH_ROUTE = "route";
+
+    /*
+     * Path for the edits made on the device that haven't reached the head-end yet, oldest first.
+     * Only read and emptied by the outbox drain, for instance
+     *
+     *     content://com.goli.alla.cablecustomer/outbox
+     */
+    public static final String PATH_OUTBOX = "outbox";
+
+    /*
+     * Path appended to the customer URI for the number of customers per group, for territory
+     * dashboards. The grouping is the last path segment, one of the PATH_STATS_* paths:
+     *
+     *     content://com.goli.alla.cablecustomer/customer/stats/city
+     */
+    public static final String PATH_STATS = "stats";
+
+    /* The groupings of PATH_STATS: by city, state, zipcode, or the day customers were added. */
+    public static final String PATH_STATS_CITY = "city";
+    public static final String PATH_STATS_STATE = "state";
+    public static final String PATH_STATS_ZIPCODE = "zipcode";
+    public static final String PATH_STATS_DAY = "day";
+
+    /* Query parameter limiting the number of rows returned by a query. */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /* Query parameters of PATH_NEAR: the point, in degrees, and the radius in kilometers. */
+    public static final String QUERY_PARAMETER_LATITUDE = "lat";
+    public static final String QUERY_PARAMETER_LONGITUDE = "lon";
+    public static final String QUERY_PARAMETER_RADIUS = "radius_km";
+
+    /*
+     * Query parameters of PATH_ROUTE: the comma separated _IDs of the stops, at most 400, and
+     * how long the planner may search for a shorter route, in milliseconds. PATH_ROUTE also takes
+     * QUERY_PARAMETER_LATITUDE and QUERY_PARAMETER_LONGITUDE as the start of the route.
+     */
+    public static final String QUERY_PARAMETER_IDS = "ids";
+    public static final String QUERY_PARAMETER_TIME_BUDGET = "budget_ms";
+
+    /*
+     * Query parameter for keyset (seek) pagination of the customer list. Its value is the
+     * "timestamp,_id" key of the last row of the previous page, or just "_id" when that row has
+     * no timestamp; the query then returns the rows that come after that key in PAGE_SORT_ORDER.
+     * Use CustomerEntry.buildPageUri or CustomerEntry.buildPageKey to build it.
+     */
+    public static final String QUERY_PARAMETER_AFTER = "after";
+
+    /*
+     * Query parameter of bulkInsert. When "true", the rows are merged into the customer table by
+     * account number instead of being inserted: unchanged rows are left alone, changed rows are
+     * updated and unknown ones inserted. Use CustomerEntry.CONTENT_UPSERT_URI.
+     */
+    public static final String QUERY_PARAMETER_UPSERT = "upsert";
+
+    /*
+     * Query parameter of insert and update. When "true", the write comes from the head-end
+     * rather than from the user, so it isn't recorded in the outbox to be sent back. Bulk writes
+     * (bulkInsert, METHOD_BULK_LOAD) are never recorded.
+     */
+    public static final String QUERY_PARAMETER_CALLER_IS_SYNCADAPTER = "caller_is_syncadapter";
+
+    /*
+     * Provider method (see ContentResolver#call) loading a column-oriented CustomerBatch into the
+     * customer table. Use CustomerBatch#bulkLoad rather than calling it directly.
+     */
+    public static final String METHOD_BULK_LOAD = "bulkLoad";
+
+    /* Extras of METHOD_BULK_LOAD: the column names, and the number of rows (also the result). */
+    public static final String EXTRA_COLUMNS = "columns";
+    public static final String EXTRA_ROW_COUNT = "row_count";
+
+    /*
+     * Optional extras of METHOD_BULK_LOAD: when present, the import checkpoint of EXTRA_IMPORT_ID
+     * is set to EXTRA_IMPORT_ROWS in the same transaction as the rows of the batch.
+     */
+    public static final String EXTRA_IMPORT_ID = "import_id";
+    public static final String EXTRA_IMPORT_ROWS = "import_rows";
+
+    /* Optional extra of METHOD_BULK_LOAD: true to merge the batch like QUERY_PARAMETER_UPSERT. */
+    public static final String EXTRA_UPSERT = "upsert";
+
+    /*
+     * Provider method returning, in EXTRA_IMPORT_ROWS, how many rows of the import given as arg
+     * have been committed so far (0 for an import that never ran).
+     */
+    public static final String METHOD_GET_IMPORT_CHECKPOINT = "getImportCheckpoint";
+
+    /*
+     * Provider method removing deleted customers (tombstones) for good, at most EXTRA_ROW_COUNT
+     * of them, and only those deleted at least EXTRA_MIN_AGE_SECONDS ago. Returns the number of
+     * customers removed in EXTRA_ROW_COUNT; fewer than asked for means none are left.
+     */
+    public static final String METHOD_PURGE_TOMBSTONES = "purgeTombstones";
+
+    /* Extra of METHOD_PURGE_TOMBSTONES: how long ago a customer must have been deleted. */
+    public static final String EXTRA_MIN_AGE_SECONDS = "min_age_seconds";
+
+    /*
+     * Provider method returning the size of the database file in pages, in EXTRA_PAGE_COUNT,
+     * and how many of those pages are free (left behind by deleted rows), in
+     * EXTRA_FREE_PAGE_COUNT.
+     */
+    public static final String METHOD_GET_PAGE_COUNTS = "getPageCounts";
+
+    /*
+     * Provider method giving free pages back to the file system, at most EXTRA_PAGE_COUNT of
+     * them. Returns the new page counts like METHOD_GET_PAGE_COUNTS. The first run on a database
+     * rebuilds the whole file with VACUUM, however many pages are free, which is slow; after that
+     * free pages are released a few at a time.
+     */
+    public static final String METHOD_VACUUM = "vacuum";
+
+    /* Extras of METHOD_GET_PAGE_COUNTS and METHOD_VACUUM. */
+    public static final String EXTRA_PAGE_COUNT = "page_count";
+    public static final String EXTRA_FREE_PAGE_COUNT = "free_page_count";
+
     // To prevent someone from accidentally instantiating the contract class,
     // make the constructor private.
     private CustomerContract(){
@@ -54,6 +195,26 @@ public class CustomerContract {
                 .appendPath(PATH_CUSTOMER)
                 .build();
 
+        /* The base URI used for full-text searches over the customer table */
+        public static final Uri CONTENT_SEARCH_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_SEARCH)
+                .build();
+
+        /* The base URI used to query the customers around a point */
+        public static final Uri CONTENT_NEAR_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_NEAR)
+                .build();
+
+        /* The base URI used to query the visiting order of a day's stops */
+        public static final Uri CONTENT_ROUTE_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_ROUTE)
+                .build();
+
+        /* The URI to bulkInsert rows that should be merged by account number */
+        public static final Uri CONTENT_UPSERT_URI = CONTENT_URI.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_UPSERT, "true")
+                .build();
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of pets.
          */
@@ -70,6 +231,18 @@ public class CustomerContract {
         /* Used internally as the name of our customer table. */
         public static final String TABLE_NAME = "customer";
 
+        /*
+         * Used internally as the name of the view presenting the customer table with its city,
+         * state and zipcode as text, the way callers see it. All reads go through this view.
+         */
+        public static final String VIEW_NAME = "customer_flat";
+
+        /* Used internally as the name of the full-text index over the customer table. */
+        public static final String FTS_TABLE_NAME = "customer_fts";
+
+        /* Used internally as the name of the view the full-text index reads its text from. */
+        public static final String FTS_CONTENT_VIEW_NAME = "customer_fts_content";
+
         public static final String COLUMN_NAME_FIRST = "firstname";
         public static final String COLUMN_NAME_MIDDLE = "middlename";
         public static final String COLUMN_NAME_LAST = "lastname";
@@ -81,5 +254,340 @@ public class CustomerContract {
         public static final String COLUMN_ZIPCODE = "zipcode";
         public static final String COLUMN_APT_NUM = "aptnum";
         public static final String COLUMN_TIMESTAMP = "timestamp";
+
+        /*
+         * The customer's account number at the head-end, the natural key used to merge feeds.
+         * Unique, but may be NULL for customers entered on the device.
+         */
+        public static final String COLUMN_ACCOUNT_NUMBER = "accountnum";
+
+        /* Hash of the content columns, used by upserts to skip rows that haven't changed. */
+        public static final String COLUMN_ROW_HASH = "rowhash";
+
+        /*
+         * How the customer table actually stores the city, state and zipcode: as the _ID of the
+         * value in its LookupEntry table. Used internally; callers read and write COLUMN_CITY,
+         * COLUMN_STATE and COLUMN_ZIPCODE.
+         */
+        public static final String COLUMN_CITY_ID = "city_id";
+        public static final String COLUMN_STATE_ID = "state_id";
+        public static final String COLUMN_ZIPCODE_ID = "zipcode_id";
+
+        /* Where the customer is, in degrees (WGS84). NULL until the address has been geocoded. */
+        public static final String COLUMN_LATITUDE = "latitude";
+        public static final String COLUMN_LONGITUDE = "longitude";
+
+        /*
+         * Used internally: deleting a customer only sets COLUMN_DELETED to 1 and
+         * COLUMN_DELETED_AT to the time of the delete, which hides the row (the tombstone) from
+         * every query. Tombstones are removed for good by METHOD_PURGE_TOMBSTONES.
+         */
+        public static final String COLUMN_DELETED = "deleted";
+        public static final String COLUMN_DELETED_AT = "deleted_at";
+
+        /* Names of the indexes on the customer table. */
+        public static final String INDEX_TIMESTAMP = "customer_timestamp_idx";
+        public static final String INDEX_NAME = "customer_name_idx";
+        public static final String INDEX_PHONE = "customer_phone_idx";
+        public static final String INDEX_ZIPCODE = "customer_zipcode_idx";
+        public static final String INDEX_CITY = "customer_city_idx";
+        public static final String INDEX_ACCOUNT_NUMBER = "customer_accountnum_idx";
+        public static final String INDEX_TOMBSTONE = "customer_tombstone_idx";
+
+        /*
+         * Only available on search results: how many times the search terms matched the row.
+         * Search results are sorted by this column (highest first) unless a sort order is given.
+         */
+        public static final String COLUMN_SEARCH_RANK = "search_rank";
+
+        /*
+         * Only available on PATH_NEAR results: the square of the distance to the point, in square
+         * kilometers (take the square root for the distance). Near results are sorted by this
+         * column, nearest first, unless a sort order is given.
+         */
+        public static final String COLUMN_DISTANCE_SQUARED = "distance_sq";
+
+        /*
+         * Only available on PATH_ROUTE results: the position of the stop in the route, from 0.
+         * Route results are sorted by this column unless a sort order is given. Stops without a
+         * location come last, in the order they were given.
+         */
+        public static final String COLUMN_ROUTE_POSITION = "route_position";
+
+        /*
+         * The only order paged queries can be returned in. It has to be a total order, so _ID
+         * breaks ties between customers created within the same second. Customers without a
+         * timestamp come last, as SQLite sorts NULL before any text.
+         */
+        public static final String PAGE_SORT_ORDER =
+                COLUMN_TIMESTAMP + " DESC, " + _ID + " DESC";
+
+        /**
+         * Builds a URI for a single customer, for instance
+         * content://com.goli.alla.cablecustomer/customer/42
+         *
+         * @param customerId The _ID of the customer
+         * @return Uri of the customer row
+         */
+        public static Uri buildCustomerUri(long customerId) {
+            return ContentUris.withAppendedId(CONTENT_URI, customerId);
+        }
+
+        /**
+         * Builds a URI for the first page of the customer list.
+         *
+         * @param limit The maximum number of rows in the page
+         * @return Uri to query for the first page
+         */
+        public static Uri buildPageUri(int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the page of the customer list that follows the row with the given
+         * key. Seeking past a key uses the timestamp index directly, so fetching a page deep in
+         * the list costs the same as fetching the first one (unlike LIMIT/OFFSET).
+         *
+         * @param limit          The maximum number of rows in the page
+         * @param afterTimestamp Timestamp of the last row of the previous page, or null if it has
+         *                       none
+         * @param afterId        _ID of the last row of the previous page
+         * @return Uri to query for the next page
+         */
+        public static Uri buildPageUri(int limit, @Nullable String afterTimestamp, long afterId) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER,
+                            buildPageKey(afterTimestamp, afterId))
+                    .build();
+        }
+
+        /**
+         * Builds the value of the QUERY_PARAMETER_AFTER parameter for a row.
+         *
+         * @param timestamp Timestamp of the row, or null if it has none
+         * @param id        _ID of the row
+         * @return The page key of the row
+         */
+        public static String buildPageKey(@Nullable String timestamp, long id) {
+            /* No comma at all, so a NULL can't be mistaken for the text "null". */
+            return timestamp == null ? String.valueOf(id) : timestamp + "," + id;
+        }
+
+        /**
+         * Builds a URI that searches customer names, addresses, cities and phone numbers. Every
+         * word in the query is matched as a prefix, so "venk all" finds "Venkat Alla".
+         *
+         * @param query The words typed by the user
+         * @return Uri to query for the matching customers
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_SEARCH_URI.buildUpon()
+                    .appendPath(query)
+                    .build();
+        }
+
+        /**
+         * Builds a URI for the customers within a radius of a point, nearest first. Only
+         * customers with a latitude and longitude can be found this way.
+         *
+         * @param latitude  Latitude of the point, in degrees
+         * @param longitude Longitude of the point, in degrees
+         * @param radiusKm  The radius, in kilometers
+         * @param limit     The maximum number of customers returned
+         * @return Uri to query for the nearby customers
+         */
+        public static Uri buildNearUri(double latitude, double longitude, double radiusKm,
+                                       int limit) {
+            return CONTENT_NEAR_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LATITUDE, String.valueOf(latitude))
+                    .appendQueryParameter(QUERY_PARAMETER_LONGITUDE, String.valueOf(longitude))
+                    .appendQueryParameter(QUERY_PARAMETER_RADIUS, String.valueOf(radiusKm))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for a day's stops in the order to visit them, starting wherever suits the
+         * route best.
+         *
+         * @param customerIds The _IDs of the customers to visit
+         * @return Uri to query for the stops in visiting order
+         */
+        public static Uri buildRouteUri(long[] customerIds) {
+            return CONTENT_ROUTE_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_IDS, joinIds(customerIds))
+                    .build();
+        }
+
+        /**
+         * Builds a URI for a day's stops in the order to visit them, starting from a point.
+         *
+         * @param customerIds The _IDs of the customers to visit
+         * @param latitude    Latitude of the start, in degrees
+         * @param longitude   Longitude of the start, in degrees
+         * @return Uri to query for the stops in visiting order
+         */
+        public static Uri buildRouteUri(long[] customerIds, double latitude, double longitude) {
+            return CONTENT_ROUTE_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_IDS, joinIds(customerIds))
+                    .appendQueryParameter(QUERY_PARAMETER_LATITUDE, String.valueOf(latitude))
+                    .appendQueryParameter(QUERY_PARAMETER_LONGITUDE, String.valueOf(longitude))
+                    .build();
+        }
+
+        private static String joinIds(long[] customerIds) {
+            StringBuilder ids = new StringBuilder();
+            for (long customerId : customerIds) {
+                if (ids.length() > 0) ids.append(',');
+                ids.append(customerId);
+            }
+            return ids.toString();
+        }
+    }
+
+    /*
+     * Inner class that defines the lookup tables holding each distinct city, state and zipcode
+     * once. They only ever grow: a value keeps its _ID for good.
+     */
+    public static class LookupEntry implements BaseColumns {
+
+        /* Used internally as the names of our lookup tables. */
+        public static final String CITY_TABLE_NAME = "city_lookup";
+        public static final String STATE_TABLE_NAME = "state_lookup";
+        public static final String ZIPCODE_TABLE_NAME = "zipcode_lookup";
+
+        public static final String COLUMN_VALUE = "value";
+    }
+
+    /*
+     * Inner class that defines the spatial index of the customers: one row per customer with a
+     * location, filed under the grid cell it falls in (see GeoGrid). Maintained by triggers on
+     * the customer table; used internally by the PATH_NEAR queries.
+     */
+    public static class GeoEntry {
+
+        /* Used internally as the name of our spatial index table. */
+        public static final String TABLE_NAME = "customer_geo";
+
+        /* The _ID of the customer. */
+        public static final String COLUMN_CUSTOMER_ID = "customer_id";
+
+        public static final String COLUMN_CELL = "cell";
+        public static final String COLUMN_LATITUDE = "latitude";
+        public static final String COLUMN_LONGITUDE = "longitude";
+
+        /* Covers the near queries: cell ranges, then the bounding box, without the table. */
+        public static final String INDEX_CELL = "customer_geo_cell_idx";
+    }
+
+    /*
+     * Inner class that defines the outbox: an append-only log of the inserts and updates made on
+     * the device, each with the values written, waiting to be sent to the head-end. A row is
+     * added in the same transaction as the write it records, and removed once the head-end has
+     * accepted it.
+     */
+    public static class OutboxEntry implements BaseColumns {
+
+        /* The base CONTENT_URI used to read and empty the outbox */
+        public static final Uri CONTENT_URI = BASE_CONTENT_URI.buildUpon()
+                .appendPath(PATH_OUTBOX)
+                .build();
+
+        /* The MIME type of the {@link #CONTENT_URI} for the list of waiting edits. */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_OUTBOX;
+
+        /* Used internally as the name of our outbox table. */
+        public static final String TABLE_NAME = "outbox";
+
+        /* The _ID of the customer that was written. */
+        public static final String COLUMN_CUSTOMER_ID = "customer_id";
+
+        /* The values written, as a JSON object keyed by CustomerEntry column names. */
+        public static final String COLUMN_PAYLOAD = "payload";
+
+        public static final String COLUMN_TIMESTAMP = "timestamp";
+
+        /*
+         * Only available on queries: the customer's current account number, NULL for a customer
+         * entered on the device that the head-end hasn't numbered yet.
+         */
+        public static final String COLUMN_ACCOUNT_NUMBER = CustomerEntry.COLUMN_ACCOUNT_NUMBER;
+    }
+
+    /*
+     * Inner class that defines the customer counts of the territory dashboards: one summary table
+     * per grouping, with a row per group holding its number of customers. Triggers on the
+     * customer table keep the counts up to date as rows are inserted, updated and deleted, so
+     * reading them costs one row per group however many customers there are.
+     */
+    public static class StatsEntry implements BaseColumns {
+
+        /* The base URI of the customer counts */
+        public static final Uri CONTENT_URI = CustomerEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_STATS)
+                .build();
+
+        /* The URIs of the customer counts per city, state, zipcode and day */
+        public static final Uri CONTENT_CITY_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_STATS_CITY)
+                .build();
+
+        public static final Uri CONTENT_STATE_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_STATS_STATE)
+                .build();
+
+        public static final Uri CONTENT_ZIPCODE_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_STATS_ZIPCODE)
+                .build();
+
+        public static final Uri CONTENT_DAY_URI = CONTENT_URI.buildUpon()
+                .appendPath(PATH_STATS_DAY)
+                .build();
+
+        /* The MIME type of the customer counts. */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                PATH_CUSTOMER + "." + PATH_STATS;
+
+        /* Used internally as the names of our summary tables. */
+        public static final String CITY_TABLE_NAME = "stats_city";
+        public static final String STATE_TABLE_NAME = "stats_state";
+        public static final String ZIPCODE_TABLE_NAME = "stats_zipcode";
+        public static final String DAY_TABLE_NAME = "stats_day";
+
+        /*
+         * Used internally as the key of a summary table: the lookup table _ID of the city, state
+         * or zipcode (0 when the customer has none), or the day as yyyy-MM-dd ('' when the
+         * customer's timestamp isn't a date).
+         */
+        public static final String COLUMN_GROUP_KEY = "group_key";
+
+        /*
+         * The group: the city, state or zipcode, or the day as yyyy-MM-dd. NULL for the customers
+         * that have no value.
+         */
+        public static final String COLUMN_VALUE = "value";
+
+        /* The number of customers in the group. Groups without customers are left out. */
+        public static final String COLUMN_COUNT = "customer_count";
+    }
+
+    /* Inner class that defines the table holding the progress of file imports */
+    public static class ImportCheckpointEntry {
+
+        /* Used internally as the name of our import checkpoint table. */
+        public static final String TABLE_NAME = "import_checkpoint";
+
+        /* Identifies an import, for instance the path, size and modification time of the file. */
+        public static final String COLUMN_IMPORT_ID = "import_id";
+
+        /* Number of records of the import that have been committed to the customer table. */
+        public static final String COLUMN_ROWS_COMMITTED = "rows_committed";
+
+        public static final String COLUMN_TIMESTAMP = "timestamp";
     }
 }
@@ -0,0 +1,124 @@
+package com.goli.alla.cablecustomer.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+
+import java.io.File;
+
+/**
+ * Purges old tombstones from the customer table and gives the free pages of the database file
+ * back to the file system. CustomerProvider runs it for the maintenance job, CompactionJobService.
+ * <p>
+ * Deleting a customer only marks its row (see CustomerDbHelper), so a delete costs no more than
+ * an update. Purging a tombstone frees its pages inside the file, where SQLite reuses them for
+ * new rows. The file only shrinks when they are vacuumed: with auto_vacuum = INCREMENTAL,
+ * {@link #vacuum(int)} moves at most the given number of pages to the end of the file and
+ * truncates it, which keeps every step short enough not to hold up a sync for long.
+ * <p>
+ * The auto_vacuum mode can't be set in CustomerDbHelper.onConfigure: it only takes effect before
+ * the file is first written, and opening the database in WAL mode already writes it. So the
+ * first vacuum of every database is a full VACUUM that rebuilds it in incremental mode.
+ */
+class CustomerDbCompactor {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CustomerDbCompactor.class.getSimpleName();
+
+    /* The value of PRAGMA auto_vacuum for INCREMENTAL. */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private static final String SQL_PURGE_TOMBSTONES =
+            "DELETE FROM " + CustomerEntry.TABLE_NAME + " WHERE " + CustomerEntry._ID +
+            " IN (SELECT " + CustomerEntry._ID + " FROM " + CustomerEntry.TABLE_NAME +
+            " WHERE " + CustomerEntry.COLUMN_DELETED + " = 1 AND " +
+            CustomerEntry.COLUMN_DELETED_AT + " <= datetime('now', ?) LIMIT ?)";
+
+    private final SQLiteOpenHelper mOpenHelper;
+
+    CustomerDbCompactor(SQLiteOpenHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    /**
+     * Deletes for good at most maxRows customers that were deleted at least minAgeSeconds ago.
+     * Callers purge in batches so no single transaction keeps other writers waiting for long.
+     *
+     * @return The number of tombstones purged
+     */
+    int purgeTombstones(long minAgeSeconds, int maxRows) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        SQLiteStatement purge = db.compileStatement(SQL_PURGE_TOMBSTONES);
+        try {
+            purge.bindString(1, "-" + minAgeSeconds + " seconds");
+            purge.bindLong(2, maxRows);
+            return purge.executeUpdateDelete();
+        } finally {
+            purge.close();
+        }
+    }
+
+    /**
+     * @return The number of pages in the database file
+     */
+    long getPageCount() {
+        return pragma("page_count");
+    }
+
+    /**
+     * @return The number of pages in the database file that hold nothing
+     */
+    long getFreePageCount() {
+        return pragma("freelist_count");
+    }
+
+    /**
+     * @return The size of the database file, not counting its WAL
+     */
+    long getFileBytes() {
+        return new File(mOpenHelper.getReadableDatabase().getPath()).length();
+    }
+
+    /**
+     * Gives free pages back to the file system. Must not be called inside a transaction.
+     *
+     * @param maxPages The most pages to free in incremental mode; a database that isn't in
+     *                 incremental mode yet is vacuumed whole
+     * @return Whether the vacuum ran; it fails when another connection holds the database
+     */
+    boolean vacuum(int maxPages) {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        try {
+            if (pragma("auto_vacuum") == AUTO_VACUUM_INCREMENTAL) {
+                /* The pragma frees one page per row it steps through. */
+                Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+                try {
+                    cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+            } else {
+                /* Switching the mode of an existing database takes effect on its next VACUUM. */
+                Log.i(LOG_TAG, "Converting the database to incremental auto_vacuum");
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                db.execSQL("VACUUM");
+            }
+            return true;
+        } catch (SQLiteException e) {
+            /* Nothing is lost; the pages stay free and the next run tries again. */
+            Log.e(LOG_TAG, "Vacuum failed", e);
+            return false;
+        }
+    }
+
+    private long pragma(String pragma) {
+        return DatabaseUtils.longForQuery(mOpenHelper.getReadableDatabase(),
+                "PRAGMA " + pragma, null);
+    }
+}
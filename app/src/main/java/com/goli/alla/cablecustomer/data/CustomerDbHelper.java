@@ -1,10 +1,16 @@
 package com.goli.alla.cablecustomer.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.GeoEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.ImportCheckpointEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.LookupEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.OutboxEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.StatsEntry;
 /**
  * Created by valla on 12/28/2017.
  */
@@ -22,7 +28,7 @@ public class CustomerDbHelper extends SQLiteOpenHelper {
      * method will not be called.
      *
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 10;
 
     private static final String SQL_CREATE_ENTRIES =
             "CREATE TABLE " + CustomerEntry.TABLE_NAME + " (" +
@@ -41,8 +47,640 @@ public class CustomerDbHelper extends SQLiteOpenHelper {
 
     private static final String SQL_DELETE_ENTRIES = "DROP TABLE IF EXISTS " + CustomerEntry.TABLE_NAME;
 
+    private static final String SQL_DELETE_FTS = "DROP TABLE IF EXISTS " + CustomerEntry.FTS_TABLE_NAME;
+
+    private static final String SQL_DELETE_IMPORT_CHECKPOINT =
+            "DROP TABLE IF EXISTS " + ImportCheckpointEntry.TABLE_NAME;
+
+    private static final String SQL_DELETE_VIEW = "DROP VIEW IF EXISTS " + CustomerEntry.VIEW_NAME;
+
+    private static final String SQL_DELETE_FTS_CONTENT_VIEW =
+            "DROP VIEW IF EXISTS " + CustomerEntry.FTS_CONTENT_VIEW_NAME;
+
+    /*
+     * Indexes added in version 2. The customer list is always sorted by timestamp, and field
+     * techs look customers up by name, phone, zipcode and city. Without these every one of those
+     * queries is a full table scan (plus a temporary B-tree for the sort).
+     *
+     * The timestamp index also covers the "timestamp DESC, _id DESC" ordering, because every
+     * SQLite index implicitly ends with the rowid.
+     */
+    private static final String SQL_CREATE_INDEX_TIMESTAMP =
+            "CREATE INDEX IF NOT EXISTS " + CustomerEntry.INDEX_TIMESTAMP + " ON " +
+            CustomerEntry.TABLE_NAME + " (" + CustomerEntry.COLUMN_TIMESTAMP + ")";
+
+    private static final String SQL_CREATE_INDEX_NAME =
+            "CREATE INDEX IF NOT EXISTS " + CustomerEntry.INDEX_NAME + " ON " +
+            CustomerEntry.TABLE_NAME + " (" + CustomerEntry.COLUMN_NAME_LAST + ", " +
+            CustomerEntry.COLUMN_NAME_FIRST + ")";
+
+    private static final String SQL_CREATE_INDEX_PHONE =
+            "CREATE INDEX IF NOT EXISTS " + CustomerEntry.INDEX_PHONE + " ON " +
+            CustomerEntry.TABLE_NAME + " (" + CustomerEntry.COLUMN_PHONE + ")";
+
+    private static final String SQL_CREATE_INDEX_ZIPCODE =
+            "CREATE INDEX IF NOT EXISTS " + CustomerEntry.INDEX_ZIPCODE + " ON " +
+            CustomerEntry.TABLE_NAME + " (" + CustomerEntry.COLUMN_ZIPCODE + ")";
+
+    private static final String SQL_CREATE_INDEX_CITY =
+            "CREATE INDEX IF NOT EXISTS " + CustomerEntry.INDEX_CITY + " ON " +
+            CustomerEntry.TABLE_NAME + " (" + CustomerEntry.COLUMN_CITY + ")";
+
+    /* The columns of the customer table that are covered by the full-text index (version 3). */
+    private static final String FTS_COLUMNS =
+            CustomerEntry.COLUMN_NAME_FIRST + ", " +
+            CustomerEntry.COLUMN_NAME_LAST + ", " +
+            CustomerEntry.COLUMN_ADDRESS1 + ", " +
+            CustomerEntry.COLUMN_ADDRESS2 + ", " +
+            CustomerEntry.COLUMN_CITY + ", " +
+            CustomerEntry.COLUMN_PHONE;
+
+    private static final String FTS_NEW_VALUES =
+            "new." + CustomerEntry.COLUMN_NAME_FIRST + ", " +
+            "new." + CustomerEntry.COLUMN_NAME_LAST + ", " +
+            "new." + CustomerEntry.COLUMN_ADDRESS1 + ", " +
+            "new." + CustomerEntry.COLUMN_ADDRESS2 + ", " +
+            "new." + CustomerEntry.COLUMN_CITY + ", " +
+            "new." + CustomerEntry.COLUMN_PHONE;
+
+    /*
+     * An external content FTS4 table: the index lives in the FTS shadow tables, while the text is
+     * read back from the customer table itself, so nothing is stored twice. The prefix option
+     * builds extra indexes for 2, 3 and 4 character prefixes, which keeps type-ahead queries such
+     * as "ve*" from walking the whole term list.
+     */
+    private static final String SQL_CREATE_FTS =
+            "CREATE VIRTUAL TABLE " + CustomerEntry.FTS_TABLE_NAME + " USING fts4(" +
+            "content=\"" + CustomerEntry.TABLE_NAME + "\", " +
+            FTS_COLUMNS + ", " +
+            "prefix=\"2,3,4\")";
+
+    /*
+     * Triggers keeping the full-text index in sync with the customer table. For an external
+     * content table the old entry must be removed BEFORE the row changes, because FTS4 reads the
+     * old text back from the content table to know which terms to remove. Updates only touch
+     * the index when they change a column it covers.
+     */
+    private static final String SQL_CREATE_FTS_TRIGGER_BEFORE_UPDATE =
+            "CREATE TRIGGER customer_fts_before_update BEFORE UPDATE OF " + FTS_COLUMNS +
+            " ON " + CustomerEntry.TABLE_NAME +
+            " BEGIN DELETE FROM " + CustomerEntry.FTS_TABLE_NAME + " WHERE docid = old." + CustomerEntry._ID + "; END";
+
+    private static final String SQL_CREATE_FTS_TRIGGER_BEFORE_DELETE =
+            "CREATE TRIGGER customer_fts_before_delete BEFORE DELETE ON " + CustomerEntry.TABLE_NAME +
+            " BEGIN DELETE FROM " + CustomerEntry.FTS_TABLE_NAME + " WHERE docid = old." + CustomerEntry._ID + "; END";
+
+    private static final String SQL_CREATE_FTS_TRIGGER_AFTER_UPDATE =
+            "CREATE TRIGGER customer_fts_after_update AFTER UPDATE OF " + FTS_COLUMNS +
+            " ON " + CustomerEntry.TABLE_NAME +
+            " BEGIN INSERT INTO " + CustomerEntry.FTS_TABLE_NAME + " (docid, " + FTS_COLUMNS + ")" +
+            " VALUES (new." + CustomerEntry._ID + ", " + FTS_NEW_VALUES + "); END";
+
+    private static final String SQL_CREATE_FTS_TRIGGER_AFTER_INSERT =
+            "CREATE TRIGGER customer_fts_after_insert AFTER INSERT ON " + CustomerEntry.TABLE_NAME +
+            " BEGIN INSERT INTO " + CustomerEntry.FTS_TABLE_NAME + " (docid, " + FTS_COLUMNS + ")" +
+            " VALUES (new." + CustomerEntry._ID + ", " + FTS_NEW_VALUES + "); END";
+
+    /*
+     * Progress of the file imports (version 4). It is updated in the same transaction as the rows
+     * it counts, so after a crash an import resumes exactly after the last committed chunk.
+     */
+    private static final String SQL_CREATE_IMPORT_CHECKPOINT =
+            "CREATE TABLE " + ImportCheckpointEntry.TABLE_NAME + " (" +
+            ImportCheckpointEntry.COLUMN_IMPORT_ID + " TEXT PRIMARY KEY, " +
+            ImportCheckpointEntry.COLUMN_ROWS_COMMITTED + " INTEGER NOT NULL, " +
+            ImportCheckpointEntry.COLUMN_TIMESTAMP + " TIMESTAMP DEFAULT CURRENT_TIMESTAMP )";
+
+    /*
+     * The natural key and content hash used to merge head-end feeds (version 5). A UNIQUE index
+     * still allows any number of NULLs, so customers without an account number are fine.
+     */
+    private static final String SQL_ADD_ACCOUNT_NUMBER =
+            "ALTER TABLE " + CustomerEntry.TABLE_NAME + " ADD COLUMN " +
+            CustomerEntry.COLUMN_ACCOUNT_NUMBER + " TEXT";
+
+    private static final String SQL_ADD_ROW_HASH =
+            "ALTER TABLE " + CustomerEntry.TABLE_NAME + " ADD COLUMN " +
+            CustomerEntry.COLUMN_ROW_HASH + " INTEGER";
+
+    private static final String SQL_CREATE_INDEX_ACCOUNT_NUMBER =
+            "CREATE UNIQUE INDEX IF NOT EXISTS " + CustomerEntry.INDEX_ACCOUNT_NUMBER + " ON " +
+            CustomerEntry.TABLE_NAME + " (" + CustomerEntry.COLUMN_ACCOUNT_NUMBER + ")";
+
+    /*
+     * Version 6 normalizes the city, state and zipcode. They repeat a few hundred distinct values
+     * over the whole table, so each value is stored once in a lookup table and the customer table
+     * only keeps its integer _ID. SQLite can't change the type of a column, so the customer table
+     * is rebuilt: the new table is filled from the old one, which is then dropped.
+     */
+    private static final String CUSTOMER_V6_TABLE_NAME = CustomerEntry.TABLE_NAME + "_v6";
+
+    private static final String SQL_CREATE_CUSTOMER_V6 =
+            "CREATE TABLE " + CUSTOMER_V6_TABLE_NAME + " (" +
+            CustomerEntry._ID + " INTEGER PRIMARY KEY, " +
+            CustomerEntry.COLUMN_NAME_FIRST + " TEXT NOT NULL, " +
+            CustomerEntry.COLUMN_NAME_LAST + " TEXT NOT NULL, " +
+            CustomerEntry.COLUMN_NAME_MIDDLE + " TEXT, " +
+            CustomerEntry.COLUMN_PHONE + " TEXT, " +
+            CustomerEntry.COLUMN_ADDRESS1 + " TEXT, " +
+            CustomerEntry.COLUMN_ADDRESS2 + " TEXT, " +
+            CustomerEntry.COLUMN_CITY_ID + " INTEGER, " +
+            CustomerEntry.COLUMN_STATE_ID + " INTEGER, " +
+            CustomerEntry.COLUMN_ZIPCODE_ID + " INTEGER, " +
+            CustomerEntry.COLUMN_APT_NUM + " TEXT, " +
+            CustomerEntry.COLUMN_TIMESTAMP + " TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+            CustomerEntry.COLUMN_ACCOUNT_NUMBER + " TEXT, " +
+            CustomerEntry.COLUMN_ROW_HASH + " INTEGER )";
+
+    /* The columns that are copied as they are into the rebuilt table. */
+    private static final String CUSTOMER_V6_PLAIN_COLUMNS =
+            CustomerEntry._ID + ", " +
+            CustomerEntry.COLUMN_NAME_FIRST + ", " +
+            CustomerEntry.COLUMN_NAME_LAST + ", " +
+            CustomerEntry.COLUMN_NAME_MIDDLE + ", " +
+            CustomerEntry.COLUMN_PHONE + ", " +
+            CustomerEntry.COLUMN_ADDRESS1 + ", " +
+            CustomerEntry.COLUMN_ADDRESS2 + ", " +
+            CustomerEntry.COLUMN_APT_NUM + ", " +
+            CustomerEntry.COLUMN_TIMESTAMP + ", " +
+            CustomerEntry.COLUMN_ACCOUNT_NUMBER + ", " +
+            CustomerEntry.COLUMN_ROW_HASH;
+
+    private static final String SQL_COPY_CUSTOMER_V6 =
+            "INSERT INTO " + CUSTOMER_V6_TABLE_NAME + " (" + CUSTOMER_V6_PLAIN_COLUMNS + ", " +
+            CustomerEntry.COLUMN_CITY_ID + ", " +
+            CustomerEntry.COLUMN_STATE_ID + ", " +
+            CustomerEntry.COLUMN_ZIPCODE_ID + ")" +
+            " SELECT " + CUSTOMER_V6_PLAIN_COLUMNS + ", " +
+            lookupId(LookupEntry.CITY_TABLE_NAME, CustomerEntry.COLUMN_CITY) + ", " +
+            lookupId(LookupEntry.STATE_TABLE_NAME, CustomerEntry.COLUMN_STATE) + ", " +
+            lookupId(LookupEntry.ZIPCODE_TABLE_NAME, CustomerEntry.COLUMN_ZIPCODE) +
+            " FROM " + CustomerEntry.TABLE_NAME;
+
+    private static final String SQL_RENAME_CUSTOMER_V6 =
+            "ALTER TABLE " + CUSTOMER_V6_TABLE_NAME + " RENAME TO " + CustomerEntry.TABLE_NAME;
+
+    private static final String SQL_CREATE_INDEX_ZIPCODE_ID =
+            "CREATE INDEX IF NOT EXISTS " + CustomerEntry.INDEX_ZIPCODE + " ON " +
+            CustomerEntry.TABLE_NAME + " (" + CustomerEntry.COLUMN_ZIPCODE_ID + ")";
+
+    private static final String SQL_CREATE_INDEX_CITY_ID =
+            "CREATE INDEX IF NOT EXISTS " + CustomerEntry.INDEX_CITY + " ON " +
+            CustomerEntry.TABLE_NAME + " (" + CustomerEntry.COLUMN_CITY_ID + ")";
+
+    /*
+     * The customer table as callers see it, with the city, state and zipcode as text again.
+     * Correlated subqueries rather than joins: SQLite flattens the view into the query, and only
+     * evaluates a subquery when its column is actually selected.
+     */
+    private static final String VIEW_COLUMNS_V6 =
+            CustomerEntry._ID + ", " +
+            CustomerEntry.COLUMN_NAME_FIRST + ", " +
+            CustomerEntry.COLUMN_NAME_LAST + ", " +
+            CustomerEntry.COLUMN_NAME_MIDDLE + ", " +
+            CustomerEntry.COLUMN_PHONE + ", " +
+            CustomerEntry.COLUMN_ADDRESS1 + ", " +
+            CustomerEntry.COLUMN_ADDRESS2 + ", " +
+            lookupValue(LookupEntry.CITY_TABLE_NAME, CustomerEntry.COLUMN_CITY_ID) +
+            " AS " + CustomerEntry.COLUMN_CITY + ", " +
+            lookupValue(LookupEntry.STATE_TABLE_NAME, CustomerEntry.COLUMN_STATE_ID) +
+            " AS " + CustomerEntry.COLUMN_STATE + ", " +
+            lookupValue(LookupEntry.ZIPCODE_TABLE_NAME, CustomerEntry.COLUMN_ZIPCODE_ID) +
+            " AS " + CustomerEntry.COLUMN_ZIPCODE + ", " +
+            CustomerEntry.COLUMN_APT_NUM + ", " +
+            CustomerEntry.COLUMN_TIMESTAMP + ", " +
+            CustomerEntry.COLUMN_ACCOUNT_NUMBER + ", " +
+            CustomerEntry.COLUMN_ROW_HASH;
+
+    private static final String SQL_CREATE_VIEW =
+            "CREATE VIEW " + CustomerEntry.VIEW_NAME + " AS SELECT " + VIEW_COLUMNS_V6 +
+            " FROM " + CustomerEntry.TABLE_NAME;
+
+    /*
+     * The text of the full-text index, which has to come from a table or view with a rowid. A
+     * view has no rowid of its own, so it provides a column named rowid instead, which is what
+     * FTS4 asks for.
+     */
+    private static final String SQL_CREATE_FTS_CONTENT_VIEW =
+            "CREATE VIEW " + CustomerEntry.FTS_CONTENT_VIEW_NAME + " AS SELECT " +
+            CustomerEntry._ID + " AS rowid, " +
+            CustomerEntry.COLUMN_NAME_FIRST + ", " +
+            CustomerEntry.COLUMN_NAME_LAST + ", " +
+            CustomerEntry.COLUMN_ADDRESS1 + ", " +
+            CustomerEntry.COLUMN_ADDRESS2 + ", " +
+            lookupValue(LookupEntry.CITY_TABLE_NAME, CustomerEntry.COLUMN_CITY_ID) +
+            " AS " + CustomerEntry.COLUMN_CITY + ", " +
+            CustomerEntry.COLUMN_PHONE +
+            " FROM " + CustomerEntry.TABLE_NAME;
+
+    private static final String SQL_CREATE_FTS_V6 =
+            "CREATE VIRTUAL TABLE " + CustomerEntry.FTS_TABLE_NAME + " USING fts4(" +
+            "content=\"" + CustomerEntry.FTS_CONTENT_VIEW_NAME + "\", " +
+            FTS_COLUMNS + ", " +
+            "prefix=\"2,3,4\")";
+
+    private static final String FTS_NEW_VALUES_V6 =
+            "new." + CustomerEntry.COLUMN_NAME_FIRST + ", " +
+            "new." + CustomerEntry.COLUMN_NAME_LAST + ", " +
+            "new." + CustomerEntry.COLUMN_ADDRESS1 + ", " +
+            "new." + CustomerEntry.COLUMN_ADDRESS2 + ", " +
+            "(SELECT " + LookupEntry.COLUMN_VALUE + " FROM " + LookupEntry.CITY_TABLE_NAME +
+            " WHERE " + LookupEntry._ID + " = new." + CustomerEntry.COLUMN_CITY_ID + "), " +
+            "new." + CustomerEntry.COLUMN_PHONE;
+
+    /*
+     * The columns of the version 6 customer table an update must touch for the full-text index
+     * to change: the indexed ones, with the city as the _ID of its lookup row.
+     */
+    private static final String FTS_UPDATE_COLUMNS_V6 =
+            CustomerEntry.COLUMN_NAME_FIRST + ", " +
+            CustomerEntry.COLUMN_NAME_LAST + ", " +
+            CustomerEntry.COLUMN_ADDRESS1 + ", " +
+            CustomerEntry.COLUMN_ADDRESS2 + ", " +
+            CustomerEntry.COLUMN_CITY_ID + ", " +
+            CustomerEntry.COLUMN_PHONE;
+
+    private static final String SQL_CREATE_FTS_TRIGGER_BEFORE_UPDATE_V6 =
+            "CREATE TRIGGER customer_fts_before_update BEFORE UPDATE OF " + FTS_UPDATE_COLUMNS_V6 +
+            " ON " + CustomerEntry.TABLE_NAME +
+            " BEGIN DELETE FROM " + CustomerEntry.FTS_TABLE_NAME +
+            " WHERE docid = old." + CustomerEntry._ID + "; END";
+
+    private static final String SQL_CREATE_FTS_TRIGGER_AFTER_UPDATE_V6 =
+            "CREATE TRIGGER customer_fts_after_update AFTER UPDATE OF " + FTS_UPDATE_COLUMNS_V6 +
+            " ON " + CustomerEntry.TABLE_NAME +
+            " BEGIN INSERT INTO " + CustomerEntry.FTS_TABLE_NAME + " (docid, " + FTS_COLUMNS + ")" +
+            " VALUES (new." + CustomerEntry._ID + ", " + FTS_NEW_VALUES_V6 + "); END";
+
+    private static final String SQL_CREATE_FTS_TRIGGER_AFTER_INSERT_V6 =
+            "CREATE TRIGGER customer_fts_after_insert AFTER INSERT ON " + CustomerEntry.TABLE_NAME +
+            " BEGIN INSERT INTO " + CustomerEntry.FTS_TABLE_NAME + " (docid, " + FTS_COLUMNS + ")" +
+            " VALUES (new." + CustomerEntry._ID + ", " + FTS_NEW_VALUES_V6 + "); END";
+
+    /*
+     * Version 7 adds the location of the customers, and a spatial index over it: every customer
+     * with a location has a row in the GeoEntry table, filed under its GeoGrid cell. Triggers
+     * keep that table in step with the customer table.
+     */
+    private static final String SQL_ADD_LATITUDE =
+            "ALTER TABLE " + CustomerEntry.TABLE_NAME +
+            " ADD COLUMN " + CustomerEntry.COLUMN_LATITUDE + " REAL";
+
+    private static final String SQL_ADD_LONGITUDE =
+            "ALTER TABLE " + CustomerEntry.TABLE_NAME +
+            " ADD COLUMN " + CustomerEntry.COLUMN_LONGITUDE + " REAL";
+
+    private static final String SQL_CREATE_GEO =
+            "CREATE TABLE " + GeoEntry.TABLE_NAME + " (" +
+            GeoEntry.COLUMN_CUSTOMER_ID + " INTEGER PRIMARY KEY, " +
+            GeoEntry.COLUMN_CELL + " INTEGER NOT NULL, " +
+            GeoEntry.COLUMN_LATITUDE + " REAL NOT NULL, " +
+            GeoEntry.COLUMN_LONGITUDE + " REAL NOT NULL )";
+
+    private static final String SQL_CREATE_INDEX_GEO_CELL =
+            "CREATE INDEX IF NOT EXISTS " + GeoEntry.INDEX_CELL + " ON " + GeoEntry.TABLE_NAME +
+            " (" + GeoEntry.COLUMN_CELL + ", " + GeoEntry.COLUMN_LATITUDE + ", " +
+            GeoEntry.COLUMN_LONGITUDE + ")";
+
+    private static final String SQL_DELETE_GEO = "DROP TABLE IF EXISTS " + GeoEntry.TABLE_NAME;
+
+    /* Files the new location of a customer, if it has one. */
+    private static final String GEO_INSERT_NEW =
+            "INSERT INTO " + GeoEntry.TABLE_NAME + " (" +
+            GeoEntry.COLUMN_CUSTOMER_ID + ", " +
+            GeoEntry.COLUMN_CELL + ", " +
+            GeoEntry.COLUMN_LATITUDE + ", " +
+            GeoEntry.COLUMN_LONGITUDE + ")" +
+            " SELECT new." + CustomerEntry._ID + ", " +
+            GeoGrid.cellExpression("new." + CustomerEntry.COLUMN_LATITUDE,
+                    "new." + CustomerEntry.COLUMN_LONGITUDE) + ", " +
+            "new." + CustomerEntry.COLUMN_LATITUDE + ", " +
+            "new." + CustomerEntry.COLUMN_LONGITUDE +
+            " WHERE new." + CustomerEntry.COLUMN_LATITUDE + " IS NOT NULL" +
+            " AND new." + CustomerEntry.COLUMN_LONGITUDE + " IS NOT NULL";
+
+    private static final String GEO_DELETE_OLD =
+            "DELETE FROM " + GeoEntry.TABLE_NAME +
+            " WHERE " + GeoEntry.COLUMN_CUSTOMER_ID + " = old." + CustomerEntry._ID;
+
+    private static final String SQL_CREATE_GEO_TRIGGER_AFTER_INSERT =
+            "CREATE TRIGGER customer_geo_after_insert AFTER INSERT ON " +
+            CustomerEntry.TABLE_NAME + " BEGIN " + GEO_INSERT_NEW + "; END";
+
+    /* Only fires when the location columns are written, not on every update of the row. */
+    private static final String SQL_CREATE_GEO_TRIGGER_AFTER_UPDATE =
+            "CREATE TRIGGER customer_geo_after_update AFTER UPDATE OF " +
+            CustomerEntry.COLUMN_LATITUDE + ", " + CustomerEntry.COLUMN_LONGITUDE +
+            " ON " + CustomerEntry.TABLE_NAME +
+            " BEGIN " + GEO_DELETE_OLD + "; " + GEO_INSERT_NEW + "; END";
+
+    private static final String SQL_CREATE_GEO_TRIGGER_AFTER_DELETE =
+            "CREATE TRIGGER customer_geo_after_delete AFTER DELETE ON " +
+            CustomerEntry.TABLE_NAME + " BEGIN " + GEO_DELETE_OLD + "; END";
+
+    private static final String SQL_CREATE_VIEW_V7 =
+            "CREATE VIEW " + CustomerEntry.VIEW_NAME + " AS SELECT " + VIEW_COLUMNS_V6 + ", " +
+            CustomerEntry.COLUMN_LATITUDE + ", " +
+            CustomerEntry.COLUMN_LONGITUDE +
+            " FROM " + CustomerEntry.TABLE_NAME;
+
+    /*
+     * Version 8 adds the outbox of edits waiting to be sent to the head-end. AUTOINCREMENT keeps
+     * _IDs from ever being reused, so the outbox is emptied in order by deleting up to an _ID.
+     */
+    private static final String SQL_CREATE_OUTBOX =
+            "CREATE TABLE " + OutboxEntry.TABLE_NAME + " (" +
+            OutboxEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            OutboxEntry.COLUMN_CUSTOMER_ID + " INTEGER NOT NULL, " +
+            OutboxEntry.COLUMN_PAYLOAD + " TEXT NOT NULL, " +
+            OutboxEntry.COLUMN_TIMESTAMP + " TIMESTAMP DEFAULT CURRENT_TIMESTAMP )";
+
+    private static final String SQL_DELETE_OUTBOX = "DROP TABLE IF EXISTS " + OutboxEntry.TABLE_NAME;
+
+    /*
+     * Version 9 adds the summary tables of the territory dashboards, each counting the customers
+     * per group. Triggers move a customer from group to group as it is inserted, updated and
+     * deleted, so the counts never have to be recomputed from the whole table. The key of a
+     * group can't be NULL (NULL never equals anything, so it couldn't be found again), which is
+     * why customers without a value are counted under 0 or ''.
+     */
+    private static final String CITY_KEY = "IFNULL(%s." + CustomerEntry.COLUMN_CITY_ID + ", 0)";
+    private static final String STATE_KEY = "IFNULL(%s." + CustomerEntry.COLUMN_STATE_ID + ", 0)";
+    private static final String ZIPCODE_KEY =
+            "IFNULL(%s." + CustomerEntry.COLUMN_ZIPCODE_ID + ", 0)";
+    private static final String DAY_KEY =
+            "IFNULL(date(%s." + CustomerEntry.COLUMN_TIMESTAMP + "), '')";
+
+    private static final String STATS_ADD_NEW = " BEGIN " +
+            statsAdd(StatsEntry.CITY_TABLE_NAME, CITY_KEY, "new", false) +
+            statsAdd(StatsEntry.STATE_TABLE_NAME, STATE_KEY, "new", false) +
+            statsAdd(StatsEntry.ZIPCODE_TABLE_NAME, ZIPCODE_KEY, "new", false) +
+            statsAdd(StatsEntry.DAY_TABLE_NAME, DAY_KEY, "new", false) + "END";
+
+    private static final String STATS_REMOVE_OLD = " BEGIN " +
+            statsRemove(StatsEntry.CITY_TABLE_NAME, CITY_KEY, "old", false) +
+            statsRemove(StatsEntry.STATE_TABLE_NAME, STATE_KEY, "old", false) +
+            statsRemove(StatsEntry.ZIPCODE_TABLE_NAME, ZIPCODE_KEY, "old", false) +
+            statsRemove(StatsEntry.DAY_TABLE_NAME, DAY_KEY, "old", false) + "END";
+
+    private static final String SQL_CREATE_STATS_TRIGGER_AFTER_INSERT =
+            "CREATE TRIGGER customer_stats_after_insert AFTER INSERT ON " +
+            CustomerEntry.TABLE_NAME + STATS_ADD_NEW;
+
+    private static final String SQL_CREATE_STATS_TRIGGER_AFTER_DELETE =
+            "CREATE TRIGGER customer_stats_after_delete AFTER DELETE ON " +
+            CustomerEntry.TABLE_NAME + STATS_REMOVE_OLD;
+
+    private static final String SQL_DELETE_STATS_CITY =
+            "DROP TABLE IF EXISTS " + StatsEntry.CITY_TABLE_NAME;
+    private static final String SQL_DELETE_STATS_STATE =
+            "DROP TABLE IF EXISTS " + StatsEntry.STATE_TABLE_NAME;
+    private static final String SQL_DELETE_STATS_ZIPCODE =
+            "DROP TABLE IF EXISTS " + StatsEntry.ZIPCODE_TABLE_NAME;
+    private static final String SQL_DELETE_STATS_DAY =
+            "DROP TABLE IF EXISTS " + StatsEntry.DAY_TABLE_NAME;
+
+    /*
+     * Version 10 turns deletes into tombstones: a deleted customer keeps its row, marked with
+     * COLUMN_DELETED and the time of the delete, and the view leaves it out. Deleting no longer
+     * punches holes all over the file, and a customer deleted by mistake is only gone for good
+     * once the tombstone is purged in the background.
+     */
+    static final String SELECTION_LIVE = CustomerEntry.COLUMN_DELETED + " = 0";
+
+    private static final String SQL_ADD_DELETED =
+            "ALTER TABLE " + CustomerEntry.TABLE_NAME +
+            " ADD COLUMN " + CustomerEntry.COLUMN_DELETED + " INTEGER NOT NULL DEFAULT 0";
+
+    private static final String SQL_ADD_DELETED_AT =
+            "ALTER TABLE " + CustomerEntry.TABLE_NAME +
+            " ADD COLUMN " + CustomerEntry.COLUMN_DELETED_AT + " TIMESTAMP";
+
+    private static final String SQL_CREATE_VIEW_V10 = SQL_CREATE_VIEW_V7 +
+            " WHERE " + SELECTION_LIVE;
+
+    /*
+     * The indexes only hold the customers that aren't deleted. The view's filter is exactly
+     * their WHERE clause, so SQLite uses them for every query made through the view, and
+     * tombstones cost neither index space nor index lookups.
+     */
+    private static final String[][] LIVE_INDEXES = {
+            {CustomerEntry.INDEX_TIMESTAMP, CustomerEntry.COLUMN_TIMESTAMP},
+            {CustomerEntry.INDEX_NAME,
+                    CustomerEntry.COLUMN_NAME_LAST + ", " + CustomerEntry.COLUMN_NAME_FIRST},
+            {CustomerEntry.INDEX_PHONE, CustomerEntry.COLUMN_PHONE},
+            {CustomerEntry.INDEX_ZIPCODE, CustomerEntry.COLUMN_ZIPCODE_ID},
+            {CustomerEntry.INDEX_CITY, CustomerEntry.COLUMN_CITY_ID}
+    };
+
+    /* Finds the tombstones old enough to purge without looking at any live customer. */
+    private static final String SQL_CREATE_INDEX_TOMBSTONE =
+            "CREATE INDEX IF NOT EXISTS " + CustomerEntry.INDEX_TOMBSTONE + " ON " +
+            CustomerEntry.TABLE_NAME + " (" + CustomerEntry.COLUMN_DELETED_AT + ")" +
+            " WHERE " + CustomerEntry.COLUMN_DELETED + " = 1";
+
+    /*
+     * The counts of the dashboards only cover live customers: deleting a customer takes it out
+     * of its groups, and purging its tombstone later changes nothing.
+     */
+    private static final String SQL_CREATE_STATS_TRIGGER_AFTER_INSERT_V10 =
+            "CREATE TRIGGER customer_stats_after_insert AFTER INSERT ON " +
+            CustomerEntry.TABLE_NAME + " WHEN new." + SELECTION_LIVE + STATS_ADD_NEW;
+
+    private static final String SQL_CREATE_STATS_TRIGGER_AFTER_DELETE_V10 =
+            "CREATE TRIGGER customer_stats_after_delete AFTER DELETE ON " +
+            CustomerEntry.TABLE_NAME + " WHEN old." + SELECTION_LIVE + STATS_REMOVE_OLD;
+
+    /*
+     * Tombstones aren't in the full-text index: deleting a customer takes its entry out, and
+     * bringing it back puts the entry back in. The entry of a tombstone must then never be
+     * deleted again, since FTS4 would remove the terms of its text without them having been
+     * added, hence the WHEN clauses on both sides.
+     */
+    private static final String FTS_UPDATE_COLUMNS_V10 = FTS_UPDATE_COLUMNS_V6 + ", " +
+            CustomerEntry.COLUMN_DELETED;
+
+    private static final String SQL_CREATE_FTS_TRIGGER_BEFORE_UPDATE_V10 =
+            "CREATE TRIGGER customer_fts_before_update BEFORE UPDATE OF " +
+            FTS_UPDATE_COLUMNS_V10 + " ON " + CustomerEntry.TABLE_NAME +
+            " WHEN old." + SELECTION_LIVE +
+            " BEGIN DELETE FROM " + CustomerEntry.FTS_TABLE_NAME +
+            " WHERE docid = old." + CustomerEntry._ID + "; END";
+
+    private static final String SQL_CREATE_FTS_TRIGGER_BEFORE_DELETE_V10 =
+            "CREATE TRIGGER customer_fts_before_delete BEFORE DELETE ON " +
+            CustomerEntry.TABLE_NAME + " WHEN old." + SELECTION_LIVE +
+            " BEGIN DELETE FROM " + CustomerEntry.FTS_TABLE_NAME +
+            " WHERE docid = old." + CustomerEntry._ID + "; END";
+
+    private static final String SQL_CREATE_FTS_TRIGGER_AFTER_UPDATE_V10 =
+            "CREATE TRIGGER customer_fts_after_update AFTER UPDATE OF " +
+            FTS_UPDATE_COLUMNS_V10 + " ON " + CustomerEntry.TABLE_NAME +
+            " WHEN new." + SELECTION_LIVE +
+            " BEGIN INSERT INTO " + CustomerEntry.FTS_TABLE_NAME +
+            " (docid, " + FTS_COLUMNS + ")" +
+            " VALUES (new." + CustomerEntry._ID + ", " + FTS_NEW_VALUES_V6 + "); END";
+
+    private static final String SQL_CREATE_FTS_TRIGGER_AFTER_INSERT_V10 =
+            "CREATE TRIGGER customer_fts_after_insert AFTER INSERT ON " +
+            CustomerEntry.TABLE_NAME + " WHEN new." + SELECTION_LIVE +
+            " BEGIN INSERT INTO " + CustomerEntry.FTS_TABLE_NAME +
+            " (docid, " + FTS_COLUMNS + ")" +
+            " VALUES (new." + CustomerEntry._ID + ", " + FTS_NEW_VALUES_V6 + "); END";
+
+    /* Indexes every row that already exists in the content table. */
+    private static final String SQL_REBUILD_FTS =
+            "INSERT INTO " + CustomerEntry.FTS_TABLE_NAME + " (" + CustomerEntry.FTS_TABLE_NAME + ")" +
+            " VALUES ('rebuild')";
+
+    /*
+     * Pages of WAL at which SQLite checkpoints by itself on commit. WalCheckpointer normally
+     * checkpoints well before that, in the background, so this is only a backstop for when it
+     * can't keep up.
+     */
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 8192;
+
+    /* Size the WAL file is truncated back to after a checkpoint resets it. */
+    private static final long WAL_SIZE_LIMIT_BYTES = WalCheckpointer.CHECKPOINT_THRESHOLD_BYTES;
+
+    private static String createLookupTable(String lookupTable) {
+        return "CREATE TABLE " + lookupTable + " (" +
+                LookupEntry._ID + " INTEGER PRIMARY KEY, " +
+                LookupEntry.COLUMN_VALUE + " TEXT NOT NULL UNIQUE )";
+    }
+
+    /* Adds every distinct value of a text column of the (version 5) customer table. */
+    private static String fillLookupTable(String lookupTable, String column) {
+        return "INSERT OR IGNORE INTO " + lookupTable + " (" + LookupEntry.COLUMN_VALUE + ")" +
+                " SELECT DISTINCT " + column + " FROM " + CustomerEntry.TABLE_NAME +
+                " WHERE " + column + " IS NOT NULL";
+    }
+
+    /* The _ID of the value of a text column of the (version 5) customer table. */
+    private static String lookupId(String lookupTable, String column) {
+        return "(SELECT " + LookupEntry._ID + " FROM " + lookupTable +
+                " WHERE " + LookupEntry.COLUMN_VALUE + " = " +
+                CustomerEntry.TABLE_NAME + "." + column + ")";
+    }
+
+    private static String createStatsTable(String statsTable, String keyType) {
+        return "CREATE TABLE " + statsTable + " (" +
+                StatsEntry.COLUMN_GROUP_KEY + " " + keyType + " PRIMARY KEY, " +
+                StatsEntry.COLUMN_COUNT + " INTEGER NOT NULL )";
+    }
+
+    /* Counts the customers already in the table, once, when the summary table is created. */
+    private static String fillStatsTable(String statsTable, String keyFormat) {
+        return "INSERT INTO " + statsTable + " (" + StatsEntry.COLUMN_GROUP_KEY + ", " +
+                StatsEntry.COLUMN_COUNT + ")" +
+                " SELECT " + String.format(keyFormat, CustomerEntry.TABLE_NAME) + ", count(*)" +
+                " FROM " + CustomerEntry.TABLE_NAME + " GROUP BY 1";
+    }
+
+    /*
+     * Trigger statements adding a customer to its group, creating the group on its first
+     * customer. The SQLite of older devices has no UPSERT, hence the INSERT OR IGNORE. With
+     * liveOnly, they do nothing for a deleted customer.
+     */
+    private static String statsAdd(String statsTable, String keyFormat, String row,
+                                   boolean liveOnly) {
+        String key = String.format(keyFormat, row);
+        String live = liveOnly ? " WHERE " + row + "." + SELECTION_LIVE : "";
+        return "INSERT OR IGNORE INTO " + statsTable + " (" + StatsEntry.COLUMN_GROUP_KEY + ", " +
+                StatsEntry.COLUMN_COUNT + ") SELECT " + key + ", 0" + live + "; " +
+                "UPDATE " + statsTable + " SET " + StatsEntry.COLUMN_COUNT + " = " +
+                StatsEntry.COLUMN_COUNT + " + 1 WHERE " + StatsEntry.COLUMN_GROUP_KEY + " = " +
+                key + (liveOnly ? " AND " + row + "." + SELECTION_LIVE : "") + "; ";
+    }
+
+    /*
+     * Trigger statements removing a customer from its group, and the group once it is empty.
+     * With liveOnly, they do nothing for a deleted customer.
+     */
+    private static String statsRemove(String statsTable, String keyFormat, String row,
+                                      boolean liveOnly) {
+        String key = String.format(keyFormat, row);
+        return "UPDATE " + statsTable + " SET " + StatsEntry.COLUMN_COUNT + " = " +
+                StatsEntry.COLUMN_COUNT + " - 1 WHERE " + StatsEntry.COLUMN_GROUP_KEY + " = " +
+                key + (liveOnly ? " AND " + row + "." + SELECTION_LIVE : "") + "; " +
+                "DELETE FROM " + statsTable + " WHERE " + StatsEntry.COLUMN_GROUP_KEY + " = " +
+                key + " AND " + StatsEntry.COLUMN_COUNT + " <= 0; ";
+    }
+
+    /*
+     * A trigger moving a customer to another group when the column it is grouped by changes.
+     * It only fires when that column is written, and does nothing unless the group changed.
+     */
+    private static String createStatsUpdateTrigger(String statsTable, String keyFormat,
+                                                   String column) {
+        return "CREATE TRIGGER customer_" + statsTable + "_after_update" +
+                " AFTER UPDATE OF " + column + " ON " + CustomerEntry.TABLE_NAME +
+                " WHEN " + String.format(keyFormat, "old") + " != " +
+                String.format(keyFormat, "new") + " BEGIN " +
+                statsRemove(statsTable, keyFormat, "old", false) +
+                statsAdd(statsTable, keyFormat, "new", false) + "END";
+    }
+
+    /*
+     * The version 10 update trigger of a summary table, which also fires when a customer is
+     * deleted (or undeleted), and then takes it out of (or puts it back in) its
+     * group.
+     */
+    private static String createStatsUpdateTriggerV10(String statsTable, String keyFormat,
+                                                      String column) {
+        return "CREATE TRIGGER customer_" + statsTable + "_after_update" +
+                " AFTER UPDATE OF " + column + ", " + CustomerEntry.COLUMN_DELETED +
+                " ON " + CustomerEntry.TABLE_NAME +
+                " WHEN old." + CustomerEntry.COLUMN_DELETED + " != new." +
+                CustomerEntry.COLUMN_DELETED + " OR " + String.format(keyFormat, "old") +
+                " != " + String.format(keyFormat, "new") + " BEGIN " +
+                statsRemove(statsTable, keyFormat, "old", true) +
+                statsAdd(statsTable, keyFormat, "new", true) + "END";
+    }
+
+    private static String dropTrigger(String trigger) {
+        return "DROP TRIGGER IF EXISTS " + trigger;
+    }
+
+    /* The value referenced by an _ID column of the customer table. */
+    private static String lookupValue(String lookupTable, String idColumn) {
+        return "(SELECT " + LookupEntry.COLUMN_VALUE + " FROM " + lookupTable +
+                " WHERE " + lookupTable + "." + LookupEntry._ID + " = " +
+                CustomerEntry.TABLE_NAME + "." + idColumn + ")";
+    }
+
     public CustomerDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        /*
+         * With write-ahead logging a writer appends to the WAL file while readers keep reading
+         * the last committed snapshot, so the sync writing through CustomerProvider no longer
+         * blocks the customer list queries (and vice versa). SQLiteDatabase then also opens a
+         * pool of read-only connections next to the primary one, so several readers can run at
+         * the same time.
+         */
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Called when the database is being opened, before onCreate/onUpgrade. The pragmas set here
+     * apply to the primary connection, the one all writes go through.
+     *
+     * @param sqLiteDatabase The database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+        super.onConfigure(sqLiteDatabase);
+        /*
+         * In WAL mode NORMAL only syncs at checkpoints, not on every commit. A power cut can lose
+         * the last few transactions, but never corrupts the database, and the next sync brings
+         * the rows back anyway.
+         */
+        sqLiteDatabase.execSQL("PRAGMA synchronous = NORMAL");
+        /* These pragmas return their new value, so they have to be run as queries. */
+        DatabaseUtils.longForQuery(sqLiteDatabase,
+                "PRAGMA wal_autocheckpoint = " + WAL_AUTOCHECKPOINT_PAGES, null);
+        DatabaseUtils.longForQuery(sqLiteDatabase,
+                "PRAGMA journal_size_limit = " + WAL_SIZE_LIMIT_BYTES, null);
     }
 
     /**
@@ -53,16 +691,23 @@ public class CustomerDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        /*
+         * A fresh database starts from the version 1 table and then runs every migration step,
+         * so new installs and upgraded installs always end up with exactly the same schema.
+         */
         sqLiteDatabase.execSQL(SQL_CREATE_ENTRIES);
+        migrate(sqLiteDatabase, 1, DATABASE_VERSION);
     }
 
     /**
-     * This database is only a cache for online data, so its upgrade policy is simply to discard
-     * the data and call through to onCreate to recreate the table. Note that this only fires if
-     * you change the version number for your database (in our case, DATABASE_VERSION). It does NOT
-     * depend on the version number for your application found in your app/build.gradle file. If
-     * you want to update the schema without wiping data, commenting out the current body of this
-     * method should be your top priority before modifying this method.
+     * The customer book can hold a whole territory, so re-downloading it after an app update is
+     * not acceptable. Each schema version is therefore an additive migration step that is applied
+     * in order, keeping the rows already stored on the device. Note that this only fires if you
+     * change the version number for your database (in our case, DATABASE_VERSION). It does NOT
+     * depend on the version number for your application found in your app/build.gradle file.
+     *
+     * SQLiteOpenHelper already runs this method inside a transaction, so a failed step leaves the
+     * database at the old version.
      *
      * @param sqLiteDatabase Database that is being upgraded
      * @param oldVersion     The old database version
@@ -70,12 +715,170 @@ public class CustomerDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        sqLiteDatabase.execSQL(SQL_DELETE_ENTRIES);
-        onCreate(sqLiteDatabase);
+        migrate(sqLiteDatabase, oldVersion, newVersion);
     }
 
+    /**
+     * There is no way to undo a newer schema step by step, so a downgrade falls back to discarding
+     * the data and recreating the table from scratch.
+     */
     @Override
     public void onDowngrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        onUpgrade(sqLiteDatabase, oldVersion, newVersion);
+        sqLiteDatabase.execSQL(SQL_DELETE_IMPORT_CHECKPOINT);
+        sqLiteDatabase.execSQL(SQL_DELETE_STATS_CITY);
+        sqLiteDatabase.execSQL(SQL_DELETE_STATS_STATE);
+        sqLiteDatabase.execSQL(SQL_DELETE_STATS_ZIPCODE);
+        sqLiteDatabase.execSQL(SQL_DELETE_STATS_DAY);
+        sqLiteDatabase.execSQL(SQL_DELETE_OUTBOX);
+        sqLiteDatabase.execSQL(SQL_DELETE_GEO);
+        sqLiteDatabase.execSQL(SQL_DELETE_FTS);
+        sqLiteDatabase.execSQL(SQL_DELETE_FTS_CONTENT_VIEW);
+        sqLiteDatabase.execSQL(SQL_DELETE_VIEW);
+        sqLiteDatabase.execSQL(SQL_DELETE_ENTRIES);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LookupEntry.CITY_TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LookupEntry.STATE_TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LookupEntry.ZIPCODE_TABLE_NAME);
+        onCreate(sqLiteDatabase);
+    }
+
+    /**
+     * Applies every migration step after oldVersion up to and including newVersion. Each case
+     * deliberately falls through to the next one.
+     */
+    private void migrate(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        switch (oldVersion) {
+            case 1:
+                if (newVersion < 2) break;
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_TIMESTAMP);
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_NAME);
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_PHONE);
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_ZIPCODE);
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_CITY);
+                /* Let the query planner know about the new indexes straight away. */
+                sqLiteDatabase.execSQL("ANALYZE");
+            case 2:
+                if (newVersion < 3) break;
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS);
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_TRIGGER_BEFORE_UPDATE);
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_TRIGGER_BEFORE_DELETE);
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_TRIGGER_AFTER_UPDATE);
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_TRIGGER_AFTER_INSERT);
+                sqLiteDatabase.execSQL(SQL_REBUILD_FTS);
+            case 3:
+                if (newVersion < 4) break;
+                sqLiteDatabase.execSQL(SQL_CREATE_IMPORT_CHECKPOINT);
+            case 4:
+                if (newVersion < 5) break;
+                sqLiteDatabase.execSQL(SQL_ADD_ACCOUNT_NUMBER);
+                sqLiteDatabase.execSQL(SQL_ADD_ROW_HASH);
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_ACCOUNT_NUMBER);
+            case 5:
+                if (newVersion < 6) break;
+                sqLiteDatabase.execSQL(createLookupTable(LookupEntry.CITY_TABLE_NAME));
+                sqLiteDatabase.execSQL(createLookupTable(LookupEntry.STATE_TABLE_NAME));
+                sqLiteDatabase.execSQL(createLookupTable(LookupEntry.ZIPCODE_TABLE_NAME));
+                sqLiteDatabase.execSQL(fillLookupTable(LookupEntry.CITY_TABLE_NAME,
+                        CustomerEntry.COLUMN_CITY));
+                sqLiteDatabase.execSQL(fillLookupTable(LookupEntry.STATE_TABLE_NAME,
+                        CustomerEntry.COLUMN_STATE));
+                sqLiteDatabase.execSQL(fillLookupTable(LookupEntry.ZIPCODE_TABLE_NAME,
+                        CustomerEntry.COLUMN_ZIPCODE));
+                /* The full-text index moves to the new content view, so it is rebuilt too. */
+                sqLiteDatabase.execSQL(SQL_DELETE_FTS);
+                sqLiteDatabase.execSQL(SQL_CREATE_CUSTOMER_V6);
+                sqLiteDatabase.execSQL(SQL_COPY_CUSTOMER_V6);
+                /* Dropping the old table also drops its indexes and triggers. */
+                sqLiteDatabase.execSQL(SQL_DELETE_ENTRIES);
+                sqLiteDatabase.execSQL(SQL_RENAME_CUSTOMER_V6);
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_TIMESTAMP);
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_NAME);
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_PHONE);
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_ZIPCODE_ID);
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_CITY_ID);
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_ACCOUNT_NUMBER);
+                sqLiteDatabase.execSQL(SQL_CREATE_VIEW);
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_CONTENT_VIEW);
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_V6);
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_TRIGGER_BEFORE_UPDATE_V6);
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_TRIGGER_BEFORE_DELETE);
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_TRIGGER_AFTER_UPDATE_V6);
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_TRIGGER_AFTER_INSERT_V6);
+                sqLiteDatabase.execSQL(SQL_REBUILD_FTS);
+                sqLiteDatabase.execSQL("ANALYZE");
+            case 6:
+                if (newVersion < 7) break;
+                sqLiteDatabase.execSQL(SQL_ADD_LATITUDE);
+                sqLiteDatabase.execSQL(SQL_ADD_LONGITUDE);
+                sqLiteDatabase.execSQL(SQL_CREATE_GEO);
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_GEO_CELL);
+                sqLiteDatabase.execSQL(SQL_CREATE_GEO_TRIGGER_AFTER_INSERT);
+                sqLiteDatabase.execSQL(SQL_CREATE_GEO_TRIGGER_AFTER_UPDATE);
+                sqLiteDatabase.execSQL(SQL_CREATE_GEO_TRIGGER_AFTER_DELETE);
+                /* The view lists its columns, so it has to be recreated to show the new ones. */
+                sqLiteDatabase.execSQL(SQL_DELETE_VIEW);
+                sqLiteDatabase.execSQL(SQL_CREATE_VIEW_V7);
+            case 7:
+                if (newVersion < 8) break;
+                sqLiteDatabase.execSQL(SQL_CREATE_OUTBOX);
+            case 8:
+                if (newVersion < 9) break;
+                sqLiteDatabase.execSQL(createStatsTable(StatsEntry.CITY_TABLE_NAME, "INTEGER"));
+                sqLiteDatabase.execSQL(createStatsTable(StatsEntry.STATE_TABLE_NAME, "INTEGER"));
+                sqLiteDatabase.execSQL(createStatsTable(StatsEntry.ZIPCODE_TABLE_NAME, "INTEGER"));
+                sqLiteDatabase.execSQL(createStatsTable(StatsEntry.DAY_TABLE_NAME, "TEXT"));
+                sqLiteDatabase.execSQL(fillStatsTable(StatsEntry.CITY_TABLE_NAME, CITY_KEY));
+                sqLiteDatabase.execSQL(fillStatsTable(StatsEntry.STATE_TABLE_NAME, STATE_KEY));
+                sqLiteDatabase.execSQL(fillStatsTable(StatsEntry.ZIPCODE_TABLE_NAME, ZIPCODE_KEY));
+                sqLiteDatabase.execSQL(fillStatsTable(StatsEntry.DAY_TABLE_NAME, DAY_KEY));
+                sqLiteDatabase.execSQL(SQL_CREATE_STATS_TRIGGER_AFTER_INSERT);
+                sqLiteDatabase.execSQL(SQL_CREATE_STATS_TRIGGER_AFTER_DELETE);
+                sqLiteDatabase.execSQL(createStatsUpdateTrigger(StatsEntry.CITY_TABLE_NAME,
+                        CITY_KEY, CustomerEntry.COLUMN_CITY_ID));
+                sqLiteDatabase.execSQL(createStatsUpdateTrigger(StatsEntry.STATE_TABLE_NAME,
+                        STATE_KEY, CustomerEntry.COLUMN_STATE_ID));
+                sqLiteDatabase.execSQL(createStatsUpdateTrigger(StatsEntry.ZIPCODE_TABLE_NAME,
+                        ZIPCODE_KEY, CustomerEntry.COLUMN_ZIPCODE_ID));
+                sqLiteDatabase.execSQL(createStatsUpdateTrigger(StatsEntry.DAY_TABLE_NAME,
+                        DAY_KEY, CustomerEntry.COLUMN_TIMESTAMP));
+            case 9:
+                if (newVersion < 10) break;
+                sqLiteDatabase.execSQL(SQL_ADD_DELETED);
+                sqLiteDatabase.execSQL(SQL_ADD_DELETED_AT);
+                for (String[] index : LIVE_INDEXES) {
+                    sqLiteDatabase.execSQL("DROP INDEX IF EXISTS " + index[0]);
+                    sqLiteDatabase.execSQL("CREATE INDEX " + index[0] + " ON " +
+                            CustomerEntry.TABLE_NAME + " (" + index[1] + ")" +
+                            " WHERE " + SELECTION_LIVE);
+                }
+                sqLiteDatabase.execSQL(SQL_CREATE_INDEX_TOMBSTONE);
+                sqLiteDatabase.execSQL(SQL_DELETE_VIEW);
+                sqLiteDatabase.execSQL(SQL_CREATE_VIEW_V10);
+                sqLiteDatabase.execSQL(dropTrigger("customer_stats_after_insert"));
+                sqLiteDatabase.execSQL(dropTrigger("customer_stats_after_delete"));
+                sqLiteDatabase.execSQL(SQL_CREATE_STATS_TRIGGER_AFTER_INSERT_V10);
+                sqLiteDatabase.execSQL(SQL_CREATE_STATS_TRIGGER_AFTER_DELETE_V10);
+                sqLiteDatabase.execSQL(dropTrigger("customer_fts_before_update"));
+                sqLiteDatabase.execSQL(dropTrigger("customer_fts_before_delete"));
+                sqLiteDatabase.execSQL(dropTrigger("customer_fts_after_update"));
+                sqLiteDatabase.execSQL(dropTrigger("customer_fts_after_insert"));
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_TRIGGER_BEFORE_UPDATE_V10);
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_TRIGGER_BEFORE_DELETE_V10);
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_TRIGGER_AFTER_UPDATE_V10);
+                sqLiteDatabase.execSQL(SQL_CREATE_FTS_TRIGGER_AFTER_INSERT_V10);
+                String[][] groupings = {
+                        {StatsEntry.CITY_TABLE_NAME, CITY_KEY, CustomerEntry.COLUMN_CITY_ID},
+                        {StatsEntry.STATE_TABLE_NAME, STATE_KEY, CustomerEntry.COLUMN_STATE_ID},
+                        {StatsEntry.ZIPCODE_TABLE_NAME, ZIPCODE_KEY,
+                                CustomerEntry.COLUMN_ZIPCODE_ID},
+                        {StatsEntry.DAY_TABLE_NAME, DAY_KEY, CustomerEntry.COLUMN_TIMESTAMP}
+                };
+                for (String[] grouping : groupings) {
+                    sqLiteDatabase.execSQL(
+                            dropTrigger("customer_" + grouping[0] + "_after_update"));
+                    sqLiteDatabase.execSQL(
+                            createStatsUpdateTriggerV10(grouping[0], grouping[1], grouping[2]));
+                }
+                sqLiteDatabase.execSQL("ANALYZE");
+        }
     }
 }
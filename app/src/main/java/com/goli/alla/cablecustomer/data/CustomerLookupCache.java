@@ -0,0 +1,231 @@
+package com.goli.alla.cablecustomer.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.database.sqlite.SQLiteTransactionListener;
+
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.LookupEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Translates the city, state and zipcode values written to the customer table into the _IDs of
+ * their lookup table rows.
+ * <p>
+ * Since version 6 the customer table stores those three columns as integer references into
+ * LookupEntry tables, while callers keep reading and writing the plain text columns. A few hundred
+ * distinct values cover millions of rows, so the translations are cached in memory and a write
+ * normally costs a HashMap lookup per column; an unknown value is looked up or added to its
+ * lookup table once.
+ * <p>
+ * A value added inside a transaction that rolls back disappears from the lookup table again, so
+ * its _ID must not be shared before the transaction commits. Pass the cache as the listener of
+ * every write transaction (beginTransactionWithListenerNonExclusive): the _IDs learned inside the
+ * transaction are kept aside for its own thread and only published when it commits.
+ * <p>
+ * The database is never used while holding the cache lock: a thread waiting for the primary
+ * connection inside that lock would deadlock with the transaction holding the connection.
+ */
+class CustomerLookupCache implements SQLiteTransactionListener {
+
+    /* A cache that grows past this many values per table is simply emptied. */
+    private static final int MAX_CACHED_VALUES = 4096;
+
+    /* Committed _IDs by value, per lookup table. Guarded by "this". */
+    private final Map<String, Map<String, Long>> mIdsByTable = new HashMap<>();
+
+    /* The transaction running on the current thread, if it was started with this listener. */
+    private final ThreadLocal<PendingIds> mPendingIds = new ThreadLocal<>();
+
+    /*
+     * _IDs learned in a transaction, not committed yet. SQLiteDatabase calls the listener for
+     * nested transactions too, so only the outermost one publishes; if any level rolls back, so
+     * does the whole transaction.
+     */
+    private static class PendingIds {
+        final Map<String, Map<String, Long>> mIdsByTable = new HashMap<>();
+        int mDepth = 1;
+        boolean mRolledBack;
+    }
+
+    /**
+     * @param column A column of CustomerEntry, as seen by callers
+     * @return The lookup table holding the values of the column, or null if the column is stored
+     * as is
+     */
+    static String getLookupTable(String column) {
+        switch (column) {
+            case CustomerEntry.COLUMN_CITY:
+                return LookupEntry.CITY_TABLE_NAME;
+            case CustomerEntry.COLUMN_STATE:
+                return LookupEntry.STATE_TABLE_NAME;
+            case CustomerEntry.COLUMN_ZIPCODE:
+                return LookupEntry.ZIPCODE_TABLE_NAME;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param column A column of CustomerEntry, as seen by callers
+     * @return The name of the column in the customer table itself
+     */
+    static String getStorageColumn(String column) {
+        switch (column) {
+            case CustomerEntry.COLUMN_CITY:
+                return CustomerEntry.COLUMN_CITY_ID;
+            case CustomerEntry.COLUMN_STATE:
+                return CustomerEntry.COLUMN_STATE_ID;
+            case CustomerEntry.COLUMN_ZIPCODE:
+                return CustomerEntry.COLUMN_ZIPCODE_ID;
+            default:
+                return column;
+        }
+    }
+
+    /**
+     * Returns the _ID of a value in a lookup table, adding the value to the table if needed.
+     * Must be called on a writable database, inside the caller's transaction if it has one.
+     *
+     * @param db          The database
+     * @param lookupTable One of the LookupEntry tables
+     * @param value       The value; may be null
+     * @return The _ID, or null for a null value
+     */
+    Long getId(SQLiteDatabase db, String lookupTable, String value) {
+        if (value == null) return null;
+
+        Long id;
+        synchronized (this) {
+            id = get(mIdsByTable, lookupTable, value);
+        }
+        if (id != null) return id;
+
+        PendingIds pendingIds = mPendingIds.get();
+        Map<String, Map<String, Long>> pendingIdsByTable =
+                pendingIds == null ? null : pendingIds.mIdsByTable;
+        if (pendingIdsByTable != null) {
+            id = get(pendingIdsByTable, lookupTable, value);
+            if (id != null) return id;
+        }
+
+        SQLiteStatement select = db.compileStatement("SELECT " + LookupEntry._ID +
+                " FROM " + lookupTable + " WHERE " + LookupEntry.COLUMN_VALUE + " = ?");
+        try {
+            select.bindString(1, value);
+            id = select.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            /* Not in the table yet, unless another thread has added it in the meantime. */
+            ContentValues lookupValues = new ContentValues(1);
+            lookupValues.put(LookupEntry.COLUMN_VALUE, value);
+            id = db.insertWithOnConflict(lookupTable, null, lookupValues,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+            if (id == -1) {
+                id = select.simpleQueryForLong();
+            }
+        } finally {
+            select.close();
+        }
+
+        if (pendingIdsByTable != null) {
+            put(pendingIdsByTable, lookupTable, value, id);
+        } else {
+            /* Outside a transaction the value was committed right away. */
+            synchronized (this) {
+                put(mIdsByTable, lookupTable, value, id);
+            }
+        }
+        return id;
+    }
+
+    private static Long get(Map<String, Map<String, Long>> idsByTable, String lookupTable,
+                            String value) {
+        Map<String, Long> ids = idsByTable.get(lookupTable);
+        return ids == null ? null : ids.get(value);
+    }
+
+    private static void put(Map<String, Map<String, Long>> idsByTable, String lookupTable,
+                            String value, Long id) {
+        Map<String, Long> ids = idsByTable.get(lookupTable);
+        if (ids == null) {
+            ids = new HashMap<>();
+            idsByTable.put(lookupTable, ids);
+        } else if (ids.size() >= MAX_CACHED_VALUES) {
+            ids.clear();
+        }
+        ids.put(value, id);
+    }
+
+    /**
+     * Translates ContentValues written by a caller into the columns of the customer table.
+     *
+     * @param db     The database
+     * @param values The caller's values; not modified
+     * @return The same values if there is nothing to translate, otherwise a translated copy
+     */
+    ContentValues toStorageValues(SQLiteDatabase db, ContentValues values) {
+        if (values == null
+                || !values.containsKey(CustomerEntry.COLUMN_CITY)
+                && !values.containsKey(CustomerEntry.COLUMN_STATE)
+                && !values.containsKey(CustomerEntry.COLUMN_ZIPCODE)) {
+            return values;
+        }
+
+        ContentValues storageValues = new ContentValues(values);
+        translate(db, storageValues, CustomerEntry.COLUMN_CITY);
+        translate(db, storageValues, CustomerEntry.COLUMN_STATE);
+        translate(db, storageValues, CustomerEntry.COLUMN_ZIPCODE);
+        return storageValues;
+    }
+
+    private void translate(SQLiteDatabase db, ContentValues values, String column) {
+        if (!values.containsKey(column)) return;
+        Long id = getId(db, getLookupTable(column), values.getAsString(column));
+        values.remove(column);
+        values.put(getStorageColumn(column), id);
+    }
+
+    @Override
+    public void onBegin() {
+        PendingIds pendingIds = mPendingIds.get();
+        if (pendingIds == null) {
+            mPendingIds.set(new PendingIds());
+        } else {
+            pendingIds.mDepth++;
+        }
+    }
+
+    @Override
+    public void onCommit() {
+        PendingIds pendingIds = end();
+        if (pendingIds == null || pendingIds.mRolledBack) return;
+        synchronized (this) {
+            for (Map.Entry<String, Map<String, Long>> table : pendingIds.mIdsByTable.entrySet()) {
+                for (Map.Entry<String, Long> entry : table.getValue().entrySet()) {
+                    put(mIdsByTable, table.getKey(), entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onRollback() {
+        PendingIds pendingIds = mPendingIds.get();
+        if (pendingIds != null) {
+            pendingIds.mRolledBack = true;
+        }
+        end();
+    }
+
+    /* Leaves a transaction level; returns the pending _IDs once the outermost one ended. */
+    private PendingIds end() {
+        PendingIds pendingIds = mPendingIds.get();
+        if (pendingIds == null || --pendingIds.mDepth > 0) return null;
+        mPendingIds.remove();
+        return pendingIds;
+    }
+}
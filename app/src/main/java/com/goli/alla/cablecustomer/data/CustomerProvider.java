@@ -1,17 +1,50 @@
 package com.goli.alla.cablecustomer.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDebug;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.GeoEntry;
+import com.goli.alla.cablecustomer.route.RoutePlanner;
+import com.goli.alla.cablecustomer.data.CustomerContract.ImportCheckpointEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.LookupEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.OutboxEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.StatsEntry;
+import com.goli.alla.cablecustomer.metrics.Counter;
+import com.goli.alla.cablecustomer.metrics.FillTimingCursor;
+import com.goli.alla.cablecustomer.metrics.Gauge;
+import com.goli.alla.cablecustomer.metrics.LatencyHistogram;
+import com.goli.alla.cablecustomer.metrics.Metrics;
+import com.goli.alla.cablecustomer.sync.OutboxDrainJobService;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 
 
 /**
@@ -34,6 +67,77 @@ public class CustomerProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single Customer in the Customers table */
     private static final int CUSTOMER_ID = 101;
 
+    /** URI matcher code for the content URI of a full-text search over the Customers table */
+    private static final int CUSTOMER_SEARCH = 102;
+
+    /** URI matcher code for the content URI of the Customers around a point */
+    private static final int CUSTOMER_NEAR = 103;
+
+    /** URI matcher code for the content URI of a day's Customers in visiting order */
+    private static final int CUSTOMER_ROUTE = 104;
+
+    /** URI matcher code for the content URI of the number of Customers per group */
+    private static final int CUSTOMER_STATS = 105;
+
+    /* The code for the outbox of edits waiting for the head-end. */
+    private static final int OUTBOX = 200;
+
+    /*
+     * applyBatch gives other connections a chance to use the database after this many operations,
+     * so a long batch from the sync doesn't lock out the UI for its whole duration.
+     */
+    private static final int YIELD_BATCH_SIZE = 500;
+
+    /** Number of search results returned when the caller does not pass a limit */
+    private static final int DEFAULT_SEARCH_LIMIT = 50;
+
+    /** Radius and number of customers of a near query when the caller does not pass them */
+    private static final double DEFAULT_NEAR_RADIUS_KM = 10;
+    private static final int DEFAULT_NEAR_LIMIT = 50;
+
+    /** Time the route planner may take when the caller does not say, and at most */
+    private static final long DEFAULT_ROUTE_BUDGET_MS = 150;
+    private static final long MAX_ROUTE_BUDGET_MS = 2000;
+
+    /** Most stops a route may have */
+    private static final int MAX_ROUTE_STOPS = 400;
+
+    /** Memory the row cache may use; a customer row takes roughly half a kilobyte */
+    private static final int ROW_CACHE_MAX_BYTES = 256 * 1024;
+
+    /*
+     * Timings of the provider's entry points, and of filling the cursors it returns. Only
+     * recorded when Metrics.ENABLED; see Metrics.
+     */
+    private static final LatencyHistogram QUERY_LATENCY = Metrics.histogram("provider.query");
+    private static final LatencyHistogram INSERT_LATENCY = Metrics.histogram("provider.insert");
+    private static final LatencyHistogram BULK_INSERT_LATENCY =
+            Metrics.histogram("provider.bulk_insert");
+    private static final LatencyHistogram UPDATE_LATENCY = Metrics.histogram("provider.update");
+    private static final LatencyHistogram DELETE_LATENCY = Metrics.histogram("provider.delete");
+    private static final LatencyHistogram BULK_LOAD_LATENCY =
+            Metrics.histogram("provider.bulk_load");
+    private static final LatencyHistogram CURSOR_FILL_LATENCY =
+            Metrics.histogram("provider.cursor_fill");
+
+    private static final Counter ROWS_WRITTEN = Metrics.counter("provider.rows_written");
+    private static final Counter ROWS_DELETED = Metrics.counter("provider.rows_deleted");
+    /* Rows of upserts that were skipped because the customer hadn't changed. */
+    private static final Counter ROWS_UNCHANGED = Metrics.counter("provider.rows_unchanged");
+    /* Rows of upserts that were skipped because the customer was deleted on the device. */
+    private static final Counter ROWS_KEPT_DELETED = Metrics.counter("provider.rows_kept_deleted");
+    private static final Counter QUERIES_CANCELED = Metrics.counter("provider.queries_canceled");
+
+    /* The maintenance of the database file; see CompactionJobService. */
+    private static final Counter TOMBSTONES_PURGED = Metrics.counter("db.tombstones_purged");
+    private static final LatencyHistogram VACUUM_LATENCY = Metrics.histogram("db.vacuum");
+
+    /* Turns the live customers into tombstones; see CustomerDbHelper. */
+    private static final String SQL_SOFT_DELETE = "UPDATE " + CustomerEntry.TABLE_NAME +
+            " SET " + CustomerEntry.COLUMN_DELETED + " = 1, " +
+            CustomerEntry.COLUMN_DELETED_AT + " = CURRENT_TIMESTAMP" +
+            " WHERE " + CustomerDbHelper.SELECTION_LIVE;
+
     /*
      * The URI Matcher used by this content provider. The leading "s" in this variable name
      * signifies that this UriMatcher is a static member variable of CustomerProvider and is a
@@ -43,6 +147,36 @@ public class CustomerProvider extends ContentProvider {
 
     private CustomerDbHelper mCustomerDbHelper;
 
+    /* Coalesces the change notifications sent to observers of our URIs. */
+    private CustomerChangeNotifier mChangeNotifier;
+
+    /* Checkpoints the write-ahead log in the background once writes have grown it. */
+    private WalCheckpointer mWalCheckpointer;
+
+    /* Purges tombstones and vacuums the database file for the maintenance job. */
+    private CustomerDbCompactor mCompactor;
+
+    /* Decoded rows of the customers looked up by _ID most recently. */
+    private final CustomerRowCache mRowCache = new CustomerRowCache(ROW_CACHE_MAX_BYTES);
+
+    /* Compiled statements and SQL for reading, updating and deleting a customer by _ID. */
+    private final CustomerStatementCache mStatementCache = new CustomerStatementCache();
+
+    /*
+     * The lookup table _IDs of the cities, states and zipcodes written so far. It also listens
+     * to every write transaction, so it must be passed to beginTransactionWithListener*.
+     */
+    private final CustomerLookupCache mLookupCache = new CustomerLookupCache();
+
+    /* Orders the stops of PATH_ROUTE queries. Its threads are only started on first use. */
+    private final RoutePlanner mRoutePlanner = new RoutePlanner();
+
+    /*
+     * Set on the thread running applyBatch, and to true once one of its operations recorded an
+     * edit, so the outbox drain is scheduled once for the whole batch rather than per operation.
+     */
+    private final ThreadLocal<Boolean> mBatchDrainNeeded = new ThreadLocal<>();
+
     /**
      * Creates the UriMatcher that will match each URI to the CUSTOMER and
      * CUSTOMER_ID constants defined above.
@@ -84,6 +218,39 @@ public class CustomerProvider extends ContentProvider {
          */
         uriMatcher.addURI(authority, CustomerContract.PATH_CUSTOMER + "/#", CUSTOMER_ID);
 
+        /*
+         * This URI would look something like content://com.goli.alla.cablecustomer/customer/search/venk
+         * The "/*" matches any text, which is the search query typed by the user.
+         */
+        uriMatcher.addURI(authority, CustomerContract.PATH_CUSTOMER + "/" +
+                CustomerContract.PATH_SEARCH + "/*", CUSTOMER_SEARCH);
+
+        /*
+         * This URI would look something like
+         * content://com.goli.alla.cablecustomer/customer/near?lat=40.86&lon=-74.70
+         * The point and radius are query parameters, which the UriMatcher ignores.
+         */
+        uriMatcher.addURI(authority, CustomerContract.PATH_CUSTOMER + "/" +
+                CustomerContract.PATH_NEAR, CUSTOMER_NEAR);
+
+        /*
+         * This URI would look something like
+         * content://com.goli.alla.cablecustomer/customer/route?ids=12,7,31
+         */
+        uriMatcher.addURI(authority, CustomerContract.PATH_CUSTOMER + "/" +
+                CustomerContract.PATH_ROUTE, CUSTOMER_ROUTE);
+
+        /*
+         * This URI would look something like
+         * content://com.goli.alla.cablecustomer/customer/stats/city
+         * The "/*" matches the grouping, which queryStats checks.
+         */
+        uriMatcher.addURI(authority, CustomerContract.PATH_CUSTOMER + "/" +
+                CustomerContract.PATH_STATS + "/*", CUSTOMER_STATS);
+
+        /* This URI is content://com.goli.alla.cablecustomer/outbox */
+        uriMatcher.addURI(authority, CustomerContract.PATH_OUTBOX, OUTBOX);
+
         return uriMatcher;
     }
 
@@ -110,6 +277,47 @@ public class CustomerProvider extends ContentProvider {
          * very lightweight, we are safe to perform that initialization here.
          */
         mCustomerDbHelper = new CustomerDbHelper(getContext());
+        mChangeNotifier = new CustomerChangeNotifier(getContext().getContentResolver());
+        mWalCheckpointer = new WalCheckpointer(mCustomerDbHelper);
+        mCompactor = new CustomerDbCompactor(mCustomerDbHelper);
+        if (Metrics.ENABLED) {
+            Metrics.gauge("provider.row_cache_bytes", new Gauge() {
+                @Override
+                public long getValue() {
+                    return mRowCache.getSizeBytes();
+                }
+            });
+            Metrics.gauge("provider.wal_bytes", new Gauge() {
+                @Override
+                public long getValue() {
+                    return mWalCheckpointer.getWalSizeBytes();
+                }
+            });
+            Metrics.gauge("provider.statement_cache_hit_permille", new Gauge() {
+                @Override
+                public long getValue() {
+                    return mStatementCache.getHitRatePermille();
+                }
+            });
+            Metrics.gauge("db.file_bytes", new Gauge() {
+                @Override
+                public long getValue() {
+                    return mCompactor.getFileBytes();
+                }
+            });
+            Metrics.gauge("db.page_count", new Gauge() {
+                @Override
+                public long getValue() {
+                    return mCompactor.getPageCount();
+                }
+            });
+            Metrics.gauge("db.free_pages", new Gauge() {
+                @Override
+                public long getValue() {
+                    return mCompactor.getFreePageCount();
+                }
+            });
+        }
         return true;
     }
 
@@ -131,6 +339,41 @@ public class CustomerProvider extends ContentProvider {
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Handles query requests that the caller can cancel, such as those of CustomerQueryRunner.
+     * The signal is handed to SQLite with the statement, so cancelling interrupts SQLite in the
+     * middle of a scan, either while the query runs here or while the cursor is being filled,
+     * and the caller gets an OperationCanceledException.
+     *
+     * @param cancellationSignal Cancels the query; may be null
+     * @see #query(Uri, String[], String, String[], String)
+     */
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder,
+                        @Nullable CancellationSignal cancellationSignal) {
+        long startNanos = Metrics.ENABLED ? System.nanoTime() : 0;
+        Cursor cursor;
+        try {
+            cursor = doQuery(uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+        } catch (OperationCanceledException e) {
+            if (Metrics.ENABLED) QUERIES_CANCELED.increment();
+            throw e;
+        }
+        if (Metrics.ENABLED) {
+            QUERY_LATENCY.recordSince(startNanos);
+            cursor = new FillTimingCursor(cursor, CURSOR_FILL_LATENCY);
+        }
+        return cursor;
+    }
+
+    private Cursor doQuery(Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder,
+                           CancellationSignal cancellationSignal) {
         Cursor cursor;
 
         int match = sUriMatcher.match(uri);
@@ -150,13 +393,57 @@ public class CustomerProvider extends ContentProvider {
              * in our customer table.
              */
             case CUSTOMER:
-                cursor = sqLiteDatabase.query(CustomerEntry.TABLE_NAME,
+                String limit = uri.getQueryParameter(CustomerContract.QUERY_PARAMETER_LIMIT);
+                String after = uri.getQueryParameter(CustomerContract.QUERY_PARAMETER_AFTER);
+                /*
+                 * A paged query always uses PAGE_SORT_ORDER, because the "after" key only has a
+                 * meaning in that order.
+                 */
+                if (after != null) {
+                    int comma = after.lastIndexOf(',');
+                    String afterId = String.valueOf(parseLong(uri, after.substring(comma + 1)));
+                    String keySelection;
+                    if (comma < 0) {
+                        /*
+                         * The previous page ended among the customers without a timestamp,
+                         * which come last.
+                         */
+                        keySelection = "(" + CustomerEntry.COLUMN_TIMESTAMP + " IS NULL AND " +
+                                CustomerEntry._ID + " < ?)";
+                        selectionArgs = appendSelectionArgs(selectionArgs, afterId);
+                    } else {
+                        String afterTimestamp = after.substring(0, comma);
+                        /*
+                         * Row values ("(timestamp, _id) < (?, ?)") need SQLite 3.15, so spell
+                         * the comparison out. SQLite still turns it into a range scan on the
+                         * timestamp index. The customers without a timestamp come after
+                         * every key that has one.
+                         */
+                        keySelection = "(" + CustomerEntry.COLUMN_TIMESTAMP + " < ? OR (" +
+                                CustomerEntry.COLUMN_TIMESTAMP + " = ? AND " +
+                                CustomerEntry._ID + " < ?) OR " +
+                                CustomerEntry.COLUMN_TIMESTAMP + " IS NULL)";
+                        selectionArgs = appendSelectionArgs(selectionArgs,
+                                afterTimestamp, afterTimestamp, afterId);
+                    }
+                    selection = selection == null
+                            ? keySelection
+                            : "(" + selection + ") AND " + keySelection;
+                }
+                if (after != null || limit != null) {
+                    sortOrder = CustomerEntry.PAGE_SORT_ORDER;
+                }
+                /* Reads go through the view, which has the city, state and zipcode as text. */
+                cursor = sqLiteDatabase.query(false,
+                        CustomerEntry.VIEW_NAME,
                         projection,
                         selection,
                         selectionArgs,
                         null,
                         null,
-                        sortOrder);
+                        sortOrder,
+                        limit,
+                        cancellationSignal);
                 break;
              /*
              * When sUriMatcher's match method is called with a URI that looks something like this
@@ -171,56 +458,615 @@ public class CustomerProvider extends ContentProvider {
              * a particular date.
              */
             case CUSTOMER_ID:
-                String customerId = uri.getLastPathSegment();
                 /*
                  * The URI that matches CUSTOMER_ID contains a integer at the end
-                 * of it. We extract that integer and use it with these next two lines to
-                 * specify the row of customer we want returned in the cursor. We use a
-                 * question mark here and then designate selectionArguments as the next
-                 * argument for performance reasons. Whatever Strings are contained
-                 * within the selectionArguments array will be inserted into the
-                 * selection statement by SQLite under the hood.
+                 * of it. The statement cache binds it to the "?" of its "_ID = ?" selection,
+                 * rather than pasting it into the SQL, so the SQL is the same for every customer
+                 * and SQLite only has to compile it once.
                  */
-                String mSelection = "_ID = ?";
+                long customerId = ContentUris.parseId(uri);
+
+                /* Customers opened again during a visit come straight from the row cache. */
+                cursor = queryCachedCustomer(sqLiteDatabase, customerId, projection,
+                        cancellationSignal);
+                if (cursor != null) break;
+
                 /*
-                 * The query method accepts a string array of arguments, as there may be more
-                 * than one "?" in the selection statement. Even though in our case, we only have
-                 * one "?", we have to create a string array that only contains one element
-                 * because this method signature accepts a string array.
+                 * A projection designates the columns we want returned in our Cursor.
+                 * Passing null will return all columns of data within the Cursor.
+                 * However, if you don't need all the data from the table, it's best
+                 * practice to limit the columns returned in the Cursor with a projection.
                  */
-                String[] mSelectionArgs = new String[]{customerId};
-                cursor = sqLiteDatabase.query(CustomerEntry.TABLE_NAME,
-                        /*
-                         * A projection designates the columns we want returned in our Cursor.
-                         * Passing null will return all columns of data within the Cursor.
-                         * However, if you don't need all the data from the table, it's best
-                         * practice to limit the columns returned in the Cursor with a projection.
-                         */
-                        projection,
-                        mSelection,
-                        mSelectionArgs,
-                        null,
-                        null,
-                        null);
+                cursor = mStatementCache.queryById(sqLiteDatabase, projection, customerId,
+                        cancellationSignal);
+                break;
+            /*
+             * content://com.goli.alla.cablecustomer/customer/search/<query> returns the customers
+             * matching the words in the last path segment, best matches first.
+             */
+            case CUSTOMER_SEARCH:
+                cursor = querySearch(sqLiteDatabase, uri, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                break;
+            /*
+             * content://com.goli.alla.cablecustomer/customer/near?lat=..&lon=.. returns the
+             * customers within the radius of the point, nearest first.
+             */
+            case CUSTOMER_NEAR:
+                cursor = queryNear(sqLiteDatabase, uri, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                break;
+            /*
+             * content://com.goli.alla.cablecustomer/customer/route?ids=.. returns the given
+             * customers in the order the tech should visit them.
+             */
+            case CUSTOMER_ROUTE:
+                cursor = queryRoute(sqLiteDatabase, uri, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                break;
+            /*
+             * content://com.goli.alla.cablecustomer/customer/stats/<grouping> returns the number
+             * of customers in each city, state, zipcode or day, read from its summary table.
+             */
+            case CUSTOMER_STATS:
+                cursor = queryStats(sqLiteDatabase, uri, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
+                break;
+            /*
+             * content://com.goli.alla.cablecustomer/outbox returns the edits waiting for the
+             * head-end, oldest first, with the current account number of their customer.
+             */
+            case OUTBOX:
+                cursor = queryOutbox(sqLiteDatabase, uri, projection, selection, selectionArgs,
+                        sortOrder, cancellationSignal);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown Uri: " + uri);
         }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        /*
+         * Single customers are reported under their own URI, which isn't below the search, near,
+         * route or stats URIs, while any customer can enter or leave those results (and change
+         * the counts). Cursors registered on the collection URI are told about its descendants
+         * too, so those catch every change.
+         */
+        Uri notificationUri;
+        switch (match) {
+            case CUSTOMER_SEARCH:
+            case CUSTOMER_NEAR:
+            case CUSTOMER_ROUTE:
+            case CUSTOMER_STATS:
+                notificationUri = CustomerEntry.CONTENT_URI;
+                break;
+            default:
+                notificationUri = uri;
+        }
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
 
         return cursor;
     }
 
+    /**
+     * Answers a single customer lookup from the row cache, loading the whole row into the cache
+     * on a miss.
+     *
+     * @return A cursor over the row (empty if the customer doesn't exist), or null if the
+     * projection can't be answered from a cached row
+     */
+    private Cursor queryCachedCustomer(SQLiteDatabase sqLiteDatabase, long customerId,
+                                       String[] projection, CancellationSignal cancellationSignal) {
+        CustomerRowCache.Row row = mRowCache.get(customerId);
+        if (row == null) {
+            long generation = mRowCache.getGeneration();
+            Cursor cursor = mStatementCache.queryById(sqLiteDatabase, null, customerId,
+                    cancellationSignal);
+            if (!cursor.moveToFirst()) {
+                /* No such customer: answer with no rows rather than asking SQLite again. */
+                if (projection == null) {
+                    cursor.moveToPosition(-1);
+                    return cursor;
+                }
+                cursor.close();
+                return new MatrixCursor(projection, 0);
+            }
+            try {
+                row = CustomerRowCache.readRow(cursor, cursor.getColumnNames());
+            } finally {
+                cursor.close();
+            }
+            mRowCache.put(customerId, row, generation);
+        }
+        return CustomerRowCache.toCursor(row, projection);
+    }
+
+    /**
+     * Returns a new selection argument array holding the caller's arguments followed by extra ones.
+     */
+    private static String[] appendSelectionArgs(String[] selectionArgs, String... extraArgs) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return extraArgs;
+        }
+        String[] args = new String[selectionArgs.length + extraArgs.length];
+        System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+        System.arraycopy(extraArgs, 0, args, selectionArgs.length, extraArgs.length);
+        return args;
+    }
+
+    /* Parses a number of the URI, which the caller may have got wrong. */
+    private static long parseLong(Uri uri, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed number " + value + ": " + uri, e);
+        }
+    }
+
+    private static double parseDouble(Uri uri, String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed number " + value + ": " + uri, e);
+        }
+    }
+
+    /**
+     * Runs a full-text search against the FTS4 index of the customer table. Every word of the
+     * query becomes a prefix term ("venk" matches "Venkat"), and a row must match all of them.
+     * The rank is the number of term matches in the row, derived from the FTS offsets() function
+     * (four integers per match), so rows matching in several columns come first.
+     *
+     * Only the matching rows are ever visited, instead of every row as with LIKE '%x%'.
+     */
+    private Cursor querySearch(SQLiteDatabase sqLiteDatabase, Uri uri, String[] projection,
+                               String selection, String[] selectionArgs, String sortOrder,
+                               CancellationSignal cancellationSignal) {
+        String matchQuery = buildMatchQuery(uri.getLastPathSegment());
+
+        String limit = uri.getQueryParameter(CustomerContract.QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            limit = String.valueOf(DEFAULT_SEARCH_LIMIT);
+        }
+
+        if (matchQuery == null) {
+            /* Nothing searchable was typed, so nothing can match. */
+            return sqLiteDatabase.query(false, CustomerEntry.VIEW_NAME, projection, "0", null,
+                    null, null, null, null, cancellationSignal);
+        }
+
+        String offsets = "offsets(" + CustomerEntry.FTS_TABLE_NAME + ")";
+        String hits = "(SELECT docid, " +
+                "(length(" + offsets + ") - length(replace(" + offsets + ", ' ', '')) + 1) / 4 AS " +
+                CustomerEntry.COLUMN_SEARCH_RANK +
+                " FROM " + CustomerEntry.FTS_TABLE_NAME +
+                " WHERE " + CustomerEntry.FTS_TABLE_NAME + " MATCH ?) AS hits";
+        String tables = CustomerEntry.VIEW_NAME + " JOIN " + hits +
+                " ON " + CustomerEntry.VIEW_NAME + "." + CustomerEntry._ID + " = hits.docid";
+
+        if (sortOrder == null) {
+            sortOrder = CustomerEntry.COLUMN_SEARCH_RANK + " DESC, " +
+                    CustomerEntry.COLUMN_TIMESTAMP + " DESC";
+        }
+        if (projection == null) {
+            projection = new String[]{CustomerEntry.VIEW_NAME + ".*"};
+        }
+
+        String sql = SQLiteQueryBuilder.buildQueryString(false, tables, projection,
+                selection, null, null, sortOrder, limit);
+
+        /* The MATCH argument comes first in the statement, before any caller selection. */
+        int extraArgs = selectionArgs == null ? 0 : selectionArgs.length;
+        String[] args = new String[1 + extraArgs];
+        args[0] = matchQuery;
+        if (extraArgs > 0) {
+            System.arraycopy(selectionArgs, 0, args, 1, extraArgs);
+        }
+        return sqLiteDatabase.rawQuery(sql, args, cancellationSignal);
+    }
+
+    /**
+     * Finds the customers within a radius of a point, nearest first, through the GeoEntry spatial
+     * index. The cells covering the bounding box of the circle are read as a few ranges of the
+     * (cell, latitude, longitude) index, the bounding box and the distance are checked on the
+     * index entries themselves, and only the customers that are close enough are read from the
+     * customer table. The cost depends on the number of customers around the point, not on the
+     * size of the table.
+     * <p>
+     * The box is clamped at the poles and at the antimeridian rather than wrapped around; the
+     * service area is nowhere near either.
+     */
+    private Cursor queryNear(SQLiteDatabase sqLiteDatabase, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs, String sortOrder,
+                             CancellationSignal cancellationSignal) {
+        String latitudeParameter =
+                uri.getQueryParameter(CustomerContract.QUERY_PARAMETER_LATITUDE);
+        String longitudeParameter =
+                uri.getQueryParameter(CustomerContract.QUERY_PARAMETER_LONGITUDE);
+        if (latitudeParameter == null || longitudeParameter == null) {
+            throw new IllegalArgumentException("Missing point: " + uri);
+        }
+        double latitude = parseDouble(uri, latitudeParameter);
+        double longitude = parseDouble(uri, longitudeParameter);
+
+        String radiusParameter = uri.getQueryParameter(CustomerContract.QUERY_PARAMETER_RADIUS);
+        double radiusKm = radiusParameter == null
+                ? DEFAULT_NEAR_RADIUS_KM
+                : parseDouble(uri, radiusParameter);
+
+        String limit = uri.getQueryParameter(CustomerContract.QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            limit = String.valueOf(DEFAULT_NEAR_LIMIT);
+        }
+
+        /*
+         * A degree of longitude shrinks with the cosine of the latitude. The distance uses its
+         * length at the point; the box uses its length on the edge closest to the pole, so the
+         * box never cuts into the circle.
+         */
+        double latitudeDelta = radiusKm / GeoGrid.KM_PER_DEGREE;
+        double kmPerLongitudeDegree = GeoGrid.KM_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+        double edgeLatitude = Math.min(90, Math.abs(latitude) + latitudeDelta);
+        double kmPerEdgeLongitudeDegree =
+                GeoGrid.KM_PER_DEGREE * Math.cos(Math.toRadians(edgeLatitude));
+        double longitudeDelta = kmPerEdgeLongitudeDegree < radiusKm / 180
+                ? 180
+                : radiusKm / kmPerEdgeLongitudeDegree;
+
+        double minLatitude = Math.max(-90, latitude - latitudeDelta);
+        double maxLatitude = Math.min(90, latitude + latitudeDelta);
+        double minLongitude = Math.max(-180, longitude - longitudeDelta);
+        double maxLongitude = Math.min(180, longitude + longitudeDelta);
+
+        ArrayList<String> args = new ArrayList<>();
+        String distanceSquared = "((" + GeoEntry.COLUMN_LATITUDE + " - ?) * ?) * " +
+                "((" + GeoEntry.COLUMN_LATITUDE + " - ?) * ?) + " +
+                "((" + GeoEntry.COLUMN_LONGITUDE + " - ?) * ?) * " +
+                "((" + GeoEntry.COLUMN_LONGITUDE + " - ?) * ?)";
+        String kmPerDegree = String.valueOf(GeoGrid.KM_PER_DEGREE);
+        String kmPerLongitude = String.valueOf(kmPerLongitudeDegree);
+        Collections.addAll(args,
+                latitudeParameter, kmPerDegree, latitudeParameter, kmPerDegree,
+                longitudeParameter, kmPerLongitude, longitudeParameter, kmPerLongitude);
+
+        String cellSelection = GeoGrid.buildCellSelection(minLatitude, maxLatitude,
+                minLongitude, maxLongitude, args);
+        Collections.addAll(args,
+                String.valueOf(minLatitude), String.valueOf(maxLatitude),
+                String.valueOf(minLongitude), String.valueOf(maxLongitude));
+
+        String near = "(SELECT " + GeoEntry.COLUMN_CUSTOMER_ID + ", " + distanceSquared +
+                " AS " + CustomerEntry.COLUMN_DISTANCE_SQUARED +
+                " FROM " + GeoEntry.TABLE_NAME +
+                " WHERE " + cellSelection +
+                " AND " + GeoEntry.COLUMN_LATITUDE + " BETWEEN ? AND ?" +
+                " AND " + GeoEntry.COLUMN_LONGITUDE + " BETWEEN ? AND ?) AS near";
+        String tables = CustomerEntry.VIEW_NAME + " JOIN " + near +
+                " ON " + CustomerEntry.VIEW_NAME + "." + CustomerEntry._ID +
+                " = near." + GeoEntry.COLUMN_CUSTOMER_ID;
+
+        /* The distance is an expression without affinity, so the text argument is cast. */
+        String where = "near." + CustomerEntry.COLUMN_DISTANCE_SQUARED + " <= CAST(? AS REAL)";
+        args.add(String.valueOf(radiusKm * radiusKm));
+        if (selection != null) {
+            where += " AND (" + selection + ")";
+            if (selectionArgs != null) {
+                Collections.addAll(args, selectionArgs);
+            }
+        }
+
+        if (sortOrder == null) {
+            sortOrder = "near." + CustomerEntry.COLUMN_DISTANCE_SQUARED;
+        }
+        if (projection == null) {
+            projection = new String[]{CustomerEntry.VIEW_NAME + ".*",
+                    "near." + CustomerEntry.COLUMN_DISTANCE_SQUARED};
+        }
+
+        String sql = SQLiteQueryBuilder.buildQueryString(false, tables, projection,
+                where, null, null, sortOrder, limit);
+        return sqLiteDatabase.rawQuery(sql, args.toArray(new String[args.size()]),
+                cancellationSignal);
+    }
+
+    /**
+     * Returns the customers of a day's route in the order to visit them. Their locations are
+     * read from the customer table, RoutePlanner orders them, and the order is handed back to
+     * SQLite as a CASE expression, so the rows still come from the view with the caller's
+     * projection and selection like any other query.
+     */
+    private Cursor queryRoute(SQLiteDatabase sqLiteDatabase, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder,
+                              CancellationSignal cancellationSignal) {
+        String idsParameter = uri.getQueryParameter(CustomerContract.QUERY_PARAMETER_IDS);
+        if (idsParameter == null) {
+            throw new IllegalArgumentException("Missing stops: " + uri);
+        }
+        LinkedHashSet<Long> customerIds = new LinkedHashSet<>();
+        for (String id : idsParameter.split(",")) {
+            if (!id.trim().isEmpty()) {
+                customerIds.add(parseLong(uri, id.trim()));
+            }
+        }
+        /* Every stop is bound twice in the query; old SQLite versions allow 999 arguments. */
+        if (customerIds.size() > MAX_ROUTE_STOPS) {
+            throw new IllegalArgumentException("Too many stops: " + uri);
+        }
+        String[] idArgs = new String[customerIds.size()];
+        StringBuilder idPlaceholders = new StringBuilder();
+        int stop = 0;
+        for (Long customerId : customerIds) {
+            idArgs[stop++] = String.valueOf(customerId);
+            idPlaceholders.append(idPlaceholders.length() == 0 ? "?" : ",?");
+        }
+        /* Without stops the query still runs, so the caller gets its columns and no rows. */
+        String idSelection = customerIds.isEmpty()
+                ? "0"
+                : CustomerEntry._ID + " IN (" + idPlaceholders + ")";
+
+        String latitudeParameter =
+                uri.getQueryParameter(CustomerContract.QUERY_PARAMETER_LATITUDE);
+        String longitudeParameter =
+                uri.getQueryParameter(CustomerContract.QUERY_PARAMETER_LONGITUDE);
+        boolean fixedStart = latitudeParameter != null && longitudeParameter != null;
+
+        String budgetParameter =
+                uri.getQueryParameter(CustomerContract.QUERY_PARAMETER_TIME_BUDGET);
+        long budgetMillis = budgetParameter == null
+                ? DEFAULT_ROUTE_BUDGET_MS
+                : Math.min(MAX_ROUTE_BUDGET_MS, parseLong(uri, budgetParameter));
+
+        /* The stops with a location, plus the start as stop 0 when there is one. */
+        ArrayList<Long> stopIds = new ArrayList<>();
+        ArrayList<double[]> stopLocations = new ArrayList<>();
+        if (fixedStart) {
+            stopIds.add(null);
+            stopLocations.add(new double[]{parseDouble(uri, latitudeParameter),
+                    parseDouble(uri, longitudeParameter)});
+        }
+        if (!customerIds.isEmpty()) {
+            Cursor locations = sqLiteDatabase.query(false, CustomerEntry.TABLE_NAME,
+                    new String[]{CustomerEntry._ID,
+                            CustomerEntry.COLUMN_LATITUDE,
+                            CustomerEntry.COLUMN_LONGITUDE},
+                    idSelection + " AND " +
+                            CustomerDbHelper.SELECTION_LIVE + " AND " +
+                            CustomerEntry.COLUMN_LATITUDE + " IS NOT NULL AND " +
+                            CustomerEntry.COLUMN_LONGITUDE + " IS NOT NULL",
+                    idArgs, null, null, null, null, cancellationSignal);
+            try {
+                while (locations.moveToNext()) {
+                    stopIds.add(locations.getLong(0));
+                    stopLocations.add(new double[]{locations.getDouble(1),
+                            locations.getDouble(2)});
+                }
+            } finally {
+                locations.close();
+            }
+        }
+
+        double[] latitudes = new double[stopLocations.size()];
+        double[] longitudes = new double[stopLocations.size()];
+        for (int i = 0; i < latitudes.length; i++) {
+            latitudes[i] = stopLocations.get(i)[0];
+            longitudes[i] = stopLocations.get(i)[1];
+        }
+        int[] order = mRoutePlanner.plan(latitudes, longitudes, fixedStart, budgetMillis);
+        /* Planning can use up its whole budget; don't go on with a route nobody wants. */
+        if (cancellationSignal != null) cancellationSignal.throwIfCanceled();
+
+        /*
+         * Stops without a location follow the route, in the order they were given. The CASE
+         * binds the _IDs in visiting order, each mapped to its position.
+         */
+        ArrayList<String> routeArgs = new ArrayList<>(customerIds.size() * 2);
+        for (int routeStop : order) {
+            Long customerId = stopIds.get(routeStop);
+            if (customerId == null) continue;
+            routeArgs.add(String.valueOf(customerId));
+            customerIds.remove(customerId);
+        }
+        for (Long customerId : customerIds) {
+            routeArgs.add(String.valueOf(customerId));
+        }
+        StringBuilder positions = new StringBuilder("CASE " + CustomerEntry._ID);
+        for (int position = 0; position < routeArgs.size(); position++) {
+            positions.append(" WHEN ? THEN ").append(position);
+        }
+        positions.append(" END");
+        Collections.addAll(routeArgs, idArgs);
+
+        String route = "(SELECT " + CustomerEntry._ID + " AS customer_id, " +
+                (routeArgs.isEmpty() ? "NULL" : positions.toString()) +
+                " AS " + CustomerEntry.COLUMN_ROUTE_POSITION +
+                " FROM " + CustomerEntry.TABLE_NAME +
+                " WHERE " + idSelection + ") AS route";
+        String tables = CustomerEntry.VIEW_NAME + " JOIN " + route +
+                " ON " + CustomerEntry.VIEW_NAME + "." + CustomerEntry._ID + " = route.customer_id";
+
+        if (sortOrder == null) {
+            sortOrder = "route." + CustomerEntry.COLUMN_ROUTE_POSITION;
+        }
+        if (projection == null) {
+            projection = new String[]{CustomerEntry.VIEW_NAME + ".*",
+                    "route." + CustomerEntry.COLUMN_ROUTE_POSITION};
+        }
+
+        /* The route's arguments come first, as the FROM clause comes before the WHERE. */
+        String sql = SQLiteQueryBuilder.buildQueryString(false, tables, projection,
+                selection, null, null, sortOrder, null);
+        String[] args = routeArgs.toArray(new String[routeArgs.size()]);
+        return sqLiteDatabase.rawQuery(sql,
+                selectionArgs == null ? args : appendSelectionArgs(args, selectionArgs),
+                cancellationSignal);
+    }
+
+    /**
+     * Returns the edits waiting in the outbox, oldest first unless a sort order is given, each
+     * with the account number its customer has now (the head-end may have numbered a customer
+     * entered on the device since the edit was made).
+     */
+    private Cursor queryOutbox(SQLiteDatabase sqLiteDatabase, Uri uri, String[] projection,
+                               String selection, String[] selectionArgs, String sortOrder,
+                               CancellationSignal cancellationSignal) {
+        String tables = "(SELECT " + OutboxEntry.TABLE_NAME + ".*, " +
+                "(SELECT " + CustomerEntry.COLUMN_ACCOUNT_NUMBER +
+                " FROM " + CustomerEntry.TABLE_NAME +
+                " WHERE " + CustomerEntry.TABLE_NAME + "." + CustomerEntry._ID + " = " +
+                OutboxEntry.TABLE_NAME + "." + OutboxEntry.COLUMN_CUSTOMER_ID + ")" +
+                " AS " + OutboxEntry.COLUMN_ACCOUNT_NUMBER +
+                " FROM " + OutboxEntry.TABLE_NAME + ") AS " + OutboxEntry.TABLE_NAME;
+
+        if (sortOrder == null) {
+            sortOrder = OutboxEntry._ID;
+        }
+        String limit = uri.getQueryParameter(CustomerContract.QUERY_PARAMETER_LIMIT);
+
+        String sql = SQLiteQueryBuilder.buildQueryString(false, tables, projection,
+                selection, null, null, sortOrder, limit);
+        return sqLiteDatabase.rawQuery(sql, selectionArgs, cancellationSignal);
+    }
+
+    /**
+     * Reads the customer counts of a grouping from its summary table. The triggers maintaining
+     * the table have done all the counting, so this only reads one row per group. Groups are
+     * sorted by count, largest first, and days by date, unless a sort order is given.
+     */
+    private Cursor queryStats(SQLiteDatabase sqLiteDatabase, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder,
+                              CancellationSignal cancellationSignal) {
+        String grouping = uri.getLastPathSegment();
+        String statsTable;
+        String lookupTable;
+        if (CustomerContract.PATH_STATS_CITY.equals(grouping)) {
+            statsTable = StatsEntry.CITY_TABLE_NAME;
+            lookupTable = LookupEntry.CITY_TABLE_NAME;
+        } else if (CustomerContract.PATH_STATS_STATE.equals(grouping)) {
+            statsTable = StatsEntry.STATE_TABLE_NAME;
+            lookupTable = LookupEntry.STATE_TABLE_NAME;
+        } else if (CustomerContract.PATH_STATS_ZIPCODE.equals(grouping)) {
+            statsTable = StatsEntry.ZIPCODE_TABLE_NAME;
+            lookupTable = LookupEntry.ZIPCODE_TABLE_NAME;
+        } else if (CustomerContract.PATH_STATS_DAY.equals(grouping)) {
+            statsTable = StatsEntry.DAY_TABLE_NAME;
+            lookupTable = null;
+        } else {
+            throw new UnsupportedOperationException("Unknown Uri: " + uri);
+        }
+
+        /* The value of a city, state or zipcode group is looked up from its _ID key. */
+        String value = lookupTable == null
+                ? "NULLIF(" + StatsEntry.COLUMN_GROUP_KEY + ", '')"
+                : "(SELECT " + LookupEntry.COLUMN_VALUE + " FROM " + lookupTable +
+                  " WHERE " + lookupTable + "." + LookupEntry._ID + " = " +
+                  statsTable + "." + StatsEntry.COLUMN_GROUP_KEY + ")";
+        String tables = "(SELECT rowid AS " + StatsEntry._ID + ", " +
+                value + " AS " + StatsEntry.COLUMN_VALUE + ", " +
+                StatsEntry.COLUMN_COUNT +
+                " FROM " + statsTable + ") AS " + statsTable;
+
+        if (sortOrder == null) {
+            sortOrder = lookupTable == null
+                    ? StatsEntry.COLUMN_VALUE
+                    : StatsEntry.COLUMN_COUNT + " DESC, " + StatsEntry.COLUMN_VALUE;
+        }
+        String limit = uri.getQueryParameter(CustomerContract.QUERY_PARAMETER_LIMIT);
+
+        String sql = SQLiteQueryBuilder.buildQueryString(false, tables, projection,
+                selection, null, null, sortOrder, limit);
+        return sqLiteDatabase.rawQuery(sql, selectionArgs, cancellationSignal);
+    }
+
+    /*
+     * Appends the values written to a customer to the outbox, unless the write came from the
+     * head-end itself. Runs in the transaction of the write, so an edit is never committed
+     * without its outbox row or the other way around.
+     *
+     * @return true if the edit was recorded
+     */
+    private boolean recordEdit(SQLiteDatabase db, Uri uri, long customerId,
+                               ContentValues contentValues) {
+        if (uri.getBooleanQueryParameter(
+                CustomerContract.QUERY_PARAMETER_CALLER_IS_SYNCADAPTER, false)) {
+            return false;
+        }
+        JSONObject payload = new JSONObject();
+        if (contentValues != null) {
+            try {
+                for (String column : contentValues.keySet()) {
+                    Object value = contentValues.get(column);
+                    payload.put(column, value == null ? JSONObject.NULL : value);
+                }
+            } catch (JSONException e) {
+                /* Only thrown for NaN and infinite numbers, which no column can hold. */
+                throw new IllegalArgumentException("Can't record " + contentValues, e);
+            }
+        }
+        ContentValues edit = new ContentValues();
+        edit.put(OutboxEntry.COLUMN_CUSTOMER_ID, customerId);
+        edit.put(OutboxEntry.COLUMN_PAYLOAD, payload.toString());
+        db.insertOrThrow(OutboxEntry.TABLE_NAME, null, edit);
+        return true;
+    }
+
+    /*
+     * Makes sure the outbox will be drained. Inside applyBatch this only notes that it has to be
+     * done once the batch is over; scheduling asks the system JobScheduler every time.
+     */
+    private void scheduleDrain() {
+        if (mBatchDrainNeeded.get() != null) {
+            mBatchDrainNeeded.set(Boolean.TRUE);
+        } else {
+            OutboxDrainJobService.schedule(getContext());
+        }
+    }
+
+    /**
+     * Turns whatever the user typed into an FTS MATCH expression. Anything that is not a letter
+     * or digit separates words, which also strips the FTS query syntax characters (quotes,
+     * asterisks, parentheses and the like) so user input can never produce a malformed query.
+     *
+     * @param query The raw query text
+     * @return A MATCH expression such as "venk* all*", or null if there is nothing to search for
+     */
+    private static String buildMatchQuery(String query) {
+        if (query == null) return null;
+
+        StringBuilder matchQuery = new StringBuilder(query.length() + 8);
+        boolean inWord = false;
+        for (int i = 0; i < query.length(); i++) {
+            char ch = query.charAt(i);
+            if (Character.isLetterOrDigit(ch)) {
+                if (!inWord && matchQuery.length() > 0) {
+                    matchQuery.append(' ');
+                }
+                matchQuery.append(Character.toLowerCase(ch));
+                inWord = true;
+            } else if (inWord) {
+                matchQuery.append('*');
+                inWord = false;
+            }
+        }
+        if (inWord) {
+            matchQuery.append('*');
+        }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
+
     @Nullable
     @Override
     public String getType(@NonNull Uri uri) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case CUSTOMER:
+            case CUSTOMER_SEARCH:
+            case CUSTOMER_NEAR:
+            case CUSTOMER_ROUTE:
                 return CustomerEntry.CONTENT_LIST_TYPE;
             case CUSTOMER_ID:
                 return CustomerEntry.CONTENT_ITEM_TYPE;
+            case CUSTOMER_STATS:
+                return StatsEntry.CONTENT_LIST_TYPE;
+            case OUTBOX:
+                return OutboxEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -229,17 +1075,40 @@ public class CustomerProvider extends ContentProvider {
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
+        long startNanos = Metrics.ENABLED ? System.nanoTime() : 0;
+        Uri insertedUri = doInsert(uri, contentValues);
+        if (Metrics.ENABLED) {
+            INSERT_LATENCY.recordSince(startNanos);
+            if (insertedUri != null) ROWS_WRITTEN.increment();
+        }
+        return insertedUri;
+    }
+
+    private Uri doInsert(Uri uri, ContentValues contentValues) {
         int match = sUriMatcher.match(uri);
 
         long insertedRowId;
+        boolean recorded = false;
 
         switch (match){
             case CUSTOMER:
-                // Insert the new Customer with the given values
-                insertedRowId = mCustomerDbHelper.getWritableDatabase().insert(
-                        CustomerEntry.TABLE_NAME,
-                        null,
-                        contentValues);
+                // Insert the new Customer with the given values, city, state and zipcode being
+                // stored as the _IDs of their lookup table rows, and record it in the outbox in
+                // the same transaction
+                SQLiteDatabase db = mCustomerDbHelper.getWritableDatabase();
+                db.beginTransactionWithListenerNonExclusive(mLookupCache);
+                try {
+                    insertedRowId = db.insert(
+                            CustomerEntry.TABLE_NAME,
+                            null,
+                            mLookupCache.toStorageValues(db, contentValues));
+                    if (insertedRowId != -1) {
+                        recorded = recordEdit(db, uri, insertedRowId, contentValues);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
@@ -250,8 +1119,11 @@ public class CustomerProvider extends ContentProvider {
             return null;
         }
 
-        // Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Notify all listeners that the new customer row has been added
+        mRowCache.invalidate(insertedRowId);
+        mChangeNotifier.notifyRowChanged(insertedRowId);
+        mWalCheckpointer.onWrite(mCustomerDbHelper.getWritableDatabase());
+        if (recorded) scheduleDrain();
 
         // Return the new URI with the ID (of the newly inserted row) appended at the end
         return ContentUris.withAppendedId(uri, insertedRowId);
@@ -267,6 +1139,16 @@ public class CustomerProvider extends ContentProvider {
      */
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
+        long startNanos = Metrics.ENABLED ? System.nanoTime() : 0;
+        int numRowsDeleted = doDelete(uri, selection, selectionArgs);
+        if (Metrics.ENABLED) {
+            DELETE_LATENCY.recordSince(startNanos);
+            ROWS_DELETED.add(numRowsDeleted);
+        }
+        return numRowsDeleted;
+    }
+
+    private int doDelete(Uri uri, String selection, String[] selectionArgs) {
         int match = sUriMatcher.match(uri);
 
         SQLiteDatabase sqLiteDatabase = mCustomerDbHelper.getWritableDatabase();
@@ -283,27 +1165,57 @@ public class CustomerProvider extends ContentProvider {
          */
         switch (match){
             case CUSTOMER:
-                numRowsDeleted = sqLiteDatabase.delete(CustomerEntry.TABLE_NAME,
-                        selection,
-                        selectionArgs);
+                /*
+                 * The selection is written against the columns callers see, which may include
+                 * the city, state or zipcode text, so the rows to delete are picked from the view.
+                 * Deleted customers become tombstones, like a single deleted customer.
+                 */
+                String sql = SQL_SOFT_DELETE;
+                if (selection != null) {
+                    sql += " AND " + CustomerEntry._ID + " IN (SELECT " + CustomerEntry._ID +
+                            " FROM " + CustomerEntry.VIEW_NAME + " WHERE " + selection + ")";
+                }
+                SQLiteStatement softDelete = sqLiteDatabase.compileStatement(sql);
+                try {
+                    softDelete.bindAllArgsAsStrings(selectionArgs);
+                    numRowsDeleted = softDelete.executeUpdateDelete();
+                } finally {
+                    softDelete.close();
+                }
                 break;
             case CUSTOMER_ID:
-                String customerId = uri.getLastPathSegment();
-                selection = "_ID = ?";
-                selectionArgs = new String[]{customerId};
-                Log.e(LOG_TAG, "Delete - Customer will be deleted : " + customerId);
-                numRowsDeleted = sqLiteDatabase.delete(CustomerEntry.TABLE_NAME,
-                        selection,
-                        selectionArgs);
+                long customerId = ContentUris.parseId(uri);
+                /* The statement cache's statements may only be run inside a transaction. */
+                sqLiteDatabase.beginTransactionNonExclusive();
+                try {
+                    numRowsDeleted = mStatementCache.deleteById(sqLiteDatabase, customerId);
+                    sqLiteDatabase.setTransactionSuccessful();
+                } finally {
+                    sqLiteDatabase.endTransaction();
+                }
                 break;
+            /*
+             * Edits the head-end has accepted. No customer changed, so nobody is notified.
+             */
+            case OUTBOX:
+                return sqLiteDatabase.delete(OutboxEntry.TABLE_NAME, selection, selectionArgs);
             default:
                 throw new UnsupportedOperationException("Unknown Uri: " + uri);
 
         }
-        /* If we actually deleted any rows, notify that a change has occurred to this URI */
+        /*
+         * If we actually deleted any rows, notify that a change has occurred. A single deleted
+         * customer is reported by its own URI; a delete by selection could have hit any rows.
+         */
         if (numRowsDeleted != 0) {
-            // Notify all listeners that the data has changed for the pet content URI
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match == CUSTOMER_ID) {
+                mRowCache.invalidate(ContentUris.parseId(uri));
+                mChangeNotifier.notifyRowChanged(ContentUris.parseId(uri));
+            } else {
+                mRowCache.invalidateAll();
+                mChangeNotifier.notifyCollectionChanged();
+            }
+            mWalCheckpointer.onWrite(sqLiteDatabase);
         }
 
         return numRowsDeleted;
@@ -311,34 +1223,52 @@ public class CustomerProvider extends ContentProvider {
 
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues contentValues, @Nullable String whereClause, @Nullable String[] whereArgs) {
+        long startNanos = Metrics.ENABLED ? System.nanoTime() : 0;
+        int numRowsUpdated = doUpdate(uri, contentValues, whereClause, whereArgs);
+        if (Metrics.ENABLED) {
+            UPDATE_LATENCY.recordSince(startNanos);
+            ROWS_WRITTEN.add(numRowsUpdated);
+        }
+        return numRowsUpdated;
+    }
+
+    private int doUpdate(Uri uri, ContentValues contentValues, String whereClause,
+                         String[] whereArgs) {
         int match = sUriMatcher.match(uri);
 
         int numRowsUpdated;
+        boolean recorded = false;
 
         switch (match){
             // For the CUSTOMER_ID code, extract out the ID from the URI,
-            // so we know which row to update. Selection will be "_id=?" and selection
-            // arguments will be a String array containing the actual ID.
+            // so we know which row to update. The statement cache binds it to the
+            // "_id = ?" of an UPDATE compiled for the columns being changed.
             case CUSTOMER_ID:
-                String customerId = uri.getLastPathSegment();
-                whereClause = "_ID = ?";
-                whereArgs = new String[]{customerId};
-                Log.e(LOG_TAG, "Update - Customer will be updated : " + customerId);
-                numRowsUpdated =mCustomerDbHelper.getWritableDatabase().update(
-                        CustomerEntry.TABLE_NAME,
-                        contentValues,
-                        whereClause,
-                        whereArgs);
-
+                long customerId = ContentUris.parseId(uri);
+                SQLiteDatabase db = mCustomerDbHelper.getWritableDatabase();
+                db.beginTransactionWithListenerNonExclusive(mLookupCache);
+                try {
+                    numRowsUpdated = mStatementCache.updateById(db, customerId,
+                            mLookupCache.toStorageValues(db, contentValues));
+                    if (numRowsUpdated > 0) {
+                        recorded = recordEdit(db, uri, customerId, contentValues);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown Uri: " + uri);
         }
 
         if(numRowsUpdated > 0) {
-            // Notify all listeners that the data has changed for the pet content URI
-            getContext().getContentResolver().notifyChange(uri, null);
+            // Notify all listeners that the data has changed for this customer only
+            mRowCache.invalidate(ContentUris.parseId(uri));
+            mChangeNotifier.notifyRowChanged(ContentUris.parseId(uri));
+            mWalCheckpointer.onWrite(mCustomerDbHelper.getWritableDatabase());
         }
+        if (recorded) scheduleDrain();
         return numRowsUpdated;
     }
 
@@ -357,35 +1287,293 @@ public class CustomerProvider extends ContentProvider {
      */
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        long startNanos = Metrics.ENABLED ? System.nanoTime() : 0;
+        int rowsWritten = doBulkInsert(uri, values);
+        if (Metrics.ENABLED) {
+            BULK_INSERT_LATENCY.recordSince(startNanos);
+            ROWS_WRITTEN.add(rowsWritten);
+        }
+        return rowsWritten;
+    }
+
+    private int doBulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mCustomerDbHelper.getWritableDatabase();
 
         switch (sUriMatcher.match(uri)) {
 
             case CUSTOMER:
-                db.beginTransaction();
+                if (uri.getBooleanQueryParameter(CustomerContract.QUERY_PARAMETER_UPSERT, false)) {
+                    return bulkUpsert(values);
+                }
+
+                /*
+                 * IMMEDIATE rather than EXCLUSIVE: with write-ahead logging, readers keep going
+                 * on their snapshot while the rows are being written.
+                 */
+                db.beginTransactionWithListenerNonExclusive(mLookupCache);
                 int rowsInserted = 0;
 
+                /*
+                 * The loader compiles one INSERT per column shape and reuses it for every row,
+                 * instead of db.insert building and compiling the SQL again for each row.
+                 */
+                CustomerBulkLoader bulkLoader = new CustomerBulkLoader(db, mLookupCache);
                 try {
-                    for (ContentValues value : values) {
-
-                        long _id = db.insert(CustomerContract.CustomerEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            rowsInserted++;
-                        }
-                    }
+                    rowsInserted = bulkLoader.insert(values);
                     db.setTransactionSuccessful();
                 } finally {
+                    bulkLoader.close();
                     db.endTransaction();
                 }
 
                 if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    mRowCache.invalidateAll();
+                    mChangeNotifier.notifyCollectionChanged();
+                    mWalCheckpointer.onWrite(db);
                 }
-                Log.d(LOG_TAG, "Number of rows Inserted " + rowsInserted);
                 return rowsInserted;
 
             default:
                 return super.bulkInsert(uri, values);
         }
     }
+
+    /**
+     * Merges rows into the customer table by account number, in one transaction. Only the rows
+     * whose content changed are written, and observers are told about exactly those rows.
+     */
+    private int bulkUpsert(ContentValues[] values) {
+        final SQLiteDatabase db = mCustomerDbHelper.getWritableDatabase();
+        int rowsWritten;
+
+        db.beginTransactionWithListenerNonExclusive(mLookupCache);
+        CustomerUpserter upserter = new CustomerUpserter(db, mLookupCache);
+        try {
+            rowsWritten = upserter.upsert(values);
+            db.setTransactionSuccessful();
+        } finally {
+            upserter.close();
+            db.endTransaction();
+        }
+
+        notifyUpserted(upserter);
+        mWalCheckpointer.onWrite(db);
+        return rowsWritten;
+    }
+
+    /*
+     * A feed that changed a handful of customers is reported row by row, so lists only rebind
+     * those rows; a feed that changed many is reported as a change of the whole collection.
+     */
+    private void notifyUpserted(CustomerUpserter upserter) {
+        if (Metrics.ENABLED) {
+            ROWS_UNCHANGED.add(upserter.getRowsUnchanged());
+            ROWS_KEPT_DELETED.add(upserter.getRowsKeptDeleted());
+        }
+        long[] changedIds = upserter.getChangedIds();
+        if (changedIds == null) {
+            mRowCache.invalidateAll();
+            mChangeNotifier.notifyCollectionChanged();
+        } else {
+            for (long changedId : changedIds) {
+                mRowCache.invalidate(changedId);
+                mChangeNotifier.notifyRowChanged(changedId);
+            }
+        }
+    }
+
+    /**
+     * Handles the provider methods that don't map onto query/insert/update/delete.
+     * {@link CustomerContract#METHOD_BULK_LOAD} inserts (or merges) a column-oriented
+     * CustomerBatch, which skips the per-row ContentValues of bulkInsert entirely, and optionally
+     * records the progress of an import. {@link CustomerContract#METHOD_GET_IMPORT_CHECKPOINT}
+     * reads that progress. {@link CustomerContract#METHOD_PURGE_TOMBSTONES},
+     * {@link CustomerContract#METHOD_GET_PAGE_COUNTS} and {@link CustomerContract#METHOD_VACUUM}
+     * maintain the database file for CompactionJobService.
+     *
+     * @param method The method name
+     * @param arg    Unused
+     * @param extras The method arguments
+     * @return The method result
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        switch (method) {
+            case CustomerContract.METHOD_BULK_LOAD:
+                if (extras == null) {
+                    throw new IllegalArgumentException("Missing batch for " + method);
+                }
+                int rowsInserted = bulkLoad(CustomerBatch.fromBundle(extras),
+                        extras.getString(CustomerContract.EXTRA_IMPORT_ID),
+                        extras.getLong(CustomerContract.EXTRA_IMPORT_ROWS),
+                        extras.getBoolean(CustomerContract.EXTRA_UPSERT));
+                Bundle result = new Bundle();
+                result.putInt(CustomerContract.EXTRA_ROW_COUNT, rowsInserted);
+                return result;
+            case CustomerContract.METHOD_GET_IMPORT_CHECKPOINT:
+                Bundle checkpoint = new Bundle();
+                checkpoint.putLong(CustomerContract.EXTRA_IMPORT_ROWS, getImportCheckpoint(arg));
+                return checkpoint;
+            case CustomerContract.METHOD_PURGE_TOMBSTONES:
+                if (extras == null) {
+                    throw new IllegalArgumentException("Missing row count for " + method);
+                }
+                int purged = mCompactor.purgeTombstones(
+                        extras.getLong(CustomerContract.EXTRA_MIN_AGE_SECONDS),
+                        extras.getInt(CustomerContract.EXTRA_ROW_COUNT));
+                /* Tombstones are invisible, so nobody is notified. */
+                if (purged > 0) {
+                    mWalCheckpointer.onWrite(mCustomerDbHelper.getWritableDatabase());
+                }
+                if (Metrics.ENABLED) TOMBSTONES_PURGED.add(purged);
+                Bundle purgeResult = new Bundle();
+                purgeResult.putInt(CustomerContract.EXTRA_ROW_COUNT, purged);
+                return purgeResult;
+            case CustomerContract.METHOD_GET_PAGE_COUNTS:
+                return getPageCounts();
+            case CustomerContract.METHOD_VACUUM:
+                if (extras == null) {
+                    throw new IllegalArgumentException("Missing page count for " + method);
+                }
+                long startNanos = Metrics.ENABLED ? System.nanoTime() : 0;
+                mCompactor.vacuum(extras.getInt(CustomerContract.EXTRA_PAGE_COUNT));
+                if (Metrics.ENABLED) VACUUM_LATENCY.recordSince(startNanos);
+                return getPageCounts();
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    private int bulkLoad(CustomerBatch batch, String importId, long importRows, boolean upsert) {
+        long startNanos = Metrics.ENABLED ? System.nanoTime() : 0;
+        final SQLiteDatabase db = mCustomerDbHelper.getWritableDatabase();
+        int rowsInserted;
+
+        db.beginTransactionWithListenerNonExclusive(mLookupCache);
+        CustomerBulkLoader bulkLoader = upsert ? null : new CustomerBulkLoader(db, mLookupCache);
+        CustomerUpserter upserter = upsert ? new CustomerUpserter(db, mLookupCache) : null;
+        try {
+            rowsInserted = upsert ? upserter.upsert(batch) : bulkLoader.insert(batch);
+            if (importId != null) {
+                ContentValues checkpoint = new ContentValues();
+                checkpoint.put(ImportCheckpointEntry.COLUMN_IMPORT_ID, importId);
+                checkpoint.put(ImportCheckpointEntry.COLUMN_ROWS_COMMITTED, importRows);
+                db.insertWithOnConflict(ImportCheckpointEntry.TABLE_NAME, null, checkpoint,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            if (bulkLoader != null) bulkLoader.close();
+            if (upserter != null) upserter.close();
+            db.endTransaction();
+        }
+
+        if (upserter != null) {
+            notifyUpserted(upserter);
+        } else if (rowsInserted > 0) {
+            mRowCache.invalidateAll();
+            mChangeNotifier.notifyCollectionChanged();
+        }
+        mWalCheckpointer.onWrite(db);
+        if (Metrics.ENABLED) {
+            BULK_LOAD_LATENCY.recordSince(startNanos);
+            ROWS_WRITTEN.add(rowsInserted);
+        }
+        return rowsInserted;
+    }
+
+    private Bundle getPageCounts() {
+        Bundle pageCounts = new Bundle();
+        pageCounts.putLong(CustomerContract.EXTRA_PAGE_COUNT, mCompactor.getPageCount());
+        pageCounts.putLong(CustomerContract.EXTRA_FREE_PAGE_COUNT, mCompactor.getFreePageCount());
+        return pageCounts;
+    }
+
+    private long getImportCheckpoint(String importId) {
+        if (importId == null) {
+            throw new IllegalArgumentException("Missing import id");
+        }
+        return DatabaseUtils.longForQuery(mCustomerDbHelper.getReadableDatabase(),
+                "SELECT IFNULL(MAX(" + ImportCheckpointEntry.COLUMN_ROWS_COMMITTED + "), 0) FROM " +
+                        ImportCheckpointEntry.TABLE_NAME +
+                        " WHERE " + ImportCheckpointEntry.COLUMN_IMPORT_ID + " = ?",
+                new String[]{importId});
+    }
+
+    /**
+     * Prints the state of the provider's caches and the app's metrics, for
+     * "adb shell dumpsys activity provider com.goli.alla.cablecustomer". Adding "reset" to the
+     * command resets the metrics after they are printed.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Row cache: " + mRowCache);
+        writer.println("Statement cache: " + mStatementCache);
+        /* SQLite's own cache of prepared statements, for each connection to our database. */
+        String databaseName = mCustomerDbHelper.getDatabaseName();
+        for (SQLiteDebug.DbStats stats : SQLiteDebug.getDatabaseInfo().dbStats) {
+            if (stats.dbName.contains(databaseName)) {
+                writer.println("Prepared statements (hits/misses/size) " + stats.dbName + ": " +
+                        stats.cache);
+            }
+        }
+        Metrics.dump(writer, args != null && Arrays.asList(args).contains("reset"));
+    }
+
+    /**
+     * Applies a batch of operations in a single transaction. Without this override every
+     * operation would run in its own implicit transaction and send its own change notification.
+     * <p>
+     * Every {@link #YIELD_BATCH_SIZE} operations, and wherever an operation allows it with
+     * {@link ContentProviderOperation#isYieldAllowed()}, the transaction yields if another thread
+     * is waiting for the database. A yield commits the work done so far, so the notifications for
+     * it are released at that point; all other notifications are held back until the batch
+     * commits, then sent once per URI.
+     *
+     * @param operations The operations to apply
+     * @return The results of the operations, in order
+     * @throws OperationApplicationException if any operation fails, in which case the work done
+     *                                       since the last yield is rolled back
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mCustomerDbHelper.getWritableDatabase();
+        final int numOperations = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+        boolean successful = false;
+
+        mChangeNotifier.beginBatch();
+        mBatchDrainNeeded.set(Boolean.FALSE);
+        db.beginTransactionWithListenerNonExclusive(mLookupCache);
+        try {
+            for (int i = 0; i < numOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && (operation.isYieldAllowed() || i % YIELD_BATCH_SIZE == 0)) {
+                    if (db.yieldIfContendedSafely()) {
+                        mChangeNotifier.commitBatch();
+                    }
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            mChangeNotifier.endBatch(successful);
+            /*
+             * The operations invalidated their rows as they went, but before the transaction
+             * committed, so a reader may have cached a row from the old snapshot since.
+             */
+            mRowCache.invalidateAll();
+            /* Edits committed at a yield have to go out even if the rest was rolled back. */
+            boolean drainNeeded = mBatchDrainNeeded.get();
+            mBatchDrainNeeded.remove();
+            if (drainNeeded) OutboxDrainJobService.schedule(getContext());
+        }
+        mWalCheckpointer.onWrite(db);
+        return results;
+    }
 }
@@ -0,0 +1,186 @@
+package com.goli.alla.cablecustomer.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs CustomerProvider queries in the background where only the latest one matters, such as the
+ * queries fired while a tech types a search.
+ * <p>
+ * Each runner has at most one query in flight. Starting a new query cancels the previous one: if
+ * it is still waiting for a thread it is simply taken off the queue, and if it is already running
+ * its CancellationSignal interrupts SQLite in the middle of the scan, so a superseded query stops
+ * using CPU and I/O right away instead of running to completion. Only the latest query's Cursor
+ * is ever delivered; the Cursors of queries that finished anyway are closed.
+ * <p>
+ * All runners share one small pool of threads with a bounded queue, so no number of screens or
+ * keystrokes can pile up more than a handful of queries. When the queue is full the query fails
+ * and the callback gets a null Cursor, just as it would for a query that threw.
+ */
+public class CustomerQueryRunner {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = CustomerQueryRunner.class.getSimpleName();
+
+    /* Queries run at the same time by all runners together. */
+    private static final int THREAD_COUNT = 2;
+
+    /* Queries waiting for a thread, all runners together. */
+    private static final int QUEUE_CAPACITY = 16;
+
+    /* Idle threads are stopped after this long. */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor sExecutor;
+
+    static {
+        sExecutor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                LOG_TAG + " #" + mCount.incrementAndGet());
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    }
+                });
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Receives the result of a query on the main thread.
+     */
+    public interface Callback {
+        /**
+         * @param cursor The result of the query, or null if it failed. The callback owns the
+         *               Cursor and has to close it.
+         */
+        void onQueryComplete(@Nullable Cursor cursor);
+    }
+
+    private final ContentResolver mContentResolver;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /* The query whose result will be delivered, or null. Only used on the main thread. */
+    private QueryTask mCurrentQuery;
+
+    public CustomerQueryRunner(Context context) {
+        mContentResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    /**
+     * Starts a query in the background, cancelling the one started before it if it hasn't been
+     * delivered yet. The arguments are those of
+     * {@link ContentResolver#query(Uri, String[], String, String[], String)}.
+     *
+     * @param callback Gets the Cursor on the main thread, unless this query is cancelled first
+     */
+    @MainThread
+    public void query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                      String sortOrder, Callback callback) {
+        cancel();
+        QueryTask task = new QueryTask(uri, projection, selection, selectionArgs, sortOrder,
+                callback);
+        mCurrentQuery = task;
+        try {
+            sExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "Too many queries waiting, dropping " + uri);
+            mCurrentQuery = null;
+            callback.onQueryComplete(null);
+        }
+    }
+
+    /**
+     * Cancels the query in flight, if any. Its callback won't be called.
+     */
+    @MainThread
+    public void cancel() {
+        QueryTask task = mCurrentQuery;
+        if (task == null) return;
+        mCurrentQuery = null;
+        /* Frees its place in the queue if it hasn't started, otherwise aborts it inside SQLite. */
+        sExecutor.remove(task);
+        task.mCancellationSignal.cancel();
+    }
+
+    private class QueryTask implements Runnable {
+        private final Uri mUri;
+        private final String[] mProjection;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final String mSortOrder;
+        private final Callback mCallback;
+        private final CancellationSignal mCancellationSignal = new CancellationSignal();
+
+        QueryTask(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                  String sortOrder, Callback callback) {
+            mUri = uri;
+            mProjection = projection;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+            mSortOrder = sortOrder;
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            Cursor cursor = null;
+            try {
+                cursor = mContentResolver.query(mUri, mProjection, mSelection, mSelectionArgs,
+                        mSortOrder, mCancellationSignal);
+                if (cursor != null) {
+                    /* Fills the first window here rather than on the main thread. */
+                    cursor.getCount();
+                }
+            } catch (OperationCanceledException e) {
+                /* Superseded by a newer query, which is the only one delivered. */
+                if (cursor != null) cursor.close();
+                return;
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Query failed: " + mUri, e);
+                if (cursor != null) cursor.close();
+                cursor = null;
+            }
+            final Cursor result = cursor;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(QueryTask.this, result);
+                }
+            });
+        }
+    }
+
+    @MainThread
+    private void deliver(QueryTask task, Cursor cursor) {
+        if (task != mCurrentQuery) {
+            /* Superseded while it was finishing; nobody wants this result. */
+            if (cursor != null) cursor.close();
+            return;
+        }
+        mCurrentQuery = null;
+        task.mCallback.onQueryComplete(cursor);
+    }
+}
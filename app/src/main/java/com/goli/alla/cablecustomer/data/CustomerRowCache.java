@@ -0,0 +1,240 @@
+package com.goli.alla.cablecustomer.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+/**
+ * A cache of decoded customer rows, keyed by _ID, in front of the customer/# lookups of
+ * CustomerProvider.
+ * <p>
+ * During a visit the tech opens the same few customers again and again. Each time, the provider
+ * would check a connection out of the pool, run the query and fill a fresh CursorWindow (2MB of
+ * address space) for one row. A cached row is served from memory as a MatrixCursor instead.
+ * <p>
+ * The cache is bounded by an estimate of the bytes held by the rows, and evicts the least
+ * recently used rows first. The provider invalidates a row whenever it is written, and the whole
+ * cache whenever rows were written that it can't name one by one.
+ * <p>
+ * A reader that misses loads the row from the database outside the cache lock, so a writer can
+ * change the row in between. Every invalidation therefore bumps a generation number, and a row
+ * loaded under an older generation is not stored: the cache never holds a row older than the
+ * last invalidation.
+ */
+class CustomerRowCache {
+
+    /* Rough size of a row's bookkeeping: the entry, the Long key and the arrays. */
+    private static final int ROW_OVERHEAD_BYTES = 64;
+
+    private final int mMaxBytes;
+
+    private RowLruCache mRows;
+
+    private long mGeneration;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * A decoded row. The column names are shared by every row loaded with the same cursor, and
+     * the values are Long, Double, String, byte[] or null.
+     */
+    static class Row {
+        final String[] mColumnNames;
+        final Object[] mValues;
+        final int mSizeBytes;
+
+        Row(String[] columnNames, Object[] values) {
+            mColumnNames = columnNames;
+            mValues = values;
+            mSizeBytes = estimateSize(values);
+        }
+    }
+
+    /**
+     * @param maxBytes The maximum number of bytes (estimated) held by the cached rows
+     */
+    CustomerRowCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+        mRows = new RowLruCache(maxBytes);
+    }
+
+    /**
+     * Returns the cached row, counting a hit or a miss.
+     *
+     * @param id The _ID of the customer
+     * @return The row, or null if it isn't cached
+     */
+    synchronized Row get(long id) {
+        Row row = mRows.get(id);
+        if (row == null) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return row;
+    }
+
+    /**
+     * @return The generation to pass to {@link #put(long, Row, long)} for a row about to be read
+     * from the database
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Stores a row read from the database, unless the cache was invalidated since it was read.
+     *
+     * @param id         The _ID of the customer
+     * @param row        The row
+     * @param generation The value of {@link #getGeneration()} before the row was read
+     */
+    synchronized void put(long id, Row row, long generation) {
+        if (generation != mGeneration) return;
+        mRows.put(id, row);
+    }
+
+    /**
+     * Drops a single row, for instance because it was updated or deleted.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mRows.remove(id);
+    }
+
+    /**
+     * Drops every row. The old map is simply replaced, so these don't count as evictions.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mRows = new RowLruCache(mMaxBytes);
+    }
+
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return The estimated number of bytes held by the cached rows
+     */
+    synchronized int getSizeBytes() {
+        return mRows.size();
+    }
+
+    /**
+     * @return The number of rows dropped to make room for others
+     */
+    synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CustomerRowCache[bytes=" + mRows.size() + "/" +
+                mMaxBytes + " hits=" + mHitCount + " misses=" + mMissCount +
+                " evictions=" + mEvictionCount + "]";
+    }
+
+    /**
+     * Reads the row the cursor is positioned on.
+     *
+     * @param cursor      A cursor on a customer row
+     * @param columnNames The cursor's column names, shared by the rows read from it
+     * @return The decoded row
+     */
+    static Row readRow(Cursor cursor, String[] columnNames) {
+        Object[] values = new Object[columnNames.length];
+        for (int i = 0; i < values.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    values[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    values[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    values[i] = cursor.getString(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    values[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    values[i] = null;
+            }
+        }
+        return new Row(columnNames, values);
+    }
+
+    /**
+     * Builds a cursor over a cached row, with the columns of the projection.
+     *
+     * @param row        The row
+     * @param projection The columns wanted, or null for all of them
+     * @return The cursor, or null if the projection asks for something that isn't a plain column
+     * of the row (an expression, for instance), which only the database can answer
+     */
+    static Cursor toCursor(Row row, String[] projection) {
+        if (projection == null) {
+            MatrixCursor cursor = new MatrixCursor(row.mColumnNames, 1);
+            cursor.addRow(row.mValues);
+            return cursor;
+        }
+
+        Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            int column = indexOf(row.mColumnNames, projection[i]);
+            if (column < 0) return null;
+            values[i] = row.mValues[column];
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(values);
+        return cursor;
+    }
+
+    private static int indexOf(String[] columnNames, String column) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equalsIgnoreCase(column)) return i;
+        }
+        return -1;
+    }
+
+    private static int estimateSize(Object[] values) {
+        int size = ROW_OVERHEAD_BYTES + 4 * values.length;
+        for (Object value : values) {
+            if (value instanceof String) {
+                size += 40 + 2 * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                size += 16 + ((byte[]) value).length;
+            } else if (value != null) {
+                size += 16;
+            }
+        }
+        return size;
+    }
+
+    /* Measures entries in bytes and counts the evictions made to stay within the limit. */
+    private class RowLruCache extends LruCache<Long, Row> {
+
+        RowLruCache(int maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected int sizeOf(Long id, Row row) {
+            return row.mSizeBytes;
+        }
+
+        @Override
+        protected void entryRemoved(boolean evicted, Long id, Row oldRow, Row newRow) {
+            if (evicted) {
+                mEvictionCount++;
+            }
+        }
+    }
+}
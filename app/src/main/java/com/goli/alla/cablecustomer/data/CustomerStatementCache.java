@@ -0,0 +1,227 @@
+package com.goli.alla.cablecustomer.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
+
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiled statements and prebuilt SQL for the single customer reads and writes that
+ * CustomerProvider does all the time: opening, editing and deleting one customer.
+ * <p>
+ * SQLiteDatabase.query, update and delete build their SQL from scratch on every call. Here the
+ * DELETE is compiled once, an UPDATE is compiled once per set of updated columns ("column
+ * shape") and the SELECT text is built once per projection, so a call only binds and runs.
+ * <p>
+ * Android has no cursor over an SQLiteStatement, so a point read still opens an SQLiteQuery for
+ * its SELECT. The text of a shape never changes, though, so the connection's own cache of
+ * prepared statements, which is keyed by the SQL text, hands SQLite's compiled statement back
+ * without parsing or planning it again; it is the same cache an SQLiteStatement runs through.
+ * The customer id is bound as an integer, like it is for the writes, instead of as a string.
+ * <p>
+ * Both caches are bounded and drop their least recently used shape when full, so callers
+ * updating unusual column sets can't make them grow without limit. Together they hold fewer
+ * shapes than the connection's cache of prepared statements, 25 by default, so they don't push
+ * each other, or the app's other queries, out of it.
+ * <p>
+ * Writes must run inside a transaction on the writable database. The transaction keeps other
+ * writers out, so a compiled statement is never bound by two threads at once.
+ */
+class CustomerStatementCache {
+
+    /* Most UPDATE statements kept compiled; an edit screen only ever changes a few shapes. */
+    private static final int MAX_UPDATE_SHAPES = 8;
+
+    /* Most SELECT texts kept; there is one per projection used by the app. */
+    private static final int MAX_QUERY_SHAPES = 4;
+
+    /* Deleting a customer leaves a tombstone, purged later by CustomerDbCompactor. */
+    private static final String SQL_DELETE_BY_ID = "UPDATE " + CustomerEntry.TABLE_NAME +
+            " SET " + CustomerEntry.COLUMN_DELETED + " = 1, " +
+            CustomerEntry.COLUMN_DELETED_AT + " = CURRENT_TIMESTAMP" +
+            " WHERE " + CustomerEntry._ID + " = ? AND " + CustomerDbHelper.SELECTION_LIVE;
+
+    /* The database the statements were compiled for. Guarded by "this", like everything below. */
+    private SQLiteDatabase mDb;
+
+    private SQLiteStatement mDeleteById;
+
+    /* Compiled UPDATE statements, keyed by their sorted, comma separated column names. */
+    private final LinkedHashMap<String, SQLiteStatement> mUpdates =
+            new LinkedHashMap<String, SQLiteStatement>(MAX_UPDATE_SHAPES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                    if (size() <= MAX_UPDATE_SHAPES) return false;
+                    eldest.getValue().close();
+                    return true;
+                }
+            };
+
+    /* SELECT texts, keyed by their comma separated projection ("*" for all columns). */
+    private final LinkedHashMap<String, String> mQueries =
+            new LinkedHashMap<String, String>(MAX_QUERY_SHAPES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_QUERY_SHAPES;
+                }
+            };
+
+    /* One lookup per statement run, counted for each kind of statement. */
+    private long mQueryHitCount;
+    private long mQueryMissCount;
+    private long mUpdateHitCount;
+    private long mUpdateMissCount;
+    private long mDeleteHitCount;
+    private long mDeleteMissCount;
+
+    /**
+     * Queries a single customer of the customer view.
+     *
+     * @param projection The columns to return, or null for all of them
+     * @return A cursor over the customer, empty if there is none with that id
+     */
+    Cursor queryById(SQLiteDatabase db, String[] projection, final long customerId,
+                     CancellationSignal cancellationSignal) {
+        SQLiteDatabase.CursorFactory bindId = new SQLiteDatabase.CursorFactory() {
+            @Override
+            public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver,
+                                    String editTable, SQLiteQuery query) {
+                query.bindLong(1, customerId);
+                return new SQLiteCursor(driver, editTable, query);
+            }
+        };
+        /* Only the lookup needs the lock; queries run side by side on the read connections. */
+        return db.rawQueryWithFactory(bindId, getQueryByIdSql(projection), null, null,
+                cancellationSignal);
+    }
+
+    /**
+     * Deletes a single customer, leaving its tombstone.
+     *
+     * @return The number of rows deleted, 0 or 1
+     */
+    synchronized int deleteById(SQLiteDatabase db, long customerId) {
+        checkDatabase(db);
+        if (mDeleteById == null) {
+            mDeleteMissCount++;
+            mDeleteById = db.compileStatement(SQL_DELETE_BY_ID);
+        } else {
+            mDeleteHitCount++;
+        }
+        mDeleteById.bindLong(1, customerId);
+        return mDeleteById.executeUpdateDelete();
+    }
+
+    /**
+     * Updates a single customer.
+     *
+     * @param storageValues The new values, in the columns of the customer table
+     * @return The number of rows updated, 0 or 1
+     */
+    synchronized int updateById(SQLiteDatabase db, long customerId, ContentValues storageValues) {
+        if (storageValues == null || storageValues.size() == 0) {
+            /* Same as SQLiteDatabase.update. */
+            throw new IllegalArgumentException("Empty values");
+        }
+        checkDatabase(db);
+        Set<String> keys = storageValues.keySet();
+        String[] columns = keys.toArray(new String[keys.size()]);
+        Arrays.sort(columns);
+        SQLiteStatement statement = getUpdate(db, columns);
+        for (int i = 0; i < columns.length; i++) {
+            DatabaseUtils.bindObjectToProgram(statement, i + 1, storageValues.get(columns[i]));
+        }
+        statement.bindLong(columns.length + 1, customerId);
+        return statement.executeUpdateDelete();
+    }
+
+    /**
+     * @return The share of lookups answered by the caches, in thousandths
+     */
+    synchronized long getHitRatePermille() {
+        long hits = mQueryHitCount + mUpdateHitCount + mDeleteHitCount;
+        long lookups = hits + mQueryMissCount + mUpdateMissCount + mDeleteMissCount;
+        return lookups == 0 ? 0 : hits * 1000 / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CustomerStatementCache[queries=" + mQueries.size() + "/" + MAX_QUERY_SHAPES +
+                " hits=" + mQueryHitCount + " misses=" + mQueryMissCount +
+                ", updates=" + mUpdates.size() + "/" + MAX_UPDATE_SHAPES +
+                " hits=" + mUpdateHitCount + " misses=" + mUpdateMissCount +
+                ", deletes hits=" + mDeleteHitCount + " misses=" + mDeleteMissCount + "]";
+    }
+
+    private synchronized String getQueryByIdSql(String[] projection) {
+        String shape = projection == null ? "*" : join(projection);
+        String sql = mQueries.get(shape);
+        if (sql == null) {
+            mQueryMissCount++;
+            sql = "SELECT " + shape + " FROM " + CustomerEntry.VIEW_NAME +
+                    " WHERE " + CustomerEntry._ID + " = ?";
+            mQueries.put(shape, sql);
+        } else {
+            mQueryHitCount++;
+        }
+        return sql;
+    }
+
+    private SQLiteStatement getUpdate(SQLiteDatabase db, String[] columns) {
+        String shape = join(columns);
+        SQLiteStatement statement = mUpdates.get(shape);
+        if (statement == null) {
+            mUpdateMissCount++;
+            StringBuilder sql = new StringBuilder("UPDATE ")
+                    .append(CustomerEntry.TABLE_NAME)
+                    .append(" SET ");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) sql.append(',');
+                sql.append(columns[i]).append("=?");
+            }
+            /* A deleted customer can't be edited any more. */
+            sql.append(" WHERE ").append(CustomerEntry._ID).append(" = ? AND ")
+                    .append(CustomerDbHelper.SELECTION_LIVE);
+            statement = db.compileStatement(sql.toString());
+            mUpdates.put(shape, statement);
+        } else {
+            mUpdateHitCount++;
+        }
+        return statement;
+    }
+
+    /* Statements belong to the database they were compiled for; a reopened one needs new ones. */
+    private void checkDatabase(SQLiteDatabase db) {
+        if (db == mDb) return;
+        if (mDeleteById != null) {
+            mDeleteById.close();
+            mDeleteById = null;
+        }
+        for (SQLiteStatement statement : mUpdates.values()) {
+            statement.close();
+        }
+        mUpdates.clear();
+        mDb = db;
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder joined = new StringBuilder();
+        for (String column : columns) {
+            if (joined.length() > 0) joined.append(',');
+            joined.append(column);
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,376 @@
+package com.goli.alla.cablecustomer.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+
+/**
+ * Merges incoming customer rows into the customer table by their account number.
+ * <p>
+ * Every row carries a hash of its content ({@link CustomerEntry#COLUMN_ROW_HASH}). An incoming
+ * row whose account number already exists with the same hash is skipped with a single index
+ * lookup, so no page of the table (or of its indexes and full-text index) is written for it. Only
+ * rows whose content actually changed are updated, and only unknown account numbers are inserted.
+ * A nightly feed where 1% of the customers changed therefore writes about 1% of the pages, where
+ * "delete everything, insert everything" rewrote the whole database.
+ * <p>
+ * An incoming row is the complete record of the customer: content columns it doesn't have are
+ * stored as NULL. Rows without an account number can't be matched and are simply inserted.
+ * <p>
+ * A customer deleted on the device stays deleted: incoming rows for its account number are
+ * skipped for as long as its tombstone is kept, whatever they contain, and counted by
+ * {@link #getRowsKeptDeleted()}. The feed carries no time of change to weigh against the time
+ * of the delete, and the delete is the user's latest word on the customer. Once the tombstone is
+ * purged, the next change the head-end sends for the account brings the customer back.
+ * <p>
+ * The caller is responsible for the transaction; an upserter must not outlive it.
+ */
+class CustomerUpserter {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CustomerUpserter.class.getSimpleName();
+
+    /* The columns making up the content of a customer, in the order they are hashed. */
+    private static final String[] CONTENT_COLUMNS = {
+            CustomerEntry.COLUMN_NAME_FIRST,
+            CustomerEntry.COLUMN_NAME_MIDDLE,
+            CustomerEntry.COLUMN_NAME_LAST,
+            CustomerEntry.COLUMN_PHONE,
+            CustomerEntry.COLUMN_ADDRESS1,
+            CustomerEntry.COLUMN_ADDRESS2,
+            CustomerEntry.COLUMN_APT_NUM,
+            CustomerEntry.COLUMN_CITY,
+            CustomerEntry.COLUMN_STATE,
+            CustomerEntry.COLUMN_ZIPCODE,
+            CustomerEntry.COLUMN_LATITUDE,
+            CustomerEntry.COLUMN_LONGITUDE
+    };
+
+    /*
+     * The columns from here on were added after rows were first hashed. They only enter the hash
+     * when they have a value, so rows hashed before keep their hash and aren't all rewritten by
+     * the next feed.
+     */
+    private static final int FIRST_OPTIONAL_HASH_COLUMN = 10;
+
+    /*
+     * Up to this many changed rows are reported one by one; beyond that the caller should treat
+     * the whole collection as changed.
+     */
+    private static final int MAX_CHANGED_IDS = 64;
+
+    /* 64-bit FNV-1a parameters. */
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final SQLiteDatabase mDb;
+
+    private final CustomerLookupCache mLookupCache;
+
+    /* For each of CONTENT_COLUMNS, its lookup table, or null if the value is stored as is. */
+    private final String[] mLookupTables = new String[CONTENT_COLUMNS.length];
+
+    private SQLiteStatement mCountUnchanged;
+    private SQLiteStatement mUpdate;
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mSelectId;
+    private SQLiteStatement mCountDeleted;
+
+    /* The content of the row being merged, in CONTENT_COLUMNS order. */
+    private final String[] mRow = new String[CONTENT_COLUMNS.length];
+
+    private int mRowsInserted;
+    private int mRowsUpdated;
+    private int mRowsUnchanged;
+    private int mRowsKeptDeleted;
+
+    private final long[] mChangedIds = new long[MAX_CHANGED_IDS];
+    private int mChangedIdCount;
+
+    CustomerUpserter(SQLiteDatabase db, CustomerLookupCache lookupCache) {
+        mDb = db;
+        mLookupCache = lookupCache;
+        for (int i = 0; i < CONTENT_COLUMNS.length; i++) {
+            mLookupTables[i] = CustomerLookupCache.getLookupTable(CONTENT_COLUMNS[i]);
+        }
+    }
+
+    /**
+     * Merges rows given as ContentValues.
+     *
+     * @return The number of rows inserted or updated
+     */
+    int upsert(ContentValues[] values) {
+        int rowsWritten = 0;
+        for (ContentValues value : values) {
+            if (value == null || value.size() == 0) continue;
+            for (int i = 0; i < CONTENT_COLUMNS.length; i++) {
+                mRow[i] = value.getAsString(CONTENT_COLUMNS[i]);
+            }
+            if (merge(value.getAsString(CustomerEntry.COLUMN_ACCOUNT_NUMBER))) {
+                rowsWritten++;
+            }
+        }
+        return rowsWritten;
+    }
+
+    /**
+     * Merges the rows of a column-oriented batch.
+     *
+     * @return The number of rows inserted or updated
+     */
+    int upsert(CustomerBatch batch) {
+        int[] columns = new int[CONTENT_COLUMNS.length];
+        for (int i = 0; i < CONTENT_COLUMNS.length; i++) {
+            columns[i] = batch.getColumnIndex(CONTENT_COLUMNS[i]);
+        }
+        int accountColumn = batch.getColumnIndex(CustomerEntry.COLUMN_ACCOUNT_NUMBER);
+
+        int rowsWritten = 0;
+        for (int row = 0; row < batch.size(); row++) {
+            for (int i = 0; i < columns.length; i++) {
+                mRow[i] = columns[i] < 0 ? null : batch.get(row, columns[i]);
+            }
+            String accountNumber = accountColumn < 0 ? null : batch.get(row, accountColumn);
+            if (merge(accountNumber)) {
+                rowsWritten++;
+            }
+        }
+        return rowsWritten;
+    }
+
+    /**
+     * @return The number of rows inserted so far
+     */
+    int getRowsInserted() {
+        return mRowsInserted;
+    }
+
+    /**
+     * @return The number of rows updated so far
+     */
+    int getRowsUpdated() {
+        return mRowsUpdated;
+    }
+
+    /**
+     * @return The number of rows skipped so far because their content hadn't changed
+     */
+    int getRowsUnchanged() {
+        return mRowsUnchanged;
+    }
+
+    /**
+     * @return The number of rows skipped so far because their customer was deleted on the device
+     */
+    int getRowsKeptDeleted() {
+        return mRowsKeptDeleted;
+    }
+
+    /**
+     * @return The _IDs of the rows inserted or updated so far, or null if there were too many to
+     * list them individually
+     */
+    long[] getChangedIds() {
+        if (mChangedIdCount > MAX_CHANGED_IDS) return null;
+        long[] changedIds = new long[mChangedIdCount];
+        System.arraycopy(mChangedIds, 0, changedIds, 0, mChangedIdCount);
+        return changedIds;
+    }
+
+    /**
+     * Releases the compiled statements.
+     */
+    void close() {
+        closeStatement(mCountUnchanged);
+        closeStatement(mUpdate);
+        closeStatement(mInsert);
+        closeStatement(mSelectId);
+        closeStatement(mCountDeleted);
+        mCountUnchanged = mUpdate = mInsert = mSelectId = mCountDeleted = null;
+    }
+
+    /* Merges mRow; returns true if the table was written to. */
+    private boolean merge(String accountNumber) {
+        long rowHash = hashRow(mRow);
+        try {
+            if (accountNumber != null) {
+                SQLiteStatement countUnchanged = getCountUnchanged();
+                countUnchanged.bindString(1, accountNumber);
+                countUnchanged.bindLong(2, rowHash);
+                if (countUnchanged.simpleQueryForLong() > 0) {
+                    mRowsUnchanged++;
+                    return false;
+                }
+
+                SQLiteStatement update = getUpdate();
+                bindRow(update, rowHash, accountNumber);
+                if (update.executeUpdateDelete() > 0) {
+                    mRowsUpdated++;
+                    SQLiteStatement selectId = getSelectId();
+                    selectId.bindString(1, accountNumber);
+                    addChangedId(selectId.simpleQueryForLong());
+                    return true;
+                }
+
+                SQLiteStatement countDeleted = getCountDeleted();
+                countDeleted.bindString(1, accountNumber);
+                if (countDeleted.simpleQueryForLong() > 0) {
+                    mRowsKeptDeleted++;
+                    return false;
+                }
+            }
+
+            SQLiteStatement insert = getInsert();
+            bindRow(insert, rowHash, accountNumber);
+            long rowId = insert.executeInsert();
+            if (rowId == -1) return false;
+            mRowsInserted++;
+            addChangedId(rowId);
+            return true;
+        } catch (SQLException e) {
+            /* Like CustomerBulkLoader, a row that breaks a constraint is logged and skipped. */
+            Log.e(LOG_TAG, "Failed to merge row for account " + accountNumber, e);
+            return false;
+        }
+    }
+
+    /*
+     * The update and insert statements share the same parameter order. The hash is computed on the
+     * text, but city, state and zipcode are stored as the _IDs of their lookup table values.
+     */
+    private void bindRow(SQLiteStatement statement, long rowHash, String accountNumber) {
+        for (int i = 0; i < mRow.length; i++) {
+            if (mLookupTables[i] != null) {
+                Long id = mLookupCache.getId(mDb, mLookupTables[i], mRow[i]);
+                if (id == null) {
+                    statement.bindNull(i + 1);
+                } else {
+                    statement.bindLong(i + 1, id);
+                }
+            } else if (mRow[i] == null) {
+                statement.bindNull(i + 1);
+            } else {
+                statement.bindString(i + 1, mRow[i]);
+            }
+        }
+        statement.bindLong(mRow.length + 1, rowHash);
+        if (accountNumber == null) {
+            statement.bindNull(mRow.length + 2);
+        } else {
+            statement.bindString(mRow.length + 2, accountNumber);
+        }
+    }
+
+    private void addChangedId(long rowId) {
+        if (mChangedIdCount < MAX_CHANGED_IDS) {
+            mChangedIds[mChangedIdCount] = rowId;
+        }
+        /* Counts on past the array, so getChangedIds can tell that some were left out. */
+        if (mChangedIdCount <= MAX_CHANGED_IDS) {
+            mChangedIdCount++;
+        }
+    }
+
+    private SQLiteStatement getCountUnchanged() {
+        if (mCountUnchanged == null) {
+            mCountUnchanged = mDb.compileStatement("SELECT count(*) FROM " +
+                    CustomerEntry.TABLE_NAME +
+                    " WHERE " + CustomerEntry.COLUMN_ACCOUNT_NUMBER + " = ?" +
+                    " AND " + CustomerEntry.COLUMN_ROW_HASH + " = ?" +
+                    " AND " + CustomerDbHelper.SELECTION_LIVE);
+        }
+        return mCountUnchanged;
+    }
+
+    private SQLiteStatement getUpdate() {
+        if (mUpdate == null) {
+            StringBuilder sql = new StringBuilder("UPDATE ")
+                    .append(CustomerEntry.TABLE_NAME)
+                    .append(" SET ");
+            for (String column : CONTENT_COLUMNS) {
+                sql.append(CustomerLookupCache.getStorageColumn(column)).append(" = ?, ");
+            }
+            /* A customer deleted on the device is left alone; see getCountDeleted. */
+            sql.append(CustomerEntry.COLUMN_ROW_HASH).append(" = ?")
+                    .append(" WHERE ").append(CustomerEntry.COLUMN_ACCOUNT_NUMBER).append(" = ?")
+                    .append(" AND ").append(CustomerDbHelper.SELECTION_LIVE);
+            mUpdate = mDb.compileStatement(sql.toString());
+        }
+        return mUpdate;
+    }
+
+    private SQLiteStatement getInsert() {
+        if (mInsert == null) {
+            StringBuilder sql = new StringBuilder("INSERT INTO ")
+                    .append(CustomerEntry.TABLE_NAME)
+                    .append(" (");
+            for (String column : CONTENT_COLUMNS) {
+                sql.append(CustomerLookupCache.getStorageColumn(column)).append(", ");
+            }
+            sql.append(CustomerEntry.COLUMN_ROW_HASH).append(", ")
+                    .append(CustomerEntry.COLUMN_ACCOUNT_NUMBER)
+                    .append(") VALUES (");
+            for (int i = 0; i < CONTENT_COLUMNS.length + 2; i++) {
+                sql.append(i == 0 ? "?" : ",?");
+            }
+            sql.append(')');
+            mInsert = mDb.compileStatement(sql.toString());
+        }
+        return mInsert;
+    }
+
+    private SQLiteStatement getSelectId() {
+        if (mSelectId == null) {
+            mSelectId = mDb.compileStatement("SELECT " + CustomerEntry._ID + " FROM " +
+                    CustomerEntry.TABLE_NAME +
+                    " WHERE " + CustomerEntry.COLUMN_ACCOUNT_NUMBER + " = ?");
+        }
+        return mSelectId;
+    }
+
+    /* Finds the tombstone of an account, which keeps its account number until it is purged. */
+    private SQLiteStatement getCountDeleted() {
+        if (mCountDeleted == null) {
+            mCountDeleted = mDb.compileStatement("SELECT count(*) FROM " +
+                    CustomerEntry.TABLE_NAME +
+                    " WHERE " + CustomerEntry.COLUMN_ACCOUNT_NUMBER + " = ?" +
+                    " AND " + CustomerEntry.COLUMN_DELETED + " = 1");
+        }
+        return mCountDeleted;
+    }
+
+    private static void closeStatement(SQLiteStatement statement) {
+        if (statement != null) statement.close();
+    }
+
+    /**
+     * Hashes the content of a row with 64-bit FNV-1a. Each value is followed by a separator and
+     * NULL hashes differently from "", so shifting text between columns changes the hash.
+     *
+     * @param row The content values in CONTENT_COLUMNS order
+     * @return The hash to store in COLUMN_ROW_HASH
+     */
+    static long hashRow(String[] row) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int column = 0; column < row.length; column++) {
+            String value = row[column];
+            if (value == null && column >= FIRST_OPTIONAL_HASH_COLUMN) continue;
+            if (value == null) {
+                hash = (hash ^ 0xff) * FNV_PRIME;
+            } else {
+                for (int i = 0; i < value.length(); i++) {
+                    char ch = value.charAt(i);
+                    hash = (hash ^ (ch & 0xff)) * FNV_PRIME;
+                    hash = (hash ^ (ch >>> 8)) * FNV_PRIME;
+                }
+            }
+            hash = (hash ^ 0x1f) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,95 @@
+package com.goli.alla.cablecustomer.data;
+
+import com.goli.alla.cablecustomer.data.CustomerContract.GeoEntry;
+
+import java.util.List;
+
+/**
+ * The fixed grid the spatial index (GeoEntry) files customers under.
+ * <p>
+ * The world is cut into cells of 1/20 of a degree (about 5.5 km north-south), numbered row by
+ * row from the south-west corner, so the cells of one row of the grid have consecutive numbers.
+ * Looking for the customers around a point then comes down to a few "cell BETWEEN ? AND ?" range
+ * scans on the (cell, latitude, longitude) index, one per row of cells crossed by the bounding
+ * box, instead of visiting every customer. R*Tree would do the same job, but it is not compiled
+ * into the SQLite of every Android device.
+ * <p>
+ * The cell of a row is computed by triggers in SQL and the cells of a query in Java, with the
+ * same double arithmetic ((degrees + offset) * CELLS_PER_DEGREE, truncated), so both sides
+ * always agree on the cell of a point.
+ * <p>
+ * Distances use the equirectangular approximation, which is well under 1% off at the few tens of
+ * kilometers a truck covers, and only needs arithmetic that SQLite has.
+ */
+class GeoGrid {
+
+    /* Number of cells per degree of latitude and of longitude. */
+    static final int CELLS_PER_DEGREE = 20;
+
+    static final int ROWS = 180 * CELLS_PER_DEGREE;
+    static final int COLUMNS = 360 * CELLS_PER_DEGREE;
+
+    /* Length of a degree of latitude (and of longitude at the equator) on the mean Earth radius. */
+    static final double KM_PER_DEGREE = 111.195;
+
+    /*
+     * A query crossing more rows of cells than this is answered with a single range covering all
+     * of them, which scans the whole band of latitude but keeps the statement short.
+     */
+    private static final int MAX_CELL_RANGES = 32;
+
+    private GeoGrid() {
+    }
+
+    /**
+     * @return The SQL expression computing the cell of a point, for instance in a trigger
+     */
+    static String cellExpression(String latitude, String longitude) {
+        return "(max(0, min(" + (ROWS - 1) + ", CAST((" + latitude + " + 90) * " +
+                CELLS_PER_DEGREE + " AS INTEGER))) * " + COLUMNS +
+                " + max(0, min(" + (COLUMNS - 1) + ", CAST((" + longitude + " + 180) * " +
+                CELLS_PER_DEGREE + " AS INTEGER))))";
+    }
+
+    static int row(double latitude) {
+        return Math.max(0, Math.min(ROWS - 1, (int) ((latitude + 90) * CELLS_PER_DEGREE)));
+    }
+
+    static int column(double longitude) {
+        return Math.max(0, Math.min(COLUMNS - 1, (int) ((longitude + 180) * CELLS_PER_DEGREE)));
+    }
+
+    /**
+     * Builds the selection picking the index rows in the cells covering a bounding box.
+     *
+     * @param minLatitude  South edge of the box
+     * @param maxLatitude  North edge of the box
+     * @param minLongitude West edge of the box
+     * @param maxLongitude East edge of the box
+     * @param args         Receives the selection arguments
+     * @return The selection, on GeoEntry.COLUMN_CELL
+     */
+    static String buildCellSelection(double minLatitude, double maxLatitude,
+                                     double minLongitude, double maxLongitude,
+                                     List<String> args) {
+        int firstRow = row(minLatitude);
+        int lastRow = row(maxLatitude);
+        int firstColumn = column(minLongitude);
+        int lastColumn = column(maxLongitude);
+
+        if (lastRow - firstRow >= MAX_CELL_RANGES) {
+            args.add(String.valueOf((long) firstRow * COLUMNS + firstColumn));
+            args.add(String.valueOf((long) lastRow * COLUMNS + lastColumn));
+            return GeoEntry.COLUMN_CELL + " BETWEEN ? AND ?";
+        }
+
+        StringBuilder selection = new StringBuilder("(");
+        for (int row = firstRow; row <= lastRow; row++) {
+            if (row > firstRow) selection.append(" OR ");
+            selection.append(GeoEntry.COLUMN_CELL).append(" BETWEEN ? AND ?");
+            args.add(String.valueOf((long) row * COLUMNS + firstColumn));
+            args.add(String.valueOf((long) row * COLUMNS + lastColumn));
+        }
+        return selection.append(')').toString();
+    }
+}
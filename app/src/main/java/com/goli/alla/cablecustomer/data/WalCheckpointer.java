@@ -0,0 +1,119 @@
+package com.goli.alla.cablecustomer.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the write-ahead log of the customer database small by checkpointing it in the background.
+ * <p>
+ * Left alone, SQLite checkpoints at the end of whichever commit pushes the WAL past its
+ * autocheckpoint size, so a sync would now and then stall on copying megabytes of pages back into
+ * the database file. Instead CustomerProvider calls {@link #onWrite(SQLiteDatabase)} after each
+ * write; once the WAL file has grown past {@link #CHECKPOINT_THRESHOLD_BYTES}, a PASSIVE checkpoint
+ * is scheduled on a background thread. A passive checkpoint never waits for readers or writers: it
+ * copies what it can, and whatever is left is picked up by the next one.
+ * <p>
+ * Reads also get slower as the WAL grows, because every page lookup goes through the WAL index
+ * first, so a small WAL helps the customer list too.
+ */
+class WalCheckpointer {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = WalCheckpointer.class.getSimpleName();
+
+    /* WAL size that triggers a checkpoint; the same as SQLite's default of 1000 pages. */
+    static final long CHECKPOINT_THRESHOLD_BYTES = 4 * 1024 * 1024;
+
+    /*
+     * Writes usually come in bursts (a sync applies one batch after another), so the checkpoint
+     * waits a moment for the burst to end instead of competing with it.
+     */
+    private static final long CHECKPOINT_DELAY_MS = 500;
+
+    private final SQLiteOpenHelper mOpenHelper;
+
+    private final ScheduledExecutorService mExecutor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "WalCheckpointer");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    /* Set while a checkpoint is scheduled, so a burst of writes schedules only one. */
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+
+    private volatile File mWalFile;
+
+    private final Runnable mCheckpointRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mScheduled.set(false);
+            checkpoint();
+        }
+    };
+
+    WalCheckpointer(SQLiteOpenHelper openHelper) {
+        mOpenHelper = openHelper;
+    }
+
+    /**
+     * Tells the checkpointer that a write was committed. Costs one stat() of the WAL file.
+     *
+     * @param db The database that was written to
+     */
+    void onWrite(SQLiteDatabase db) {
+        File walFile = mWalFile;
+        if (walFile == null) {
+            walFile = new File(db.getPath() + "-wal");
+            mWalFile = walFile;
+        }
+        if (walFile.length() < CHECKPOINT_THRESHOLD_BYTES) return;
+
+        if (mScheduled.compareAndSet(false, true)) {
+            mExecutor.schedule(mCheckpointRunnable, CHECKPOINT_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return The current size of the WAL file, 0 until the provider's first write
+     */
+    long getWalSizeBytes() {
+        File walFile = mWalFile;
+        return walFile == null ? 0 : walFile.length();
+    }
+
+    private void checkpoint() {
+        /*
+         * The pragma returns one row: whether it was blocked, the number of frames in the WAL
+         * and the number of frames copied back into the database.
+         */
+        try {
+            Cursor cursor = mOpenHelper.getWritableDatabase()
+                    .rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+            try {
+                if (cursor.moveToFirst()) {
+                    Log.d(LOG_TAG, "Checkpoint: " + cursor.getInt(2) + " of " +
+                            cursor.getInt(1) + " WAL frames copied");
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            /* Nothing is lost: SQLite's own autocheckpoint still runs on commit. */
+            Log.e(LOG_TAG, "Checkpoint failed", e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.goli.alla.cablecustomer.importer;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A small streaming CSV parser (RFC 4180: comma separated, fields optionally enclosed in double
+ * quotes, a doubled quote standing for a quote, CRLF or LF line ends).
+ * <p>
+ * The input is read through a fixed char buffer and every field is collected in one reused
+ * StringBuilder, so the only allocations per record are the field Strings themselves. Only one
+ * record is ever held in memory, whatever the size of the file.
+ */
+class CsvReader {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final Reader mReader;
+
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mBufferLength;
+    private int mBufferPosition;
+
+    private final StringBuilder mField = new StringBuilder(64);
+
+    CsvReader(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Reads the next record. Fields beyond the length of the array are dropped; missing fields
+     * are set to null. Empty unquoted fields are read as null, quoted ones as "".
+     *
+     * @param fields Receives the fields of the record
+     * @return The number of fields in the record, or -1 at the end of the input
+     */
+    int readRecord(String[] fields) throws IOException {
+        return parseRecord(fields);
+    }
+
+    /**
+     * Skips the next record without creating any Strings.
+     *
+     * @return false at the end of the input
+     */
+    boolean skipRecord() throws IOException {
+        return parseRecord(null) >= 0;
+    }
+
+    private int parseRecord(String[] fields) throws IOException {
+        int ch = read();
+        if (ch == -1) return -1;
+
+        int fieldCount = 0;
+        while (true) {
+            mField.setLength(0);
+            boolean quoted = false;
+
+            if (ch == '"') {
+                quoted = true;
+                while (true) {
+                    ch = read();
+                    if (ch == -1) break;
+                    if (ch == '"') {
+                        ch = read();
+                        if (ch != '"') break;
+                    }
+                    if (fields != null) mField.append((char) ch);
+                }
+            }
+            /* Whatever follows a closing quote, up to the separator, is kept as is. */
+            while (ch != -1 && ch != ',' && ch != '\n' && ch != '\r') {
+                if (fields != null) mField.append((char) ch);
+                ch = read();
+            }
+
+            if (fields != null && fieldCount < fields.length) {
+                fields[fieldCount] = mField.length() == 0 && !quoted ? null : mField.toString();
+            }
+            fieldCount++;
+
+            if (ch == ',') {
+                ch = read();
+                continue;
+            }
+            if (ch == '\r') {
+                ch = read();
+                if (ch != '\n' && ch != -1) unread();
+            }
+            break;
+        }
+
+        if (fields != null) {
+            for (int i = fieldCount; i < fields.length; i++) {
+                fields[i] = null;
+            }
+        }
+        return fieldCount;
+    }
+
+    private int read() throws IOException {
+        if (mBufferPosition == mBufferLength) {
+            mBufferLength = mReader.read(mBuffer, 0, mBuffer.length);
+            mBufferPosition = 0;
+            if (mBufferLength <= 0) {
+                mBufferLength = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mBufferPosition++];
+    }
+
+    /* Steps back over the last character read; only valid right after a successful read(). */
+    private void unread() {
+        mBufferPosition--;
+    }
+}
@@ -0,0 +1,277 @@
+package com.goli.alla.cablecustomer.importer;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import com.goli.alla.cablecustomer.data.CustomerBatch;
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Imports subscriber lists exported by the head-end (CSV or JSON) into the customer table.
+ * <p>
+ * The input is streamed: records are parsed one at a time into a reused {@link CustomerBatch},
+ * and every {@link #CHUNK_SIZE} records the batch is committed through CustomerProvider in its
+ * own transaction. Memory use therefore doesn't depend on the size of the file.
+ * <p>
+ * Each committed chunk also records, in the same transaction, how many records of the import
+ * are in the database. Running an import again with the same import id (for instance after the
+ * process was killed) skips the records that were already committed and carries on from there.
+ * A completed import run again imports nothing.
+ * <p>
+ * Rows are merged by account number, so importing tonight's export over yesterday's only writes
+ * the customers that changed.
+ * <p>
+ * Fields are matched to the CustomerEntry columns by name: the CSV header row, or the member
+ * names of the JSON objects (case doesn't matter). Anything else is ignored, and so are records
+ * without any of those fields, such as blank lines.
+ */
+public class CustomerImporter {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = CustomerImporter.class.getSimpleName();
+
+    /* Number of records committed per transaction. */
+    static final int CHUNK_SIZE = 2000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* The customer columns that can be imported. */
+    private static final String[] IMPORT_COLUMNS = {
+            CustomerEntry.COLUMN_ACCOUNT_NUMBER,
+            CustomerEntry.COLUMN_NAME_FIRST,
+            CustomerEntry.COLUMN_NAME_MIDDLE,
+            CustomerEntry.COLUMN_NAME_LAST,
+            CustomerEntry.COLUMN_PHONE,
+            CustomerEntry.COLUMN_ADDRESS1,
+            CustomerEntry.COLUMN_ADDRESS2,
+            CustomerEntry.COLUMN_APT_NUM,
+            CustomerEntry.COLUMN_CITY,
+            CustomerEntry.COLUMN_STATE,
+            CustomerEntry.COLUMN_ZIPCODE,
+            CustomerEntry.COLUMN_LATITUDE,
+            CustomerEntry.COLUMN_LONGITUDE
+    };
+
+    /**
+     * Receives the progress of an import.
+     */
+    public interface ProgressListener {
+        /**
+         * Called after every committed chunk, on the importing thread.
+         *
+         * @param recordsCommitted Number of records of the input committed so far, including
+         *                         those committed by earlier runs of the same import
+         */
+        void onProgress(long recordsCommitted);
+    }
+
+    private final ContentResolver mContentResolver;
+
+    private final CustomerBatch mBatch = new CustomerBatch(IMPORT_COLUMNS, CHUNK_SIZE);
+
+    public CustomerImporter(@NonNull Context context) {
+        mContentResolver = context.getContentResolver();
+    }
+
+    /**
+     * Imports a CSV file. The import id is derived from the path, size and modification time of
+     * the file, so the same file resumes where it stopped and a new export starts from scratch.
+     *
+     * @return The number of customers inserted or updated by this run
+     */
+    @WorkerThread
+    public long importCsvFile(@NonNull File file, @Nullable ProgressListener listener)
+            throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return importCsv(in, buildImportId(file), listener);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Imports a JSON file; see {@link #importCsvFile(File, ProgressListener)}.
+     *
+     * @return The number of customers inserted or updated by this run
+     */
+    @WorkerThread
+    public long importJsonFile(@NonNull File file, @Nullable ProgressListener listener)
+            throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return importJson(in, buildImportId(file), listener);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Imports UTF-8 CSV whose first record is a header naming the columns.
+     *
+     * @param in       The CSV input. It isn't closed.
+     * @param importId Identifies the import for resuming it
+     * @param listener Receives the progress, may be null
+     * @return The number of customers inserted or updated by this run
+     */
+    @WorkerThread
+    public long importCsv(@NonNull InputStream in, @NonNull String importId,
+                          @Nullable ProgressListener listener) throws IOException {
+        CsvReader csvReader = new CsvReader(newReader(in));
+
+        String[] header = new String[64];
+        int headerLength = csvReader.readRecord(header);
+        if (headerLength < 0) return 0;
+
+        /* mapping[field] is the batch column of the field, or -1 to ignore it. */
+        int[] mapping = new int[Math.min(headerLength, header.length)];
+        for (int i = 0; i < mapping.length; i++) {
+            mapping[i] = findColumn(header[i]);
+        }
+
+        long committed = getCheckpoint(importId);
+        for (long skipped = 0; skipped < committed; skipped++) {
+            if (!csvReader.skipRecord()) return 0;
+        }
+
+        long recordsRead = committed;
+        long rowsWritten = 0;
+        String[] fields = new String[mapping.length];
+        mBatch.clear();
+        while (csvReader.readRecord(fields) >= 0) {
+            recordsRead++;
+            if (!hasMappedField(fields, mapping)) continue;
+            int row = mBatch.addRow();
+            for (int i = 0; i < mapping.length; i++) {
+                if (mapping[i] >= 0) {
+                    mBatch.set(row, mapping[i], fields[i]);
+                }
+            }
+            if (mBatch.isFull()) {
+                rowsWritten += commitChunk(importId, recordsRead, listener);
+            }
+        }
+        rowsWritten += commitChunk(importId, recordsRead, listener);
+        return rowsWritten;
+    }
+
+    /**
+     * Imports UTF-8 JSON made of a single array of objects, one object per customer.
+     *
+     * @param in       The JSON input. It isn't closed.
+     * @param importId Identifies the import for resuming it
+     * @param listener Receives the progress, may be null
+     * @return The number of customers inserted or updated by this run
+     */
+    @WorkerThread
+    public long importJson(@NonNull InputStream in, @NonNull String importId,
+                           @Nullable ProgressListener listener) throws IOException {
+        JsonReader jsonReader = new JsonReader(newReader(in));
+        jsonReader.beginArray();
+
+        long committed = getCheckpoint(importId);
+        for (long skipped = 0; skipped < committed; skipped++) {
+            if (!jsonReader.hasNext()) return 0;
+            jsonReader.skipValue();
+        }
+
+        long recordsRead = committed;
+        long rowsWritten = 0;
+        mBatch.clear();
+        while (jsonReader.hasNext()) {
+            recordsRead++;
+            int row = mBatch.addRow();
+            jsonReader.beginObject();
+            while (jsonReader.hasNext()) {
+                int column = findColumn(jsonReader.nextName());
+                if (column < 0) {
+                    jsonReader.skipValue();
+                } else if (jsonReader.peek() == JsonToken.NULL) {
+                    jsonReader.nextNull();
+                } else {
+                    /* nextString also accepts numbers, which is handy for zip codes and phones. */
+                    mBatch.set(row, column, jsonReader.nextString());
+                }
+            }
+            jsonReader.endObject();
+            if (isEmptyRow(row)) {
+                mBatch.removeLastRow();
+                continue;
+            }
+            if (mBatch.isFull()) {
+                rowsWritten += commitChunk(importId, recordsRead, listener);
+            }
+        }
+        jsonReader.endArray();
+        rowsWritten += commitChunk(importId, recordsRead, listener);
+        return rowsWritten;
+    }
+
+    /*
+     * Commits the current batch together with the new checkpoint, and empties the batch. Called
+     * with an empty batch at the end of the input, to record that the import completed.
+     */
+    private int commitChunk(String importId, long recordsRead, ProgressListener listener) {
+        int rowsWritten = mBatch.bulkUpsert(mContentResolver, importId, recordsRead);
+        Log.d(LOG_TAG, "Import " + importId + ": " + recordsRead + " records committed");
+        mBatch.clear();
+        if (listener != null) {
+            listener.onProgress(recordsRead);
+        }
+        return rowsWritten;
+    }
+
+    private static boolean hasMappedField(String[] fields, int[] mapping) {
+        for (int i = 0; i < mapping.length; i++) {
+            if (mapping[i] >= 0 && fields[i] != null) return true;
+        }
+        return false;
+    }
+
+    private boolean isEmptyRow(int row) {
+        for (int column = 0; column < IMPORT_COLUMNS.length; column++) {
+            if (mBatch.get(row, column) != null) return false;
+        }
+        return true;
+    }
+
+    private long getCheckpoint(String importId) {
+        Bundle result = mContentResolver.call(CustomerEntry.CONTENT_URI,
+                CustomerContract.METHOD_GET_IMPORT_CHECKPOINT, importId, null);
+        return result == null ? 0 : result.getLong(CustomerContract.EXTRA_IMPORT_ROWS);
+    }
+
+    private int findColumn(String name) {
+        if (name == null) return -1;
+        name = name.trim();
+        for (int i = 0; i < IMPORT_COLUMNS.length; i++) {
+            if (IMPORT_COLUMNS[i].equalsIgnoreCase(name)) return i;
+        }
+        return -1;
+    }
+
+    private static Reader newReader(InputStream in) {
+        return new InputStreamReader(new BufferedInputStream(in, 64 * 1024), UTF_8);
+    }
+
+    private static String buildImportId(File file) {
+        return file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    }
+}
@@ -0,0 +1,39 @@
+package com.goli.alla.cablecustomer.metrics;
+
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+
+/**
+ * Times how long a query's cursor takes to fill. A SQLiteCursor runs its query lazily: the first
+ * getCount() steps through the whole result to count it and fills the first window, which is
+ * usually the larger part of a query's cost and happens wherever the cursor is first used, not
+ * in the provider. Filling further windows while scrolling isn't included.
+ * <p>
+ * Extends CrossProcessCursorWrapper so the wrapped cursor still fills windows directly when it
+ * is sent to another process.
+ */
+public class FillTimingCursor extends CrossProcessCursorWrapper {
+
+    private final LatencyHistogram mFillLatency;
+
+    private boolean mCounted;
+
+    /**
+     * @param cursor      The cursor to time
+     * @param fillLatency Receives the duration of the first getCount()
+     */
+    public FillTimingCursor(Cursor cursor, LatencyHistogram fillLatency) {
+        super(cursor);
+        mFillLatency = fillLatency;
+    }
+
+    @Override
+    public int getCount() {
+        if (mCounted) return super.getCount();
+        mCounted = true;
+        long startNanos = System.nanoTime();
+        int count = super.getCount();
+        mFillLatency.recordSince(startNanos);
+        return count;
+    }
+}
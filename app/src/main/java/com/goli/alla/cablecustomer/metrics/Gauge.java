@@ -0,0 +1,12 @@
+package com.goli.alla.cablecustomer.metrics;
+
+/**
+ * A value read when the metrics are dumped, such as the size of a cache.
+ */
+public interface Gauge {
+
+    /**
+     * @return The current value. Called on the dumping thread, so it must be thread safe.
+     */
+    long getValue();
+}
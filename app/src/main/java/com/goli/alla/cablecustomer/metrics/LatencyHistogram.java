@@ -0,0 +1,147 @@
+package com.goli.alla.cablecustomer.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records durations, in nanoseconds, into log-linear buckets the way HdrHistogram does: every
+ * power of two is split into {@link #SUB_BUCKET_COUNT} equal buckets, so any percentile is read
+ * back within 1/64 (1.6%) of the real value, from 128ns to a minute, in a fixed 16KB.
+ * <p>
+ * Recording is a couple of atomic increments and never allocates, so it can be called from any
+ * thread on hot paths. Reading walks the buckets and is meant for the occasional dump; a dump
+ * taken while values are being recorded may be off by the values in flight.
+ */
+public class LatencyHistogram {
+
+    /* Each power of two is split into 2^SUB_BUCKET_BITS buckets. */
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /* Values below this are counted exactly, one bucket per nanosecond. */
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKET_COUNT;
+
+    /* Values from 2^MAX_EXPONENT ns (about 69 seconds) on are counted as the largest value. */
+    private static final int MAX_EXPONENT = 36;
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+    private static final int BUCKET_COUNT =
+            LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+
+    private final String mName;
+
+    private final AtomicLongArray mCounts;
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        mName = name;
+        /* Builds without metrics never record, so they don't pay for the buckets either. */
+        mCounts = new AtomicLongArray(Metrics.ENABLED ? BUCKET_COUNT : 0);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration, in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        if (nanos > MAX_VALUE) nanos = MAX_VALUE;
+        mCounts.incrementAndGet(indexOf(nanos));
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    /**
+     * Records the time elapsed since startNanos.
+     *
+     * @param startNanos A value of System.nanoTime() taken at the start
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    public long getMeanNanos() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100
+     * @return The duration below which that percentage of the recorded durations falls, in
+     * nanoseconds (0 if nothing was recorded)
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = mCount.get();
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length(); i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) return Math.min(highestValueIn(i), mMaxNanos.get());
+        }
+        return mMaxNanos.get();
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    /* Exact below LINEAR_LIMIT; above, the top SUB_BUCKET_BITS + 1 bits pick the bucket. */
+    private static int indexOf(long nanos) {
+        if (nanos < LINEAR_LIMIT) return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS));
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT
+                + subBucket - SUB_BUCKET_COUNT;
+    }
+
+    private static long highestValueIn(int index) {
+        if (index < LINEAR_LIMIT) return index;
+        int exponent = SUB_BUCKET_BITS + 1 + (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT;
+        long subBucket = SUB_BUCKET_COUNT + (index - LINEAR_LIMIT) % SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * @return The count and the main percentiles, in microseconds
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "count=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+                getCount(),
+                getMeanNanos() / 1000.0,
+                getValueAtPercentile(50) / 1000.0,
+                getValueAtPercentile(90) / 1000.0,
+                getValueAtPercentile(99) / 1000.0,
+                getMaxNanos() / 1000.0);
+    }
+}
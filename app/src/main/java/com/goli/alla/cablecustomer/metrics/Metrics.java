@@ -0,0 +1,105 @@
+package com.goli.alla.cablecustomer.metrics;
+
+import android.support.annotation.NonNull;
+
+import com.goli.alla.cablecustomer.BuildConfig;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The registry of the app's counters, latency histograms and gauges, dumped with
+ * <pre>
+ *     adb shell dumpsys activity provider com.goli.alla.cablecustomer
+ * </pre>
+ * (add "reset" to start counting afresh after the dump).
+ * <p>
+ * Metrics are compiled in only when {@link #ENABLED}, which comes from the METRICS_ENABLED build
+ * config field: on for debug builds, off for release. Every use is guarded like this:
+ * <pre>
+ *     long startNanos = Metrics.ENABLED ? System.nanoTime() : 0;
+ *     ...
+ *     if (Metrics.ENABLED) QUERY_LATENCY.recordSince(startNanos);
+ * </pre>
+ * ENABLED is a compile-time constant, so in a release build the compiler drops the guarded code
+ * altogether, clock reads included.
+ * <p>
+ * Metrics are registered by name, and asking for a name twice returns the same metric, so they
+ * can be held in static fields of the classes using them.
+ */
+public final class Metrics {
+
+    /** Whether this build collects metrics. */
+    public static final boolean ENABLED = BuildConfig.METRICS_ENABLED;
+
+    private static final Map<String, Counter> sCounters = new TreeMap<>();
+    private static final Map<String, LatencyHistogram> sHistograms = new TreeMap<>();
+    private static final Map<String, Gauge> sGauges = new TreeMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * @param name The name of the counter, such as "provider.rows_written"
+     * @return The counter with that name, created if needed
+     */
+    public static synchronized Counter counter(@NonNull String name) {
+        Counter counter = sCounters.get(name);
+        if (counter == null) {
+            counter = new Counter(name);
+            sCounters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * @param name The name of the histogram, such as "provider.query"
+     * @return The histogram with that name, created if needed
+     */
+    public static synchronized LatencyHistogram histogram(@NonNull String name) {
+        LatencyHistogram histogram = sHistograms.get(name);
+        if (histogram == null) {
+            histogram = new LatencyHistogram(name);
+            sHistograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge registered before with the same name.
+     *
+     * @param name  The name of the gauge, such as "provider.wal_bytes"
+     * @param gauge Reads the value
+     */
+    public static synchronized void gauge(@NonNull String name, @NonNull Gauge gauge) {
+        sGauges.put(name, gauge);
+    }
+
+    /**
+     * Prints every metric, sorted by name. Latencies are in microseconds.
+     *
+     * @param writer Where to print
+     * @param reset  true to reset the counters and histograms afterwards
+     */
+    public static synchronized void dump(@NonNull PrintWriter writer, boolean reset) {
+        if (!ENABLED) {
+            writer.println("Metrics: not collected in this build");
+            return;
+        }
+        writer.println("Counters:");
+        for (Counter counter : sCounters.values()) {
+            writer.println("  " + counter.getName() + ": " + counter.get());
+            if (reset) counter.reset();
+        }
+        writer.println("Gauges:");
+        for (Map.Entry<String, Gauge> gauge : sGauges.entrySet()) {
+            writer.println("  " + gauge.getKey() + ": " + gauge.getValue().getValue());
+        }
+        writer.println("Latencies (us):");
+        for (LatencyHistogram histogram : sHistograms.values()) {
+            writer.println("  " + histogram.getName() + ": " + histogram);
+            if (reset) histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.goli.alla.cablecustomer.route;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Orders a day's stops into a short route.
+ * <p>
+ * Finding the shortest route is the travelling salesman problem, so the planner settles for a
+ * near-optimal one within a time budget: each run (see RouteSearch) seeds a route by always
+ * driving to the nearest stop not visited yet, then improves it with 2-opt (uncrossing two legs)
+ * and Or-opt (moving one to three stops elsewhere) until neither helps. A few hundred stops
+ * converge in tens of milliseconds on one core.
+ * <p>
+ * Local search gets stuck in whichever local optimum its seed leads to, so the remaining budget
+ * is spent on restarts from randomized seeds, one stream of restarts per core, and the shortest
+ * route found wins. The first run always uses the plain nearest-neighbour seed, so the result is
+ * never worse than that.
+ * <p>
+ * Distances are straight lines on the equirectangular approximation, which ranks routes across
+ * a service area the same way road distances mostly do.
+ */
+public class RoutePlanner {
+
+    /* Length of a degree of latitude on the mean Earth radius. */
+    private static final double KM_PER_DEGREE = 111.195;
+
+    /* Restarts stop after this many runs in total, so small plans don't use the whole budget. */
+    private static final int MAX_RUNS = 256;
+
+    private final int mThreadCount;
+
+    private final ExecutorService mExecutor;
+
+    /**
+     * Creates a planner running one stream of restarts per available core.
+     */
+    public RoutePlanner() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threadCount The number of restart streams run in parallel
+     */
+    public RoutePlanner(int threadCount) {
+        mThreadCount = Math.max(1, threadCount);
+        mExecutor = Executors.newFixedThreadPool(mThreadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "RoutePlanner");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Plans the order in which to visit stops.
+     *
+     * @param latitudes        Latitude of each stop, in degrees
+     * @param longitudes       Longitude of each stop, in degrees
+     * @param fixedStart       true if the route must start at stop 0, for instance the truck
+     * @param timeBudgetMillis How long the search may take
+     * @return The stop indexes in visiting order
+     */
+    public int[] plan(double[] latitudes, double[] longitudes, boolean fixedStart,
+                      long timeBudgetMillis) {
+        final int stopCount = latitudes.length;
+        if (stopCount <= 2) {
+            int[] route = new int[stopCount];
+            for (int i = 0; i < stopCount; i++) {
+                route[i] = i;
+            }
+            return route;
+        }
+
+        final float[] distances = buildDistances(latitudes, longitudes);
+        final boolean start = fixedStart;
+        final long deadlineNanos = System.nanoTime() + timeBudgetMillis * 1000000L;
+
+        List<Callable<int[]>> streams = new ArrayList<>(mThreadCount);
+        for (int stream = 0; stream < mThreadCount; stream++) {
+            final int firstRun = stream;
+            streams.add(new Callable<int[]>() {
+                @Override
+                public int[] call() {
+                    return runRestarts(distances, stopCount, start, firstRun, deadlineNanos);
+                }
+            });
+        }
+
+        RouteSearch search = new RouteSearch(distances, stopCount, fixedStart);
+        int[] bestRoute = null;
+        float bestLength = Float.MAX_VALUE;
+        try {
+            for (Future<int[]> result : mExecutor.invokeAll(streams)) {
+                int[] route = result.get();
+                float length = search.length(route);
+                if (length < bestLength) {
+                    bestLength = length;
+                    bestRoute = route;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Route planning failed", e.getCause());
+        }
+
+        if (bestRoute == null) {
+            /* Interrupted before any stream finished: the seed alone is still a fair route. */
+            bestRoute = search.run(null, System.nanoTime());
+        }
+        return bestRoute;
+    }
+
+    /*
+     * Runs firstRun, firstRun + mThreadCount, ... until the time is up, keeping the shortest
+     * route. Run 0 uses the plain nearest-neighbour seed; the others are randomized, each with
+     * its own seed so plans are reproducible for a given number of runs.
+     */
+    private int[] runRestarts(float[] distances, int stopCount, boolean fixedStart, int firstRun,
+                              long deadlineNanos) {
+        RouteSearch search = new RouteSearch(distances, stopCount, fixedStart);
+        int[] bestRoute = null;
+        float bestLength = Float.MAX_VALUE;
+        for (int run = firstRun; run < MAX_RUNS; run += mThreadCount) {
+            int[] route = search.run(run == 0 ? null : new Random(run), deadlineNanos);
+            float length = search.length(route);
+            if (length < bestLength) {
+                bestLength = length;
+                bestRoute = route;
+            }
+            if (System.nanoTime() - deadlineNanos > 0) break;
+        }
+        return bestRoute;
+    }
+
+    /* Straight-line distances in km, with longitudes scaled at the mean latitude of the stops. */
+    private static float[] buildDistances(double[] latitudes, double[] longitudes) {
+        int stopCount = latitudes.length;
+        double meanLatitude = 0;
+        for (double latitude : latitudes) {
+            meanLatitude += latitude / stopCount;
+        }
+        double kmPerLongitudeDegree = KM_PER_DEGREE * Math.cos(Math.toRadians(meanLatitude));
+
+        float[] distances = new float[stopCount * stopCount];
+        for (int from = 0; from < stopCount; from++) {
+            for (int to = from + 1; to < stopCount; to++) {
+                double dy = (latitudes[to] - latitudes[from]) * KM_PER_DEGREE;
+                double dx = (longitudes[to] - longitudes[from]) * kmPerLongitudeDegree;
+                float distance = (float) Math.sqrt(dx * dx + dy * dy);
+                distances[from * stopCount + to] = distance;
+                distances[to * stopCount + from] = distance;
+            }
+        }
+        return distances;
+    }
+}
@@ -0,0 +1,232 @@
+package com.goli.alla.cablecustomer.route;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * One run of the route heuristic on a distance matrix: a nearest-neighbour route as the seed,
+ * then 2-opt and Or-opt moves until neither finds an improvement or the time is up.
+ * <p>
+ * Routes are open paths (the tech doesn't drive back to where they started), represented as an
+ * array of stop indexes in visiting order. When the start is fixed, stop 0 stays first.
+ * <p>
+ * Not thread safe: each thread uses its own instance. The distance matrix is shared read-only.
+ */
+class RouteSearch {
+
+    /* Moves saving less than this (in km) are ignored, so rounding can't make the search cycle. */
+    private static final float MIN_GAIN_KM = 1e-4f;
+
+    /* Longest run of consecutive stops moved as a block by Or-opt. */
+    private static final int MAX_SEGMENT_LENGTH = 3;
+
+    private final float[] mDistances;
+    private final int mStopCount;
+    private final boolean mFixedStart;
+
+    /* The first position that can be moved: the start stays in place when it is fixed. */
+    private final int mFirst;
+
+    private final int[] mSegment = new int[MAX_SEGMENT_LENGTH];
+    private final boolean[] mVisited;
+
+    private long mDeadlineNanos;
+
+    /**
+     * @param distances  The distances between the stops, in km, row by row (stopCount^2 values)
+     * @param stopCount  The number of stops
+     * @param fixedStart true if the route must start with stop 0
+     */
+    RouteSearch(float[] distances, int stopCount, boolean fixedStart) {
+        mDistances = distances;
+        mStopCount = stopCount;
+        mFixedStart = fixedStart;
+        mFirst = fixedStart ? 1 : 0;
+        mVisited = new boolean[stopCount];
+    }
+
+    /**
+     * Builds a route and improves it.
+     *
+     * @param random        Source of the seed's randomness, or null for the plain
+     *                      nearest-neighbour seed
+     * @param deadlineNanos System.nanoTime() value after which the search stops improving
+     * @return The route
+     */
+    int[] run(Random random, long deadlineNanos) {
+        mDeadlineNanos = deadlineNanos;
+        int[] route = buildSeed(random);
+        boolean improved = true;
+        while (improved && !isTimeUp()) {
+            improved = improveTwoOpt(route);
+            improved |= improveOrOpt(route);
+        }
+        return route;
+    }
+
+    /**
+     * @return The length of a route, in km
+     */
+    float length(int[] route) {
+        float length = 0;
+        for (int i = 1; i < route.length; i++) {
+            length += distance(route[i - 1], route[i]);
+        }
+        return length;
+    }
+
+    private boolean isTimeUp() {
+        return System.nanoTime() - mDeadlineNanos > 0;
+    }
+
+    /* 0 for a missing end of the route, so the formulas below also work at both ends. */
+    private float distance(int from, int to) {
+        if (from < 0 || to < 0) return 0;
+        return mDistances[from * mStopCount + to];
+    }
+
+    /*
+     * Always goes to the nearest stop not visited yet. A randomized seed sometimes takes the
+     * second or third nearest instead, so restarts explore different routes.
+     */
+    private int[] buildSeed(Random random) {
+        int[] route = new int[mStopCount];
+        Arrays.fill(mVisited, false);
+
+        int current = mFixedStart || random == null ? 0 : random.nextInt(mStopCount);
+        route[0] = current;
+        mVisited[current] = true;
+
+        int[] nearest = new int[3];
+        float[] nearestDistances = new float[3];
+        for (int position = 1; position < mStopCount; position++) {
+            int found = 0;
+            for (int stop = 0; stop < mStopCount; stop++) {
+                if (mVisited[stop]) continue;
+                float d = distance(current, stop);
+                /* Keeps the three nearest, sorted, by insertion. */
+                int slot = Math.min(found, nearest.length - 1);
+                if (found == nearest.length && d >= nearestDistances[slot]) continue;
+                while (slot > 0 && nearestDistances[slot - 1] > d) {
+                    nearest[slot] = nearest[slot - 1];
+                    nearestDistances[slot] = nearestDistances[slot - 1];
+                    slot--;
+                }
+                nearest[slot] = stop;
+                nearestDistances[slot] = d;
+                if (found < nearest.length) found++;
+            }
+
+            int pick = 0;
+            if (random != null && found > 1 && random.nextInt(3) == 0) {
+                pick = 1 + random.nextInt(found - 1);
+            }
+            current = nearest[pick];
+            route[position] = current;
+            mVisited[current] = true;
+        }
+        return route;
+    }
+
+    /*
+     * 2-opt: reverses route[i..j] when reconnecting the route that way is shorter. The path is
+     * open, so reversing a prefix or a suffix only changes one edge.
+     */
+    private boolean improveTwoOpt(int[] route) {
+        boolean improved = false;
+        int last = mStopCount - 1;
+        for (int i = mFirst; i < last; i++) {
+            if (isTimeUp()) return improved;
+            int before = i > 0 ? route[i - 1] : -1;
+            for (int j = i + 1; j <= last; j++) {
+                int first = route[i];
+                int end = route[j];
+                int after = j < last ? route[j + 1] : -1;
+                float gain = distance(before, first) + distance(end, after)
+                        - distance(before, end) - distance(first, after);
+                if (gain > MIN_GAIN_KM) {
+                    reverse(route, i, j);
+                    improved = true;
+                }
+            }
+        }
+        return improved;
+    }
+
+    /*
+     * Or-opt: moves a run of one to three consecutive stops elsewhere in the route, possibly
+     * reversed, when that is shorter.
+     */
+    private boolean improveOrOpt(int[] route) {
+        boolean improved = false;
+        for (int length = 1; length <= MAX_SEGMENT_LENGTH; length++) {
+            for (int i = mFirst; i + length <= mStopCount; i++) {
+                if (isTimeUp()) return improved;
+                int end = i + length - 1;
+                int segmentFirst = route[i];
+                int segmentLast = route[end];
+                int before = i > 0 ? route[i - 1] : -1;
+                int after = end + 1 < mStopCount ? route[end + 1] : -1;
+                float removeGain = distance(before, segmentFirst) + distance(segmentLast, after)
+                        - distance(before, after);
+                if (removeGain <= MIN_GAIN_KM) continue;
+
+                /* Inserting after position j; -1 is the very front when the start is free. */
+                int bestJ = Integer.MIN_VALUE;
+                boolean bestReversed = false;
+                float bestGain = MIN_GAIN_KM;
+                for (int j = mFixedStart ? 0 : -1; j < mStopCount; j++) {
+                    if (j >= i - 1 && j <= end) continue;
+                    int x = j >= 0 ? route[j] : -1;
+                    int y = j + 1 < mStopCount ? route[j + 1] : -1;
+                    float kept = distance(x, y);
+                    float forward = removeGain + kept
+                            - distance(x, segmentFirst) - distance(segmentLast, y);
+                    float reversed = removeGain + kept
+                            - distance(x, segmentLast) - distance(segmentFirst, y);
+                    if (forward > bestGain) {
+                        bestGain = forward;
+                        bestJ = j;
+                        bestReversed = false;
+                    }
+                    if (reversed > bestGain) {
+                        bestGain = reversed;
+                        bestJ = j;
+                        bestReversed = true;
+                    }
+                }
+                if (bestJ != Integer.MIN_VALUE) {
+                    moveSegment(route, i, length, bestJ, bestReversed);
+                    improved = true;
+                }
+            }
+        }
+        return improved;
+    }
+
+    private static void reverse(int[] route, int from, int to) {
+        while (from < to) {
+            int stop = route[from];
+            route[from] = route[to];
+            route[to] = stop;
+            from++;
+            to--;
+        }
+    }
+
+    /* Moves route[start..start + length) to just after the stop now at position j. */
+    private void moveSegment(int[] route, int start, int length, int j, boolean reversed) {
+        System.arraycopy(route, start, mSegment, 0, length);
+        int insertAt;
+        if (j < start) {
+            System.arraycopy(route, j + 1, route, j + 1 + length, start - (j + 1));
+            insertAt = j + 1;
+        } else {
+            System.arraycopy(route, start + length, route, start, j - (start + length) + 1);
+            insertAt = j - length + 1;
+        }
+        for (int k = 0; k < length; k++) {
+            route[insertAt + k] = mSegment[reversed ? length - 1 - k : k];
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.goli.alla.cablecustomer.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The first stage of a sync: downloads the pages of the change feed one after the other and
+ * queues their bodies for ChangeParser. Ends the queue with SyncEngine.END_OF_PAGES, also when it
+ * fails, in which case {@link #getFailure()} says why.
+ */
+class ChangeFetcher implements Runnable {
+
+    /* Response headers of the change feed; see SyncEngine. */
+    static final String HEADER_WATERMARK = "X-Watermark";
+    static final String HEADER_MORE_CHANGES = "X-More-Changes";
+
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    private final String mBaseUrl;
+    private final int mPageSize;
+    private final BlockingQueue<SyncEngine.Page> mPages;
+
+    private String mWatermark;
+
+    private volatile IOException mFailure;
+
+    /* Hands its internal array over to the page instead of copying it. */
+    private static class PageBuffer extends ByteArrayOutputStream {
+        PageBuffer(int size) {
+            super(size);
+        }
+
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * @param baseUrl   The head-end URL
+     * @param watermark Where to start, or null for everything
+     * @param pageSize  The number of changes asked for per request
+     * @param pages     Receives the pages
+     */
+    ChangeFetcher(String baseUrl, String watermark, int pageSize,
+                  BlockingQueue<SyncEngine.Page> pages) {
+        mBaseUrl = baseUrl;
+        mWatermark = watermark;
+        mPageSize = pageSize;
+        mPages = pages;
+    }
+
+    IOException getFailure() {
+        return mFailure;
+    }
+
+    @Override
+    public void run() {
+        boolean abandoned = false;
+        try {
+            boolean moreChanges = true;
+            while (moreChanges) {
+                HttpURLConnection connection = open(buildUrl());
+                try {
+                    int responseCode = connection.getResponseCode();
+                    if (responseCode != HttpURLConnection.HTTP_OK) {
+                        throw new IOException("HTTP " + responseCode + " from " +
+                                connection.getURL());
+                    }
+                    String nextWatermark = connection.getHeaderField(HEADER_WATERMARK);
+                    if (nextWatermark == null) {
+                        throw new IOException("No " + HEADER_WATERMARK + " from " +
+                                connection.getURL());
+                    }
+                    moreChanges = Boolean.parseBoolean(
+                            connection.getHeaderField(HEADER_MORE_CHANGES));
+
+                    PageBuffer body = readBody(connection);
+                    mPages.put(new SyncEngine.Page(body.getBuffer(), body.size(), nextWatermark));
+                    mWatermark = nextWatermark;
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        } catch (IOException e) {
+            mFailure = e;
+        } catch (InterruptedException e) {
+            /* The sync is being abandoned; nobody is waiting for the end marker. */
+            abandoned = true;
+        } finally {
+            /* Whatever happened, the next stage must not wait forever. */
+            if (!abandoned) endQueue();
+        }
+    }
+
+    private void endQueue() {
+        try {
+            mPages.put(SyncEngine.END_OF_PAGES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private URL buildUrl() throws IOException {
+        StringBuilder url = new StringBuilder(mBaseUrl)
+                .append("/subscribers/changes?limit=").append(mPageSize);
+        if (mWatermark != null) {
+            url.append("&since=").append(URLEncoder.encode(mWatermark, "UTF-8"));
+        }
+        return new URL(url.toString());
+    }
+
+    private static HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        connection.setRequestProperty("Accept", "application/json");
+        return connection;
+    }
+
+    private static PageBuffer readBody(HttpURLConnection connection) throws IOException {
+        int contentLength = connection.getContentLength();
+        PageBuffer body = new PageBuffer(contentLength > 0 ? contentLength : 64 * 1024);
+        InputStream in = connection.getInputStream();
+        try {
+            byte[] chunk = new byte[16 * 1024];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                body.write(chunk, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return body;
+    }
+}
@@ -0,0 +1,115 @@
+package com.goli.alla.cablecustomer.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.goli.alla.cablecustomer.data.CustomerBatch;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The second stage of a sync: parses the pages queued by ChangeFetcher into CustomerBatches of
+ * the size the engine currently asks for, taken from a pool of free batches. A batch never spans
+ * two pages, so the last batch of a page can carry the page's watermark. Ends the queue with
+ * SyncEngine.END_OF_BATCHES, also when it fails, in which case {@link #getFailure()} says why.
+ */
+class ChangeParser implements Runnable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final SyncEngine mEngine;
+    private final BlockingQueue<SyncEngine.Page> mPages;
+    private final BlockingQueue<SyncEngine.Batch> mBatches;
+    private final BlockingQueue<CustomerBatch> mFreeBatches;
+
+    private volatile IOException mFailure;
+
+    ChangeParser(SyncEngine engine, BlockingQueue<SyncEngine.Page> pages,
+                 BlockingQueue<SyncEngine.Batch> batches,
+                 BlockingQueue<CustomerBatch> freeBatches) {
+        mEngine = engine;
+        mPages = pages;
+        mBatches = batches;
+        mFreeBatches = freeBatches;
+    }
+
+    IOException getFailure() {
+        return mFailure;
+    }
+
+    @Override
+    public void run() {
+        boolean abandoned = false;
+        try {
+            while (true) {
+                SyncEngine.Page page = mPages.take();
+                if (page == SyncEngine.END_OF_PAGES) break;
+                parsePage(page);
+            }
+        } catch (IOException e) {
+            mFailure = e;
+        } catch (InterruptedException e) {
+            /* The sync is being abandoned; nobody is waiting for the end marker. */
+            abandoned = true;
+        } finally {
+            /* Whatever happened, the next stage must not wait forever. */
+            if (!abandoned) endQueue();
+        }
+    }
+
+    private void endQueue() {
+        try {
+            mBatches.put(SyncEngine.END_OF_BATCHES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void parsePage(SyncEngine.Page page) throws IOException, InterruptedException {
+        JsonReader jsonReader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(page.mBody, 0, page.mLength), UTF_8));
+        CustomerBatch rows = mFreeBatches.take();
+        int batchSize = mEngine.getBatchSize();
+        try {
+            jsonReader.beginArray();
+            while (jsonReader.hasNext()) {
+                int row = rows.addRow();
+                jsonReader.beginObject();
+                while (jsonReader.hasNext()) {
+                    int column = findColumn(jsonReader.nextName());
+                    if (column < 0) {
+                        jsonReader.skipValue();
+                    } else if (jsonReader.peek() == JsonToken.NULL) {
+                        jsonReader.nextNull();
+                    } else {
+                        rows.set(row, column, jsonReader.nextString());
+                    }
+                }
+                jsonReader.endObject();
+
+                if (rows.size() >= batchSize) {
+                    mBatches.put(new SyncEngine.Batch(rows, null));
+                    rows = mFreeBatches.take();
+                    batchSize = mEngine.getBatchSize();
+                }
+            }
+            jsonReader.endArray();
+        } catch (RuntimeException e) {
+            /* How JsonReader reports an unexpected token, like an object where a string was due. */
+            throw new IOException("Malformed page of changes", e);
+        }
+        /* Sent even when empty, to save the watermark of the page. */
+        mBatches.put(new SyncEngine.Batch(rows, page.mWatermark));
+    }
+
+    private static int findColumn(String name) {
+        for (int i = 0; i < SyncEngine.SYNC_COLUMNS.length; i++) {
+            if (SyncEngine.SYNC_COLUMNS[i].equalsIgnoreCase(name)) return i;
+        }
+        return -1;
+    }
+}
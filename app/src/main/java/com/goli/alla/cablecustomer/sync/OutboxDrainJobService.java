@@ -0,0 +1,99 @@
+package com.goli.alla.cablecustomer.sync;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.goli.alla.cablecustomer.BuildConfig;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Drains the outbox (see OutboxDrainer) whenever the device is online.
+ * <p>
+ * The job waits {@link #COALESCE_DELAY_MS} after the first edit before running, so the edits a
+ * tech makes during a visit go out together. JobScheduler holds it until there is a network, and
+ * keeps it across reboots. When the drain fails, JobScheduler runs it again with exponential
+ * backoff.
+ */
+public class OutboxDrainJobService extends JobService {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = OutboxDrainJobService.class.getSimpleName();
+
+    private static final int JOB_ID = 1;
+
+    /* How long edits gather in the outbox before they are sent. */
+    private static final long COALESCE_DELAY_MS = 30 * 1000;
+
+    /* Wait before the job is run again after a failed drain, doubled for each failure after. */
+    private static final long RETRY_BACKOFF_MS = 60 * 1000;
+
+    /* onStartJob runs on the main thread, so the drain itself runs here. */
+    private static final ExecutorService sDrainExecutor = Executors.newSingleThreadExecutor();
+
+    private OutboxDrainer mDrainer;
+
+    /**
+     * Makes sure a drain is scheduled. Call it after recording an edit; it does nothing while a
+     * drain is already waiting to run, so the delay counts from the first edit, and nothing at
+     * all when the build has no head-end.
+     *
+     * @param context Context used to reach the JobScheduler
+     */
+    public static void schedule(@NonNull Context context) {
+        if (BuildConfig.HEAD_END_URL.isEmpty()) return;
+
+        JobScheduler jobScheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        /* Scheduling the job again would reset its delay, and stop it if it is running. */
+        for (JobInfo pendingJob : jobScheduler.getAllPendingJobs()) {
+            if (pendingJob.getId() == JOB_ID) return;
+        }
+
+        JobInfo job = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, OutboxDrainJobService.class))
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setMinimumLatency(COALESCE_DELAY_MS)
+                .setBackoffCriteria(RETRY_BACKOFF_MS, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+                .setPersisted(true)
+                .build();
+        jobScheduler.schedule(job);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final OutboxDrainer drainer =
+                new OutboxDrainer(getContentResolver(), BuildConfig.HEAD_END_URL);
+        mDrainer = drainer;
+        sDrainExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean retry = false;
+                try {
+                    drainer.drain();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Draining the outbox failed", e);
+                    retry = true;
+                }
+                jobFinished(params, retry);
+            }
+        });
+        /* The work goes on in the background; jobFinished tells JobScheduler when it's done. */
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        /* The network went away or the system needs the resources: try again later. */
+        if (mDrainer != null) mDrainer.cancel();
+        return true;
+    }
+}
@@ -0,0 +1,302 @@
+package com.goli.alla.cablecustomer.sync;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.OutboxEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Sends the edits waiting in the outbox to the head-end, many at a time.
+ * <p>
+ * Sending each edit as it is made would cost a request (and a radio wake-up) per field touched.
+ * Instead the drain reads up to {@link #MAX_EDITS_PER_REQUEST} edits, oldest first, and folds
+ * the edits of each customer into one change carrying the latest value of every column touched.
+ * The changes go out as one gzipped JSON array:
+ * <pre>
+ *     POST &lt;base url&gt;/subscribers/edits
+ *     [{"_id": 42, "accountnum": "A-1001", "phone": "555-0100", ...}, ...]
+ * </pre>
+ * Once the head-end accepts the request, those edits are deleted from the outbox. A change
+ * carries values rather than instructions, so when a response is lost and the request is sent
+ * again, applying it twice does no harm.
+ * <p>
+ * Failed requests are retried with exponential backoff and jitter, a few times; after that the
+ * drain gives up and leaves the rest to the next run (see OutboxDrainJobService), with the edits
+ * still safely in the outbox.
+ * <p>
+ * A request the head-end rejects outright (any other 4xx, such as a malformed or too large
+ * payload) would be rejected again however often it was sent, and would hold up every edit
+ * queued after it. Its edits are logged and dropped from the outbox, and the drain goes on with
+ * the next ones.
+ */
+public class OutboxDrainer {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = OutboxDrainer.class.getSimpleName();
+
+    /* Edits read from the outbox, folded together and sent per request. */
+    static final int MAX_EDITS_PER_REQUEST = 1000;
+
+    /* Attempts per request, and the wait before the first retry (doubled for each one after). */
+    static final int MAX_ATTEMPTS = 4;
+    static final long INITIAL_BACKOFF_MS = 500;
+
+    private static final String EDITS_PATH = "/subscribers/edits";
+
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    /*
+     * The columns of the outbox we need. If you change this projection, update the indexes
+     * below to match.
+     */
+    private static final String[] OUTBOX_PROJECTION = {
+            OutboxEntry._ID,
+            OutboxEntry.COLUMN_CUSTOMER_ID,
+            OutboxEntry.COLUMN_PAYLOAD,
+            OutboxEntry.COLUMN_ACCOUNT_NUMBER
+    };
+
+    private static final int INDEX_EDIT_ID = 0;
+    private static final int INDEX_CUSTOMER_ID = 1;
+    private static final int INDEX_PAYLOAD = 2;
+    private static final int INDEX_ACCOUNT_NUMBER = 3;
+
+    private final ContentResolver mContentResolver;
+
+    private final String mBaseUrl;
+
+    private final Random mRandom = new Random();
+
+    private volatile boolean mCancelled;
+
+    /**
+     * @param contentResolver Used to read and empty the outbox
+     * @param baseUrl         The head-end URL the edits path is appended to
+     */
+    public OutboxDrainer(@NonNull ContentResolver contentResolver, @NonNull String baseUrl) {
+        mContentResolver = contentResolver;
+        mBaseUrl = baseUrl;
+    }
+
+    /**
+     * Makes a running {@link #drain()} stop after the request in progress.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Sends the edits in the outbox until it is empty or the drain is cancelled.
+     *
+     * @return The number of edits the head-end accepted
+     * @throws IOException if a request still failed after {@link #MAX_ATTEMPTS} attempts. The
+     *                     edits it carried stay in the outbox.
+     */
+    @WorkerThread
+    public int drain() throws IOException {
+        int editsSent = 0;
+        int editsRejected = 0;
+        int requests = 0;
+        while (!mCancelled) {
+            int editCount;
+            long lastEditId;
+            JSONArray changes;
+            Cursor cursor = queryOutbox(MAX_EDITS_PER_REQUEST);
+            try {
+                editCount = cursor.getCount();
+                if (editCount == 0) break;
+                changes = coalesce(cursor);
+                cursor.moveToLast();
+                lastEditId = cursor.getLong(INDEX_EDIT_ID);
+            } finally {
+                cursor.close();
+            }
+
+            try {
+                requests += post(gzip(changes.toString()));
+                editsSent += editCount;
+            } catch (RejectedException e) {
+                requests++;
+                editsRejected += editCount;
+                Log.e(LOG_TAG, "Dropping " + editCount + " edits up to " + lastEditId +
+                        ": " + e.getMessage());
+            }
+            deleteUpTo(lastEditId);
+            if (editCount < MAX_EDITS_PER_REQUEST) break;
+        }
+        if (editsSent > 0 || editsRejected > 0) {
+            Log.d(LOG_TAG, "Sent " + editsSent + " edits in " + requests + " requests, " +
+                    editsRejected + " rejected");
+        }
+        return editsSent;
+    }
+
+    /**
+     * Reads the oldest edits in the outbox.
+     *
+     * @param limit The maximum number of edits
+     * @return A cursor over OUTBOX_PROJECTION, oldest edit first
+     */
+    Cursor queryOutbox(int limit) {
+        Uri uri = OutboxEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(CustomerContract.QUERY_PARAMETER_LIMIT,
+                        String.valueOf(limit))
+                .build();
+        Cursor cursor = mContentResolver.query(uri, OUTBOX_PROJECTION, null, null,
+                OutboxEntry._ID);
+        if (cursor == null) {
+            throw new IllegalStateException("No provider for " + uri);
+        }
+        return cursor;
+    }
+
+    /**
+     * Deletes the edits the head-end has accepted: all of them up to and including editId.
+     */
+    void deleteUpTo(long editId) {
+        mContentResolver.delete(OutboxEntry.CONTENT_URI,
+                OutboxEntry._ID + " <= ?",
+                new String[]{String.valueOf(editId)});
+    }
+
+    /*
+     * Folds the edits into one change per customer, in the order the customers were first
+     * edited. A later edit of a column overrides an earlier one.
+     */
+    private static JSONArray coalesce(Cursor cursor) {
+        LinkedHashMap<Long, JSONObject> changes = new LinkedHashMap<>();
+        try {
+            while (cursor.moveToNext()) {
+                long customerId = cursor.getLong(INDEX_CUSTOMER_ID);
+                JSONObject change = changes.get(customerId);
+                if (change == null) {
+                    change = new JSONObject();
+                    change.put(CustomerEntry._ID, customerId);
+                    changes.put(customerId, change);
+                }
+
+                JSONObject edit = new JSONObject(cursor.getString(INDEX_PAYLOAD));
+                Iterator<String> columns = edit.keys();
+                while (columns.hasNext()) {
+                    String column = columns.next();
+                    change.put(column, edit.get(column));
+                }
+
+                /* How the head-end knows the customer, if it does yet. */
+                if (!cursor.isNull(INDEX_ACCOUNT_NUMBER)) {
+                    change.put(CustomerEntry.COLUMN_ACCOUNT_NUMBER,
+                            cursor.getString(INDEX_ACCOUNT_NUMBER));
+                }
+            }
+        } catch (JSONException e) {
+            /* The provider wrote the payloads, so this is a bug rather than bad input. */
+            throw new IllegalStateException("Unreadable outbox edit", e);
+        }
+        return new JSONArray(changes.values());
+    }
+
+    private static byte[] gzip(String json) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(json.length() / 4);
+        GZIPOutputStream out = new GZIPOutputStream(body);
+        try {
+            out.write(json.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return body.toByteArray();
+    }
+
+    /*
+     * Sends a request, retrying network errors, server errors and throttling with exponential
+     * backoff. Other client errors are not retried: the same request would only fail again, so
+     * they are thrown as a RejectedException.
+     *
+     * @return The number of attempts it took
+     */
+    private int post(byte[] body) throws IOException {
+        long backoffMillis = INITIAL_BACKOFF_MS;
+        for (int attempt = 1; ; attempt++) {
+            IOException failure;
+            try {
+                int responseCode = send(body);
+                if (responseCode / 100 == 2) return attempt;
+                String message = "HTTP " + responseCode + " from " + mBaseUrl + EDITS_PATH;
+                if (!isTransient(responseCode)) throw new RejectedException(message);
+                failure = new IOException(message);
+            } catch (RejectedException e) {
+                throw e;
+            } catch (IOException e) {
+                failure = e;
+            }
+            if (attempt == MAX_ATTEMPTS || mCancelled) throw failure;
+
+            Log.w(LOG_TAG, "Sending edits failed (attempt " + attempt + "): " + failure);
+            try {
+                /* Jitter keeps devices that lost the network together from retrying together. */
+                Thread.sleep(backoffMillis + (long) (mRandom.nextDouble() * backoffMillis / 2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while sending edits");
+            }
+            backoffMillis *= 2;
+        }
+    }
+
+    /* The head-end answered, and won't ever take the request as it is. */
+    private static class RejectedException extends IOException {
+        RejectedException(String message) {
+            super(message);
+        }
+    }
+
+    private static boolean isTransient(int responseCode) {
+        return responseCode >= 500
+                || responseCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                || responseCode == 429;
+    }
+
+    private int send(byte[] body) throws IOException {
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL(mBaseUrl + EDITS_PATH).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
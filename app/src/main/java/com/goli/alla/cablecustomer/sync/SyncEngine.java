@@ -0,0 +1,238 @@
+package com.goli.alla.cablecustomer.sync;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import com.goli.alla.cablecustomer.data.CustomerBatch;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Pulls the subscribers that changed at the head-end since the last sync, and merges them into
+ * the customer table.
+ * <p>
+ * The head-end serves the changes as pages of a JSON array of subscriber objects (with the
+ * CustomerEntry column names as members), oldest change first:
+ * <pre>
+ *     GET &lt;base url&gt;/subscribers/changes?limit=&lt;page size&gt;&amp;since=&lt;watermark&gt;
+ * </pre>
+ * Each response carries, in its headers, the watermark to ask for the next page with (X-Watermark,
+ * the timestamp and account number of the last change in the page) and whether more changes
+ * follow (X-More-Changes). The first sync leaves out "since" and gets everything.
+ * <p>
+ * A sync runs as a pipeline of three stages, so the network, the JSON parsing and the database
+ * writes overlap instead of taking turns:
+ * <ol>
+ * <li>ChangeFetcher downloads the pages one after the other. The headers give it the next
+ * watermark before the body has even been parsed.</li>
+ * <li>ChangeParser turns each page into CustomerBatches.</li>
+ * <li>The calling thread upserts each batch through CustomerProvider, one transaction per
+ * batch.</li>
+ * </ol>
+ * The stages hand over through small bounded queues, so a slow stage holds the others back
+ * instead of letting pages pile up in memory, and a fixed pool of batches is recycled.
+ * <p>
+ * Batches are sized to keep each transaction around {@link #TARGET_BATCH_MILLIS}: long enough to
+ * amortize the commit, short enough that the write lock is never held for long. The size adapts
+ * to how long the previous batches took to commit on this device.
+ * <p>
+ * The watermark of a page is saved once its last batch is committed. Upserts are idempotent, so
+ * if the process dies in between, the next sync simply merges that page again.
+ */
+public class SyncEngine {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = SyncEngine.class.getSimpleName();
+
+    private static final String PREFERENCES_NAME = "sync";
+    private static final String KEY_WATERMARK = "watermark";
+
+    /* Number of changes asked for per request. */
+    static final int PAGE_SIZE = 5000;
+
+    /* Bounds of the adaptive batch size, in rows. */
+    static final int MIN_BATCH_SIZE = 250;
+    static final int MAX_BATCH_SIZE = 4000;
+    private static final int INITIAL_BATCH_SIZE = 1000;
+
+    /* How long a batch should take to commit. */
+    private static final long TARGET_BATCH_MILLIS = 150;
+
+    /* Items waiting between two stages. */
+    private static final int QUEUE_CAPACITY = 2;
+
+    /* The customer columns a change can carry. */
+    static final String[] SYNC_COLUMNS = {
+            CustomerEntry.COLUMN_ACCOUNT_NUMBER,
+            CustomerEntry.COLUMN_NAME_FIRST,
+            CustomerEntry.COLUMN_NAME_MIDDLE,
+            CustomerEntry.COLUMN_NAME_LAST,
+            CustomerEntry.COLUMN_PHONE,
+            CustomerEntry.COLUMN_ADDRESS1,
+            CustomerEntry.COLUMN_ADDRESS2,
+            CustomerEntry.COLUMN_APT_NUM,
+            CustomerEntry.COLUMN_CITY,
+            CustomerEntry.COLUMN_STATE,
+            CustomerEntry.COLUMN_ZIPCODE,
+            CustomerEntry.COLUMN_LATITUDE,
+            CustomerEntry.COLUMN_LONGITUDE
+    };
+
+    /* A downloaded page: the raw JSON, and the watermark that follows it. */
+    static class Page {
+        final byte[] mBody;
+        final int mLength;
+        final String mWatermark;
+
+        Page(byte[] body, int length, String watermark) {
+            mBody = body;
+            mLength = length;
+            mWatermark = watermark;
+        }
+    }
+
+    /* Parsed rows; the last batch of a page carries the page's watermark, the others null. */
+    static class Batch {
+        final CustomerBatch mRows;
+        final String mWatermark;
+
+        Batch(CustomerBatch rows, String watermark) {
+            mRows = rows;
+            mWatermark = watermark;
+        }
+    }
+
+    /* Put in a queue after the last real item. */
+    static final Page END_OF_PAGES = new Page(null, 0, null);
+    static final Batch END_OF_BATCHES = new Batch(null, null);
+
+    private final ContentResolver mContentResolver;
+
+    private final SharedPreferences mPreferences;
+
+    private final String mBaseUrl;
+
+    /* Read by the parser for every new batch, adjusted by the applying thread. */
+    private volatile int mBatchSize = INITIAL_BATCH_SIZE;
+
+    /**
+     * @param context Context used to reach the ContentProvider and the saved watermark
+     * @param baseUrl The head-end URL the change feed paths are appended to
+     */
+    public SyncEngine(@NonNull Context context, @NonNull String baseUrl) {
+        this(context.getContentResolver(),
+                context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE),
+                baseUrl);
+    }
+
+    SyncEngine(ContentResolver contentResolver, SharedPreferences preferences, String baseUrl) {
+        mContentResolver = contentResolver;
+        mPreferences = preferences;
+        mBaseUrl = baseUrl;
+    }
+
+    /**
+     * Merges all the changes made at the head-end since the last successful sync. When it fails
+     * part way, the changes committed so far are kept and the next sync carries on from there.
+     *
+     * @return The number of customers inserted or updated
+     * @throws IOException if a page can't be fetched or parsed
+     */
+    @WorkerThread
+    public long sync() throws IOException {
+        String watermark = mPreferences.getString(KEY_WATERMARK, null);
+        long startNanos = System.nanoTime();
+
+        BlockingQueue<Page> pages = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        /* One batch being parsed, QUEUE_CAPACITY waiting and one being applied. */
+        BlockingQueue<CustomerBatch> freeBatches = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 2);
+        for (int i = 0; i < QUEUE_CAPACITY + 2; i++) {
+            freeBatches.add(new CustomerBatch(SYNC_COLUMNS, MAX_BATCH_SIZE));
+        }
+
+        ChangeFetcher fetcher = new ChangeFetcher(mBaseUrl, watermark, PAGE_SIZE, pages);
+        ChangeParser parser = new ChangeParser(this, pages, batches, freeBatches);
+        Thread fetchThread = new Thread(fetcher, "SyncFetch");
+        Thread parseThread = new Thread(parser, "SyncParse");
+        fetchThread.start();
+        parseThread.start();
+
+        long rowsReceived = 0;
+        long rowsWritten = 0;
+        try {
+            while (true) {
+                Batch batch = batches.take();
+                if (batch == END_OF_BATCHES) break;
+
+                int size = batch.mRows.size();
+                if (size > 0) {
+                    long batchStartNanos = System.nanoTime();
+                    rowsWritten += applyBatch(batch.mRows);
+                    adjustBatchSize(size, System.nanoTime() - batchStartNanos);
+                    rowsReceived += size;
+                }
+                if (batch.mWatermark != null) {
+                    mPreferences.edit().putString(KEY_WATERMARK, batch.mWatermark).apply();
+                }
+
+                batch.mRows.clear();
+                freeBatches.put(batch.mRows);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Sync interrupted");
+        } finally {
+            /* Only does anything if this thread is leaving early. */
+            fetchThread.interrupt();
+            parseThread.interrupt();
+        }
+
+        IOException failure = fetcher.getFailure();
+        if (failure == null) failure = parser.getFailure();
+        if (failure != null) throw failure;
+
+        long elapsedMillis = Math.max(1, (System.nanoTime() - startNanos) / 1000000);
+        Log.d(LOG_TAG, "Sync: " + rowsReceived + " changes, " + rowsWritten + " written in " +
+                elapsedMillis + " ms (" + rowsReceived * 1000 / elapsedMillis + " rows/s)");
+        return rowsWritten;
+    }
+
+    /**
+     * Writes a batch in one transaction.
+     *
+     * @return The number of customers inserted or updated
+     */
+    int applyBatch(CustomerBatch rows) {
+        return rows.bulkUpsert(mContentResolver);
+    }
+
+    /**
+     * @return The number of rows the parser should put in the next batch
+     */
+    int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /*
+     * Scales the batch size towards TARGET_BATCH_MILLIS from the last commit, by at most a factor
+     * of two each time so one slow commit (a checkpoint, a busy disk) doesn't swing it around.
+     * The short last batch of a page says little about the rate and is ignored.
+     */
+    private void adjustBatchSize(int rows, long elapsedNanos) {
+        int batchSize = mBatchSize;
+        if (rows < batchSize / 2) return;
+        long elapsedMillis = Math.max(1, elapsedNanos / 1000000);
+        long wanted = rows * TARGET_BATCH_MILLIS / elapsedMillis;
+        wanted = Math.max(batchSize / 2, Math.min(batchSize * 2L, wanted));
+        mBatchSize = (int) Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, wanted));
+    }
+}
@@ -0,0 +1,426 @@
+package com.goli.alla.cablecustomer.utilities;
+
+import android.content.ContentResolver;
+import android.support.annotation.NonNull;
+
+import com.goli.alla.cablecustomer.data.CustomerBatch;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Generates made-up but realistic customers for development and load testing, fast enough to
+ * fill a table with millions of them.
+ * <p>
+ * A generator describes an endless dataset: row n of the dataset only depends on the seed and n.
+ * Every row draws its values from its own {@link SplitMix64} sub-stream, so rows can be generated
+ * in any order, on any number of threads and in batches of any size, and a dataset is still the
+ * same, byte for byte, every time it is generated with the same seed.
+ * <p>
+ * Customers are spread over towns of New Jersey, New York and Pennsylvania, and like real ones
+ * they are not spread evenly: towns, first names, last names and streets are picked with a Zipf
+ * distribution, so the first few of each are much more common than the rest. Every customer has
+ * a unique account number (derived from its row number) and a location near the center of its
+ * town.
+ */
+public class FakeCustomerGenerator {
+
+    /** The columns the generator fills in, in the order of a batch from {@link #newBatch(int)}. */
+    public static final String[] COLUMNS = {
+            CustomerEntry.COLUMN_NAME_FIRST,
+            CustomerEntry.COLUMN_NAME_MIDDLE,
+            CustomerEntry.COLUMN_NAME_LAST,
+            CustomerEntry.COLUMN_PHONE,
+            CustomerEntry.COLUMN_ADDRESS1,
+            CustomerEntry.COLUMN_ADDRESS2,
+            CustomerEntry.COLUMN_APT_NUM,
+            CustomerEntry.COLUMN_CITY,
+            CustomerEntry.COLUMN_STATE,
+            CustomerEntry.COLUMN_ZIPCODE,
+            CustomerEntry.COLUMN_ACCOUNT_NUMBER,
+            CustomerEntry.COLUMN_LATITUDE,
+            CustomerEntry.COLUMN_LONGITUDE
+    };
+
+    private static final int FIRST_NAME = 0;
+    private static final int MIDDLE_NAME = 1;
+    private static final int LAST_NAME = 2;
+    private static final int PHONE = 3;
+    private static final int ADDRESS1 = 4;
+    private static final int ADDRESS2 = 5;
+    private static final int APT_NUM = 6;
+    private static final int CITY = 7;
+    private static final int STATE = 8;
+    private static final int ZIPCODE = 9;
+    private static final int ACCOUNT_NUMBER = 10;
+    private static final int LATITUDE = 11;
+    private static final int LONGITUDE = 12;
+
+    /** Rows per batch streamed into the provider by {@link #load}. */
+    public static final int LOAD_BATCH_ROWS = 5000;
+
+    /* A fork/join task generates at most this many rows itself, and splits larger ranges. */
+    private static final int ROWS_PER_TASK = 512;
+
+    /* Account numbers are this prefix followed by the row number on ACCOUNT_DIGITS digits. */
+    private static final String ACCOUNT_PREFIX = "CC";
+    private static final int ACCOUNT_DIGITS = 10;
+
+    /* How far from the center of its town a customer can live, in degrees. */
+    private static final double TOWN_RADIUS_DEGREES = 0.02;
+
+    private static final double MIDDLE_NAME_PROBABILITY = 0.3;
+    private static final double APT_NUM_PROBABILITY = 0.35;
+    private static final double ADDRESS2_PROBABILITY = 0.05;
+
+    private static final String[] STATES = {"New Jersey", "New York", "Pennsylvania"};
+
+    /* The area codes of each of STATES. */
+    private static final String[][] AREA_CODES = {
+            {"973", "908", "201", "732", "862"},
+            {"212", "718", "917", "518", "716"},
+            {"215", "412", "610", "717", "570"}
+    };
+
+    /* The towns, most common first: name, index in STATES, first zipcode, latitude, longitude. */
+    private static final Town[] TOWNS = {
+            new Town("Flanders", 0, 7836, 40.8454, -74.7024),
+            new Town("Budd Lake", 0, 7828, 40.8712, -74.7340),
+            new Town("Netcong", 0, 7857, 40.8987, -74.7071),
+            new Town("Hackettstown", 0, 7840, 40.8540, -74.8288),
+            new Town("Randolph", 0, 7869, 40.8482, -74.5785),
+            new Town("Succasunna", 0, 7876, 40.8682, -74.6404),
+            new Town("Ledgewood", 0, 7852, 40.8801, -74.6557),
+            new Town("Morristown", 0, 7960, 40.7968, -74.4815),
+            new Town("Dover", 0, 7801, 40.8840, -74.5621),
+            new Town("Parsippany", 0, 7054, 40.8579, -74.4260),
+            new Town("Newark", 0, 7102, 40.7357, -74.1724),
+            new Town("Jersey City", 0, 7302, 40.7282, -74.0776),
+            new Town("Paterson", 0, 7501, 40.9168, -74.1718),
+            new Town("Edison", 0, 8817, 40.5187, -74.4121),
+            new Town("Trenton", 0, 8608, 40.2171, -74.7429),
+            new Town("New York", 1, 10001, 40.7506, -73.9972),
+            new Town("Brooklyn", 1, 11201, 40.6943, -73.9903),
+            new Town("Flushing", 1, 11354, 40.7675, -73.8331),
+            new Town("Yonkers", 1, 10701, 40.9312, -73.8987),
+            new Town("Albany", 1, 12207, 42.6526, -73.7562),
+            new Town("Rochester", 1, 14604, 43.1566, -77.6088),
+            new Town("Buffalo", 1, 14201, 42.8864, -78.8784),
+            new Town("Easton", 2, 18042, 40.6884, -75.2207),
+            new Town("Allentown", 2, 18101, 40.6023, -75.4714),
+            new Town("Philadelphia", 2, 19103, 39.9526, -75.1652),
+            new Town("Scranton", 2, 18503, 41.4090, -75.6624),
+            new Town("Harrisburg", 2, 17101, 40.2732, -76.8867),
+            new Town("Pittsburgh", 2, 15222, 40.4406, -79.9959)
+    };
+
+    /* Zipcodes a town spans, counting up from its first one. */
+    private static final int ZIPCODES_PER_TOWN = 8;
+
+    private static final String[] FIRST_NAMES = {"Venkat", "Amani", "James", "Mary", "Avni",
+            "Michael", "Jennifer", "Subash", "Sunitha", "Robert", "Patricia", "Sarayu", "John",
+            "Linda", "Lishika", "David", "Elizabeth", "Vimala", "William", "Barbara", "Anvitha",
+            "Richard", "Susan", "Suryanarayana", "Joseph", "Jessica", "Veera Veni", "Thomas",
+            "Sarah", "Viswa Sampreeth", "Carlos", "Karen", "Papa Rao", "Daniel", "Nancy",
+            "Subba Rao", "Matthew", "Lisa", "Venkat Rao", "Anthony", "Priya", "Mark", "Maria",
+            "Rahul", "Wei", "Sofia", "Ahmed", "Olga", "Kenji", "Fatima"};
+
+    private static final String[] LAST_NAMES = {"Alla", "Smith", "Goli", "Johnson", "Williams",
+            "Patel", "Brown", "Ganta", "Jones", "Garcia", "Meka", "Miller", "Davis", "Rodriguez",
+            "Martinez", "Shah", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Reddy",
+            "Thomas", "Taylor", "Moore", "Jackson", "Martin", "Lee", "Kumar", "Perez", "Thompson",
+            "White", "Harris", "Chen", "Clark", "Rao", "Lewis", "Robinson", "Walker", "Kowalski"};
+
+    private static final String[] STREETS = {"Main St", "OakWood Vlg", "Route 206",
+            "Pleasant Hill Rd", "Park Ave", "Drakes Brook Dr", "Church St", "Gold Mine Rd",
+            "Maple Ave", "Mountain Ave", "Washington St", "High St", "Elm St", "Center St",
+            "Lake Dr", "Ridge Rd", "Sunset Ave", "Hillside Ave", "Mill Rd", "Cedar Ln",
+            "Spring St", "Chestnut St", "River Rd", "Valley Rd"};
+
+    /* The values only ever picked from a small set are made once, not for every customer. */
+    private static final String[] INITIALS = new String[26];
+    private static final String[] APT_NUMS = new String[400];
+    private static final String[] BUILDINGS = {"Bldg A", "Bldg B", "Bldg C", "Bldg D",
+            "Rear", "Upper Fl", "Lower Fl"};
+
+    static {
+        for (int i = 0; i < INITIALS.length; i++) {
+            INITIALS[i] = String.valueOf((char) ('A' + i));
+        }
+        for (int i = 0; i < APT_NUMS.length; i++) {
+            APT_NUMS[i] = Integer.toString(i + 1);
+        }
+    }
+
+    private static final ZipfChoice TOWN_CHOICE = new ZipfChoice(TOWNS.length, 1.0);
+    private static final ZipfChoice FIRST_NAME_CHOICE = new ZipfChoice(FIRST_NAMES.length, 0.9);
+    private static final ZipfChoice LAST_NAME_CHOICE = new ZipfChoice(LAST_NAMES.length, 1.1);
+    private static final ZipfChoice STREET_CHOICE = new ZipfChoice(STREETS.length, 0.8);
+
+    private static ForkJoinPool sPool;
+
+    private final SplitMix64 mRandom;
+
+    /**
+     * @param seed Selects the dataset; the same seed always gives the same customers
+     */
+    public FakeCustomerGenerator(long seed) {
+        mRandom = new SplitMix64(seed);
+    }
+
+    /**
+     * @param capacity The maximum number of rows in the batch
+     * @return An empty batch with the generator's {@link #COLUMNS}
+     */
+    public static CustomerBatch newBatch(int capacity) {
+        return new CustomerBatch(COLUMNS, capacity);
+    }
+
+    /**
+     * Replaces the rows of a batch with rows firstRow to firstRow + count - 1 of the dataset,
+     * generated on all cores.
+     *
+     * @param batch    A batch from {@link #newBatch(int)} with room for count rows
+     * @param firstRow The number of the first row, from 0
+     * @param count    The number of rows
+     */
+    public void generate(@NonNull CustomerBatch batch, long firstRow, int count) {
+        getPool().invoke(new BatchTask(batch, firstRow, count));
+    }
+
+    /**
+     * Generates rows firstRow to firstRow + rowCount - 1 of the dataset and bulk loads them
+     * into CustomerProvider, {@link #LOAD_BATCH_ROWS} at a time. The next batch is generated while
+     * the previous one is being written, so the load goes at the speed of the database.
+     * <p>
+     * Account numbers are unique, so the rows must not be in the table already: load into an
+     * empty table, or continue a dataset with a firstRow past the rows loaded before.
+     *
+     * @param contentResolver Used to reach the provider
+     * @param firstRow        The number of the first row, from 0
+     * @param rowCount        The number of rows to load
+     * @return The number of rows inserted
+     */
+    public long load(@NonNull ContentResolver contentResolver, long firstRow, long rowCount) {
+        CustomerBatch filling = newBatch(LOAD_BATCH_ROWS);
+        CustomerBatch loading = newBatch(LOAD_BATCH_ROWS);
+        long nextRow = firstRow;
+        long endRow = firstRow + rowCount;
+        long rowsInserted = 0;
+
+        ForkJoinTask<Void> pending = null;
+        try {
+            if (nextRow < endRow) {
+                int count = (int) Math.min(LOAD_BATCH_ROWS, endRow - nextRow);
+                pending = getPool().submit(new BatchTask(filling, nextRow, count));
+                nextRow += count;
+            }
+            while (pending != null) {
+                pending.join();
+                CustomerBatch ready = filling;
+                filling = loading;
+                loading = ready;
+
+                pending = null;
+                if (nextRow < endRow) {
+                    int count = (int) Math.min(LOAD_BATCH_ROWS, endRow - nextRow);
+                    pending = getPool().submit(new BatchTask(filling, nextRow, count));
+                    nextRow += count;
+                }
+                rowsInserted += ready.bulkLoad(contentResolver);
+            }
+        } finally {
+            /* The load failed; don't leave a batch being generated for nobody. */
+            if (pending != null) pending.cancel(false);
+        }
+        return rowsInserted;
+    }
+
+    /*
+     * One pool for all generators, sized for the cores. Its threads are daemons and exit when
+     * the pool has been idle for a while.
+     */
+    private static synchronized ForkJoinPool getPool() {
+        if (sPool == null) {
+            sPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return sPool;
+    }
+
+    /* Resets the batch to count empty rows, then has RowsTasks fill them in. */
+    private class BatchTask extends RecursiveAction {
+        private final CustomerBatch mBatch;
+        private final long mFirstRow;
+        private final int mCount;
+
+        BatchTask(CustomerBatch batch, long firstRow, int count) {
+            if (!Arrays.equals(batch.getColumns(), COLUMNS)) {
+                throw new IllegalArgumentException("Not a batch from newBatch()");
+            }
+            if (count > batch.capacity()) {
+                throw new IllegalArgumentException(count + " rows don't fit in the batch");
+            }
+            mBatch = batch;
+            mFirstRow = firstRow;
+            mCount = count;
+        }
+
+        @Override
+        protected void compute() {
+            mBatch.clear();
+            for (int i = 0; i < mCount; i++) {
+                mBatch.addRow();
+            }
+            new RowsTask(mBatch, mFirstRow, 0, mCount).invoke();
+        }
+    }
+
+    /*
+     * Fills rows from to to - 1 of a batch, splitting the range in half until it's small enough.
+     * Each row is written by exactly one task, and the batch is only read once the whole tree
+     * has joined, so the writes need no locking.
+     */
+    private class RowsTask extends RecursiveAction {
+        private final CustomerBatch mBatch;
+        private final long mFirstRow;
+        private final int mFrom;
+        private final int mTo;
+
+        RowsTask(CustomerBatch batch, long firstRow, int from, int to) {
+            mBatch = batch;
+            mFirstRow = firstRow;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= ROWS_PER_TASK) {
+                StringBuilder builder = new StringBuilder(32);
+                for (int i = mFrom; i < mTo; i++) {
+                    generateRow(mBatch, i, mFirstRow + i, builder);
+                }
+                return;
+            }
+            int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new RowsTask(mBatch, mFirstRow, mFrom, middle),
+                    new RowsTask(mBatch, mFirstRow, middle, mTo));
+        }
+    }
+
+    /* Writes row number row of the dataset into the given row of the batch. */
+    private void generateRow(CustomerBatch batch, int batchRow, long row, StringBuilder builder) {
+        SplitMix64 random = mRandom.subStream(row);
+
+        Town town = TOWNS[TOWN_CHOICE.next(random)];
+        batch.set(batchRow, CITY, town.name);
+        batch.set(batchRow, STATE, STATES[town.state]);
+        batch.set(batchRow, ZIPCODE, town.zipcodes[random.nextInt(town.zipcodes.length)]);
+
+        batch.set(batchRow, FIRST_NAME, FIRST_NAMES[FIRST_NAME_CHOICE.next(random)]);
+        batch.set(batchRow, MIDDLE_NAME, random.nextBoolean(MIDDLE_NAME_PROBABILITY)
+                ? INITIALS[random.nextInt(INITIALS.length)]
+                : null);
+        batch.set(batchRow, LAST_NAME, LAST_NAMES[LAST_NAME_CHOICE.next(random)]);
+
+        builder.setLength(0);
+        builder.append(1 + random.nextInt(9999)).append(' ')
+                .append(STREETS[STREET_CHOICE.next(random)]);
+        batch.set(batchRow, ADDRESS1, builder.toString());
+        batch.set(batchRow, ADDRESS2, random.nextBoolean(ADDRESS2_PROBABILITY)
+                ? BUILDINGS[random.nextInt(BUILDINGS.length)]
+                : null);
+        batch.set(batchRow, APT_NUM, random.nextBoolean(APT_NUM_PROBABILITY)
+                ? APT_NUMS[random.nextInt(APT_NUMS.length)]
+                : null);
+
+        String[] areaCodes = AREA_CODES[town.state];
+        builder.setLength(0);
+        builder.append(areaCodes[random.nextInt(areaCodes.length)])
+                .append(2 + random.nextInt(8));
+        appendDigits(builder, random.nextInt(1000000), 6);
+        batch.set(batchRow, PHONE, builder.toString());
+
+        builder.setLength(0);
+        builder.append(ACCOUNT_PREFIX);
+        appendDigits(builder, row, ACCOUNT_DIGITS);
+        batch.set(batchRow, ACCOUNT_NUMBER, builder.toString());
+
+        batch.set(batchRow, LATITUDE, formatDegrees(builder,
+                town.latitude + (random.nextDouble() * 2 - 1) * TOWN_RADIUS_DEGREES));
+        batch.set(batchRow, LONGITUDE, formatDegrees(builder,
+                town.longitude + (random.nextDouble() * 2 - 1) * TOWN_RADIUS_DEGREES));
+    }
+
+    /* Appends value as exactly digits digits, padded with leading zeros. */
+    private static void appendDigits(StringBuilder builder, long value, int digits) {
+        int start = builder.length();
+        for (int i = 0; i < digits; i++) {
+            builder.append('0');
+        }
+        for (int i = builder.length() - 1; i >= start && value > 0; i--) {
+            builder.setCharAt(i, (char) ('0' + value % 10));
+            value /= 10;
+        }
+    }
+
+    /* Formats a coordinate with 6 decimals (about 10cm), without String.format's cost. */
+    private static String formatDegrees(StringBuilder builder, double degrees) {
+        long micros = Math.round(Math.abs(degrees) * 1000000);
+        builder.setLength(0);
+        if (degrees < 0 && micros != 0) builder.append('-');
+        builder.append(micros / 1000000).append('.');
+        appendDigits(builder, micros % 1000000, 6);
+        return builder.toString();
+    }
+
+    private static class Town {
+        final String name;
+        final int state;
+        final String[] zipcodes = new String[ZIPCODES_PER_TOWN];
+        final double latitude;
+        final double longitude;
+
+        Town(String name, int state, int firstZipcode, double latitude, double longitude) {
+            this.name = name;
+            this.state = state;
+            for (int i = 0; i < zipcodes.length; i++) {
+                zipcodes[i] = String.format(Locale.US, "%05d", firstZipcode + i);
+            }
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    /*
+     * Picks 0 to n - 1 with probability proportional to 1 / (i + 1)^exponent, so 0 is the most
+     * likely and every next value rarer, like words in a text or names in a phone book.
+     */
+    private static class ZipfChoice {
+        private final double[] mCumulative;
+
+        ZipfChoice(int n, double exponent) {
+            mCumulative = new double[n];
+            double total = 0;
+            for (int i = 0; i < n; i++) {
+                total += 1 / Math.pow(i + 1, exponent);
+                mCumulative[i] = total;
+            }
+            for (int i = 0; i < n; i++) {
+                mCumulative[i] /= total;
+            }
+        }
+
+        int next(SplitMix64 random) {
+            double u = random.nextDouble();
+            int index = Arrays.binarySearch(mCumulative, u);
+            /* Not found gives -(insertion point) - 1: the first value whose cumulative is > u. */
+            if (index < 0) index = -index - 1;
+            return Math.min(index, mCumulative.length - 1);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.goli.alla.cablecustomer.utilities;
+
+/**
+ * A small, fast random number generator: the SplitMix64 algorithm behind Java 8's
+ * SplittableRandom, which Android only has from API 24.
+ * <p>
+ * Its state is a single long advanced by a constant "gamma" and scrambled on the way out, so it
+ * is cheap to create and, unlike java.util.Random, has no lock to contend on. It can also hand
+ * out independent generators: {@link #subStream(long)} returns the generator of sub-stream n
+ * without advancing this one, so work split across threads can give each piece of work its own
+ * stream and get the same numbers whichever thread runs it, in whatever order.
+ * <p>
+ * The same seed always gives the same sequence. Not for anything that needs to be unpredictable.
+ */
+public final class SplitMix64 {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /* 2^-53: turns the top 53 bits of a long into a double in [0, 1). */
+    private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+    private long mSeed;
+
+    private final long mGamma;
+
+    /**
+     * @param seed The seed; the same seed gives the same sequence
+     */
+    public SplitMix64(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    private SplitMix64(long seed, long gamma) {
+        mSeed = seed;
+        mGamma = gamma;
+    }
+
+    /**
+     * @return The next 64 random bits
+     */
+    public long nextLong() {
+        return mix64(mSeed += mGamma);
+    }
+
+    /**
+     * @param bound The upper bound, exclusive; must be positive
+     * @return A number from 0 to bound - 1, all equally likely
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive: " + bound);
+        }
+        int r = (int) (nextLong() >>> 32);
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+            return r & m;
+        }
+        /* Rejects the few values that would make the low numbers more likely than the others. */
+        for (int u = r >>> 1; u + m - (r = u % bound) < 0; u = (int) (nextLong() >>> 33)) {
+        }
+        return r;
+    }
+
+    /**
+     * @return A number from 0 (inclusive) to 1 (exclusive)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @param probability The probability of returning true, from 0 to 1
+     * @return true with the given probability
+     */
+    public boolean nextBoolean(double probability) {
+        return nextDouble() < probability;
+    }
+
+    /**
+     * Returns the generator of the index-th sub-stream of this generator. Sub-streams are as
+     * independent of each other and of this generator as the generators SplittableRandom.split()
+     * returns, but they are picked by index rather than by the order they are asked for, and this
+     * generator isn't advanced.
+     *
+     * @param index The index of the sub-stream
+     * @return A new generator
+     */
+    public SplitMix64 subStream(long index) {
+        long seed = mSeed + (2 * index + 1) * mGamma;
+        return new SplitMix64(mix64(seed), mixGamma(seed + mGamma));
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /* An odd gamma with enough bit transitions to keep the outputs of a sub-stream well mixed. */
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int transitions = Long.bitCount(z ^ (z >>> 1));
+        return transitions < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
@@ -0,0 +1,95 @@
+package com.goli.alla.cablecustomer.utilities;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.goli.alla.cablecustomer.BuildConfig;
+import com.goli.alla.cablecustomer.data.CompactionJobService;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.sync.OutboxDrainJobService;
+import com.goli.alla.cablecustomer.sync.SyncEngine;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the work the app needs at launch on a background thread, so none of it delays the first
+ * frame. Opening the database the first time can mean creating or migrating the schema, which
+ * must never happen on the main thread.
+ */
+public class StartupUtils {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = StartupUtils.class.getSimpleName();
+
+    private static boolean sInitialized;
+
+    private static final ExecutorService sStartupExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Starts the startup work, once per process. The customer list doesn't wait for it: it shows
+     * whatever is already stored and is told about any new rows through the provider's change
+     * notifications.
+     *
+     * @param context Context used to reach the ContentProvider
+     */
+    synchronized public static void initialize(@NonNull Context context) {
+        if (sInitialized) return;
+        sInitialized = true;
+
+        final Context appContext = context.getApplicationContext();
+        sStartupExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean empty = warmUpDatabase(appContext);
+
+                /* Purges deleted customers and shrinks the database while the device is idle. */
+                CompactionJobService.schedule(appContext);
+
+                /*
+                 * Fake customers are only for development: they need a debug build that was
+                 * built with -PseedFakeData[=rows], and they are only added to an empty database.
+                 */
+                if (BuildConfig.SEED_FAKE_DATA && empty) {
+                    Log.d(LOG_TAG, "Seeding fake customers");
+                    FakeDataUtils.insertFakeData(appContext, BuildConfig.FAKE_DATA_ROWS);
+                }
+
+                /* Catches up with the head-end, when the build names one. */
+                if (!BuildConfig.HEAD_END_URL.isEmpty()) {
+                    try {
+                        new SyncEngine(appContext, BuildConfig.HEAD_END_URL).sync();
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Sync with the head-end failed", e);
+                    }
+                    /* Sends any edits a previous run left in the outbox. */
+                    OutboxDrainJobService.schedule(appContext);
+                }
+            }
+        });
+    }
+
+    /*
+     * Opens (and if needed creates or upgrades) the database with a query that costs next to
+     * nothing: a single _ID looked up through the primary key.
+     *
+     * @return true if the customer table is empty
+     */
+    private static boolean warmUpDatabase(Context context) {
+        Cursor cursor = context.getContentResolver().query(
+                CustomerEntry.buildPageUri(1),
+                new String[]{CustomerEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) return false;
+        try {
+            return cursor.getCount() == 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmarks a sync's worth of changes to a table of ROWS customers: MIXED_OPERATIONS inserts,
+ * updates and deletes, either in one applyBatch or as single provider calls. The gap between the
+ * two is what the single transaction and the deferred notifications of applyBatch buy. Run it
+ * with
+ * <pre>
+ *     ./gradlew :app:testReleaseUnitTest -Pbenchmark
+ * </pre>
+ * which writes the results to app/build/benchmarks/ApplyBatchBenchmark.json.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ApplyBatchBenchmark {
+
+    private static final String SUITE = ApplyBatchBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 100000;
+
+    /* The table is filled this many rows at a time. */
+    private static final int BULK_INSERT_CHUNK = 1000;
+
+    /* Operations in a batch of mixed inserts, updates and deletes, like a sync would send. */
+    private static final int MIXED_OPERATIONS = 10000;
+
+    private final BenchmarkData mData = new BenchmarkData(42);
+
+    private final BenchmarkRunner mRunner = new BenchmarkRunner(SUITE);
+
+    private CustomerProvider mProvider;
+
+    private long[] mIds;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(CustomerProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY)
+                .get();
+        for (int inserted = 0; inserted < ROWS; inserted += BULK_INSERT_CHUNK) {
+            mProvider.bulkInsert(CustomerEntry.CONTENT_URI,
+                    mData.nextCustomers(BULK_INSERT_CHUNK));
+        }
+        Cursor cursor = mProvider.query(CustomerEntry.CONTENT_URI,
+                new String[]{CustomerEntry._ID}, null, null, null);
+        try {
+            mIds = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                mIds[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        assertEquals(ROWS, mIds.length);
+    }
+
+    @Test
+    public void benchmarkMixedOperations() throws Exception {
+        benchmarkMixedOperations(true);
+        benchmarkMixedOperations(false);
+
+        mRunner.writeResults(SUITE + ".json");
+    }
+
+    /*
+     * A quarter of the operations are inserts, half are updates and a quarter are deletes,
+     * interleaved. The customers deleted are inserted beforehand and the ones inserted are
+     * deleted afterwards, so every iteration works on a table of the same size.
+     */
+    private void benchmarkMixedOperations(final boolean batch) throws Exception {
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>(MIXED_OPERATIONS);
+        /* The values of each operation, for the single calls; null for a delete. */
+        final List<ContentValues> values = new ArrayList<>(MIXED_OPERATIONS);
+        final List<Uri> inserted = new ArrayList<>();
+
+        mRunner.run(new Benchmark(batch ? "apply_batch" : "single_operations") {
+            @Override
+            protected void setUp() {
+                operations.clear();
+                values.clear();
+                inserted.clear();
+                for (int i = 0; i < MIXED_OPERATIONS; i++) {
+                    switch (i % 4) {
+                        case 0:
+                            ContentValues customer = mData.nextCustomer();
+                            operations.add(ContentProviderOperation
+                                    .newInsert(CustomerEntry.CONTENT_URI)
+                                    .withValues(customer)
+                                    .build());
+                            values.add(customer);
+                            break;
+                        case 3:
+                            Uri victim = mProvider.insert(CustomerEntry.CONTENT_URI,
+                                    mData.nextCustomer());
+                            operations.add(ContentProviderOperation.newDelete(victim).build());
+                            values.add(null);
+                            break;
+                        default:
+                            ContentValues change = new ContentValues();
+                            change.put(CustomerEntry.COLUMN_PHONE,
+                                    mData.nextCustomer().getAsString(CustomerEntry.COLUMN_PHONE));
+                            operations.add(ContentProviderOperation
+                                    .newUpdate(CustomerEntry.buildCustomerUri(
+                                            mIds[mData.nextInt(mIds.length)]))
+                                    .withValues(change)
+                                    .build());
+                            values.add(change);
+                    }
+                }
+            }
+
+            @Override
+            protected void run() throws OperationApplicationException {
+                if (batch) {
+                    for (ContentProviderResult result : mProvider.applyBatch(operations)) {
+                        if (result.uri != null) inserted.add(result.uri);
+                    }
+                    return;
+                }
+                for (int i = 0; i < operations.size(); i++) {
+                    ContentProviderOperation operation = operations.get(i);
+                    Uri uri = operation.getUri();
+                    if (operation.isInsert()) {
+                        inserted.add(mProvider.insert(uri, values.get(i)));
+                    } else if (operation.isUpdate()) {
+                        mProvider.update(uri, values.get(i), null, null);
+                    } else {
+                        mProvider.delete(uri, null, null);
+                    }
+                }
+            }
+
+            @Override
+            protected void tearDown() {
+                for (Uri uri : inserted) {
+                    mProvider.delete(uri, null, null);
+                }
+                /* Deletes leave tombstones, which would grow the table from one run to the next. */
+                BenchmarkData.purgeTombstones(mProvider);
+            }
+        }.param("rows", ROWS).operations(MIXED_OPERATIONS));
+    }
+}
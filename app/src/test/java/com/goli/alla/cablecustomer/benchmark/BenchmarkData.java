@@ -0,0 +1,113 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+
+import com.goli.alla.cablecustomer.data.CustomerBatch;
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+import com.goli.alla.cablecustomer.utilities.FakeCustomerGenerator;
+import com.goli.alla.cablecustomer.utilities.SplitMix64;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Customer rows for the benchmarks, from a FakeCustomerGenerator dataset, so every run of a
+ * benchmark works on exactly the same rows and runs can be compared.
+ */
+class BenchmarkData {
+
+    /** System property with the table sizes to benchmark, comma separated. */
+    static final String PROPERTY_ROWS = "benchmark.rows";
+
+    private static final String DEFAULT_ROWS = "1000,100000,1000000";
+
+    private final FakeCustomerGenerator mGenerator;
+
+    private final SplitMix64 mRandom;
+
+    private final CustomerBatch mBatch =
+            FakeCustomerGenerator.newBatch(FakeCustomerGenerator.LOAD_BATCH_ROWS);
+
+    /* The dataset row the next customer is made from. */
+    private long mNextRow;
+
+    BenchmarkData(long seed) {
+        mGenerator = new FakeCustomerGenerator(seed);
+        mRandom = new SplitMix64(seed);
+    }
+
+    /**
+     * @return The table sizes in the benchmark.rows system property, 1k, 100k and 1M rows by
+     * default, each as the parameters of a ParameterizedRobolectricTestRunner test
+     */
+    static List<Object[]> rowCounts() {
+        List<Object[]> rowCounts = new ArrayList<>();
+        for (String rows : System.getProperty(PROPERTY_ROWS, DEFAULT_ROWS).split(",")) {
+            rowCounts.add(new Object[]{Integer.parseInt(rows.trim())});
+        }
+        return rowCounts;
+    }
+
+    /**
+     * Empties the customer table for good. A delete only leaves tombstones, which would keep
+     * their account numbers and make the table grow from one iteration to the next, so they are
+     * purged right away.
+     */
+    static void deleteAll(CustomerProvider provider) {
+        provider.delete(CustomerEntry.CONTENT_URI, null, null);
+        purgeTombstones(provider);
+    }
+
+    /**
+     * Purges every tombstone, however recent, so deleted customers don't pile up in the table.
+     */
+    static void purgeTombstones(CustomerProvider provider) {
+        Bundle extras = new Bundle();
+        extras.putLong(CustomerContract.EXTRA_MIN_AGE_SECONDS, 0);
+        extras.putInt(CustomerContract.EXTRA_ROW_COUNT, Integer.MAX_VALUE);
+        provider.call(CustomerContract.METHOD_PURGE_TOMBSTONES, null, extras);
+    }
+
+    /**
+     * @return A new customer
+     */
+    ContentValues nextCustomer() {
+        return nextCustomers(1)[0];
+    }
+
+    /**
+     * Returns count new customers, without account numbers: the benchmarks insert the same
+     * customers more than once to fill big tables, which unique account numbers would prevent.
+     *
+     * @return count new customers
+     */
+    ContentValues[] nextCustomers(int count) {
+        ContentValues[] customers = new ContentValues[count];
+        String[] columns = mBatch.getColumns();
+        for (int done = 0; done < count; ) {
+            int batchRows = Math.min(count - done, mBatch.capacity());
+            mGenerator.generate(mBatch, mNextRow, batchRows);
+            mNextRow += batchRows;
+            for (int row = 0; row < batchRows; row++) {
+                ContentValues customer = new ContentValues();
+                for (int column = 0; column < columns.length; column++) {
+                    if (!CustomerEntry.COLUMN_ACCOUNT_NUMBER.equals(columns[column])) {
+                        customer.put(columns[column], mBatch.get(row, column));
+                    }
+                }
+                customers[done++] = customer;
+            }
+        }
+        return customers;
+    }
+
+    /**
+     * @return A number from 0 to bound - 1
+     */
+    int nextInt(int bound) {
+        return mRandom.nextInt(bound);
+    }
+}
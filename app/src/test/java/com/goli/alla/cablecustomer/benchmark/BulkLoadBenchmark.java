@@ -0,0 +1,202 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.goli.alla.cablecustomer.data.CustomerBatch;
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.LookupEntry;
+import com.goli.alla.cablecustomer.data.CustomerDbHelper;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+import com.goli.alla.cablecustomer.utilities.FakeCustomerGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmarks the ways of loading customers into an empty table, all with the same ROWS rows:
+ * <ul>
+ *     <li>insert_loop: SQLiteDatabase.insert for every row in one transaction, which is how
+ *     bulkInsert used to load them;</li>
+ *     <li>bulk_insert: CustomerProvider.bulkInsert, which rebinds one compiled INSERT per
+ *     column shape;</li>
+ *     <li>bulk_load: CustomerBatch.bulkLoad, the same compiled INSERT fed from column arrays
+ *     instead of a ContentValues per row.</li>
+ * </ul>
+ * Run it with
+ * <pre>
+ *     ./gradlew :app:testReleaseUnitTest -Pbenchmark
+ * </pre>
+ * which writes the results to app/build/benchmarks/BulkLoadBenchmark.json, in nanoseconds per
+ * row.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BulkLoadBenchmark {
+
+    private static final String SUITE = BulkLoadBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 50000;
+
+    private final BenchmarkRunner mRunner = new BenchmarkRunner(SUITE);
+
+    private CustomerProvider mProvider;
+
+    private SQLiteDatabase mDb;
+
+    /* The rows, in batches of FakeCustomerGenerator.LOAD_BATCH_ROWS. */
+    private CustomerBatch[] mBatches;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(CustomerProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY)
+                .get();
+        mDb = new CustomerDbHelper(RuntimeEnvironment.application).getWritableDatabase();
+
+        FakeCustomerGenerator generator = new FakeCustomerGenerator(42);
+        mBatches = new CustomerBatch[ROWS / FakeCustomerGenerator.LOAD_BATCH_ROWS];
+        for (int i = 0; i < mBatches.length; i++) {
+            mBatches[i] = FakeCustomerGenerator.newBatch(FakeCustomerGenerator.LOAD_BATCH_ROWS);
+            generator.generate(mBatches[i], (long) i * FakeCustomerGenerator.LOAD_BATCH_ROWS,
+                    FakeCustomerGenerator.LOAD_BATCH_ROWS);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void benchmarkBulkLoad() throws Exception {
+        final ContentValues[][] customers = new ContentValues[mBatches.length][];
+        final ContentValues[][] storageCustomers = new ContentValues[mBatches.length][];
+        Map<String, Long> lookupIds = new HashMap<>();
+        for (int i = 0; i < mBatches.length; i++) {
+            customers[i] = toContentValues(mBatches[i]);
+            storageCustomers[i] = new ContentValues[customers[i].length];
+            for (int row = 0; row < customers[i].length; row++) {
+                storageCustomers[i][row] = toStorageValues(customers[i][row], lookupIds);
+            }
+        }
+
+        mRunner.run(new LoadBenchmark("insert_loop") {
+            @Override
+            protected void run() {
+                mDb.beginTransactionNonExclusive();
+                try {
+                    for (ContentValues[] batch : storageCustomers) {
+                        for (ContentValues customer : batch) {
+                            mDb.insert(CustomerEntry.TABLE_NAME, null, customer);
+                        }
+                    }
+                    mDb.setTransactionSuccessful();
+                } finally {
+                    mDb.endTransaction();
+                }
+            }
+        });
+
+        mRunner.run(new LoadBenchmark("bulk_insert") {
+            @Override
+            protected void run() {
+                for (ContentValues[] batch : customers) {
+                    mProvider.bulkInsert(CustomerEntry.CONTENT_URI, batch);
+                }
+            }
+        });
+
+        final ContentResolver contentResolver = RuntimeEnvironment.application.getContentResolver();
+        mRunner.run(new LoadBenchmark("bulk_load") {
+            @Override
+            protected void run() {
+                for (CustomerBatch batch : mBatches) {
+                    batch.bulkLoad(contentResolver);
+                }
+            }
+        });
+
+        mRunner.writeResults(SUITE + ".json");
+    }
+
+    /* Starts every iteration from an empty table, and checks that all the rows went in. */
+    private abstract class LoadBenchmark extends Benchmark {
+
+        LoadBenchmark(String name) {
+            super(name);
+            param("rows", ROWS);
+            operations(ROWS);
+            iterations(1, 5);
+        }
+
+        @Override
+        protected void setUp() {
+            BenchmarkData.deleteAll(mProvider);
+        }
+
+        @Override
+        protected void tearDown() {
+            assertEquals(ROWS, DatabaseUtils.queryNumEntries(mDb, CustomerEntry.TABLE_NAME));
+        }
+    }
+
+    private static ContentValues[] toContentValues(CustomerBatch batch) {
+        String[] columns = batch.getColumns();
+        ContentValues[] customers = new ContentValues[batch.size()];
+        for (int row = 0; row < customers.length; row++) {
+            customers[row] = new ContentValues();
+            for (int column = 0; column < columns.length; column++) {
+                customers[row].put(columns[column], batch.get(row, column));
+            }
+        }
+        return customers;
+    }
+
+    /*
+     * The table keeps the city, state and zipcode as the _ID of their value in a lookup table.
+     * Done up front, so insert_loop only times the inserts themselves.
+     */
+    private ContentValues toStorageValues(ContentValues customer, Map<String, Long> lookupIds) {
+        ContentValues storage = new ContentValues(customer);
+        moveToLookup(storage, CustomerEntry.COLUMN_CITY, LookupEntry.CITY_TABLE_NAME,
+                CustomerEntry.COLUMN_CITY_ID, lookupIds);
+        moveToLookup(storage, CustomerEntry.COLUMN_STATE, LookupEntry.STATE_TABLE_NAME,
+                CustomerEntry.COLUMN_STATE_ID, lookupIds);
+        moveToLookup(storage, CustomerEntry.COLUMN_ZIPCODE, LookupEntry.ZIPCODE_TABLE_NAME,
+                CustomerEntry.COLUMN_ZIPCODE_ID, lookupIds);
+        return storage;
+    }
+
+    private void moveToLookup(ContentValues storage, String column, String lookupTable,
+                              String idColumn, Map<String, Long> lookupIds) {
+        String value = storage.getAsString(column);
+        storage.remove(column);
+        if (value == null) return;
+        String key = lookupTable + '/' + value;
+        Long id = lookupIds.get(key);
+        if (id == null) {
+            ContentValues lookupValues = new ContentValues(1);
+            lookupValues.put(LookupEntry.COLUMN_VALUE, value);
+            mDb.insertWithOnConflict(lookupTable, null, lookupValues,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+            id = DatabaseUtils.longForQuery(mDb, "SELECT " + LookupEntry._ID + " FROM " +
+                    lookupTable + " WHERE " + LookupEntry.COLUMN_VALUE + " = ?",
+                    new String[]{value});
+            lookupIds.put(key, id);
+        }
+        storage.put(idColumn, id);
+    }
+}
@@ -0,0 +1,218 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.goli.alla.cablecustomer.MainActivity;
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Benchmarks the customer list's page queries while a sync writes: READERS threads each query
+ * READS_PER_READER pages of the list, once on their own (readers) and once while a writer thread
+ * bulk inserts batches of WRITE_BATCH_ROWS customers through the provider for as long as they
+ * read (readers_with_writer). Run it with
+ * <pre>
+ *     ./gradlew :app:testReleaseUnitTest -Pbenchmark
+ * </pre>
+ * which writes the results to app/build/benchmarks/ConcurrentReadBenchmark.json, in nanoseconds
+ * per page read, and prints the p50 and p99 latency of the single reads.
+ * <p>
+ * To see what write-ahead logging changed, run it on the commit before CustomerDbHelper enabled
+ * it and compare the two runs with :benchmark's compareBenchmarks task. Robolectric runs every
+ * SQLite call of the process on a single thread, so the numbers here show the provider's own
+ * locking; the readers overlapping the writer inside SQLite only shows on a device.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ConcurrentReadBenchmark {
+
+    private static final String SUITE = ConcurrentReadBenchmark.class.getSimpleName();
+
+    /* Customers in the table when an iteration starts. */
+    private static final int ROWS = 10000;
+
+    private static final int READERS = 4;
+    private static final int READS_PER_READER = 200;
+
+    /* The list's page size, see CustomerPageSource. */
+    private static final int PAGE_SIZE = 100;
+
+    private static final int WRITE_BATCH_ROWS = 500;
+    private static final int WRITE_BATCHES = 20;
+
+    private final BenchmarkData mData = new BenchmarkData(42);
+
+    private final BenchmarkRunner mRunner = new BenchmarkRunner(SUITE);
+
+    private CustomerProvider mProvider;
+
+    private ContentValues[] mInitialCustomers;
+
+    /* The batches the writer inserts, over and over. */
+    private final ContentValues[][] mWriteBatches = new ContentValues[WRITE_BATCHES][];
+
+    /* The latency of every page read of the measured iterations, per reader. */
+    private final long[][] mLatencies = new long[READERS][];
+    private final int[] mLatencyCounts = new int[READERS];
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(CustomerProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY)
+                .get();
+        mInitialCustomers = mData.nextCustomers(ROWS);
+        for (int i = 0; i < WRITE_BATCHES; i++) {
+            mWriteBatches[i] = mData.nextCustomers(WRITE_BATCH_ROWS);
+        }
+    }
+
+    @Test
+    public void benchmarkConcurrentReads() throws Exception {
+        runReaders("readers", false);
+        runReaders("readers_with_writer", true);
+        mRunner.writeResults(SUITE + ".json");
+    }
+
+    private void runReaders(String name, final boolean withWriter) throws Exception {
+        for (int reader = 0; reader < READERS; reader++) {
+            mLatencies[reader] = new long[READS_PER_READER * 16];
+            mLatencyCounts[reader] = 0;
+        }
+
+        final Benchmark benchmark = new Benchmark(name) {
+            private int mIteration;
+
+            @Override
+            protected void setUp() {
+                BenchmarkData.deleteAll(mProvider);
+                mProvider.bulkInsert(CustomerEntry.CONTENT_URI, mInitialCustomers);
+            }
+
+            @Override
+            protected void run() throws Exception {
+                boolean measured = mIteration++ >= getWarmupIterations();
+                readWhileWriting(withWriter, measured);
+            }
+        };
+        mRunner.run(benchmark.param("rows", ROWS)
+                .param("readers", READERS)
+                .param("write_batch_rows", withWriter ? WRITE_BATCH_ROWS : 0)
+                .operations(READERS * READS_PER_READER)
+                .iterations(2, 8));
+
+        long[] latencies = new long[0];
+        for (int reader = 0; reader < READERS; reader++) {
+            int count = mLatencyCounts[reader];
+            latencies = Arrays.copyOf(latencies, latencies.length + count);
+            System.arraycopy(mLatencies[reader], 0, latencies, latencies.length - count, count);
+        }
+        Arrays.sort(latencies);
+        System.out.println(String.format(Locale.US,
+                "%s %s rows=%d readers=%d: page read p50 %.3f ms, p99 %.3f ms",
+                SUITE, name, ROWS, READERS,
+                percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6));
+    }
+
+    /*
+     * Starts the readers and, if asked for, the writer, and waits for the readers to finish their
+     * reads; the writer stops then too.
+     */
+    private void readWhileWriting(boolean withWriter, final boolean measured)
+            throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread[] readers = new Thread[READERS];
+        for (int i = 0; i < READERS; i++) {
+            final int reader = i;
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int read = 0; read < READS_PER_READER; read++) {
+                            long latency = readPage();
+                            if (measured) record(reader, latency);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }, "Reader " + i);
+        }
+
+        Thread writer = null;
+        if (withWriter) {
+            writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int batch = 0; isAlive(readers); batch++) {
+                            mProvider.bulkInsert(CustomerEntry.CONTENT_URI,
+                                    mWriteBatches[batch % WRITE_BATCHES]);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }, "Writer");
+        }
+
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        if (writer != null) writer.start();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        if (writer != null) writer.join();
+
+        if (failure.get() != null) {
+            throw new AssertionError("A reader or the writer failed", failure.get());
+        }
+    }
+
+    /* Reads the first page of the list, like CustomerPageSource does, and returns how long. */
+    private long readPage() {
+        Uri uri = CustomerEntry.buildPageUri(PAGE_SIZE);
+        long startNanos = System.nanoTime();
+        Cursor cursor = mProvider.query(uri, MainActivity.MAIN_CUSTOMER_PROJECTION, null, null,
+                null);
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getString(1);
+            }
+        } finally {
+            cursor.close();
+        }
+        return System.nanoTime() - startNanos;
+    }
+
+    private void record(int reader, long latency) {
+        if (mLatencyCounts[reader] == mLatencies[reader].length) {
+            mLatencies[reader] = Arrays.copyOf(mLatencies[reader], mLatencies[reader].length * 2);
+        }
+        mLatencies[reader][mLatencyCounts[reader]++] = latency;
+    }
+
+    private static boolean isAlive(Thread[] threads) {
+        for (Thread thread : threads) {
+            if (thread.isAlive()) return true;
+        }
+        return false;
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) return 0;
+        return sorted[(int) ((sorted.length - 1) * (long) percent / 100)];
+    }
+}
@@ -0,0 +1,188 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.widget.TextView;
+
+import com.goli.alla.cablecustomer.MainActivity;
+import com.goli.alla.cablecustomer.R;
+import com.goli.alla.cablecustomer.adapter.CustomerAdapter;
+import com.goli.alla.cablecustomer.adapter.CustomerListSnapshot;
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks creating and binding the rows of the customer list, both from a Cursor and from the
+ * CustomerListSnapshot pages the list actually shows. The cost of a row doesn't depend on the
+ * size of the list, so a single list of ROWS customers is used. Run it with
+ * <pre>
+ *     ./gradlew :app:testReleaseUnitTest -Pbenchmark
+ * </pre>
+ * which writes the results to app/build/benchmarks/CustomerAdapterBenchmark.json, and prints the
+ * bytes each way of binding allocates per row, counted by the JVM for the benchmark's thread.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CustomerAdapterBenchmark {
+
+    private static final String SUITE = CustomerAdapterBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 1000;
+
+    /* View holders created per iteration of the inflate benchmark. */
+    private static final int INFLATIONS = 100;
+
+    /* Enough view holders to fill a screen, recycled while binding like RecyclerView does. */
+    private static final int VIEW_HOLDERS = 12;
+
+    private final BenchmarkRunner mRunner = new BenchmarkRunner(SUITE);
+
+    private RecyclerView mRecyclerView;
+
+    /* Raw, because CustomerAdapter's view holder isn't visible outside its package. */
+    @SuppressWarnings("rawtypes")
+    private RecyclerView.Adapter mAdapter;
+
+    private Cursor mCursor;
+
+    @Before
+    public void setUp() {
+        CustomerProvider provider = Robolectric.buildContentProvider(CustomerProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY)
+                .get();
+        provider.bulkInsert(CustomerEntry.CONTENT_URI, new BenchmarkData(42).nextCustomers(ROWS));
+        mCursor = provider.query(CustomerEntry.CONTENT_URI, MainActivity.MAIN_CUSTOMER_PROJECTION,
+                null, null, CustomerEntry.PAGE_SORT_ORDER);
+
+        Context context = RuntimeEnvironment.application;
+        mRecyclerView = new RecyclerView(context);
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(context));
+        CustomerAdapter customerAdapter = new CustomerAdapter(context,
+                new CustomerAdapter.CustomerAdapterListItemClickHandler() {
+                    @Override
+                    public void onListItemClick(int clickedCustomerId) {
+                    }
+                });
+        customerAdapter.swapCursor(mCursor);
+        mAdapter = customerAdapter;
+    }
+
+    @After
+    public void tearDown() {
+        mCursor.close();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void benchmarkAdapter() throws Exception {
+        mRunner.run(new Benchmark("inflate") {
+            @Override
+            protected void run() {
+                for (int i = 0; i < INFLATIONS; i++) {
+                    mAdapter.createViewHolder(mRecyclerView, 0);
+                }
+            }
+        }.operations(INFLATIONS));
+
+        final RecyclerView.ViewHolder[] viewHolders = new RecyclerView.ViewHolder[VIEW_HOLDERS];
+        for (int i = 0; i < viewHolders.length; i++) {
+            viewHolders[i] = mAdapter.createViewHolder(mRecyclerView, 0);
+        }
+
+        mRunner.run(new Benchmark("cursor_bind") {
+            @Override
+            protected void run() {
+                bindFromCursor(viewHolders);
+            }
+        }.param("rows", ROWS).operations(ROWS));
+
+        mRunner.run(new Benchmark("snapshot_build") {
+            @Override
+            protected void run() {
+                CustomerListSnapshot.fromCursor(mCursor);
+            }
+        }.param("rows", ROWS).operations(ROWS));
+
+        /*
+         * Binds the way CustomerAdapter does when it shows a CustomerPageSource, straight into
+         * the row's TextViews.
+         */
+        final CustomerListSnapshot snapshot = CustomerListSnapshot.fromCursor(mCursor);
+        final TextView[][] rowViews = new TextView[viewHolders.length][];
+        for (int i = 0; i < viewHolders.length; i++) {
+            rowViews[i] = new TextView[]{
+                    (TextView) viewHolders[i].itemView.findViewById(R.id.tv_firstName),
+                    (TextView) viewHolders[i].itemView.findViewById(R.id.tv_lastName),
+                    (TextView) viewHolders[i].itemView.findViewById(R.id.tv_address1),
+                    (TextView) viewHolders[i].itemView.findViewById(R.id.tv_aptnum),
+                    (TextView) viewHolders[i].itemView.findViewById(R.id.tv_city),
+                    (TextView) viewHolders[i].itemView.findViewById(R.id.tv_state)
+            };
+        }
+
+        mRunner.run(new Benchmark("snapshot_bind") {
+            @Override
+            protected void run() {
+                bindFromSnapshot(snapshot, rowViews);
+            }
+        }.param("rows", ROWS).operations(ROWS));
+
+        /* Measured after the timed runs, so the JIT has compiled both ways of binding. */
+        long startBytes = allocatedBytes();
+        bindFromCursor(viewHolders);
+        double cursorBytesPerBind = (double) (allocatedBytes() - startBytes) / ROWS;
+        startBytes = allocatedBytes();
+        bindFromSnapshot(snapshot, rowViews);
+        double snapshotBytesPerBind = (double) (allocatedBytes() - startBytes) / ROWS;
+        System.out.println(String.format(Locale.US,
+                "%s rows=%d: cursor_bind allocates %.1f bytes per row, snapshot_bind %.1f",
+                SUITE, ROWS, cursorBytesPerBind, snapshotBytesPerBind));
+        assertTrue(snapshotBytesPerBind < cursorBytesPerBind);
+
+        mRunner.writeResults(SUITE + ".json");
+    }
+
+    @SuppressWarnings("unchecked")
+    private void bindFromCursor(RecyclerView.ViewHolder[] viewHolders) {
+        for (int position = 0; position < ROWS; position++) {
+            mAdapter.bindViewHolder(viewHolders[position % viewHolders.length], position);
+        }
+    }
+
+    private static void bindFromSnapshot(CustomerListSnapshot snapshot, TextView[][] rowViews) {
+        for (int position = 0; position < ROWS; position++) {
+            TextView[] views = rowViews[position % rowViews.length];
+            snapshot.moveToPosition(position);
+            snapshot.setFirstName(views[0]);
+            snapshot.setLastName(views[1]);
+            snapshot.setAddress1(views[2]);
+            snapshot.setAptNum(views[3]);
+            snapshot.setCity(views[4]);
+            snapshot.setState(views[5]);
+        }
+    }
+
+    /*
+     * Bytes allocated so far by the current thread. TextView's own work in setText is counted
+     * too; it's the same for both ways of binding.
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
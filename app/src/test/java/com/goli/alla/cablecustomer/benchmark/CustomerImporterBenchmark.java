@@ -0,0 +1,179 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import android.database.Cursor;
+
+import com.goli.alla.cablecustomer.data.CustomerBatch;
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+import com.goli.alla.cablecustomer.importer.CustomerImporter;
+import com.goli.alla.cablecustomer.utilities.FakeCustomerGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Imports a generated CSV file of ROWS customers with CustomerImporter and checks that it ran in
+ * constant memory: the heap in use, sampled after a GC every HEAP_SAMPLE_RECORDS records, must
+ * never grow more than HEAP_CAP_BYTES over what it was before the import, whatever the size of
+ * the file. Run it with
+ * <pre>
+ *     ./gradlew :app:testReleaseUnitTest -Pbenchmark
+ * </pre>
+ * which writes the import time to app/build/benchmarks/CustomerImporterBenchmark.json, in
+ * nanoseconds per record, and prints the heap growth.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CustomerImporterBenchmark {
+
+    private static final String SUITE = CustomerImporterBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 1000000;
+
+    /* The most the heap in use may grow during the import; the file is over 100 MB. */
+    private static final long HEAP_CAP_BYTES = 32L * 1024 * 1024;
+
+    private static final long HEAP_SAMPLE_RECORDS = 100000;
+
+    private final BenchmarkRunner mRunner = new BenchmarkRunner(SUITE);
+
+    private CustomerProvider mProvider;
+
+    private File mCsvFile;
+
+    private long mBaselineHeapBytes;
+    private long mPeakHeapBytes;
+    private long mLastSample;
+
+    @Before
+    public void setUp() throws IOException {
+        mProvider = Robolectric.buildContentProvider(CustomerProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY)
+                .get();
+        mCsvFile = File.createTempFile(SUITE, ".csv");
+        writeCsv(mCsvFile);
+    }
+
+    @After
+    public void tearDown() {
+        mCsvFile.delete();
+    }
+
+    @Test
+    public void benchmarkImport() throws Exception {
+        final CustomerImporter importer = new CustomerImporter(RuntimeEnvironment.application);
+        final CustomerImporter.ProgressListener listener =
+                new CustomerImporter.ProgressListener() {
+                    @Override
+                    public void onProgress(long recordsCommitted) {
+                        if (recordsCommitted - mLastSample >= HEAP_SAMPLE_RECORDS) {
+                            mPeakHeapBytes = Math.max(mPeakHeapBytes, usedHeapBytes());
+                            mLastSample = recordsCommitted;
+                        }
+                    }
+                };
+
+        /* A second run of the same file would resume after its end, so it's imported once. */
+        mRunner.run(new Benchmark("import_csv") {
+            @Override
+            protected void setUp() {
+                BenchmarkData.deleteAll(mProvider);
+                mBaselineHeapBytes = usedHeapBytes();
+                mPeakHeapBytes = mBaselineHeapBytes;
+                mLastSample = 0;
+            }
+
+            @Override
+            protected void run() throws IOException {
+                assertEquals(ROWS, importer.importCsvFile(mCsvFile, listener));
+            }
+        }.param("rows", ROWS)
+                .param("file_bytes", mCsvFile.length())
+                .operations(ROWS)
+                .iterations(0, 1));
+
+        long growth = mPeakHeapBytes - mBaselineHeapBytes;
+        System.out.println(String.format(Locale.US,
+                "%s rows=%d file=%.1f MB: heap grew by at most %.1f MB (cap %.1f MB)",
+                SUITE, ROWS, mCsvFile.length() / 1048576.0, growth / 1048576.0,
+                HEAP_CAP_BYTES / 1048576.0));
+        assertTrue("Heap grew by " + growth + " bytes", growth < HEAP_CAP_BYTES);
+        assertEquals(ROWS, countCustomers());
+
+        mRunner.writeResults(SUITE + ".json");
+    }
+
+    /* Writes ROWS generated customers as CSV, one batch at a time, with a header row. */
+    private static void writeCsv(File file) throws IOException {
+        FakeCustomerGenerator generator = new FakeCustomerGenerator(42);
+        CustomerBatch batch = FakeCustomerGenerator.newBatch(FakeCustomerGenerator.LOAD_BATCH_ROWS);
+        String[] columns = batch.getColumns();
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8"), 64 * 1024);
+        try {
+            writeRecord(writer, columns);
+            String[] fields = new String[columns.length];
+            for (long firstRow = 0; firstRow < ROWS; firstRow += batch.capacity()) {
+                int count = (int) Math.min(batch.capacity(), ROWS - firstRow);
+                generator.generate(batch, firstRow, count);
+                for (int row = 0; row < batch.size(); row++) {
+                    for (int column = 0; column < columns.length; column++) {
+                        fields[column] = batch.get(row, column);
+                    }
+                    writeRecord(writer, fields);
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writeRecord(Writer writer, String[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) writer.write(',');
+            String field = fields[i];
+            if (field == null) continue;
+            if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0) {
+                writer.write('"');
+                writer.write(field.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(field);
+            }
+        }
+        writer.write('\n');
+    }
+
+    private long countCustomers() {
+        Cursor cursor = mProvider.query(CustomerEntry.CONTENT_URI,
+                new String[]{CustomerEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long usedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
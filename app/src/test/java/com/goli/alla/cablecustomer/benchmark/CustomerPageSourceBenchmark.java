@@ -0,0 +1,312 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.goli.alla.cablecustomer.adapter.CustomerAdapter;
+import com.goli.alla.cablecustomer.adapter.CustomerPageSource;
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmarks how the customer list takes in changes: a list of ROWS customers, scrolled to its
+ * middle, while 1% of them are updated, inserted or deleted at a time. CustomerPageSource reloads
+ * only the pages on display that changed and reports the DiffUtil updates between their old and
+ * new rows, so only the rows that changed on screen are bound again, where notifyDataSetChanged
+ * would bind every row on screen. Rows that only moved are not bound again.
+ * Run it with
+ * <pre>
+ *     ./gradlew :app:testReleaseUnitTest -Pbenchmark
+ * </pre>
+ * which writes the results to app/build/benchmarks/CustomerPageSourceBenchmark.json. The
+ * benchmark times each round of changes until the list has settled, background queries and the
+ * SETTLE_MS it waits to be sure of that included; the main thread's share of that and the rows
+ * bound per round are printed.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CustomerPageSourceBenchmark {
+
+    private static final String SUITE = CustomerPageSourceBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 10000;
+
+    /* Customers changed per round: 1% of the list. */
+    private static final int CHURN = ROWS / 100;
+
+    /* The rows on screen, from the middle of the list. */
+    private static final int VISIBLE_START = ROWS / 2;
+    private static final int VISIBLE_ROWS = 12;
+
+    /* How long the list must have nothing left to do to count as settled. */
+    private static final long SETTLE_MS = 2;
+
+    /* Cursors handed out by the provider and not closed yet, across all threads. */
+    private static final AtomicInteger sOpenCursors = new AtomicInteger();
+
+    /* Counts the cursors the page source is still working on, so we know when it's done. */
+    public static class TrackingProvider extends CustomerProvider {
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder,
+                            CancellationSignal cancellationSignal) {
+            Cursor cursor = super.query(uri, projection, selection, selectionArgs, sortOrder,
+                    cancellationSignal);
+            if (cursor == null) return null;
+            sOpenCursors.incrementAndGet();
+            return new CursorWrapper(cursor) {
+                private boolean mClosed;
+
+                @Override
+                public void close() {
+                    super.close();
+                    if (!mClosed) sOpenCursors.decrementAndGet();
+                    mClosed = true;
+                }
+            };
+        }
+    }
+
+    private final BenchmarkData mData = new BenchmarkData(42);
+
+    private final BenchmarkRunner mRunner = new BenchmarkRunner(SUITE);
+
+    private CustomerProvider mProvider;
+
+    private ContentResolver mContentResolver;
+
+    private CustomerPageSource mPageSource;
+
+    /* Raw, because CustomerAdapter's view holder isn't visible outside its package. */
+    @SuppressWarnings("rawtypes")
+    private RecyclerView.Adapter mAdapter;
+
+    private RecyclerView.ViewHolder[] mViewHolders;
+
+    private final List<Long> mIds = new ArrayList<>();
+
+    /* Positions on screen reported as inserted or changed since the last bind, or all of them. */
+    private final boolean[] mRebind = new boolean[VISIBLE_ROWS];
+
+    private long mMainThreadNanos;
+    private long mBinds;
+    private long mMoves;
+    private long mResets;
+
+    @Before
+    public void setUp() throws Exception {
+        mProvider = Robolectric.buildContentProvider(TrackingProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY)
+                .get();
+        mProvider.bulkInsert(CustomerEntry.CONTENT_URI, mData.nextCustomers(ROWS));
+        Cursor cursor = mProvider.query(CustomerEntry.CONTENT_URI,
+                new String[]{CustomerEntry._ID}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                mIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        Context context = RuntimeEnvironment.application;
+        mContentResolver = context.getContentResolver();
+        RecyclerView recyclerView = new RecyclerView(context);
+        recyclerView.setLayoutManager(new LinearLayoutManager(context));
+        CustomerAdapter customerAdapter = new CustomerAdapter(context,
+                new CustomerAdapter.CustomerAdapterListItemClickHandler() {
+                    @Override
+                    public void onListItemClick(int clickedCustomerId) {
+                    }
+                });
+        customerAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                mResets++;
+                for (int i = 0; i < VISIBLE_ROWS; i++) {
+                    mRebind[i] = true;
+                }
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                markVisible(positionStart, itemCount);
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                markVisible(positionStart, itemCount);
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                mMoves += itemCount;
+            }
+        });
+        mAdapter = customerAdapter;
+        mViewHolders = new RecyclerView.ViewHolder[VISIBLE_ROWS];
+        for (int i = 0; i < mViewHolders.length; i++) {
+            mViewHolders[i] = mAdapter.createViewHolder(recyclerView, 0);
+        }
+
+        mPageSource = new CustomerPageSource(context);
+        customerAdapter.setPageSource(mPageSource);
+
+        /* Scroll to the end once, so the whole list is known, then back to the middle. */
+        scrollTo(0, ROWS);
+        assertEquals(ROWS, mPageSource.getCount());
+        scrollTo(VISIBLE_START, VISIBLE_START + VISIBLE_ROWS);
+    }
+
+    @After
+    public void tearDown() {
+        mPageSource.close();
+    }
+
+    @Test
+    public void benchmarkChurn() throws Exception {
+        final List<Uri> changedUris = new ArrayList<>(CHURN);
+
+        Benchmark churn = new Benchmark("churn_1pct") {
+            @Override
+            protected void setUp() {
+                changedUris.clear();
+            }
+
+            @Override
+            protected void run() throws InterruptedException {
+                /* 80% updates, 10% inserts and 10% deletes, leaving the list as long as it was. */
+                for (int i = 0; i < CHURN; i++) {
+                    int kind = i % 10;
+                    if (kind == 0) {
+                        Uri uri = mProvider.insert(CustomerEntry.CONTENT_URI,
+                                mData.nextCustomer());
+                        mIds.add(Long.parseLong(uri.getLastPathSegment()));
+                        changedUris.add(uri);
+                    } else if (kind == 1) {
+                        long id = mIds.remove(mData.nextInt(mIds.size()));
+                        Uri uri = CustomerEntry.buildCustomerUri(id);
+                        mProvider.delete(uri, null, null);
+                        changedUris.add(uri);
+                    } else {
+                        Uri uri = CustomerEntry.buildCustomerUri(
+                                mIds.get(mData.nextInt(mIds.size())));
+                        ContentValues customer = mData.nextCustomer();
+                        ContentValues change = new ContentValues();
+                        change.put(CustomerEntry.COLUMN_PHONE,
+                                customer.getAsString(CustomerEntry.COLUMN_PHONE));
+                        mProvider.update(uri, change, null, null);
+                        changedUris.add(uri);
+                    }
+                }
+                /*
+                 * CustomerChangeNotifier delivers these a frame later on its own thread, which
+                 * Robolectric doesn't run by itself; deliver them the same way here.
+                 */
+                for (Uri uri : changedUris) {
+                    mContentResolver.notifyChange(uri, null, false);
+                }
+                settle();
+            }
+        }.param("rows", ROWS).param("churn", CHURN);
+
+        long mainThreadNanos = mMainThreadNanos;
+        long binds = mBinds;
+        long moves = mMoves;
+        long resets = mResets;
+        mRunner.run(churn);
+        int rounds = churn.getWarmupIterations() + churn.getIterations();
+
+        System.out.println(String.format(Locale.US,
+                "%s rows=%d churn=%d: %.3f ms on the main thread, %.1f rows bound and %.1f" +
+                        " moved per round, %d resets; notifyDataSetChanged binds %d rows per round",
+                SUITE, ROWS, CHURN,
+                (mMainThreadNanos - mainThreadNanos) / 1e6 / rounds,
+                (double) (mBinds - binds) / rounds,
+                (double) (mMoves - moves) / rounds,
+                mResets - resets, VISIBLE_ROWS));
+
+        mRunner.writeResults(SUITE + ".json");
+    }
+
+    /* Asks for the rows like a RecyclerView showing them would, until all of them are loaded. */
+    private void scrollTo(int start, int end) throws InterruptedException {
+        for (int position = start; position < end; ) {
+            if (mPageSource.getRow(position) != null) {
+                position++;
+            } else {
+                settle();
+            }
+        }
+        settle();
+    }
+
+    /*
+     * Runs the main thread's work until the page source has nothing left to do: no task is
+     * waiting on the main thread and no query result is still being read in the background.
+     * Then binds the rows on screen that were reported as inserted or changed.
+     */
+    private void settle() throws InterruptedException {
+        long idleSince = 0;
+        while (true) {
+            long startNanos = System.nanoTime();
+            boolean ranTasks = Robolectric.getForegroundThreadScheduler().size() > 0;
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+            bindVisibleRows();
+            mMainThreadNanos += System.nanoTime() - startNanos;
+
+            if (ranTasks || sOpenCursors.get() > 0) {
+                idleSince = 0;
+            } else if (idleSince == 0) {
+                idleSince = System.nanoTime();
+            } else if (System.nanoTime() - idleSince > SETTLE_MS * 1000000) {
+                return;
+            }
+            Thread.sleep(0, 100000);
+        }
+    }
+
+    private void markVisible(int positionStart, int itemCount) {
+        int from = Math.max(positionStart, VISIBLE_START);
+        int to = Math.min(positionStart + itemCount, VISIBLE_START + VISIBLE_ROWS);
+        for (int position = from; position < to; position++) {
+            mRebind[position - VISIBLE_START] = true;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void bindVisibleRows() {
+        for (int i = 0; i < VISIBLE_ROWS; i++) {
+            if (!mRebind[i]) continue;
+            mRebind[i] = false;
+            int position = VISIBLE_START + i;
+            if (position < mAdapter.getItemCount()) {
+                mAdapter.bindViewHolder(mViewHolders[i], position);
+                mBinds++;
+            }
+        }
+    }
+}
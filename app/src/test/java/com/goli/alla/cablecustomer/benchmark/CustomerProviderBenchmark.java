@@ -0,0 +1,299 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.goli.alla.cablecustomer.MainActivity;
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.StatsEntry;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.Robolectric;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmarks CustomerProvider's query, insert, bulkInsert, update and delete on a customer table
+ * of 1k, 100k and 1M rows (see BenchmarkData.PROPERTY_ROWS). Run it with
+ * <pre>
+ *     ./gradlew :app:testReleaseUnitTest -Pbenchmark
+ * </pre>
+ * which writes the results to app/build/benchmarks/CustomerProviderBenchmark-rows=N.json.
+ * <p>
+ * The provider is called directly rather than through a ContentResolver, so the numbers are the
+ * provider's and SQLite's own, without the binder. Under Robolectric SQLite runs natively, but
+ * the Android code around it runs on the desktop JVM: compare these numbers with each other, not
+ * with a device.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+public class CustomerProviderBenchmark {
+
+    private static final String SUITE = CustomerProviderBenchmark.class.getSimpleName();
+
+    /* bulkInsert is given the rows this many at a time, like an import would. */
+    private static final int BULK_INSERT_CHUNK = 1000;
+
+    /* Distinct rows generated for bulkInsert, reused in turn to fill larger tables. */
+    private static final int BULK_INSERT_DISTINCT_ROWS = 10 * BULK_INSERT_CHUNK;
+
+    /* The single row benchmarks repeat their operation this many times per iteration. */
+    private static final int OPERATIONS = 100;
+
+    /* Rows in a page of the list, as loaded by CustomerPageSource. */
+    private static final int PAGE_SIZE = 100;
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "rows={0}")
+    public static List<Object[]> parameters() {
+        return BenchmarkData.rowCounts();
+    }
+
+    private final int mRows;
+
+    private final BenchmarkData mData = new BenchmarkData(42);
+
+    private final BenchmarkRunner mRunner = new BenchmarkRunner(SUITE);
+
+    private CustomerProvider mProvider;
+
+    public CustomerProviderBenchmark(int rows) {
+        mRows = rows;
+    }
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(CustomerProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY)
+                .get();
+    }
+
+    /*
+     * The benchmarks run in this order on purpose: bulkInsert leaves the table with mRows rows,
+     * which the others then work on.
+     */
+    @Test
+    public void benchmarkProvider() throws Exception {
+        benchmarkBulkInsert();
+        long[] ids = queryIds();
+        assertEquals(mRows, ids.length);
+
+        benchmarkQueryAll();
+        benchmarkQueryPage();
+        benchmarkQueryById(ids);
+        benchmarkQueryStats();
+        benchmarkInsert();
+        benchmarkUpdate(ids);
+        benchmarkDelete(queryIds());
+
+        /* The hit rates of the provider's caches over the single customer benchmarks. */
+        PrintWriter writer = new PrintWriter(System.out, true);
+        writer.println(SUITE + " rows=" + mRows + ":");
+        mProvider.dump(null, writer, null);
+
+        mRunner.writeResults(SUITE + "-rows=" + mRows + ".json");
+    }
+
+    /* The whole table is read or written by an iteration, so big tables get fewer of them. */
+    private int wholeTableWarmup() {
+        return mRows >= 1000000 ? 1 : 3;
+    }
+
+    private int wholeTableIterations() {
+        return mRows >= 1000000 ? 3 : mRows >= 100000 ? 5 : 10;
+    }
+
+    private void benchmarkBulkInsert() throws Exception {
+        final ContentValues[][] chunks =
+                new ContentValues[Math.max(1, Math.min(mRows, BULK_INSERT_DISTINCT_ROWS) /
+                        BULK_INSERT_CHUNK)][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = mData.nextCustomers(Math.min(mRows, BULK_INSERT_CHUNK));
+        }
+
+        mRunner.run(new Benchmark("bulk_insert") {
+            @Override
+            protected void setUp() {
+                BenchmarkData.deleteAll(mProvider);
+            }
+
+            @Override
+            protected void run() {
+                int inserted = 0;
+                for (int i = 0; inserted < mRows; i++) {
+                    ContentValues[] chunk = chunks[i % chunks.length];
+                    if (chunk.length > mRows - inserted) {
+                        chunk = Arrays.copyOf(chunk, mRows - inserted);
+                    }
+                    inserted += mProvider.bulkInsert(CustomerEntry.CONTENT_URI, chunk);
+                }
+            }
+        }.param("rows", mRows)
+                .operations(mRows)
+                .iterations(wholeTableWarmup(), wholeTableIterations()));
+    }
+
+    private void benchmarkQueryAll() throws Exception {
+        mRunner.run(new Benchmark("query_all") {
+            @Override
+            protected void run() {
+                Cursor cursor = mProvider.query(CustomerEntry.CONTENT_URI,
+                        MainActivity.MAIN_CUSTOMER_PROJECTION, null, null, null);
+                cursor.getCount();
+                cursor.close();
+            }
+        }.param("rows", mRows)
+                .iterations(wholeTableWarmup(), wholeTableIterations()));
+    }
+
+    private void benchmarkQueryPage() throws Exception {
+        mRunner.run(new Benchmark("query_page") {
+            @Override
+            protected void run() {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    Cursor cursor = mProvider.query(CustomerEntry.buildPageUri(PAGE_SIZE),
+                            MainActivity.MAIN_CUSTOMER_PROJECTION, null, null, null);
+                    while (cursor.moveToNext()) {
+                        cursor.getString(MainActivity.INDEX_COLUMN_NAME_LAST);
+                    }
+                    cursor.close();
+                }
+            }
+        }.param("rows", mRows).operations(OPERATIONS));
+    }
+
+    private void benchmarkQueryById(final long[] ids) throws Exception {
+        final long[] queriedIds = new long[OPERATIONS];
+
+        mRunner.run(new Benchmark("query_by_id") {
+            @Override
+            protected void setUp() {
+                for (int i = 0; i < queriedIds.length; i++) {
+                    queriedIds[i] = ids[mData.nextInt(ids.length)];
+                }
+            }
+
+            @Override
+            protected void run() {
+                for (long id : queriedIds) {
+                    Cursor cursor = mProvider.query(CustomerEntry.buildCustomerUri(id),
+                            MainActivity.MAIN_CUSTOMER_PROJECTION, null, null, null);
+                    cursor.moveToFirst();
+                    cursor.close();
+                }
+            }
+        }.param("rows", mRows).operations(OPERATIONS));
+    }
+
+    /* A dashboard refresh: the counts per city and per day. */
+    private void benchmarkQueryStats() throws Exception {
+        mRunner.run(new Benchmark("query_stats") {
+            @Override
+            protected void run() {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    readAll(mProvider.query(StatsEntry.CONTENT_CITY_URI, null, null, null, null));
+                    readAll(mProvider.query(StatsEntry.CONTENT_DAY_URI, null, null, null, null));
+                }
+            }
+
+            private void readAll(Cursor cursor) {
+                while (cursor.moveToNext()) {
+                    cursor.getLong(cursor.getColumnIndexOrThrow(StatsEntry.COLUMN_COUNT));
+                }
+                cursor.close();
+            }
+        }.param("rows", mRows).operations(OPERATIONS));
+    }
+
+    private void benchmarkInsert() throws Exception {
+        final ContentValues[] customers = new ContentValues[OPERATIONS];
+
+        mRunner.run(new Benchmark("insert") {
+            @Override
+            protected void setUp() {
+                for (int i = 0; i < customers.length; i++) {
+                    customers[i] = mData.nextCustomer();
+                }
+            }
+
+            @Override
+            protected void run() {
+                for (ContentValues customer : customers) {
+                    mProvider.insert(CustomerEntry.CONTENT_URI, customer);
+                }
+            }
+        }.param("rows", mRows).operations(OPERATIONS));
+    }
+
+    private void benchmarkUpdate(final long[] ids) throws Exception {
+        final long[] updatedIds = new long[OPERATIONS];
+        final ContentValues[] changes = new ContentValues[OPERATIONS];
+
+        mRunner.run(new Benchmark("update") {
+            @Override
+            protected void setUp() {
+                for (int i = 0; i < updatedIds.length; i++) {
+                    updatedIds[i] = ids[mData.nextInt(ids.length)];
+                    ContentValues customer = mData.nextCustomer();
+                    changes[i] = new ContentValues();
+                    changes[i].put(CustomerEntry.COLUMN_ADDRESS1,
+                            customer.getAsString(CustomerEntry.COLUMN_ADDRESS1));
+                    changes[i].put(CustomerEntry.COLUMN_PHONE,
+                            customer.getAsString(CustomerEntry.COLUMN_PHONE));
+                }
+            }
+
+            @Override
+            protected void run() {
+                for (int i = 0; i < updatedIds.length; i++) {
+                    mProvider.update(CustomerEntry.buildCustomerUri(updatedIds[i]), changes[i],
+                            null, null);
+                }
+            }
+        }.param("rows", mRows).operations(OPERATIONS));
+    }
+
+    private void benchmarkDelete(long[] ids) throws Exception {
+        /* Every iteration deletes rows no earlier iteration deleted, in a random order. */
+        final long[] shuffledIds = ids.clone();
+        for (int i = shuffledIds.length - 1; i > 0; i--) {
+            int j = mData.nextInt(i + 1);
+            long id = shuffledIds[i];
+            shuffledIds[i] = shuffledIds[j];
+            shuffledIds[j] = id;
+        }
+
+        mRunner.run(new Benchmark("delete") {
+            private int mNextId;
+
+            @Override
+            protected void run() {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    mProvider.delete(CustomerEntry.buildCustomerUri(shuffledIds[mNextId++]),
+                            null, null);
+                }
+            }
+        }.param("rows", mRows).operations(OPERATIONS));
+    }
+
+    private long[] queryIds() {
+        Cursor cursor = mProvider.query(CustomerEntry.CONTENT_URI,
+                new String[]{CustomerEntry._ID}, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import com.goli.alla.cablecustomer.data.CustomerBatch;
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+import com.goli.alla.cablecustomer.utilities.FakeCustomerGenerator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Benchmarks generating fake customers with FakeCustomerGenerator, on its own and streamed into
+ * the provider's bulk load. Run it with
+ * <pre>
+ *     ./gradlew :app:testReleaseUnitTest -Pbenchmark
+ * </pre>
+ * which writes the results to app/build/benchmarks/FakeDataBenchmark.json.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FakeDataBenchmark {
+
+    private static final String SUITE = FakeDataBenchmark.class.getSimpleName();
+
+    /* Customers generated per iteration. */
+    private static final int GENERATED_ROWS = 100000;
+
+    /* Customers loaded per iteration. */
+    private static final int LOADED_ROWS = 20000;
+
+    private final BenchmarkRunner mRunner = new BenchmarkRunner(SUITE);
+
+    private CustomerProvider mProvider;
+
+    @Before
+    public void setUp() {
+        /* The generator loads through the ContentResolver, which needs the provider registered. */
+        mProvider = Robolectric.buildContentProvider(CustomerProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY)
+                .get();
+    }
+
+    @Test
+    public void benchmarkFakeData() throws Exception {
+        final FakeCustomerGenerator generator = new FakeCustomerGenerator(42);
+        final CustomerBatch batch =
+                FakeCustomerGenerator.newBatch(FakeCustomerGenerator.LOAD_BATCH_ROWS);
+
+        mRunner.run(new Benchmark("generate") {
+            @Override
+            protected void run() {
+                for (int row = 0; row < GENERATED_ROWS; row += batch.capacity()) {
+                    generator.generate(batch, row, batch.capacity());
+                }
+            }
+        }.param("processors", Runtime.getRuntime().availableProcessors())
+                .operations(GENERATED_ROWS));
+
+        mRunner.run(new Benchmark("load") {
+            @Override
+            protected void setUp() {
+                BenchmarkData.deleteAll(mProvider);
+            }
+
+            @Override
+            protected void run() {
+                generator.load(RuntimeEnvironment.application.getContentResolver(), 0,
+                        LOADED_ROWS);
+            }
+        }.param("rows", LOADED_ROWS)
+                .operations(LOADED_ROWS)
+                .iterations(1, 5));
+
+        mRunner.writeResults(SUITE + ".json");
+    }
+}
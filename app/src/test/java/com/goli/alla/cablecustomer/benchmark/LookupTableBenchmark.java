@@ -0,0 +1,325 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.goli.alla.cablecustomer.data.CustomerBatch;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.LookupEntry;
+import com.goli.alla.cablecustomer.utilities.FakeCustomerGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the two ways the customer table has stored the city, state and zipcode, on ROWS
+ * generated customers: as text on every row (flat, before schema version 6) and as the _ID of
+ * the value in a lookup table, read back as text through a view (normalized, like
+ * CustomerEntry.VIEW_NAME). Each is built in a database file of its own holding just the
+ * customers, their city and zipcode indexes and, for normalized, the lookup tables, so the file
+ * sizes compare the two layouts and nothing else. Run it with
+ * <pre>
+ *     ./gradlew :app:testReleaseUnitTest -Pbenchmark
+ * </pre>
+ * which writes the results to app/build/benchmarks/LookupTableBenchmark.json, the file sizes
+ * among the parameters, and prints the size and scan time reductions.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class LookupTableBenchmark {
+
+    private static final String SUITE = LookupTableBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 1000000;
+
+    private static final String FLAT_TABLE = "customer_flat_text";
+    private static final String NORMALIZED_TABLE = "customer_normalized";
+    private static final String NORMALIZED_VIEW = "customer_normalized_view";
+
+    /* Columns both layouts store the same way. */
+    private static final String[] PLAIN_COLUMNS = {
+            CustomerEntry.COLUMN_NAME_FIRST,
+            CustomerEntry.COLUMN_NAME_MIDDLE,
+            CustomerEntry.COLUMN_NAME_LAST,
+            CustomerEntry.COLUMN_PHONE,
+            CustomerEntry.COLUMN_ADDRESS1,
+            CustomerEntry.COLUMN_ADDRESS2,
+            CustomerEntry.COLUMN_APT_NUM,
+            CustomerEntry.COLUMN_ACCOUNT_NUMBER,
+            CustomerEntry.COLUMN_LATITUDE,
+            CustomerEntry.COLUMN_LONGITUDE
+    };
+
+    /* Columns the normalized layout keeps in lookup tables, with their tables and id columns. */
+    private static final String[] LOOKUP_COLUMNS = {
+            CustomerEntry.COLUMN_CITY, CustomerEntry.COLUMN_STATE, CustomerEntry.COLUMN_ZIPCODE
+    };
+    private static final String[] LOOKUP_TABLES = {
+            LookupEntry.CITY_TABLE_NAME, LookupEntry.STATE_TABLE_NAME,
+            LookupEntry.ZIPCODE_TABLE_NAME
+    };
+    private static final String[] LOOKUP_ID_COLUMNS = {
+            CustomerEntry.COLUMN_CITY_ID, CustomerEntry.COLUMN_STATE_ID,
+            CustomerEntry.COLUMN_ZIPCODE_ID
+    };
+
+    /* Reads every row, including the text of the looked up columns. */
+    private static final String SQL_SCAN = "SELECT COUNT(*), " +
+            "TOTAL(LENGTH(" + CustomerEntry.COLUMN_NAME_LAST + ")), " +
+            "TOTAL(LENGTH(" + CustomerEntry.COLUMN_CITY + ")), " +
+            "TOTAL(LENGTH(" + CustomerEntry.COLUMN_STATE + ")), " +
+            "TOTAL(LENGTH(" + CustomerEntry.COLUMN_ZIPCODE + ")) FROM ";
+
+    private static final String SQL_COUNT_BY_CITY = "SELECT " + CustomerEntry.COLUMN_CITY +
+            ", COUNT(*) FROM %s GROUP BY " + CustomerEntry.COLUMN_CITY;
+
+    private final BenchmarkRunner mRunner = new BenchmarkRunner(SUITE);
+
+    private File mFlatFile;
+    private File mNormalizedFile;
+
+    private SQLiteDatabase mFlatDb;
+    private SQLiteDatabase mNormalizedDb;
+
+    @Before
+    public void setUp() throws IOException {
+        mFlatFile = File.createTempFile(SUITE + "_flat", ".db");
+        mNormalizedFile = File.createTempFile(SUITE + "_normalized", ".db");
+        mFlatFile.delete();
+        mNormalizedFile.delete();
+        mFlatDb = SQLiteDatabase.openOrCreateDatabase(mFlatFile, null);
+        mNormalizedDb = SQLiteDatabase.openOrCreateDatabase(mNormalizedFile, null);
+
+        createFlat();
+        createNormalized();
+        load();
+    }
+
+    @After
+    public void tearDown() {
+        mFlatDb.close();
+        mNormalizedDb.close();
+        mFlatFile.delete();
+        mNormalizedFile.delete();
+    }
+
+    @Test
+    public void benchmarkLookupTables() throws Exception {
+        assertEquals(scan(mFlatDb, FLAT_TABLE), scan(mNormalizedDb, NORMALIZED_VIEW));
+
+        BenchmarkResult flatScan = mRunner.run(new QueryBenchmark("scan_flat", mFlatDb,
+                SQL_SCAN + FLAT_TABLE, mFlatFile));
+        BenchmarkResult normalizedScan = mRunner.run(new QueryBenchmark("scan_normalized",
+                mNormalizedDb, SQL_SCAN + NORMALIZED_VIEW, mNormalizedFile));
+        mRunner.run(new QueryBenchmark("count_by_city_flat", mFlatDb,
+                String.format(Locale.US, SQL_COUNT_BY_CITY, FLAT_TABLE), mFlatFile));
+        mRunner.run(new QueryBenchmark("count_by_city_normalized", mNormalizedDb,
+                String.format(Locale.US, SQL_COUNT_BY_CITY, NORMALIZED_VIEW), mNormalizedFile));
+
+        System.out.println(String.format(Locale.US,
+                "%s rows=%d: flat %.1f MB, normalized %.1f MB (%.0f%% smaller);" +
+                        " full scan %.0f ms flat, %.0f ms normalized (%.0f%% faster)",
+                SUITE, ROWS, mFlatFile.length() / 1048576.0, mNormalizedFile.length() / 1048576.0,
+                100.0 * (mFlatFile.length() - mNormalizedFile.length()) / mFlatFile.length(),
+                flatScan.getMedianNanos() / 1e6, normalizedScan.getMedianNanos() / 1e6,
+                100.0 * (flatScan.getMedianNanos() - normalizedScan.getMedianNanos()) /
+                        flatScan.getMedianNanos()));
+
+        mRunner.writeResults(SUITE + ".json");
+    }
+
+    /* Runs a query over the whole table and reads its result. */
+    private static class QueryBenchmark extends Benchmark {
+
+        private final SQLiteDatabase mDb;
+        private final String mSql;
+
+        QueryBenchmark(String name, SQLiteDatabase db, String sql, File file) {
+            super(name);
+            mDb = db;
+            mSql = sql;
+            param("rows", ROWS);
+            param("file_bytes", file.length());
+            operations(ROWS);
+            iterations(1, 5);
+        }
+
+        @Override
+        protected void run() {
+            Cursor cursor = mDb.rawQuery(mSql, null);
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getLong(1);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    private void createFlat() {
+        StringBuilder columns = new StringBuilder(CustomerEntry._ID + " INTEGER PRIMARY KEY");
+        appendColumns(columns, PLAIN_COLUMNS);
+        appendColumns(columns, LOOKUP_COLUMNS);
+        mFlatDb.execSQL("CREATE TABLE " + FLAT_TABLE + " (" + columns + ")");
+        mFlatDb.execSQL("CREATE INDEX " + FLAT_TABLE + "_city_idx ON " + FLAT_TABLE +
+                " (" + CustomerEntry.COLUMN_CITY + ")");
+        mFlatDb.execSQL("CREATE INDEX " + FLAT_TABLE + "_zipcode_idx ON " + FLAT_TABLE +
+                " (" + CustomerEntry.COLUMN_ZIPCODE + ")");
+    }
+
+    private void createNormalized() {
+        StringBuilder columns = new StringBuilder(CustomerEntry._ID + " INTEGER PRIMARY KEY");
+        appendColumns(columns, PLAIN_COLUMNS);
+        appendColumns(columns, LOOKUP_ID_COLUMNS);
+        mNormalizedDb.execSQL("CREATE TABLE " + NORMALIZED_TABLE + " (" + columns + ")");
+        mNormalizedDb.execSQL("CREATE INDEX " + NORMALIZED_TABLE + "_city_idx ON " +
+                NORMALIZED_TABLE + " (" + CustomerEntry.COLUMN_CITY_ID + ")");
+        mNormalizedDb.execSQL("CREATE INDEX " + NORMALIZED_TABLE + "_zipcode_idx ON " +
+                NORMALIZED_TABLE + " (" + CustomerEntry.COLUMN_ZIPCODE_ID + ")");
+
+        StringBuilder viewColumns = new StringBuilder(CustomerEntry._ID);
+        for (String column : PLAIN_COLUMNS) {
+            viewColumns.append(", ").append(column);
+        }
+        for (int i = 0; i < LOOKUP_TABLES.length; i++) {
+            mNormalizedDb.execSQL("CREATE TABLE " + LOOKUP_TABLES[i] + " (" +
+                    LookupEntry._ID + " INTEGER PRIMARY KEY, " +
+                    LookupEntry.COLUMN_VALUE + " TEXT NOT NULL UNIQUE)");
+            viewColumns.append(", (SELECT ").append(LookupEntry.COLUMN_VALUE)
+                    .append(" FROM ").append(LOOKUP_TABLES[i])
+                    .append(" WHERE ").append(LOOKUP_TABLES[i]).append('.')
+                    .append(LookupEntry._ID).append(" = ").append(NORMALIZED_TABLE).append('.')
+                    .append(LOOKUP_ID_COLUMNS[i]).append(") AS ").append(LOOKUP_COLUMNS[i]);
+        }
+        mNormalizedDb.execSQL("CREATE VIEW " + NORMALIZED_VIEW + " AS SELECT " + viewColumns +
+                " FROM " + NORMALIZED_TABLE);
+    }
+
+    private static void appendColumns(StringBuilder columns, String[] names) {
+        for (String name : names) {
+            columns.append(", ").append(name);
+        }
+    }
+
+    /* Generates ROWS customers and inserts each into both databases, in one transaction each. */
+    private void load() {
+        SQLiteStatement flatInsert = mFlatDb.compileStatement(insertSql(FLAT_TABLE,
+                LOOKUP_COLUMNS));
+        SQLiteStatement normalizedInsert = mNormalizedDb.compileStatement(
+                insertSql(NORMALIZED_TABLE, LOOKUP_ID_COLUMNS));
+        SQLiteStatement[] lookupInserts = new SQLiteStatement[LOOKUP_TABLES.length];
+        for (int i = 0; i < lookupInserts.length; i++) {
+            lookupInserts[i] = mNormalizedDb.compileStatement("INSERT INTO " + LOOKUP_TABLES[i] +
+                    " (" + LookupEntry.COLUMN_VALUE + ") VALUES (?)");
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Long>[] lookupIds = new Map[LOOKUP_TABLES.length];
+        for (int i = 0; i < lookupIds.length; i++) {
+            lookupIds[i] = new HashMap<>();
+        }
+
+        FakeCustomerGenerator generator = new FakeCustomerGenerator(42);
+        CustomerBatch batch = FakeCustomerGenerator.newBatch(FakeCustomerGenerator.LOAD_BATCH_ROWS);
+        int[] plainIndexes = columnIndexes(batch, PLAIN_COLUMNS);
+        int[] lookupIndexes = columnIndexes(batch, LOOKUP_COLUMNS);
+
+        mFlatDb.beginTransaction();
+        mNormalizedDb.beginTransaction();
+        try {
+            for (long firstRow = 0; firstRow < ROWS; firstRow += batch.capacity()) {
+                generator.generate(batch, firstRow, (int) Math.min(batch.capacity(),
+                        ROWS - firstRow));
+                for (int row = 0; row < batch.size(); row++) {
+                    flatInsert.clearBindings();
+                    normalizedInsert.clearBindings();
+                    int index = 1;
+                    for (int column : plainIndexes) {
+                        bind(flatInsert, index, batch.get(row, column));
+                        bind(normalizedInsert, index, batch.get(row, column));
+                        index++;
+                    }
+                    for (int i = 0; i < lookupIndexes.length; i++) {
+                        String value = batch.get(row, lookupIndexes[i]);
+                        bind(flatInsert, index, value);
+                        if (value != null) {
+                            Long id = lookupIds[i].get(value);
+                            if (id == null) {
+                                lookupInserts[i].bindString(1, value);
+                                id = lookupInserts[i].executeInsert();
+                                lookupIds[i].put(value, id);
+                            }
+                            normalizedInsert.bindLong(index, id);
+                        }
+                        index++;
+                    }
+                    flatInsert.executeInsert();
+                    normalizedInsert.executeInsert();
+                }
+            }
+            mFlatDb.setTransactionSuccessful();
+            mNormalizedDb.setTransactionSuccessful();
+        } finally {
+            mFlatDb.endTransaction();
+            mNormalizedDb.endTransaction();
+            flatInsert.close();
+            normalizedInsert.close();
+            for (SQLiteStatement lookupInsert : lookupInserts) {
+                lookupInsert.close();
+            }
+        }
+    }
+
+    private static String insertSql(String table, String[] lookupColumns) {
+        StringBuilder columns = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (String column : PLAIN_COLUMNS) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+                values.append(", ");
+            }
+            columns.append(column);
+            values.append('?');
+        }
+        for (String column : lookupColumns) {
+            columns.append(", ").append(column);
+            values.append(", ?");
+        }
+        return "INSERT INTO " + table + " (" + columns + ") VALUES (" + values + ")";
+    }
+
+    private static int[] columnIndexes(CustomerBatch batch, String[] columns) {
+        int[] indexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indexes[i] = batch.getColumnIndex(columns[i]);
+        }
+        return indexes;
+    }
+
+    private static void bind(SQLiteStatement statement, int index, String value) {
+        if (value != null) statement.bindString(index, value);
+    }
+
+    /* The row count and the total length of the text columns the scan reads, as one string. */
+    private static String scan(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery(SQL_SCAN + table, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0) + "/" + cursor.getLong(1) + "/" + cursor.getLong(2) + "/" +
+                    cursor.getLong(3) + "/" + cursor.getLong(4);
+        } finally {
+            cursor.close();
+        }
+    }
+}
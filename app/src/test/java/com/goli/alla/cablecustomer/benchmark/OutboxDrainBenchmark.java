@@ -0,0 +1,134 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.OutboxEntry;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+import com.goli.alla.cablecustomer.sync.MockHeadEnd;
+import com.goli.alla.cablecustomer.sync.OutboxDrainer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmarks draining EDITS field edits, EDITS_PER_CUSTOMER per customer, to MockHeadEnd, a
+ * MockWebServer on localhost answering after LATENCY_MS and failing the third request of every
+ * drain once. Run it with
+ * <pre>
+ *     ./gradlew :app:testReleaseUnitTest -Pbenchmark
+ * </pre>
+ * which writes the results to app/build/benchmarks/OutboxDrainBenchmark.json, in nanoseconds per
+ * edit, and prints the requests sent per 1000 edits; sending each edit as it is made would take
+ * 1000.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class OutboxDrainBenchmark {
+
+    private static final String SUITE = OutboxDrainBenchmark.class.getSimpleName();
+
+    private static final int CUSTOMERS = 1000;
+    private static final int EDITS_PER_CUSTOMER = 10;
+    private static final int EDITS = CUSTOMERS * EDITS_PER_CUSTOMER;
+
+    private static final long LATENCY_MS = 50;
+
+    private final BenchmarkData mData = new BenchmarkData(42);
+
+    private final BenchmarkRunner mRunner = new BenchmarkRunner(SUITE);
+
+    private CustomerProvider mProvider;
+
+    private MockHeadEnd mHeadEnd;
+
+    private long[] mCustomerIds;
+
+    @Before
+    public void setUp() throws IOException {
+        mProvider = Robolectric.buildContentProvider(CustomerProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY)
+                .get();
+        mProvider.bulkInsert(CustomerEntry.CONTENT_URI, mData.nextCustomers(CUSTOMERS));
+        Cursor cursor = mProvider.query(CustomerEntry.CONTENT_URI,
+                new String[]{CustomerEntry._ID}, null, null, null);
+        try {
+            mCustomerIds = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                mCustomerIds[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        mHeadEnd = new MockHeadEnd();
+        mHeadEnd.setLatency(LATENCY_MS);
+        mHeadEnd.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mHeadEnd.shutdown();
+    }
+
+    @Test
+    public void benchmarkDrain() throws Exception {
+        ContentResolver contentResolver = RuntimeEnvironment.application.getContentResolver();
+        final OutboxDrainer drainer = new OutboxDrainer(contentResolver, mHeadEnd.getBaseUrl());
+        final int[] requests = new int[1];
+
+        Benchmark drain = new Benchmark("drain") {
+            private int mRequestsBefore;
+
+            @Override
+            protected void setUp() {
+                mProvider.delete(OutboxEntry.CONTENT_URI, null, null);
+                for (int round = 0; round < EDITS_PER_CUSTOMER; round++) {
+                    for (long customerId : mCustomerIds) {
+                        ContentValues values = new ContentValues();
+                        values.put(CustomerEntry.COLUMN_PHONE,
+                                mData.nextCustomer().getAsString(CustomerEntry.COLUMN_PHONE));
+                        mProvider.update(CustomerEntry.buildCustomerUri(customerId), values,
+                                null, null);
+                    }
+                }
+                mHeadEnd.failAfter(2, 1);
+                mRequestsBefore = mHeadEnd.getRequestCount();
+            }
+
+            @Override
+            protected void run() throws IOException {
+                assertEquals(EDITS, drainer.drain());
+            }
+
+            @Override
+            protected void tearDown() {
+                requests[0] += mHeadEnd.getRequestCount() - mRequestsBefore;
+            }
+        }.param("edits", EDITS)
+                .param("edits_per_customer", EDITS_PER_CUSTOMER)
+                .param("latency_ms", LATENCY_MS)
+                .operations(EDITS)
+                .iterations(1, 5);
+        mRunner.run(drain);
+
+        int drains = drain.getWarmupIterations() + drain.getIterations();
+        System.out.println(String.format(Locale.US,
+                "%s edits=%d: %.1f requests per 1000 edits, retries included",
+                SUITE, EDITS, requests[0] * 1000.0 / drains / EDITS));
+
+        mRunner.writeResults(SUITE + ".json");
+    }
+}
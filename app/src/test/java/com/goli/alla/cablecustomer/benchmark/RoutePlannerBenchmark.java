@@ -0,0 +1,162 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import com.goli.alla.cablecustomer.route.RoutePlanner;
+import com.goli.alla.cablecustomer.utilities.SplitMix64;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Benchmarks RoutePlanner on STOP_SETS synthetic days of STOPS stops each, spread over a few
+ * towns the way a tech's visits are, with the provider's default time budget: once with a
+ * single restart stream and once with one per core. Every plan must come back within
+ * MAX_PLAN_MS. Run it with
+ * <pre>
+ *     ./gradlew :app:testReleaseUnitTest -Pbenchmark
+ * </pre>
+ * which writes the results to app/build/benchmarks/RoutePlannerBenchmark.json, in nanoseconds
+ * per plan, and prints the mean route length of each against a plain nearest-neighbour route.
+ */
+public class RoutePlannerBenchmark {
+
+    private static final String SUITE = RoutePlannerBenchmark.class.getSimpleName();
+
+    private static final int STOPS = 300;
+    private static final int STOP_SETS = 8;
+
+    /* CustomerProvider's default budget for a route, and the most a plan may take. */
+    private static final long BUDGET_MS = 150;
+    private static final long MAX_PLAN_MS = 200;
+
+    /* The towns the stops are around, and how far from the center of their town they are. */
+    private static final int TOWNS = 6;
+    private static final double AREA_DEGREES = 0.3;
+    private static final double TOWN_RADIUS_DEGREES = 0.02;
+
+    private static final double KM_PER_DEGREE = 111.195;
+
+    private final BenchmarkRunner mRunner = new BenchmarkRunner(SUITE);
+
+    private final double[][] mLatitudes = new double[STOP_SETS][STOPS];
+    private final double[][] mLongitudes = new double[STOP_SETS][STOPS];
+
+    @Test
+    public void benchmarkRoutePlanner() throws Exception {
+        SplitMix64 random = new SplitMix64(42);
+        for (int set = 0; set < STOP_SETS; set++) {
+            double[] townLatitudes = new double[TOWNS];
+            double[] townLongitudes = new double[TOWNS];
+            for (int town = 0; town < TOWNS; town++) {
+                townLatitudes[town] = 40.2 + random.nextDouble() * AREA_DEGREES;
+                townLongitudes[town] = -74.8 + random.nextDouble() * AREA_DEGREES;
+            }
+            for (int stop = 0; stop < STOPS; stop++) {
+                int town = random.nextInt(TOWNS);
+                mLatitudes[set][stop] = townLatitudes[town] +
+                        (random.nextDouble() - 0.5) * 2 * TOWN_RADIUS_DEGREES;
+                mLongitudes[set][stop] = townLongitudes[town] +
+                        (random.nextDouble() - 0.5) * 2 * TOWN_RADIUS_DEGREES;
+            }
+        }
+
+        double nearestNeighbourKm = 0;
+        for (int set = 0; set < STOP_SETS; set++) {
+            nearestNeighbourKm += length(set, nearestNeighbourRoute(set)) / STOP_SETS;
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        double singleKm = plan(1);
+        double parallelKm = cores > 1 ? plan(cores) : singleKm;
+
+        System.out.println(String.format(Locale.US,
+                "%s stops=%d: mean route %.1f km with 1 thread, %.1f km with %d," +
+                        " nearest neighbour %.1f km",
+                SUITE, STOPS, singleKm, parallelKm, cores, nearestNeighbourKm));
+
+        mRunner.writeResults(SUITE + ".json");
+    }
+
+    /* Benchmarks plans with threadCount restart streams, and returns their mean length in km. */
+    private double plan(int threadCount) throws Exception {
+        final RoutePlanner planner = new RoutePlanner(threadCount);
+        final double[] totalKm = new double[1];
+        final int[] plans = new int[1];
+        final long[] maxPlanNanos = new long[1];
+
+        mRunner.run(new Benchmark("plan") {
+            @Override
+            protected void run() {
+                for (int set = 0; set < STOP_SETS; set++) {
+                    long startNanos = System.nanoTime();
+                    int[] route = planner.plan(mLatitudes[set], mLongitudes[set], false,
+                            BUDGET_MS);
+                    maxPlanNanos[0] = Math.max(maxPlanNanos[0], System.nanoTime() - startNanos);
+                    assertRoute(route);
+                    totalKm[0] += length(set, route);
+                    plans[0]++;
+                }
+            }
+        }.param("stops", STOPS)
+                .param("threads", threadCount)
+                .param("budget_ms", BUDGET_MS)
+                .operations(STOP_SETS)
+                .iterations(1, 5));
+
+        assertTrue("A plan took " + maxPlanNanos[0] / 1000000 + " ms",
+                maxPlanNanos[0] < MAX_PLAN_MS * 1000000);
+        return totalKm[0] / plans[0];
+    }
+
+    /* Every stop must be visited exactly once. */
+    private static void assertRoute(int[] route) {
+        assertEquals(STOPS, route.length);
+        boolean[] visited = new boolean[STOPS];
+        for (int stop : route) {
+            assertTrue("Stop " + stop + " visited twice", !visited[stop]);
+            visited[stop] = true;
+        }
+    }
+
+    /* Always drives to the nearest stop not visited yet, starting at stop 0. */
+    private int[] nearestNeighbourRoute(int set) {
+        int[] route = new int[STOPS];
+        boolean[] visited = new boolean[STOPS];
+        visited[0] = true;
+        for (int i = 1; i < STOPS; i++) {
+            int nearest = -1;
+            double nearestKm = Double.MAX_VALUE;
+            for (int stop = 0; stop < STOPS; stop++) {
+                if (visited[stop]) continue;
+                double km = distance(set, route[i - 1], stop);
+                if (km < nearestKm) {
+                    nearestKm = km;
+                    nearest = stop;
+                }
+            }
+            route[i] = nearest;
+            visited[nearest] = true;
+        }
+        return route;
+    }
+
+    private double length(int set, int[] route) {
+        double km = 0;
+        for (int i = 1; i < route.length; i++) {
+            km += distance(set, route[i - 1], route[i]);
+        }
+        return km;
+    }
+
+    /* Straight-line km, on the same equirectangular approximation as RoutePlanner. */
+    private double distance(int set, int from, int to) {
+        double latitude = (mLatitudes[set][from] + mLatitudes[set][to]) / 2;
+        double dy = (mLatitudes[set][to] - mLatitudes[set][from]) * KM_PER_DEGREE;
+        double dx = (mLongitudes[set][to] - mLongitudes[set][from]) * KM_PER_DEGREE *
+                Math.cos(Math.toRadians(latitude));
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,94 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import android.content.Context;
+
+import com.goli.alla.cablecustomer.data.CustomerBatch;
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+import com.goli.alla.cablecustomer.sync.MockHeadEnd;
+import com.goli.alla.cablecustomer.sync.SyncEngine;
+import com.goli.alla.cablecustomer.utilities.FakeCustomerGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Benchmarks a sync of ROWS changed customers into an empty table, from MockHeadEnd, a
+ * MockWebServer serving the change feed on localhost. Run it with
+ * <pre>
+ *     ./gradlew :app:testReleaseUnitTest -Pbenchmark
+ * </pre>
+ * which writes the results to app/build/benchmarks/SyncEngineBenchmark.json, in nanoseconds per
+ * changed row.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SyncEngineBenchmark {
+
+    private static final String SUITE = SyncEngineBenchmark.class.getSimpleName();
+
+    private static final int ROWS = 100000;
+
+    /* Where SyncEngine keeps its watermark. */
+    private static final String SYNC_PREFERENCES_NAME = "sync";
+
+    private final BenchmarkRunner mRunner = new BenchmarkRunner(SUITE);
+
+    private CustomerProvider mProvider;
+
+    private MockHeadEnd mHeadEnd;
+
+    @Before
+    public void setUp() throws IOException {
+        mProvider = Robolectric.buildContentProvider(CustomerProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY)
+                .get();
+        mHeadEnd = new MockHeadEnd();
+        mHeadEnd.start();
+
+        FakeCustomerGenerator generator = new FakeCustomerGenerator(42);
+        CustomerBatch batch = FakeCustomerGenerator.newBatch(FakeCustomerGenerator.LOAD_BATCH_ROWS);
+        for (int row = 0; row < ROWS; row += batch.capacity()) {
+            generator.generate(batch, row, Math.min(batch.capacity(), ROWS - row));
+            mHeadEnd.addChanges(batch);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mHeadEnd.shutdown();
+    }
+
+    @Test
+    public void benchmarkSync() throws Exception {
+        final Context context = RuntimeEnvironment.application;
+        final SyncEngine syncEngine = new SyncEngine(context, mHeadEnd.getBaseUrl());
+
+        mRunner.run(new Benchmark("sync") {
+            @Override
+            protected void setUp() {
+                BenchmarkData.deleteAll(mProvider);
+                /* Forget the watermark, so the whole feed is pulled again. */
+                context.getSharedPreferences(SYNC_PREFERENCES_NAME, Context.MODE_PRIVATE)
+                        .edit().clear().commit();
+            }
+
+            @Override
+            protected void run() throws IOException {
+                assertEquals(ROWS, syncEngine.sync());
+            }
+        }.param("rows", ROWS)
+                .operations(ROWS)
+                .iterations(1, 3));
+
+        mRunner.writeResults(SUITE + ".json");
+    }
+}
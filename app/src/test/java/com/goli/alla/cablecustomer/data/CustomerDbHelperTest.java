@@ -0,0 +1,149 @@
+package com.goli.alla.cablecustomer.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.goli.alla.cablecustomer.MainActivity;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.LookupEntry;
+import com.goli.alla.cablecustomer.utilities.FakeCustomerGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the list and the techs' lookups are answered from the indexes of the customer
+ * table, on a table big enough for SQLite to tell a scan from a search: EXPLAIN QUERY PLAN must
+ * name the index, and no query may sort its rows in a temporary B-tree.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CustomerDbHelperTest {
+
+    private static final int ROWS = 100000;
+
+    /* The columns and the page size CustomerPageSource queries the list with. */
+    private static final String LIST_COLUMNS = join(MainActivity.MAIN_CUSTOMER_PROJECTION);
+    private static final int PAGE_SIZE = 100;
+
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        Robolectric.buildContentProvider(CustomerProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY);
+        long loaded = new FakeCustomerGenerator(42)
+                .load(RuntimeEnvironment.application.getContentResolver(), 0, ROWS);
+        assertEquals(ROWS, loaded);
+        mDb = new CustomerDbHelper(RuntimeEnvironment.application).getReadableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void firstPage_scansTimestampIndexInOrder() {
+        assertPlanUses(CustomerEntry.INDEX_TIMESTAMP,
+                "SELECT " + LIST_COLUMNS + " FROM " + CustomerEntry.VIEW_NAME +
+                        " ORDER BY " + CustomerEntry.PAGE_SORT_ORDER + " LIMIT " + PAGE_SIZE);
+    }
+
+    @Test
+    public void nextPage_scansTimestampIndexInOrder() {
+        assertPlanUses(CustomerEntry.INDEX_TIMESTAMP,
+                "SELECT " + LIST_COLUMNS + " FROM " + CustomerEntry.VIEW_NAME +
+                        " WHERE (" + CustomerEntry.COLUMN_TIMESTAMP + " < ? OR (" +
+                        CustomerEntry.COLUMN_TIMESTAMP + " = ? AND " + CustomerEntry._ID +
+                        " < ?) OR " + CustomerEntry.COLUMN_TIMESTAMP + " IS NULL)" +
+                        " ORDER BY " + CustomerEntry.PAGE_SORT_ORDER + " LIMIT " + PAGE_SIZE,
+                "2017-12-28 10:00:00", "2017-12-28 10:00:00", "50000");
+    }
+
+    @Test
+    public void pageWithoutTimestamps_searchesTimestampIndex() {
+        assertPlanUses(CustomerEntry.INDEX_TIMESTAMP,
+                "SELECT " + LIST_COLUMNS + " FROM " + CustomerEntry.VIEW_NAME +
+                        " WHERE (" + CustomerEntry.COLUMN_TIMESTAMP + " IS NULL AND " +
+                        CustomerEntry._ID + " < ?)" +
+                        " ORDER BY " + CustomerEntry.PAGE_SORT_ORDER + " LIMIT " + PAGE_SIZE,
+                "50000");
+    }
+
+    @Test
+    public void lastName_searchesNameIndex() {
+        assertPlanUses(CustomerEntry.INDEX_NAME,
+                "SELECT " + LIST_COLUMNS + " FROM " + CustomerEntry.VIEW_NAME +
+                        " WHERE " + CustomerEntry.COLUMN_NAME_LAST + " = ?" +
+                        " ORDER BY " + CustomerEntry.COLUMN_NAME_LAST + ", " +
+                        CustomerEntry.COLUMN_NAME_FIRST,
+                "Reddy");
+    }
+
+    @Test
+    public void phone_searchesPhoneIndex() {
+        assertPlanUses(CustomerEntry.INDEX_PHONE,
+                "SELECT " + LIST_COLUMNS + " FROM " + CustomerEntry.VIEW_NAME +
+                        " WHERE " + CustomerEntry.COLUMN_PHONE + " = ?",
+                "9876543210");
+    }
+
+    /*
+     * The view has the city and zipcode as text, looked up per row, so these filters go on the
+     * ids of the customer table, like the dashboards' counts do.
+     */
+    @Test
+    public void city_searchesCityIndex() {
+        assertPlanUses(CustomerEntry.INDEX_CITY,
+                lookupFilter(LookupEntry.CITY_TABLE_NAME, CustomerEntry.COLUMN_CITY_ID),
+                "Hyderabad");
+    }
+
+    @Test
+    public void zipcode_searchesZipcodeIndex() {
+        assertPlanUses(CustomerEntry.INDEX_ZIPCODE,
+                lookupFilter(LookupEntry.ZIPCODE_TABLE_NAME, CustomerEntry.COLUMN_ZIPCODE_ID),
+                "500001");
+    }
+
+    private static String lookupFilter(String lookupTable, String idColumn) {
+        return "SELECT " + CustomerEntry._ID + " FROM " + CustomerEntry.TABLE_NAME +
+                " WHERE " + idColumn + " = (SELECT " + LookupEntry._ID + " FROM " + lookupTable +
+                " WHERE " + LookupEntry.COLUMN_VALUE + " = ?) AND " +
+                CustomerDbHelper.SELECTION_LIVE;
+    }
+
+    private void assertPlanUses(String index, String sql, String... args) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        /* "USING INDEX x" or "USING COVERING INDEX x", depending on the columns selected. */
+        assertTrue(plan.toString(), plan.toString().contains("INDEX " + index));
+        assertFalse(plan.toString(), plan.toString().contains("TEMP B-TREE"));
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder joined = new StringBuilder();
+        for (String column : columns) {
+            if (joined.length() > 0) joined.append(", ");
+            joined.append(column);
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,131 @@
+package com.goli.alla.cablecustomer.importer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CsvReaderTest {
+
+    @Test
+    public void plainFields_areSplitOnCommas() throws IOException {
+        CsvReader reader = reader("Smith,John,Springfield\n");
+        String[] fields = new String[3];
+
+        assertEquals(3, reader.readRecord(fields));
+        assertArrayEquals(new String[]{"Smith", "John", "Springfield"}, fields);
+        assertEquals(-1, reader.readRecord(fields));
+    }
+
+    @Test
+    public void quotedFields_keepCommasAndLineBreaks() throws IOException {
+        CsvReader reader = reader("\"12 Main St, Apt 4\",\"line one\nline two\"\n");
+        String[] fields = new String[2];
+
+        assertEquals(2, reader.readRecord(fields));
+        assertArrayEquals(new String[]{"12 Main St, Apt 4", "line one\nline two"}, fields);
+    }
+
+    @Test
+    public void doubledQuotes_standForOneQuote() throws IOException {
+        CsvReader reader = reader("\"The \"\"Big\"\" House\",\"\"\"\"\n");
+        String[] fields = new String[2];
+
+        assertEquals(2, reader.readRecord(fields));
+        assertArrayEquals(new String[]{"The \"Big\" House", "\""}, fields);
+    }
+
+    @Test
+    public void emptyFields_areNullUnlessQuoted() throws IOException {
+        CsvReader reader = reader("a,,\"\",\n");
+        String[] fields = new String[4];
+
+        assertEquals(4, reader.readRecord(fields));
+        assertArrayEquals(new String[]{"a", null, "", null}, fields);
+    }
+
+    @Test
+    public void crlfAndLf_bothEndARecord() throws IOException {
+        CsvReader reader = reader("a,b\r\nc,d\ne,f\r\n");
+        String[] fields = new String[2];
+
+        assertEquals(2, reader.readRecord(fields));
+        assertArrayEquals(new String[]{"a", "b"}, fields);
+        assertEquals(2, reader.readRecord(fields));
+        assertArrayEquals(new String[]{"c", "d"}, fields);
+        assertEquals(2, reader.readRecord(fields));
+        assertArrayEquals(new String[]{"e", "f"}, fields);
+        assertEquals(-1, reader.readRecord(fields));
+    }
+
+    @Test
+    public void lastRecord_needsNoLineEnd() throws IOException {
+        CsvReader reader = reader("a,b\r\nc,\"d\"");
+        String[] fields = new String[2];
+
+        reader.readRecord(fields);
+        assertEquals(2, reader.readRecord(fields));
+        assertArrayEquals(new String[]{"c", "d"}, fields);
+        assertEquals(-1, reader.readRecord(fields));
+    }
+
+    @Test
+    public void blankLine_isOneNullField() throws IOException {
+        CsvReader reader = reader("a,b\n\r\nc,d\n");
+        String[] fields = new String[2];
+
+        reader.readRecord(fields);
+        assertEquals(1, reader.readRecord(fields));
+        assertArrayEquals(new String[]{null, null}, fields);
+        assertEquals(2, reader.readRecord(fields));
+        assertArrayEquals(new String[]{"c", "d"}, fields);
+    }
+
+    @Test
+    public void fieldCount_isReportedWhateverTheArraySize() throws IOException {
+        CsvReader reader = reader("a,b,c\nd\n");
+        String[] fields = new String[2];
+
+        assertEquals(3, reader.readRecord(fields));
+        assertArrayEquals(new String[]{"a", "b"}, fields);
+        assertEquals(1, reader.readRecord(fields));
+        assertArrayEquals(new String[]{"d", null}, fields);
+    }
+
+    @Test
+    public void skipRecord_skipsQuotedLineBreaks() throws IOException {
+        CsvReader reader = reader("\"a\nb\",c\r\nd,e\n");
+        String[] fields = new String[2];
+
+        assertTrue(reader.skipRecord());
+        assertEquals(2, reader.readRecord(fields));
+        assertArrayEquals(new String[]{"d", "e"}, fields);
+        assertFalse(reader.skipRecord());
+    }
+
+    @Test
+    public void longInput_spansManyBuffers() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            csv.append(i).append(",\"name ").append(i).append("\"\r\n");
+        }
+        CsvReader reader = reader(csv.toString());
+        String[] fields = new String[2];
+
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(2, reader.readRecord(fields));
+            assertEquals(String.valueOf(i), fields[0]);
+            assertEquals("name " + i, fields[1]);
+        }
+        assertEquals(-1, reader.readRecord(fields));
+    }
+
+    private static CsvReader reader(String csv) {
+        return new CsvReader(new StringReader(csv));
+    }
+}
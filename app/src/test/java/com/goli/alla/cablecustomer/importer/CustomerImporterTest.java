@@ -0,0 +1,199 @@
+package com.goli.alla.cablecustomer.importer;
+
+import android.database.Cursor;
+
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Imports small generated CSV inputs through CustomerProvider, including one that breaks off
+ * half way like an import killed with its process.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class CustomerImporterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String HEADER = CustomerEntry.COLUMN_ACCOUNT_NUMBER + "," +
+            CustomerEntry.COLUMN_NAME_FIRST + "," + CustomerEntry.COLUMN_NAME_LAST + "," +
+            CustomerEntry.COLUMN_ADDRESS1 + "," + CustomerEntry.COLUMN_CITY + ",notes\r\n";
+
+    private CustomerProvider mProvider;
+
+    private CustomerImporter mImporter;
+
+    private long mLastProgress;
+
+    private final CustomerImporter.ProgressListener mListener =
+            new CustomerImporter.ProgressListener() {
+                @Override
+                public void onProgress(long recordsCommitted) {
+                    mLastProgress = recordsCommitted;
+                }
+            };
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.buildContentProvider(CustomerProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY)
+                .get();
+        mImporter = new CustomerImporter(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void importCsv_mapsQuotedFieldsOntoColumns() throws IOException {
+        String csv = HEADER +
+                "A-1,John,\"O\"\"Brien\",\"12 Main St, Apt 4\",Springfield," +
+                "\"says \"\"hi\"\"\"\r\n" +
+                "A-2,Jane,Doe,,Shelbyville,\n";
+
+        assertEquals(2, mImporter.importCsv(stream(csv), "quoted", mListener));
+
+        assertEquals(2, countCustomers());
+        assertCustomer("A-1", "John", "O\"Brien", "12 Main St, Apt 4", "Springfield");
+        assertCustomer("A-2", "Jane", "Doe", null, "Shelbyville");
+        assertEquals(2, mLastProgress);
+    }
+
+    @Test
+    public void importCsv_skipsBlankAndUnmappedRecords() throws IOException {
+        String csv = HEADER +
+                "A-1,John,Smith,1 Elm St,Springfield,\r\n" +
+                "\r\n" +
+                ",,,,,only notes\r\n" +
+                "\n" +
+                "A-2,Jane,Doe,2 Oak St,Shelbyville,\r\n";
+
+        assertEquals(2, mImporter.importCsv(stream(csv), "blank", mListener));
+
+        assertEquals(2, countCustomers());
+        /* The skipped records still count as read, so a resumed import skips them too. */
+        assertEquals(5, mLastProgress);
+    }
+
+    @Test
+    public void importCsv_afterBreakingOff_resumesFromTheCheckpoint() throws IOException {
+        int records = CustomerImporter.CHUNK_SIZE * 3 + 500;
+        byte[] csv = generateCsv(records);
+
+        try {
+            mImporter.importCsv(new BreakingInputStream(csv, csv.length * 2 / 3), "resumed",
+                    mListener);
+            fail("The input broke off, so should the import");
+        } catch (IOException expected) {
+        }
+        long committed = mLastProgress;
+        assertTrue("Committed " + committed, committed > 0 && committed < records);
+        assertEquals(0, committed % CustomerImporter.CHUNK_SIZE);
+        assertEquals(committed, countCustomers());
+
+        assertEquals(records - committed,
+                mImporter.importCsv(new ByteArrayInputStream(csv), "resumed", mListener));
+
+        assertEquals(records, countCustomers());
+        assertEquals(records, mLastProgress);
+        assertCustomer(accountNumber(0), "First0", "Last0", "0 Main St", "City0");
+        assertCustomer(accountNumber(records - 1), "First" + (records - 1),
+                "Last" + (records - 1), (records - 1) + " Main St", "City" + (records - 1) % 50);
+    }
+
+    @Test
+    public void importCsv_completedImport_importsNothingAgain() throws IOException {
+        byte[] csv = generateCsv(100);
+        assertEquals(100, mImporter.importCsv(new ByteArrayInputStream(csv), "done", null));
+
+        assertEquals(0, mImporter.importCsv(new ByteArrayInputStream(csv), "done", null));
+
+        assertEquals(100, countCustomers());
+    }
+
+    private static byte[] generateCsv(int records) {
+        StringBuilder csv = new StringBuilder(HEADER);
+        for (int i = 0; i < records; i++) {
+            csv.append(String.format(Locale.US, "%s,First%d,Last%d,\"%d Main St\",City%d,\r\n",
+                    accountNumber(i), i, i, i, i % 50));
+        }
+        return csv.toString().getBytes(UTF_8);
+    }
+
+    private static String accountNumber(int record) {
+        return String.format(Locale.US, "A-%06d", record);
+    }
+
+    private static InputStream stream(String csv) {
+        return new ByteArrayInputStream(csv.getBytes(UTF_8));
+    }
+
+    private void assertCustomer(String accountNumber, String firstName, String lastName,
+                                String address1, String city) {
+        Cursor cursor = mProvider.query(CustomerEntry.CONTENT_URI,
+                new String[]{CustomerEntry.COLUMN_NAME_FIRST, CustomerEntry.COLUMN_NAME_LAST,
+                        CustomerEntry.COLUMN_ADDRESS1, CustomerEntry.COLUMN_CITY},
+                CustomerEntry.COLUMN_ACCOUNT_NUMBER + " = ?", new String[]{accountNumber},
+                null);
+        try {
+            assertEquals(accountNumber, 1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(firstName, cursor.getString(0));
+            assertEquals(lastName, cursor.getString(1));
+            assertEquals(address1, cursor.getString(2));
+            assertEquals(city, cursor.getString(3));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long countCustomers() {
+        Cursor cursor = mProvider.query(CustomerEntry.CONTENT_URI,
+                new String[]{CustomerEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /* Serves the first bytes of an input, then fails like a process being killed would. */
+    private static class BreakingInputStream extends FilterInputStream {
+        private int mRemaining;
+
+        BreakingInputStream(byte[] input, int breakAfter) {
+            super(new ByteArrayInputStream(input));
+            mRemaining = breakAfter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mRemaining == 0) throw new IOException("Broken off");
+            mRemaining--;
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (mRemaining == 0) throw new IOException("Broken off");
+            int read = super.read(buffer, offset, Math.min(length, mRemaining));
+            if (read > 0) mRemaining -= read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.goli.alla.cablecustomer.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the percentiles LatencyHistogram reads back against the exact ones. Release builds
+ * don't give histograms any buckets, so these only run on debug builds.
+ */
+public class LatencyHistogramTest {
+
+    private LatencyHistogram mHistogram;
+
+    @Before
+    public void setUp() {
+        assumeTrue(Metrics.ENABLED);
+        mHistogram = new LatencyHistogram("test");
+    }
+
+    @Test
+    public void empty_readsZero() {
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getMeanNanos());
+        assertEquals(0, mHistogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void smallValues_areExact() {
+        for (long nanos = 1; nanos <= 100; nanos++) {
+            mHistogram.record(nanos);
+        }
+
+        assertEquals(100, mHistogram.getCount());
+        assertEquals(50, mHistogram.getMeanNanos());
+        assertEquals(100, mHistogram.getMaxNanos());
+        assertEquals(50, mHistogram.getValueAtPercentile(50));
+        assertEquals(99, mHistogram.getValueAtPercentile(99));
+        assertEquals(100, mHistogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void largeValues_areWithinTheBucketResolution() {
+        /* 1 us to 10 ms, 10000 values. */
+        for (long micros = 1; micros <= 10000; micros++) {
+            mHistogram.record(micros * 1000);
+        }
+
+        assertWithinResolution(5000 * 1000, mHistogram.getValueAtPercentile(50));
+        assertWithinResolution(9000 * 1000, mHistogram.getValueAtPercentile(90));
+        assertWithinResolution(9900 * 1000, mHistogram.getValueAtPercentile(99));
+        assertEquals(10000 * 1000, mHistogram.getValueAtPercentile(100));
+        assertEquals(10000 * 1000, mHistogram.getMaxNanos());
+    }
+
+    @Test
+    public void outOfRangeValues_areClamped() {
+        mHistogram.record(-5);
+        assertEquals(0, mHistogram.getValueAtPercentile(100));
+
+        mHistogram.record(Long.MAX_VALUE);
+        assertEquals(2, mHistogram.getCount());
+        assertEquals((1L << 36) - 1, mHistogram.getMaxNanos());
+        assertEquals((1L << 36) - 1, mHistogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void reset_forgetsEverything() {
+        mHistogram.record(1000);
+        mHistogram.record(2000000);
+
+        mHistogram.reset();
+
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getMaxNanos());
+        assertEquals(0, mHistogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void concurrentRecords_areAllCounted() throws InterruptedException {
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (long nanos = 0; nanos < 100000; nanos++) {
+                        mHistogram.record(nanos);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(400000, mHistogram.getCount());
+        assertEquals(99999, mHistogram.getMaxNanos());
+    }
+
+    /* A percentile is read back as the top of its bucket: at most 1/64 above the real value. */
+    private static void assertWithinResolution(long expected, long actual) {
+        assertTrue(actual + " for " + expected, actual >= expected);
+        assertTrue(actual + " for " + expected, actual <= expected + expected / 64);
+    }
+}
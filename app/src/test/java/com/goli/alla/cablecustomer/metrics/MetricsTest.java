@@ -0,0 +1,84 @@
+package com.goli.alla.cablecustomer.metrics;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the registry and its dump. The registry is shared by the whole process, so every test
+ * registers metrics under names of its own.
+ */
+public class MetricsTest {
+
+    @Test
+    public void counter_countsAndResets() {
+        Counter counter = Metrics.counter("test.counter_counts");
+        counter.increment();
+        counter.add(41);
+        assertEquals(42, counter.get());
+
+        counter.reset();
+        assertEquals(0, counter.get());
+    }
+
+    @Test
+    public void sameName_returnsSameMetric() {
+        assertSame(Metrics.counter("test.same_counter"), Metrics.counter("test.same_counter"));
+        assertSame(Metrics.histogram("test.same_histogram"),
+                Metrics.histogram("test.same_histogram"));
+    }
+
+    @Test
+    public void dump_printsEveryMetric() {
+        assumeTrue(Metrics.ENABLED);
+        Metrics.counter("test.dump_counter").add(7);
+        Metrics.histogram("test.dump_histogram").record(3000);
+        Metrics.gauge("test.dump_gauge", new Gauge() {
+            @Override
+            public long getValue() {
+                return 12;
+            }
+        });
+
+        String dump = dump(false);
+
+        assertTrue(dump, dump.contains("test.dump_counter: 7"));
+        assertTrue(dump, dump.contains("test.dump_gauge: 12"));
+        assertTrue(dump, dump.contains("test.dump_histogram: count=1 mean=3.0"));
+    }
+
+    @Test
+    public void dump_withReset_startsCountingAfresh() {
+        assumeTrue(Metrics.ENABLED);
+        Counter counter = Metrics.counter("test.reset_counter");
+        LatencyHistogram histogram = Metrics.histogram("test.reset_histogram");
+        counter.add(3);
+        histogram.record(1000);
+
+        dump(true);
+
+        assertEquals(0, counter.get());
+        assertEquals(0, histogram.getCount());
+        assertTrue(dump(false).contains("test.reset_counter: 0"));
+    }
+
+    @Test
+    public void dump_disabled_saysSo() {
+        assumeTrue(!Metrics.ENABLED);
+        assertEquals("Metrics: not collected in this build", dump(false).trim());
+    }
+
+    private static String dump(boolean reset) {
+        StringWriter dump = new StringWriter();
+        PrintWriter writer = new PrintWriter(dump);
+        Metrics.dump(writer, reset);
+        writer.flush();
+        return dump.toString();
+    }
+}
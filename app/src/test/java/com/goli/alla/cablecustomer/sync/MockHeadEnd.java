@@ -0,0 +1,223 @@
+package com.goli.alla.cablecustomer.sync;
+
+import com.goli.alla.cablecustomer.data.CustomerBatch;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An in-process stand-in for the head-end, on a MockWebServer. It serves the change feed
+ * SyncEngine pulls from, out of a list of changes the test adds to. Its watermark is simply the
+ * index of the next change in that list. It also takes the edits OutboxDrainer posts, and keeps
+ * the changes they carry.
+ * <p>
+ * Every response can be held back, like a slow network would, and requests can be failed on
+ * demand.
+ */
+public class MockHeadEnd {
+
+    private static final String BASE_PATH = "/headend";
+    private static final String CHANGES_PATH = BASE_PATH + "/subscribers/changes";
+    private static final String EDITS_PATH = BASE_PATH + "/subscribers/edits";
+
+    private final MockWebServer mServer = new MockWebServer();
+
+    /* Every change ever made, oldest first, as a JSON object. */
+    private final List<String> mChanges = Collections.synchronizedList(new ArrayList<String>());
+
+    /* The "since" parameter of every change feed request, null when there was none. */
+    private final List<String> mSinceParameters =
+            Collections.synchronizedList(new ArrayList<String>());
+
+    /* Every change posted to the edits path and accepted, in the order received. */
+    private final List<JSONObject> mReceivedEdits =
+            Collections.synchronizedList(new ArrayList<JSONObject>());
+
+    private volatile long mLatencyMillis;
+
+    /* Number of upcoming requests to serve before failing, how many to fail then, and how. */
+    private int mRequestsBeforeFailure;
+    private int mFailures;
+    private int mFailureCode;
+
+    public void start() throws IOException {
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return MockHeadEnd.this.dispatch(request);
+            }
+        });
+        mServer.start();
+    }
+
+    public void shutdown() throws IOException {
+        mServer.shutdown();
+    }
+
+    /**
+     * @return The URL to give SyncEngine
+     */
+    public String getBaseUrl() {
+        return mServer.url(BASE_PATH).toString();
+    }
+
+    /**
+     * Adds the rows of a batch to the change feed, in order.
+     */
+    public void addChanges(CustomerBatch batch) {
+        String[] columns = batch.getColumns();
+        for (int row = 0; row < batch.size(); row++) {
+            StringBuilder change = new StringBuilder("{");
+            for (int column = 0; column < columns.length; column++) {
+                String value = batch.get(row, column);
+                if (value == null) continue;
+                if (change.length() > 1) change.append(',');
+                appendString(change, columns[column]);
+                change.append(':');
+                appendString(change, value);
+            }
+            mChanges.add(change.append('}').toString());
+        }
+    }
+
+    /**
+     * Serves the next requests as usual, and then answers some with HTTP 500.
+     *
+     * @param requests The number of requests to serve first
+     * @param failures The number of requests to fail after them
+     */
+    public void failAfter(int requests, int failures) {
+        failAfter(requests, failures, 500);
+    }
+
+    /**
+     * Serves the next requests as usual, and then answers some with an HTTP error.
+     *
+     * @param requests     The number of requests to serve first
+     * @param failures     The number of requests to fail after them
+     * @param responseCode The HTTP status to fail them with
+     */
+    public synchronized void failAfter(int requests, int failures, int responseCode) {
+        mRequestsBeforeFailure = requests;
+        mFailures = failures;
+        mFailureCode = responseCode;
+    }
+
+    /**
+     * Holds back the headers of every response for a while.
+     */
+    public void setLatency(long millis) {
+        mLatencyMillis = millis;
+    }
+
+    public List<String> getSinceParameters() {
+        return mSinceParameters;
+    }
+
+    /**
+     * @return The changes posted by OutboxDrainer and accepted, oldest first
+     */
+    public List<JSONObject> getReceivedEdits() {
+        return mReceivedEdits;
+    }
+
+    public int getRequestCount() {
+        return mServer.getRequestCount();
+    }
+
+    private MockResponse dispatch(RecordedRequest request) {
+        return respond(request).setHeadersDelay(mLatencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private MockResponse respond(RecordedRequest request) {
+        synchronized (this) {
+            if (mRequestsBeforeFailure > 0) {
+                mRequestsBeforeFailure--;
+            } else if (mFailures > 0) {
+                mFailures--;
+                return new MockResponse().setResponseCode(mFailureCode);
+            }
+        }
+        HttpUrl url = request.getRequestUrl();
+        if (url.encodedPath().equals(CHANGES_PATH)) {
+            return serveChanges(url);
+        }
+        if (url.encodedPath().equals(EDITS_PATH) && "POST".equals(request.getMethod())) {
+            return acceptEdits(request);
+        }
+        return new MockResponse().setResponseCode(404);
+    }
+
+    private MockResponse serveChanges(HttpUrl url) {
+        String since = url.queryParameter("since");
+        mSinceParameters.add(since);
+        int first = since == null ? 0 : Integer.parseInt(since);
+        int limit = Integer.parseInt(url.queryParameter("limit"));
+
+        StringBuilder body = new StringBuilder("[");
+        int end;
+        synchronized (mChanges) {
+            end = Math.min(mChanges.size(), first + limit);
+            for (int i = first; i < end; i++) {
+                if (i > first) body.append(',');
+                body.append(mChanges.get(i));
+            }
+        }
+        body.append(']');
+        return new MockResponse()
+                .addHeader("Content-Type", "application/json")
+                .addHeader(ChangeFetcher.HEADER_WATERMARK, String.valueOf(end))
+                .addHeader(ChangeFetcher.HEADER_MORE_CHANGES, end < mChanges.size())
+                .setBody(body.toString());
+    }
+
+    private MockResponse acceptEdits(RecordedRequest request) {
+        try {
+            InputStream in = request.getBody().inputStream();
+            if ("gzip".equals(request.getHeader("Content-Encoding"))) {
+                in = new GZIPInputStream(in);
+            }
+            Reader reader = new InputStreamReader(in, "UTF-8");
+            StringBuilder json = new StringBuilder();
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                json.append(buffer, 0, read);
+            }
+            JSONArray edits = new JSONArray(json.toString());
+            for (int i = 0; i < edits.length(); i++) {
+                mReceivedEdits.add(edits.getJSONObject(i));
+            }
+        } catch (IOException | JSONException e) {
+            return new MockResponse().setResponseCode(400);
+        }
+        return new MockResponse().setResponseCode(204);
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') json.append('\\');
+            json.append(c);
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,183 @@
+package com.goli.alla.cablecustomer.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerContract.OutboxEntry;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+import com.goli.alla.cablecustomer.utilities.FakeCustomerGenerator;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Drains edits made through CustomerProvider to MockHeadEnd, a MockWebServer taking them like
+ * the head-end would, slowly or failing when asked to.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class OutboxDrainerTest {
+
+    private static final int CUSTOMERS = 250;
+
+    private CustomerProvider mProvider;
+
+    private MockHeadEnd mHeadEnd;
+
+    private OutboxDrainer mDrainer;
+
+    private final List<Long> mCustomerIds = new ArrayList<>();
+
+    /* The phone number each customer was last given. */
+    private final Map<Long, String> mPhones = new HashMap<>();
+
+    @Before
+    public void setUp() throws IOException {
+        mProvider = Robolectric.buildContentProvider(CustomerProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY)
+                .get();
+        ContentResolver contentResolver = RuntimeEnvironment.application.getContentResolver();
+        new FakeCustomerGenerator(42).load(contentResolver, 0, CUSTOMERS);
+        Cursor cursor = mProvider.query(CustomerEntry.CONTENT_URI,
+                new String[]{CustomerEntry._ID}, null, null, CustomerEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                mCustomerIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        /* Start from an empty outbox, whatever loading the customers left in it. */
+        mProvider.delete(OutboxEntry.CONTENT_URI, null, null);
+
+        mHeadEnd = new MockHeadEnd();
+        mHeadEnd.start();
+        mDrainer = new OutboxDrainer(contentResolver, mHeadEnd.getBaseUrl());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mHeadEnd.shutdown();
+    }
+
+    @Test
+    public void drain_foldsTheEditsOfACustomerIntoOneChange() throws Exception {
+        editPhones(100, 10);
+
+        assertEquals(1000, mDrainer.drain());
+
+        /* 1000 edits, one request: the naive design would have sent 1000. */
+        assertEquals(1, mHeadEnd.getRequestCount());
+        assertEquals(100, mHeadEnd.getReceivedEdits().size());
+        assertLatestPhones();
+        assertEquals(0, countOutbox());
+    }
+
+    @Test
+    public void drain_manyEdits_sendsThemInRequestsOfMaxEdits() throws Exception {
+        editPhones(CUSTOMERS, 10);
+
+        assertEquals(2500, mDrainer.drain());
+
+        assertEquals(3, mHeadEnd.getRequestCount());
+        assertLatestPhones();
+        assertEquals(0, countOutbox());
+    }
+
+    @Test
+    public void drain_slowFailingServer_retriesUntilAccepted() throws Exception {
+        editPhones(100, 10);
+        mHeadEnd.setLatency(100);
+        mHeadEnd.failAfter(0, OutboxDrainer.MAX_ATTEMPTS - 1);
+
+        assertEquals(1000, mDrainer.drain());
+
+        assertEquals(OutboxDrainer.MAX_ATTEMPTS, mHeadEnd.getRequestCount());
+        assertEquals(100, mHeadEnd.getReceivedEdits().size());
+        assertEquals(0, countOutbox());
+    }
+
+    @Test
+    public void drain_everyAttemptFails_keepsTheEdits() throws Exception {
+        editPhones(100, 10);
+        mHeadEnd.failAfter(0, OutboxDrainer.MAX_ATTEMPTS);
+
+        try {
+            mDrainer.drain();
+            fail("Every attempt failed, so should the drain");
+        } catch (IOException expected) {
+        }
+
+        assertEquals(OutboxDrainer.MAX_ATTEMPTS, mHeadEnd.getRequestCount());
+        assertEquals(1000, countOutbox());
+    }
+
+    @Test
+    public void drain_rejectedRequest_dropsItsEditsAndSendsTheRest() throws Exception {
+        editPhones(CUSTOMERS, 10);
+        mHeadEnd.failAfter(0, 1, 400);
+
+        /* The first 1000 edits are refused for good, and must not hold up the other 1500. */
+        assertEquals(1500, mDrainer.drain());
+
+        assertEquals(3, mHeadEnd.getRequestCount());
+        /* The edits dropped were all overridden by later ones, so nothing got lost here. */
+        assertLatestPhones();
+        assertEquals(0, countOutbox());
+    }
+
+    /* Gives each of the first customerCount customers a new phone number, rounds times over. */
+    private void editPhones(int customerCount, int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < customerCount; i++) {
+                long customerId = mCustomerIds.get(i);
+                String phone = String.format(Locale.US, "555-%03d-%04d", round, i);
+                ContentValues values = new ContentValues();
+                values.put(CustomerEntry.COLUMN_PHONE, phone);
+                Uri uri = CustomerEntry.buildCustomerUri(customerId);
+                assertEquals(1, mProvider.update(uri, values, null, null));
+                mPhones.put(customerId, phone);
+            }
+        }
+    }
+
+    /* The head-end must have ended up with the last phone number of every customer edited. */
+    private void assertLatestPhones() throws JSONException {
+        Map<Long, String> received = new HashMap<>();
+        for (JSONObject change : mHeadEnd.getReceivedEdits()) {
+            received.put(change.getLong(CustomerEntry._ID),
+                    change.getString(CustomerEntry.COLUMN_PHONE));
+        }
+        assertEquals(mPhones, received);
+    }
+
+    private int countOutbox() {
+        Cursor cursor = mProvider.query(OutboxEntry.CONTENT_URI,
+                new String[]{OutboxEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.goli.alla.cablecustomer.sync;
+
+import android.database.Cursor;
+
+import com.goli.alla.cablecustomer.data.CustomerBatch;
+import com.goli.alla.cablecustomer.data.CustomerContract;
+import com.goli.alla.cablecustomer.data.CustomerContract.CustomerEntry;
+import com.goli.alla.cablecustomer.data.CustomerProvider;
+import com.goli.alla.cablecustomer.utilities.FakeCustomerGenerator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Syncs against MockHeadEnd, a MockWebServer serving the change feed from generated customers.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SyncEngineTest {
+
+    private CustomerProvider mProvider;
+
+    private MockHeadEnd mHeadEnd;
+
+    private SyncEngine mSyncEngine;
+
+    @Before
+    public void setUp() throws IOException {
+        mProvider = Robolectric.buildContentProvider(CustomerProvider.class)
+                .create(CustomerContract.CONTENT_AUTHORITY)
+                .get();
+        mHeadEnd = new MockHeadEnd();
+        mHeadEnd.start();
+        mSyncEngine = new SyncEngine(RuntimeEnvironment.application, mHeadEnd.getBaseUrl());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mHeadEnd.shutdown();
+    }
+
+    @Test
+    public void sync_insertsEveryPage() throws IOException {
+        addChanges(new FakeCustomerGenerator(42), 0, 12000);
+
+        assertEquals(12000, mSyncEngine.sync());
+        assertEquals(12000, countCustomers());
+        assertEquals(Arrays.asList(null, "5000", "10000"), mHeadEnd.getSinceParameters());
+    }
+
+    @Test
+    public void sync_startsFromTheWatermark() throws IOException {
+        addChanges(new FakeCustomerGenerator(42), 0, 6000);
+        assertEquals(6000, mSyncEngine.sync());
+
+        /* The same account numbers with other details: updates of the first 2000 customers. */
+        addChanges(new FakeCustomerGenerator(43), 0, 2000);
+        assertEquals(2000, mSyncEngine.sync());
+
+        assertEquals(6000, countCustomers());
+        assertEquals("6000", mHeadEnd.getSinceParameters().get(2));
+    }
+
+    @Test
+    public void sync_nothingChanged_writesNothing() throws IOException {
+        addChanges(new FakeCustomerGenerator(42), 0, 3000);
+        assertEquals(3000, mSyncEngine.sync());
+
+        assertEquals(0, mSyncEngine.sync());
+        assertEquals("3000", mHeadEnd.getSinceParameters().get(1));
+    }
+
+    @Test
+    public void sync_failedPage_keepsThePagesBeforeIt() throws IOException {
+        addChanges(new FakeCustomerGenerator(42), 0, 12000);
+        mHeadEnd.failAfter(1, 1);
+        try {
+            mSyncEngine.sync();
+            fail("The second page failed, so should the sync");
+        } catch (IOException expected) {
+        }
+        assertEquals(SyncEngine.PAGE_SIZE, countCustomers());
+
+        assertEquals(12000 - SyncEngine.PAGE_SIZE, mSyncEngine.sync());
+        assertEquals(12000, countCustomers());
+    }
+
+    private void addChanges(FakeCustomerGenerator generator, long firstRow, int rowCount) {
+        CustomerBatch batch = FakeCustomerGenerator.newBatch(FakeCustomerGenerator.LOAD_BATCH_ROWS);
+        for (long row = firstRow; row < firstRow + rowCount; row += batch.capacity()) {
+            generator.generate(batch, row,
+                    (int) Math.min(batch.capacity(), firstRow + rowCount - row));
+            mHeadEnd.addChanges(batch);
+        }
+    }
+
+    private int countCustomers() {
+        Cursor cursor = mProvider.query(CustomerEntry.CONTENT_URI,
+                new String[]{CustomerEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One thing to measure, run by a {@link BenchmarkRunner}. Subclasses put the code being measured
+ * in {@link #run()}; anything it needs that shouldn't be timed, like building its input or
+ * resetting a table, goes in {@link #setUp()} and {@link #tearDown()}, which run around every
+ * iteration.
+ * <p>
+ * An iteration may repeat the measured operation several times, for operations too short to time
+ * one by one. Pass the number of operations in an iteration to {@link #operations(long)} and the
+ * results are reported per operation.
+ * <p>
+ * A benchmark is identified in the results by its name and parameters, so results of the same
+ * benchmark can be compared between runs:
+ * <pre>
+ *     runner.run(new Benchmark("query_by_id") {
+ *         protected void run() {
+ *             for (long id : ids) query(id);
+ *         }
+ *     }.param("rows", rows).operations(ids.length));
+ * </pre>
+ */
+public abstract class Benchmark {
+
+    private final String mName;
+
+    private final Map<String, Object> mParams = new LinkedHashMap<>();
+
+    private int mWarmupIterations = 3;
+    private int mIterations = 10;
+
+    private long mOperations = 1;
+
+    /**
+     * @param name The name of the benchmark, unique within its suite
+     */
+    protected Benchmark(String name) {
+        mName = name;
+    }
+
+    /**
+     * Adds a parameter of the benchmark, such as the number of rows in the table.
+     *
+     * @return This benchmark
+     */
+    public Benchmark param(String name, Object value) {
+        mParams.put(name, value);
+        return this;
+    }
+
+    /**
+     * Sets how many times the benchmark runs. The warmup iterations let the JIT compile the
+     * measured code and aren't reported.
+     *
+     * @param warmup   The number of iterations run before measuring, 3 by default
+     * @param measured The number of iterations measured, 10 by default
+     * @return This benchmark
+     */
+    public Benchmark iterations(int warmup, int measured) {
+        if (warmup < 0 || measured < 1) {
+            throw new IllegalArgumentException("Bad iterations: " + warmup + ", " + measured);
+        }
+        mWarmupIterations = warmup;
+        mIterations = measured;
+        return this;
+    }
+
+    /**
+     * @param perIteration The number of operations run by every call of {@link #run()}, 1 by
+     *                     default
+     * @return This benchmark
+     */
+    public Benchmark operations(long perIteration) {
+        if (perIteration < 1) {
+            throw new IllegalArgumentException("Bad number of operations: " + perIteration);
+        }
+        mOperations = perIteration;
+        return this;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Map<String, Object> getParams() {
+        return Collections.unmodifiableMap(mParams);
+    }
+
+    public int getWarmupIterations() {
+        return mWarmupIterations;
+    }
+
+    public int getIterations() {
+        return mIterations;
+    }
+
+    public long getOperations() {
+        return mOperations;
+    }
+
+    /**
+     * Called before every iteration, warmup included. Not timed.
+     */
+    protected void setUp() throws Exception {
+    }
+
+    /**
+     * The code being measured.
+     */
+    protected abstract void run() throws Exception;
+
+    /**
+     * Called after every iteration, even when it failed. Not timed.
+     */
+    protected void tearDown() throws Exception {
+    }
+}
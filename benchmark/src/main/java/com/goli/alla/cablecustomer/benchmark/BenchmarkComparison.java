@@ -0,0 +1,151 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares the results of two benchmark runs, typically the last release against the current
+ * tree, benchmark by benchmark on their median time per operation:
+ * <pre>
+ *     BenchmarkComparison baseline current [thresholdPercent]
+ * </pre>
+ * Both baseline and current are a results file written by {@link BenchmarkRunner} or a directory
+ * of them. A benchmark counts as a regression when its median got slower by more than the
+ * threshold, 10% by default; the program then exits with status 1, so it can fail a build.
+ * Benchmarks found in only one of the runs are listed but don't fail the comparison.
+ */
+public class BenchmarkComparison {
+
+    static final double DEFAULT_THRESHOLD_PERCENT = 10;
+
+    private final Map<String, BenchmarkResult> mBaseline;
+    private final Map<String, BenchmarkResult> mCurrent;
+
+    private final double mThresholdPercent;
+
+    BenchmarkComparison(Map<String, BenchmarkResult> baseline,
+                        Map<String, BenchmarkResult> current, double thresholdPercent) {
+        mBaseline = baseline;
+        mCurrent = current;
+        mThresholdPercent = thresholdPercent;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: BenchmarkComparison baseline current [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length == 3
+                ? Double.parseDouble(args[2])
+                : DEFAULT_THRESHOLD_PERCENT;
+        BenchmarkComparison comparison = new BenchmarkComparison(
+                readResults(new File(args[0])), readResults(new File(args[1])), threshold);
+        int regressions = comparison.print(System.out);
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    /**
+     * Prints the change of every benchmark, sorted by key.
+     *
+     * @return The number of regressions
+     */
+    int print(PrintStream out) {
+        int regressions = 0;
+        out.println(String.format(Locale.US, "%-60s %12s %12s %8s",
+                "benchmark", "baseline", "current", "change"));
+        for (Map.Entry<String, BenchmarkResult> entry : mCurrent.entrySet()) {
+            BenchmarkResult current = entry.getValue();
+            BenchmarkResult baseline = mBaseline.get(entry.getKey());
+            if (baseline == null) {
+                out.println(String.format(Locale.US, "%-60s %12s %12s %8s",
+                        entry.getKey(), "-",
+                        BenchmarkResult.formatNanos(current.getMedianNanos()), "new"));
+                continue;
+            }
+            double changePercent = changePercent(baseline, current);
+            boolean regression = changePercent > mThresholdPercent;
+            if (regression) regressions++;
+            out.println(String.format(Locale.US, "%-60s %12s %12s %+7.1f%%%s",
+                    entry.getKey(),
+                    BenchmarkResult.formatNanos(baseline.getMedianNanos()),
+                    BenchmarkResult.formatNanos(current.getMedianNanos()),
+                    changePercent,
+                    regression ? "  REGRESSION" : ""));
+        }
+        for (String key : mBaseline.keySet()) {
+            if (!mCurrent.containsKey(key)) {
+                out.println(String.format(Locale.US, "%-60s %12s %12s %8s",
+                        key, BenchmarkResult.formatNanos(mBaseline.get(key).getMedianNanos()),
+                        "-", "gone"));
+            }
+        }
+        out.println(regressions == 0
+                ? "No regressions above " + mThresholdPercent + "%"
+                : regressions + " regression(s) above " + mThresholdPercent + "%");
+        return regressions;
+    }
+
+    /**
+     * @return How much slower current is than baseline, in percent; negative when faster
+     */
+    static double changePercent(BenchmarkResult baseline, BenchmarkResult current) {
+        if (baseline.getMedianNanos() == 0) return 0;
+        return (current.getMedianNanos() / baseline.getMedianNanos() - 1) * 100;
+    }
+
+    /**
+     * Reads a results file, or every results file of a directory.
+     *
+     * @return The results by key
+     */
+    static Map<String, BenchmarkResult> readResults(File file) throws IOException {
+        List<File> files = new ArrayList<>();
+        if (file.isDirectory()) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    if (child.getName().endsWith(".json")) files.add(child);
+                }
+            }
+        } else if (file.isFile()) {
+            files.add(file);
+        } else {
+            throw new IOException("No benchmark results at " + file);
+        }
+
+        Map<String, BenchmarkResult> results = new TreeMap<>();
+        for (File resultsFile : files) {
+            Reader reader = new InputStreamReader(new FileInputStream(resultsFile),
+                    BenchmarkRunner.UTF_8);
+            try {
+                JsonObject json = new JsonParser().parse(reader).getAsJsonObject();
+                String suite = json.get("suite").getAsString();
+                for (JsonElement benchmark : json.getAsJsonArray("benchmarks")) {
+                    BenchmarkResult result =
+                            BenchmarkResult.fromJson(suite, benchmark.getAsJsonObject());
+                    results.put(result.getKey(), result);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed benchmark results in " + resultsFile, e);
+            } finally {
+                reader.close();
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,205 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The timings of one benchmark, in nanoseconds per operation, summed up over its measured
+ * iterations. The median is the figure to compare: unlike the mean it isn't pulled up by the odd
+ * iteration that got a garbage collection or a context switch.
+ */
+public class BenchmarkResult {
+
+    private final String mSuite;
+    private final String mName;
+    private final JsonObject mParams;
+
+    private final int mIterations;
+    private final long mOperations;
+
+    private final double mMin;
+    private final double mMedian;
+    private final double mP90;
+    private final double mMax;
+    private final double mMean;
+    private final double mStdDev;
+
+    private BenchmarkResult(String suite, String name, JsonObject params, int iterations,
+                            long operations, double min, double median, double p90, double max,
+                            double mean, double stdDev) {
+        mSuite = suite;
+        mName = name;
+        mParams = params;
+        mIterations = iterations;
+        mOperations = operations;
+        mMin = min;
+        mMedian = median;
+        mP90 = p90;
+        mMax = max;
+        mMean = mean;
+        mStdDev = stdDev;
+    }
+
+    /**
+     * @param suite          The suite the benchmark belongs to
+     * @param benchmark      The benchmark that was run
+     * @param iterationNanos The duration of each measured iteration
+     */
+    static BenchmarkResult of(String suite, Benchmark benchmark, long[] iterationNanos) {
+        JsonObject params = new JsonObject();
+        for (Map.Entry<String, Object> param : benchmark.getParams().entrySet()) {
+            Object value = param.getValue();
+            if (value instanceof Number) {
+                params.addProperty(param.getKey(), (Number) value);
+            } else if (value instanceof Boolean) {
+                params.addProperty(param.getKey(), (Boolean) value);
+            } else {
+                params.addProperty(param.getKey(), String.valueOf(value));
+            }
+        }
+
+        long operations = benchmark.getOperations();
+        double[] perOperation = new double[iterationNanos.length];
+        double sum = 0;
+        for (int i = 0; i < iterationNanos.length; i++) {
+            perOperation[i] = (double) iterationNanos[i] / operations;
+            sum += perOperation[i];
+        }
+        Arrays.sort(perOperation);
+        int n = perOperation.length;
+        double mean = sum / n;
+        double squares = 0;
+        for (double value : perOperation) {
+            squares += (value - mean) * (value - mean);
+        }
+        double median = n % 2 == 1
+                ? perOperation[n / 2]
+                : (perOperation[n / 2 - 1] + perOperation[n / 2]) / 2;
+        double p90 = perOperation[Math.min(n - 1, (int) Math.ceil(0.9 * n) - 1)];
+
+        return new BenchmarkResult(suite, benchmark.getName(), params, n, operations,
+                perOperation[0], median, p90, perOperation[n - 1], mean,
+                n > 1 ? Math.sqrt(squares / (n - 1)) : 0);
+    }
+
+    /**
+     * Identifies the benchmark across runs, like "CustomerProviderBenchmark/insert{rows=1000}".
+     */
+    public String getKey() {
+        StringBuilder key = new StringBuilder(mSuite).append('/').append(mName);
+        if (mParams.size() > 0) {
+            key.append('{');
+            boolean first = true;
+            for (Map.Entry<String, JsonElement> param : mParams.entrySet()) {
+                if (!first) key.append(", ");
+                key.append(param.getKey()).append('=').append(param.getValue().getAsString());
+                first = false;
+            }
+            key.append('}');
+        }
+        return key.toString();
+    }
+
+    public String getSuite() {
+        return mSuite;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getIterations() {
+        return mIterations;
+    }
+
+    public long getOperations() {
+        return mOperations;
+    }
+
+    public double getMinNanos() {
+        return mMin;
+    }
+
+    public double getMedianNanos() {
+        return mMedian;
+    }
+
+    public double getP90Nanos() {
+        return mP90;
+    }
+
+    public double getMaxNanos() {
+        return mMax;
+    }
+
+    public double getMeanNanos() {
+        return mMean;
+    }
+
+    public double getStdDevNanos() {
+        return mStdDev;
+    }
+
+    /**
+     * @return Operations per second at the median time
+     */
+    public double getOpsPerSecond() {
+        return mMedian == 0 ? 0 : 1e9 / mMedian;
+    }
+
+    JsonObject toJson() {
+        JsonObject nanos = new JsonObject();
+        nanos.addProperty("min", mMin);
+        nanos.addProperty("median", mMedian);
+        nanos.addProperty("p90", mP90);
+        nanos.addProperty("max", mMax);
+        nanos.addProperty("mean", mMean);
+        nanos.addProperty("stddev", mStdDev);
+
+        JsonObject json = new JsonObject();
+        json.addProperty("name", mName);
+        json.add("params", mParams);
+        json.addProperty("iterations", mIterations);
+        json.addProperty("operations", mOperations);
+        json.add("nanosPerOperation", nanos);
+        json.addProperty("opsPerSecond", getOpsPerSecond());
+        return json;
+    }
+
+    static BenchmarkResult fromJson(String suite, JsonObject json) {
+        JsonObject nanos = json.getAsJsonObject("nanosPerOperation");
+        JsonObject params = json.has("params") ? json.getAsJsonObject("params") : new JsonObject();
+        return new BenchmarkResult(suite,
+                json.get("name").getAsString(),
+                params,
+                json.get("iterations").getAsInt(),
+                json.get("operations").getAsLong(),
+                nanos.get("min").getAsDouble(),
+                nanos.get("median").getAsDouble(),
+                nanos.get("p90").getAsDouble(),
+                nanos.get("max").getAsDouble(),
+                nanos.get("mean").getAsDouble(),
+                nanos.get("stddev").getAsDouble());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s: median %s/op (min %s, p90 %s, %d x %d ops)",
+                getKey(), formatNanos(mMedian), formatNanos(mMin), formatNanos(mP90),
+                mIterations, mOperations);
+    }
+
+    /**
+     * @return The duration in the most readable unit, like "12.3us"
+     */
+    static String formatNanos(double nanos) {
+        if (nanos >= 1e9) return String.format(Locale.US, "%.2fs", nanos / 1e9);
+        if (nanos >= 1e6) return String.format(Locale.US, "%.2fms", nanos / 1e6);
+        if (nanos >= 1e3) return String.format(Locale.US, "%.2fus", nanos / 1e3);
+        return String.format(Locale.US, "%.1fns", nanos);
+    }
+}
@@ -0,0 +1,164 @@
+package com.goli.alla.cablecustomer.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Runs the benchmarks of a suite and writes their results to a JSON file, which
+ * {@link BenchmarkComparison} compares with the results of another run:
+ * <pre>
+ *     {
+ *       "suite": "CustomerProviderBenchmark",
+ *       "label": "1.0",
+ *       "time": "2018-01-20T10:15:30Z",
+ *       "environment": { "java.vm.name": "...", "os.arch": "amd64", "processors": 8, ... },
+ *       "benchmarks": [
+ *         {
+ *           "name": "insert",
+ *           "params": { "rows": 1000 },
+ *           "iterations": 10,
+ *           "operations": 100,
+ *           "nanosPerOperation": { "min": ..., "median": ..., "p90": ..., ... },
+ *           "opsPerSecond": ...
+ *         }
+ *       ]
+ *     }
+ * </pre>
+ * The results go to the directory in the {@link #PROPERTY_OUTPUT_DIR} system property, which the
+ * app's build points at app/build/benchmarks.
+ * <p>
+ * To keep runs repeatable, every iteration starts from a collected heap, and a benchmark is
+ * always run the number of times it asks for rather than for a length of time.
+ */
+public class BenchmarkRunner {
+
+    /** System property naming the directory the results are written to. */
+    public static final String PROPERTY_OUTPUT_DIR = "benchmark.outputDir";
+
+    /** System property with a label for the results, such as the version being measured. */
+    public static final String PROPERTY_LABEL = "benchmark.label";
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mSuite;
+
+    private final List<BenchmarkResult> mResults = new ArrayList<>();
+
+    /**
+     * @param suite The name of the suite, usually the simple name of the test class
+     */
+    public BenchmarkRunner(String suite) {
+        mSuite = suite;
+    }
+
+    /**
+     * Runs a benchmark: its warmup iterations, then its measured ones. The result is printed and
+     * kept for {@link #writeResults(String)}.
+     *
+     * @return The result
+     * @throws Exception whatever the benchmark threw
+     */
+    public BenchmarkResult run(Benchmark benchmark) throws Exception {
+        int warmup = benchmark.getWarmupIterations();
+        long[] iterationNanos = new long[benchmark.getIterations()];
+        for (int i = 0; i < warmup + iterationNanos.length; i++) {
+            benchmark.setUp();
+            /* Garbage left by setUp or an earlier iteration shouldn't be collected on our time. */
+            collectGarbage();
+            try {
+                long startNanos = System.nanoTime();
+                benchmark.run();
+                long elapsedNanos = System.nanoTime() - startNanos;
+                if (i >= warmup) iterationNanos[i - warmup] = elapsedNanos;
+            } finally {
+                benchmark.tearDown();
+            }
+        }
+
+        BenchmarkResult result = BenchmarkResult.of(mSuite, benchmark, iterationNanos);
+        mResults.add(result);
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * @return The results of the benchmarks run so far
+     */
+    public List<BenchmarkResult> getResults() {
+        return Collections.unmodifiableList(mResults);
+    }
+
+    /**
+     * Writes the results of the benchmarks run so far to fileName in the output directory,
+     * replacing the file if it exists.
+     *
+     * @param fileName The name of the file, usually the suite's name followed by its parameters,
+     *                 like "CustomerProviderBenchmark-rows=1000.json"
+     * @return The file written
+     */
+    public File writeResults(String fileName) throws IOException {
+        File outputDir = new File(System.getProperty(PROPERTY_OUTPUT_DIR, "build/benchmarks"));
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Can't create " + outputDir);
+        }
+
+        JsonObject environment = new JsonObject();
+        environment.addProperty("java.vm.name", System.getProperty("java.vm.name"));
+        environment.addProperty("java.version", System.getProperty("java.version"));
+        environment.addProperty("os.name", System.getProperty("os.name"));
+        environment.addProperty("os.arch", System.getProperty("os.arch"));
+        environment.addProperty("processors", Runtime.getRuntime().availableProcessors());
+        environment.addProperty("maxMemory", Runtime.getRuntime().maxMemory());
+
+        JsonArray benchmarks = new JsonArray();
+        for (BenchmarkResult result : mResults) {
+            benchmarks.add(result.toJson());
+        }
+
+        SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        JsonObject json = new JsonObject();
+        json.addProperty("suite", mSuite);
+        json.addProperty("label", System.getProperty(PROPERTY_LABEL, ""));
+        json.addProperty("time", isoFormat.format(new Date()));
+        json.add("environment", environment);
+        json.add("benchmarks", benchmarks);
+
+        File file = new File(outputDir, fileName);
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            gson.toJson(json, writer);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    /*
+     * System.gc() is only a hint; running it until finalizers are done and then once more gets
+     * the heap close enough to the same state before every iteration.
+     */
+    private static void collectGarbage() {
+        System.gc();
+        System.runFinalization();
+        System.gc();
+    }
+}